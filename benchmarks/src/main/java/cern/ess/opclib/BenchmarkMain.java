@@ -0,0 +1,43 @@
+package cern.ess.opclib;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per caller thread count with the GC profiler
+ * (allocations per operation: gc.alloc.rate.norm) and writes one JSON result
+ * file per thread count.
+ *
+ * usage: java -jar benchmarks.jar [benchmark regexp] [comma separated thread counts]
+ * e.g.   java -jar benchmarks.jar OPCClientRoundTrip 1,8,64
+ *
+ * Plain JMH command line: java -cp benchmarks.jar org.openjdk.jmh.Main
+ */
+public class BenchmarkMain
+{
+	private static final String DEFAULT_INCLUDE = "cern\\.ess\\.opclib\\..*Benchmark";
+	private static final String DEFAULT_THREADS = "1,2,4,8,16,32,64";
+
+	public static void main(String[] args) throws RunnerException
+	{
+		String include = args.length > 0 ? args[0] : DEFAULT_INCLUDE;
+		String[] threadCounts = (args.length > 1 ? args[1] : DEFAULT_THREADS).split(",");
+
+		for(String threadCount : threadCounts)
+		{
+			int threads = Integer.parseInt(threadCount.trim());
+			ChainedOptionsBuilder options = new OptionsBuilder()
+				.include(include)
+				.threads(threads)
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result("jmh-result-threads-"+threads+".json");
+
+			new Runner(options.build()).run();
+		}
+	}
+}
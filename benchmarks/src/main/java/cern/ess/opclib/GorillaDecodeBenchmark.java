@@ -0,0 +1,111 @@
+package cern.ess.opclib;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cern.ess.opclib.historian.GorillaBlock;
+import cern.ess.opclib.historian.GorillaEncoder;
+
+/**
+ * Decode (and encode) throughput of historian blocks in samples per
+ * microsecond, for a slowly changing, a noisy and a constant float signal.
+ * The bytes per sample are checked by GorillaEncoderTest, not here: JMH
+ * owns the output, and its counters measure events per run, not sizes.
+ *
+ * Single threaded - run with: java -jar benchmarks.jar GorillaDecode 1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GorillaDecodeBenchmark
+{
+	private static final int SAMPLES = 4096;
+
+	public enum Signal { SLOW, NOISY, CONSTANT }
+
+	@Param({"SLOW", "NOISY", "CONSTANT"})
+	public Signal signal;
+
+	private long[] timestamps;
+	private int[] values;
+	private GorillaBlock block;
+	private long[] decodedTimestamps;
+	private int[] decodedValues;
+
+	@Setup(Level.Trial)
+	public void encode()
+	{
+		Random random = new Random(42);
+		timestamps = new long[SAMPLES];
+		values = new int[SAMPLES];
+		for(int i=0; i<SAMPLES; i++)
+		{
+			timestamps[i] = 1700000000000L + i * 1000L + (random.nextInt(20) == 0 ? random.nextInt(50) : 0);
+			float value;
+			switch(signal)
+			{
+				case SLOW:
+					value = 20.0f + Math.round(4 * Math.sin(i / 600.0)) / 4.0f;
+					break;
+				case NOISY:
+					value = 20.0f + (float)random.nextGaussian();
+					break;
+				default:
+					value = 20.0f;
+					break;
+			}
+			values[i] = Float.floatToRawIntBits(value);
+		}
+
+		GorillaEncoder encoder = encoder();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(encoder.getEncodedBytes());
+		encoder.writeTo(buffer);
+		block = new GorillaBlock(buffer, 0);
+		decodedTimestamps = new long[SAMPLES];
+		decodedValues = new int[SAMPLES];
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public int[] decode()
+	{
+		block.decodeTimestamps(decodedTimestamps);
+		block.decodeValueBits(decodedValues);
+		return decodedValues;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public int encodeBlock()
+	{
+		return encoder().getEncodedBytes();
+	}
+
+	private GorillaEncoder encoder()
+	{
+		GorillaEncoder encoder = new GorillaEncoder(OPCValueType.FLOAT);
+		for(int i=0; i<SAMPLES; i++)
+		{
+			encoder.append(timestamps[i], values[i]);
+		}
+		return encoder;
+	}
+}
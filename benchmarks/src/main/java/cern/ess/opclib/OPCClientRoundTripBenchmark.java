@@ -0,0 +1,114 @@
+package cern.ess.opclib;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cern.ess.opclib.clientThread.OPCWaitStrategy;
+
+/**
+ * Round trip (caller -> request queue -> CommandExecutor -> response queue ->
+ * caller) of every read and write command through a real OPCClient against
+ * MockOpcApiImpl, i.e. the cost of the client pipeline itself without any
+ * native/server time.
+ *
+ * Caller thread count is set per run (-t, BenchmarkMain runs 1 to 64);
+ * run with -prof gc to get allocations per operation.
+ *
+ * waitStrategy shows what spinning buys: busy-spin and spin-yield-park
+ * trade a core per waiting thread (executor and callers) for lower round
+ * trip latency - with more caller threads than cores spinning loses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OPCClientRoundTripBenchmark
+{
+	private static final String BOOLEAN_ITEM = "bench.myBool";
+	private static final String INT_ITEM = "bench.myLongInt";
+	private static final String FLOAT_ITEM = "bench.myBigFloat";
+	private static final String STRING_ITEM = "bench.myString";
+
+	public enum Operation
+	{
+		readBoolean, readInt, readFloat, readString, writeBoolean, writeInt, writeFloat, writeString
+	}
+
+	@Param({"readBoolean", "readInt", "readFloat", "readString", "writeBoolean", "writeInt", "writeFloat", "writeString"})
+	public Operation operation;
+
+	@Param({"blocking", "spin-yield-park", "busy-spin"})
+	public String waitStrategy;
+
+	private OPCClient client;
+
+	@Setup(Level.Trial)
+	public void startClient() throws OPCException
+	{
+		MockOpcApiImpl mockOpcApi = new MockOpcApiImpl();
+		mockOpcApi.setRecordRequestedItems(false);
+		mockOpcApi.getOpcItemValues().put(BOOLEAN_ITEM, Boolean.TRUE);
+		mockOpcApi.getOpcItemValues().put(INT_ITEM, Integer.valueOf(42));
+		mockOpcApi.getOpcItemValues().put(FLOAT_ITEM, Float.valueOf(4.2f));
+		mockOpcApi.getOpcItemValues().put(STRING_ITEM, "forty two");
+
+		client = new OPCClient(mockOpcApi);
+		client.setWaitStrategy(OPCWaitStrategy.fromName(waitStrategy));
+		client.start();
+		client.init("", "benchmark");
+	}
+
+	@TearDown(Level.Trial)
+	public void stopClient() throws Exception
+	{
+		client.stop();
+	}
+
+	@Benchmark
+	public void roundTrip(Blackhole blackhole) throws OPCException
+	{
+		switch(operation)
+		{
+			case readBoolean:
+				blackhole.consume(client.readBoolean(BOOLEAN_ITEM));
+				break;
+			case readInt:
+				blackhole.consume(client.readInt(INT_ITEM));
+				break;
+			case readFloat:
+				blackhole.consume(client.readFloat(FLOAT_ITEM));
+				break;
+			case readString:
+				blackhole.consume(client.readString(STRING_ITEM));
+				break;
+			case writeBoolean:
+				client.writeBoolean(BOOLEAN_ITEM, true);
+				break;
+			case writeInt:
+				client.writeInt(INT_ITEM, "I4", 42);
+				break;
+			case writeFloat:
+				client.writeFloat(FLOAT_ITEM, "R4", 4.2f);
+				break;
+			case writeString:
+				client.writeString(STRING_ITEM, "forty two");
+				break;
+		}
+	}
+}
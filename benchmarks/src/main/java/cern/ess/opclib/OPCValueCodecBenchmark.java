@@ -0,0 +1,125 @@
+package cern.ess.opclib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encode and decode throughput of OPCValueCodec records in records per
+ * microsecond, float and string values into a direct buffer, against Java
+ * serialization of the same (item, timestamp, value) as the baseline. The
+ * GC profiler of BenchmarkMain shows the codec allocating nothing.
+ *
+ * Single threaded - run with: java -jar benchmarks.jar OPCValueCodec 1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class OPCValueCodecBenchmark
+{
+	private static final int RECORDS = 1024;
+
+	public enum Value { FLOAT, STRING }
+
+	@Param({"FLOAT", "STRING"})
+	public Value value;
+
+	private final OPCValueCodec codec = new OPCValueCodec();
+	private ByteBuffer buffer;
+	private float[] floats;
+	private String[] strings;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		floats = new float[RECORDS];
+		strings = new String[RECORDS];
+		for(int i=0; i<RECORDS; i++)
+		{
+			floats[i] = 20.0f + i / 100.0f;
+			strings[i] = "state_"+i;
+		}
+		buffer = ByteBuffer.allocateDirect(RECORDS * OPCValueCodec.stringRecordBytes(strings[RECORDS-1]));
+		encode();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public int encode()
+	{
+		int offset = 0;
+		for(int i=0; i<RECORDS; i++)
+		{
+			codec.wrap(buffer, offset);
+			if(value == Value.FLOAT)
+			{
+				offset += codec.putFloat(i, 1700000000000L + i, OPCValueCodec.QUALITY_GOOD, floats[i]);
+			}
+			else
+			{
+				offset += codec.putString(i, 1700000000000L + i, OPCValueCodec.QUALITY_GOOD, strings[i]);
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * Strings are compared in place (stringEquals), not decoded.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public long decode()
+	{
+		long sum = 0;
+		codec.wrap(buffer, 0);
+		for(int i=0; i<RECORDS; i++)
+		{
+			sum += codec.getHandle() + codec.getTimestampMillis();
+			if(value == Value.FLOAT)
+			{
+				sum += Float.floatToRawIntBits(codec.getFloat());
+			}
+			else if(codec.stringEquals(strings[i]))
+			{
+				sum++;
+			}
+			codec.next();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public int serialize() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORDS * 64);
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		for(int i=0; i<RECORDS; i++)
+		{
+			out.writeObject(strings[i]);
+			out.writeObject(Long.valueOf(1700000000000L + i));
+			out.writeObject(value == Value.FLOAT ? (Object)Float.valueOf(floats[i]) : strings[i]);
+		}
+		out.close();
+		return bytes.size();
+	}
+}
@@ -0,0 +1,115 @@
+package cern.ess.opclib;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The OPCClient topology (many callers, one executor thread, a request queue
+ * and a response queue per caller) with a no-op executor, for comparing the
+ * queue implementation used for the hand offs.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestQueueHandoffBenchmark
+{
+	public enum QueueType
+	{
+		SynchronousQueue, ArrayBlockingQueue, LinkedBlockingQueue, LinkedTransferQueue;
+
+		<T> BlockingQueue<T> create(int capacity)
+		{
+			switch(this)
+			{
+				case SynchronousQueue: return new SynchronousQueue<T>();
+				case ArrayBlockingQueue: return new ArrayBlockingQueue<T>(capacity);
+				case LinkedBlockingQueue: return new LinkedBlockingQueue<T>(capacity);
+				default: return new LinkedTransferQueue<T>();
+			}
+		}
+	}
+
+	private static final Object RESPONSE = new Object();
+
+	@State(Scope.Benchmark)
+	public static class Executor
+	{
+		@Param({"SynchronousQueue", "ArrayBlockingQueue", "LinkedBlockingQueue", "LinkedTransferQueue"})
+		public QueueType queueType;
+
+		BlockingQueue<BlockingQueue<Object>> requestQueue;
+		private Thread executorThread;
+
+		@Setup(Level.Trial)
+		public void start()
+		{
+			requestQueue = queueType.create(1024);
+			executorThread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						while(true)
+						{
+							requestQueue.take().put(RESPONSE);
+						}
+					}
+					catch(InterruptedException e)
+					{
+						// tear down
+					}
+				}
+			}, "handoff-executor");
+			executorThread.setDaemon(true);
+			executorThread.start();
+		}
+
+		@TearDown(Level.Trial)
+		public void stop() throws InterruptedException
+		{
+			executorThread.interrupt();
+			executorThread.join(1000);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Caller
+	{
+		BlockingQueue<Object> responseQueue;
+
+		@Setup(Level.Trial)
+		public void createResponseQueue(Executor executor)
+		{
+			responseQueue = executor.queueType.create(1);
+		}
+	}
+
+	@Benchmark
+	public Object roundTrip(Executor executor, Caller caller) throws InterruptedException
+	{
+		executor.requestQueue.put(caller.responseQueue);
+		return caller.responseQueue.take();
+	}
+}
@@ -0,0 +1,150 @@
+package cern.ess.opclib;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import cern.ess.opclib.log.OPCLogger;
+import cern.ess.opclib.simulator.LatencyModel;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+import cern.ess.opclib.simulator.ValueGenerator;
+
+/**
+ * Load test entry point (replaces the old Main / ImprovedOpcThread demo).
+ *
+ * usage: java -jar loadtest.jar [profile.properties] [key=value ...]
+ * e.g.   java -jar loadtest.jar loadtest/profiles/simulator-mixed.properties threads=32 rate=5000
+ *
+ * See LoadTestProfile for the keys and LoadTestRunner for the result files.
+ */
+public class LoadTest
+{
+	private static final OPCLogger LOG = OPCLogger.getLogger(LoadTest.class);
+
+	public static void main(String[] args) throws Exception
+	{
+		LoadTestProfile profile = new LoadTestProfile(loadProperties(args));
+		try
+		{
+			run(profile);
+		}
+		finally
+		{
+			OPCLogger.flush();
+		}
+	}
+
+	public static LoadTestResult run(LoadTestProfile profile) throws Exception
+	{
+		List<LoadTestItem> items = new ArrayList<LoadTestItem>(profile.getItems());
+		OpcApi target;
+		OPCClient client = null;
+		switch(profile.getTarget())
+		{
+			case OPC:
+				// fails here rather than on the first call if the native library is missing
+				target = OPCClientInstance.ready().get();
+				break;
+			case SIMULATOR:
+				client = new OPCClient(createSimulator(profile, items));
+				client.start();
+				target = client;
+				break;
+			default:
+				target = createSimulator(profile, items);
+				break;
+		}
+
+		try
+		{
+			target.init(profile.getHost(), profile.getServer());
+			return new LoadTestRunner(profile, target, items).run();
+		}
+		finally
+		{
+			if(client != null)
+			{
+				client.stop();
+			}
+			else if(profile.getTarget() == LoadTestProfile.Target.OPC)
+			{
+				target.stop();
+			}
+		}
+	}
+
+	/**
+	 * Adds the profile's items to the simulator or, if there are none,
+	 * generates a tag space and adds its items to the list.
+	 */
+	private static SimulatedOpcApi createSimulator(LoadTestProfile profile, List<LoadTestItem> items)
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(profile.getSimulatorSeed());
+		long latencyNanos = TimeUnit.MICROSECONDS.toNanos(profile.getSimulatorLatencyMicros());
+		if(profile.getSimulatorLatencySigma() > 0)
+		{
+			simulator.setLatency(LatencyModel.longTail(latencyNanos, profile.getSimulatorLatencySigma()));
+		}
+		else
+		{
+			simulator.setLatency(LatencyModel.fixed(latencyNanos));
+		}
+		simulator.setErrorProbability(profile.getSimulatorErrorProbability());
+
+		if(items.isEmpty())
+		{
+			for(String name : simulator.generateTagSpace(profile.getSimulatorGroups(), profile.getSimulatorItemsPerGroup()))
+			{
+				items.add(new LoadTestItem(name, simulator.getDataType(name)));
+			}
+		}
+		else
+		{
+			for(LoadTestItem item : items)
+			{
+				simulator.addItem(item.getName(), item.getDataType(), ValueGenerator.constant(0));
+			}
+		}
+		return simulator;
+	}
+
+	private static Properties loadProperties(String[] args) throws IOException
+	{
+		Properties properties = new Properties();
+		for(String arg : args)
+		{
+			int separator = arg.indexOf('=');
+			if(separator > 0)
+			{
+				properties.setProperty(arg.substring(0, separator).trim(), arg.substring(separator+1).trim());
+			}
+			else
+			{
+				Properties fromFile = new Properties();
+				InputStream in = new FileInputStream(arg);
+				try
+				{
+					fromFile.load(in);
+				}
+				finally
+				{
+					in.close();
+				}
+				// command line overrides win regardless of argument order
+				for(String key : fromFile.stringPropertyNames())
+				{
+					if(!properties.containsKey(key))
+					{
+						properties.setProperty(key, fromFile.getProperty(key));
+					}
+				}
+				LOG.info("loaded profile [{}]", arg);
+			}
+		}
+		return properties;
+	}
+}
@@ -0,0 +1,99 @@
+package cern.ess.opclib;
+
+/**
+ * An OPC item the load test reads and writes, with the type needed to pick
+ * the matching read/write call.
+ */
+public class LoadTestItem
+{
+	private final String name;
+	private final OPCDataType dataType;
+
+	public LoadTestItem(String name, OPCDataType dataType)
+	{
+		this.name = name;
+		this.dataType = dataType;
+	}
+
+	/**
+	 * @param definition name:TYPE, e.g. testGroup.myShortInt:I2
+	 */
+	public static LoadTestItem parse(String definition)
+	{
+		int separator = definition.lastIndexOf(':');
+		if(separator <= 0)
+		{
+			throw new IllegalArgumentException("item ["+definition+"] is not of the form name:TYPE");
+		}
+		return new LoadTestItem(definition.substring(0, separator), OPCDataType.valueOf(definition.substring(separator+1).trim().toUpperCase()));
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public OPCDataType getDataType()
+	{
+		return dataType;
+	}
+
+	/**
+	 * Performs one read or write of this item; written values are derived
+	 * from the sequence number so no per operation randomness is needed.
+	 */
+	void access(OpcApi opcApi, boolean write, long sequence) throws OPCException
+	{
+		switch(dataType)
+		{
+			case BOOL:
+				if(write)
+				{
+					opcApi.writeBoolean(name, (sequence & 1) == 0);
+				}
+				else
+				{
+					opcApi.readBoolean(name);
+				}
+				break;
+			case I2:
+			case I4:
+				if(write)
+				{
+					opcApi.writeInt(name, dataType.getWireType(), (int)(sequence % Short.MAX_VALUE));
+				}
+				else
+				{
+					opcApi.readInt(name);
+				}
+				break;
+			case R4:
+			case R8:
+				if(write)
+				{
+					opcApi.writeFloat(name, dataType.getWireType(), sequence * 0.5f);
+				}
+				else
+				{
+					opcApi.readFloat(name);
+				}
+				break;
+			default:
+				if(write)
+				{
+					opcApi.writeString(name, (sequence & 1) == 0 ? "woo" : "waa");
+				}
+				else
+				{
+					opcApi.readString(name);
+				}
+				break;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return name+":"+dataType;
+	}
+}
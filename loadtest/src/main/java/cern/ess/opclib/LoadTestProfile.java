@@ -0,0 +1,236 @@
+package cern.ess.opclib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Workload description for a load test run, read from a properties file
+ * (see loadtest/profiles) with key=value command line overrides.
+ *
+ * Keys (defaults in brackets):
+ * <pre>
+ * name                       run name, prefix of the result files [target]
+ * target                     simulator | simulator-direct | opc [simulator]
+ * host, server               passed to init ["", Simulated.OPC.Server]
+ * threads                    caller threads [4]
+ * rate                       total target rate in operations/s, 0 = closed loop [0]
+ * duration                   measured seconds [30]
+ * warmup                     unmeasured seconds before that [5]
+ * writeRatio                 fraction of operations that are writes [0.2]
+ * items                      comma separated name:TYPE list, e.g. testGroup.myBool:BOOL
+ *                            (simulator targets generate a tag space if empty)
+ * simulator.groups           [10]
+ * simulator.itemsPerGroup    [12]
+ * simulator.latencyMicros    median simulated call latency [200]
+ * simulator.latencySigma     log-normal spread, 0 = fixed latency [0.5]
+ * simulator.errorProbability [0]
+ * simulator.seed             [1]
+ * output                     directory for the result files [loadtest-results]
+ * reportInterval             seconds per interval histogram / csv line [1]
+ * </pre>
+ */
+public class LoadTestProfile
+{
+	public enum Target
+	{
+		/** OPCClient over a SimulatedOpcApi - the full command path against a simulated server */
+		SIMULATOR,
+		/** SimulatedOpcApi called directly - baseline without the client */
+		SIMULATOR_DIRECT,
+		/** the OPCClientInstance singleton over the native OPC library */
+		OPC;
+
+		static Target parse(String value)
+		{
+			return valueOf(value.trim().toUpperCase().replace('-', '_'));
+		}
+	}
+
+	private final String name;
+	private final Target target;
+	private final String host;
+	private final String server;
+	private final int threads;
+	private final double rate;
+	private final int durationSeconds;
+	private final int warmupSeconds;
+	private final double writeRatio;
+	private final List<LoadTestItem> items;
+	private final int simulatorGroups;
+	private final int simulatorItemsPerGroup;
+	private final long simulatorLatencyMicros;
+	private final double simulatorLatencySigma;
+	private final double simulatorErrorProbability;
+	private final long simulatorSeed;
+	private final String outputDirectory;
+	private final int reportIntervalSeconds;
+
+	public LoadTestProfile(Properties properties)
+	{
+		this.target = Target.parse(properties.getProperty("target", "simulator"));
+		this.name = properties.getProperty("name", target.name().toLowerCase().replace('_', '-'));
+		this.host = properties.getProperty("host", "");
+		this.server = properties.getProperty("server", "Simulated.OPC.Server");
+		this.threads = intProperty(properties, "threads", 4, 1);
+		this.rate = doubleProperty(properties, "rate", 0.0, 0.0, Double.MAX_VALUE);
+		this.durationSeconds = intProperty(properties, "duration", 30, 1);
+		this.warmupSeconds = intProperty(properties, "warmup", 5, 0);
+		this.writeRatio = doubleProperty(properties, "writeRatio", 0.2, 0.0, 1.0);
+		this.items = parseItems(properties.getProperty("items", ""));
+		this.simulatorGroups = intProperty(properties, "simulator.groups", 10, 1);
+		this.simulatorItemsPerGroup = intProperty(properties, "simulator.itemsPerGroup", 12, 1);
+		this.simulatorLatencyMicros = intProperty(properties, "simulator.latencyMicros", 200, 0);
+		this.simulatorLatencySigma = doubleProperty(properties, "simulator.latencySigma", 0.5, 0.0, Double.MAX_VALUE);
+		this.simulatorErrorProbability = doubleProperty(properties, "simulator.errorProbability", 0.0, 0.0, 1.0);
+		this.simulatorSeed = Long.parseLong(properties.getProperty("simulator.seed", "1").trim());
+		this.outputDirectory = properties.getProperty("output", "loadtest-results");
+		this.reportIntervalSeconds = intProperty(properties, "reportInterval", 1, 1);
+
+		if(items.isEmpty() && target == Target.OPC)
+		{
+			throw new IllegalArgumentException("items must be configured for target [opc]");
+		}
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public Target getTarget()
+	{
+		return target;
+	}
+
+	public String getHost()
+	{
+		return host;
+	}
+
+	public String getServer()
+	{
+		return server;
+	}
+
+	public int getThreads()
+	{
+		return threads;
+	}
+
+	/**
+	 * @return total target operations per second, 0 for closed loop (every thread as fast as it can)
+	 */
+	public double getRate()
+	{
+		return rate;
+	}
+
+	public boolean isOpenLoop()
+	{
+		return rate > 0;
+	}
+
+	public int getDurationSeconds()
+	{
+		return durationSeconds;
+	}
+
+	public int getWarmupSeconds()
+	{
+		return warmupSeconds;
+	}
+
+	public double getWriteRatio()
+	{
+		return writeRatio;
+	}
+
+	public List<LoadTestItem> getItems()
+	{
+		return items;
+	}
+
+	public int getSimulatorGroups()
+	{
+		return simulatorGroups;
+	}
+
+	public int getSimulatorItemsPerGroup()
+	{
+		return simulatorItemsPerGroup;
+	}
+
+	public long getSimulatorLatencyMicros()
+	{
+		return simulatorLatencyMicros;
+	}
+
+	public double getSimulatorLatencySigma()
+	{
+		return simulatorLatencySigma;
+	}
+
+	public double getSimulatorErrorProbability()
+	{
+		return simulatorErrorProbability;
+	}
+
+	public long getSimulatorSeed()
+	{
+		return simulatorSeed;
+	}
+
+	public String getOutputDirectory()
+	{
+		return outputDirectory;
+	}
+
+	public int getReportIntervalSeconds()
+	{
+		return reportIntervalSeconds;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "name ["+name+"] target ["+target+"] threads ["+threads+"] rate ["+(isOpenLoop() ? rate+"/s" : "closed loop")+
+				"] duration ["+durationSeconds+"s] warmup ["+warmupSeconds+"s] writeRatio ["+writeRatio+"]";
+	}
+
+	private static List<LoadTestItem> parseItems(String value)
+	{
+		List<LoadTestItem> result = new ArrayList<LoadTestItem>();
+		for(String entry : value.split(","))
+		{
+			if(entry.trim().length() > 0)
+			{
+				result.add(LoadTestItem.parse(entry.trim()));
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	private static int intProperty(Properties properties, String key, int defaultValue, int minimum)
+	{
+		String value = properties.getProperty(key);
+		int result = value == null ? defaultValue : Integer.parseInt(value.trim());
+		if(result < minimum)
+		{
+			throw new IllegalArgumentException(key+" ["+result+"] must be at least ["+minimum+"]");
+		}
+		return result;
+	}
+
+	private static double doubleProperty(Properties properties, String key, double defaultValue, double minimum, double maximum)
+	{
+		String value = properties.getProperty(key);
+		double result = value == null ? defaultValue : Double.parseDouble(value.trim());
+		if(result < minimum || result > maximum)
+		{
+			throw new IllegalArgumentException(key+" ["+result+"] must be in range ["+minimum+", "+maximum+"]");
+		}
+		return result;
+	}
+}
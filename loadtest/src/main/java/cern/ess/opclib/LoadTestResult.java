@@ -0,0 +1,85 @@
+package cern.ess.opclib;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Outcome of the measured (post warm-up) part of a load test run. Latencies
+ * are in nanoseconds.
+ */
+public class LoadTestResult
+{
+	private final LoadTestProfile profile;
+	private final Histogram latency;
+	private final Histogram serviceTime;
+	private final long operations;
+	private final long errors;
+	private final double elapsedSeconds;
+
+	LoadTestResult(LoadTestProfile profile, Histogram latency, Histogram serviceTime, long operations, long errors, double elapsedSeconds)
+	{
+		this.profile = profile;
+		this.latency = latency;
+		this.serviceTime = serviceTime;
+		this.operations = operations;
+		this.errors = errors;
+		this.elapsedSeconds = elapsedSeconds;
+	}
+
+	public LoadTestProfile getProfile()
+	{
+		return profile;
+	}
+
+	/**
+	 * @return response times measured from the intended start of each operation (coordinated omission corrected)
+	 */
+	public Histogram getLatency()
+	{
+		return latency;
+	}
+
+	/**
+	 * @return response times measured from the actual start of each operation
+	 */
+	public Histogram getServiceTime()
+	{
+		return serviceTime;
+	}
+
+	public long getOperations()
+	{
+		return operations;
+	}
+
+	public long getErrors()
+	{
+		return errors;
+	}
+
+	public double getElapsedSeconds()
+	{
+		return elapsedSeconds;
+	}
+
+	public double getThroughput()
+	{
+		return elapsedSeconds > 0 ? operations / elapsedSeconds : 0.0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("operations [%d] errors [%d] throughput [%.1f/s] latency p50 [%.1fus] p99 [%.1fus] p99.9 [%.1fus] max [%.1fus] service time p99 [%.1fus]",
+				Long.valueOf(operations), Long.valueOf(errors), Double.valueOf(getThroughput()),
+				micros(latency.getValueAtPercentile(50.0)),
+				micros(latency.getValueAtPercentile(99.0)),
+				micros(latency.getValueAtPercentile(99.9)),
+				micros(latency.getMaxValue()),
+				micros(serviceTime.getValueAtPercentile(99.0)));
+	}
+
+	static Double micros(long nanos)
+	{
+		return Double.valueOf(nanos / 1000.0);
+	}
+}
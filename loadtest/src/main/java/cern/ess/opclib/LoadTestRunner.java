@@ -0,0 +1,279 @@
+package cern.ess.opclib;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import cern.ess.opclib.log.OPCLogger;
+
+/**
+ * Drives one load test run: starts the worker threads, and once the warm-up
+ * is over collects an interval histogram pair (latency, service time) per
+ * report interval until the run ends.
+ *
+ * Files written to the profile's output directory:
+ * <pre>
+ * [name]-latency.hlog        interval histograms, coordinated omission corrected (HdrHistogram log format)
+ * [name]-service-time.hlog   interval histograms, uncorrected
+ * [name]-intervals.csv       throughput and percentiles per interval
+ * [name]-latency.hgrm        full percentile distribution of the run, in microseconds
+ * summary.csv                one line appended per run, for comparing runs
+ * </pre>
+ */
+public class LoadTestRunner
+{
+	private static final OPCLogger LOG = OPCLogger.getLogger(LoadTestRunner.class);
+
+	private static final int SIGNIFICANT_DIGITS = 3;
+	private static final long START_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long WORKER_JOIN_TIMEOUT_MS = 10000;
+	private static final String SUMMARY_FILE = "summary.csv";
+
+	private final LoadTestProfile profile;
+	private final OpcApi opcApi;
+	private final List<LoadTestItem> items;
+
+	/**
+	 * @param opcApi an initialised target
+	 * @param items the items to access (the profile's, or those generated in a simulator)
+	 */
+	public LoadTestRunner(LoadTestProfile profile, OpcApi opcApi, List<LoadTestItem> items)
+	{
+		if(items.isEmpty())
+		{
+			throw new IllegalArgumentException("no items to access");
+		}
+		this.profile = profile;
+		this.opcApi = opcApi;
+		this.items = items;
+	}
+
+	public LoadTestResult run() throws IOException, InterruptedException
+	{
+		File outputDirectory = new File(profile.getOutputDirectory());
+		if(!outputDirectory.isDirectory() && !outputDirectory.mkdirs())
+		{
+			throw new IOException("failed to create output directory ["+outputDirectory+"]");
+		}
+
+		Recorder latencyRecorder = new Recorder(LoadTestWorker.HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+		Recorder serviceTimeRecorder = new Recorder(LoadTestWorker.HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+		AtomicLong operations = new AtomicLong();
+		AtomicLong errors = new AtomicLong();
+
+		long startNanos = System.nanoTime() + START_DELAY_NANOS;
+		long measurementStartNanos = startNanos + TimeUnit.SECONDS.toNanos(profile.getWarmupSeconds());
+		long endNanos = measurementStartNanos + TimeUnit.SECONDS.toNanos(profile.getDurationSeconds());
+		long workerIntervalNanos = profile.isOpenLoop() ? (long)(profile.getThreads() * 1e9 / profile.getRate()) : 0;
+
+		LOG.info("starting load test - {}", profile);
+		List<Thread> workers = new ArrayList<Thread>(profile.getThreads());
+		for(int i=0; i<profile.getThreads(); i++)
+		{
+			// stagger the workers' schedules so the open loop arrivals are evenly spaced
+			long firstOperationNanos = startNanos + workerIntervalNanos * i / profile.getThreads();
+			Thread worker = new Thread(new LoadTestWorker(opcApi, items, profile.getWriteRatio(), profile.getSimulatorSeed() + i,
+					firstOperationNanos, workerIntervalNanos, measurementStartNanos, endNanos,
+					latencyRecorder, serviceTimeRecorder, operations, errors), "loadtest-worker-"+i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+
+		// nothing is recorded before measurementStartNanos - warm-up operations are dropped by the workers
+		sleepUntil(measurementStartNanos);
+		LOG.info("warm-up done, measuring for [{}s]", Integer.valueOf(profile.getDurationSeconds()));
+
+		Histogram latency = new Histogram(LoadTestWorker.HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+		Histogram serviceTime = new Histogram(LoadTestWorker.HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+		IntervalWriter intervalWriter = new IntervalWriter(outputDirectory, profile.getName());
+		try
+		{
+			long reportIntervalNanos = TimeUnit.SECONDS.toNanos(profile.getReportIntervalSeconds());
+			long nextReportNanos = measurementStartNanos + reportIntervalNanos;
+			long reportedErrors = 0;
+			while(nextReportNanos < endNanos)
+			{
+				sleepUntil(nextReportNanos);
+				long totalErrors = errors.get();
+				intervalWriter.write(latencyRecorder, serviceTimeRecorder, latency, serviceTime,
+						(nextReportNanos - measurementStartNanos) / 1e9, totalErrors - reportedErrors);
+				reportedErrors = totalErrors;
+				nextReportNanos += reportIntervalNanos;
+			}
+
+			sleepUntil(endNanos);
+			joinWorkers(workers);
+			intervalWriter.write(latencyRecorder, serviceTimeRecorder, latency, serviceTime,
+					(System.nanoTime() - measurementStartNanos) / 1e9, errors.get() - reportedErrors);
+		}
+		finally
+		{
+			intervalWriter.close();
+		}
+
+		double elapsedSeconds = (Math.max(System.nanoTime(), endNanos) - measurementStartNanos) / 1e9;
+		LoadTestResult result = new LoadTestResult(profile, latency, serviceTime, operations.get(), errors.get(), elapsedSeconds);
+		writeDistribution(new File(outputDirectory, profile.getName()+"-latency.hgrm"), latency);
+		appendSummary(new File(outputDirectory, SUMMARY_FILE), result);
+		LOG.info("load test done - {}", result);
+		return result;
+	}
+
+	private static void joinWorkers(List<Thread> workers) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + WORKER_JOIN_TIMEOUT_MS;
+		for(Thread worker : workers)
+		{
+			worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+			if(worker.isAlive())
+			{
+				LOG.warn("worker [{}] still busy after the run - interrupting", worker.getName());
+				worker.interrupt();
+			}
+		}
+	}
+
+	private static void sleepUntil(long deadlineNanos) throws InterruptedException
+	{
+		long remaining;
+		while((remaining = deadlineNanos - System.nanoTime()) > 0)
+		{
+			TimeUnit.NANOSECONDS.sleep(remaining);
+		}
+	}
+
+	private static void writeDistribution(File file, Histogram latency) throws FileNotFoundException
+	{
+		PrintStream out = new PrintStream(new FileOutputStream(file));
+		try
+		{
+			latency.outputPercentileDistribution(out, Double.valueOf(1000.0));
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static void appendSummary(File file, LoadTestResult result) throws FileNotFoundException
+	{
+		boolean newFile = !file.exists();
+		PrintStream out = new PrintStream(new FileOutputStream(file, true));
+		try
+		{
+			if(newFile)
+			{
+				out.println("name,target,threads,target_rate_per_s,duration_s,operations,errors,throughput_per_s," +
+						"latency_p50_us,latency_p90_us,latency_p99_us,latency_p999_us,latency_max_us,service_time_p50_us,service_time_p99_us");
+			}
+			LoadTestProfile profile = result.getProfile();
+			Histogram latency = result.getLatency();
+			out.println(String.format(Locale.ROOT, "%s,%s,%d,%.1f,%.3f,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f",
+					profile.getName(), profile.getTarget(), Integer.valueOf(profile.getThreads()), Double.valueOf(profile.getRate()),
+					Double.valueOf(result.getElapsedSeconds()), Long.valueOf(result.getOperations()), Long.valueOf(result.getErrors()),
+					Double.valueOf(result.getThroughput()),
+					LoadTestResult.micros(latency.getValueAtPercentile(50.0)),
+					LoadTestResult.micros(latency.getValueAtPercentile(90.0)),
+					LoadTestResult.micros(latency.getValueAtPercentile(99.0)),
+					LoadTestResult.micros(latency.getValueAtPercentile(99.9)),
+					LoadTestResult.micros(latency.getMaxValue()),
+					LoadTestResult.micros(result.getServiceTime().getValueAtPercentile(50.0)),
+					LoadTestResult.micros(result.getServiceTime().getValueAtPercentile(99.0))));
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * The per interval outputs: two hdr histogram logs and the interval csv.
+	 */
+	private static class IntervalWriter
+	{
+		private final PrintStream latencyLog;
+		private final PrintStream serviceTimeLog;
+		private final HistogramLogWriter latencyLogWriter;
+		private final HistogramLogWriter serviceTimeLogWriter;
+		private final PrintStream csv;
+		private Histogram latencyInterval;
+		private Histogram serviceTimeInterval;
+		/** the recorders' first interval also spans the warm-up - it is cut off here */
+		private final long measurementStartMillis;
+		private double previousElapsedSeconds;
+
+		IntervalWriter(File directory, String name) throws FileNotFoundException
+		{
+			this.latencyLog = new PrintStream(new FileOutputStream(new File(directory, name+"-latency.hlog")));
+			this.serviceTimeLog = new PrintStream(new FileOutputStream(new File(directory, name+"-service-time.hlog")));
+			this.latencyLogWriter = startLog(latencyLog);
+			this.serviceTimeLogWriter = startLog(serviceTimeLog);
+			this.csv = new PrintStream(new FileOutputStream(new File(directory, name+"-intervals.csv")));
+			this.measurementStartMillis = System.currentTimeMillis();
+			csv.println("elapsed_s,operations,errors,throughput_per_s,latency_p50_us,latency_p90_us,latency_p99_us,latency_p999_us,latency_max_us,service_time_p50_us,service_time_p99_us");
+		}
+
+		/**
+		 * Takes the interval histograms (recycling the previous ones), adds them to the totals and writes them out.
+		 *
+		 * @param elapsedSeconds since the end of the warm-up
+		 */
+		void write(Recorder latencyRecorder, Recorder serviceTimeRecorder, Histogram latency, Histogram serviceTime, double elapsedSeconds, long intervalErrors)
+		{
+			latencyInterval = latencyRecorder.getIntervalHistogram(latencyInterval);
+			serviceTimeInterval = serviceTimeRecorder.getIntervalHistogram(serviceTimeInterval);
+			latencyInterval.setStartTimeStamp(Math.max(latencyInterval.getStartTimeStamp(), measurementStartMillis));
+			serviceTimeInterval.setStartTimeStamp(Math.max(serviceTimeInterval.getStartTimeStamp(), measurementStartMillis));
+			latency.add(latencyInterval);
+			serviceTime.add(serviceTimeInterval);
+			latencyLogWriter.outputIntervalHistogram(latencyInterval);
+			serviceTimeLogWriter.outputIntervalHistogram(serviceTimeInterval);
+
+			long count = latencyInterval.getTotalCount();
+			double intervalSeconds = Math.max(0.001, elapsedSeconds - previousElapsedSeconds);
+			previousElapsedSeconds = elapsedSeconds;
+			csv.println(String.format(Locale.ROOT, "%.3f,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f",
+					Double.valueOf(elapsedSeconds), Long.valueOf(count), Long.valueOf(intervalErrors), Double.valueOf(count / intervalSeconds),
+					LoadTestResult.micros(latencyInterval.getValueAtPercentile(50.0)),
+					LoadTestResult.micros(latencyInterval.getValueAtPercentile(90.0)),
+					LoadTestResult.micros(latencyInterval.getValueAtPercentile(99.0)),
+					LoadTestResult.micros(latencyInterval.getValueAtPercentile(99.9)),
+					LoadTestResult.micros(latencyInterval.getMaxValue()),
+					LoadTestResult.micros(serviceTimeInterval.getValueAtPercentile(50.0)),
+					LoadTestResult.micros(serviceTimeInterval.getValueAtPercentile(99.0))));
+			LOG.debug("interval [{}s] operations [{}]", Double.valueOf(elapsedSeconds), Long.valueOf(count));
+		}
+
+		void close()
+		{
+			latencyLogWriter.close();
+			serviceTimeLogWriter.close();
+			latencyLog.close();
+			serviceTimeLog.close();
+			csv.close();
+		}
+
+		private static HistogramLogWriter startLog(PrintStream out)
+		{
+			HistogramLogWriter writer = new HistogramLogWriter(out);
+			long now = System.currentTimeMillis();
+			writer.outputLogFormatVersion();
+			writer.outputStartTime(now);
+			writer.setBaseTime(now);
+			writer.outputLegend();
+			return writer;
+		}
+	}
+}
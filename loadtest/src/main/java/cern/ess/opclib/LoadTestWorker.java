@@ -0,0 +1,120 @@
+package cern.ess.opclib;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Recorder;
+
+/**
+ * One load generating caller thread.
+ *
+ * Open loop (target rate set): operations follow a fixed schedule and each
+ * latency is measured from the time the operation was *meant* to start, so
+ * when the system under test stalls the operations that should have been
+ * issued meanwhile are charged the stall too - the correction for
+ * coordinated omission. A worker that has fallen behind issues its overdue
+ * operations back to back until it has caught up with the schedule.
+ *
+ * Closed loop (no target rate): each operation starts when the previous one
+ * returns and latency equals service time.
+ */
+class LoadTestWorker implements Runnable
+{
+	static final long HIGHEST_TRACKABLE_NANOS = 3600L * 1000000000L;
+
+	private final OpcApi opcApi;
+	private final List<LoadTestItem> items;
+	private final double writeRatio;
+	private final Random random;
+	private final long firstOperationNanos;
+	private final long intervalNanos;
+	private final long measurementStartNanos;
+	private final long endNanos;
+	private final Recorder latency;
+	private final Recorder serviceTime;
+	private final AtomicLong operations;
+	private final AtomicLong errors;
+
+	/**
+	 * @param intervalNanos time between scheduled operations of this worker, 0 for closed loop
+	 */
+	LoadTestWorker(OpcApi opcApi, List<LoadTestItem> items, double writeRatio, long seed,
+			long firstOperationNanos, long intervalNanos, long measurementStartNanos, long endNanos,
+			Recorder latency, Recorder serviceTime, AtomicLong operations, AtomicLong errors)
+	{
+		this.opcApi = opcApi;
+		this.items = items;
+		this.writeRatio = writeRatio;
+		this.random = new Random(seed);
+		this.firstOperationNanos = firstOperationNanos;
+		this.intervalNanos = intervalNanos;
+		this.measurementStartNanos = measurementStartNanos;
+		this.endNanos = endNanos;
+		this.latency = latency;
+		this.serviceTime = serviceTime;
+		this.operations = operations;
+		this.errors = errors;
+	}
+
+	@Override
+	public void run()
+	{
+		boolean openLoop = intervalNanos > 0;
+		long scheduledNanos = firstOperationNanos;
+		long sequence = 0;
+
+		while(!Thread.currentThread().isInterrupted())
+		{
+			long intendedStartNanos = openLoop ? scheduledNanos : System.nanoTime();
+			if(intendedStartNanos >= endNanos)
+			{
+				return;
+			}
+			if(openLoop)
+			{
+				waitUntil(intendedStartNanos);
+			}
+
+			LoadTestItem item = items.get(random.nextInt(items.size()));
+			boolean write = random.nextDouble() < writeRatio;
+
+			long startNanos = System.nanoTime();
+			boolean failed = false;
+			try
+			{
+				item.access(opcApi, write, sequence);
+			}
+			catch(Exception e)
+			{
+				// OPCException (including timeouts and fast fails); anything else counts as an error too
+				failed = true;
+			}
+			long completedNanos = System.nanoTime();
+
+			if(intendedStartNanos >= measurementStartNanos)
+			{
+				latency.recordValue(Math.min(completedNanos - intendedStartNanos, HIGHEST_TRACKABLE_NANOS));
+				serviceTime.recordValue(Math.min(completedNanos - startNanos, HIGHEST_TRACKABLE_NANOS));
+				operations.incrementAndGet();
+				if(failed)
+				{
+					errors.incrementAndGet();
+				}
+			}
+
+			sequence++;
+			scheduledNanos += intervalNanos;
+		}
+	}
+
+	private static void waitUntil(long deadlineNanos)
+	{
+		long remaining;
+		while((remaining = deadlineNanos - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted())
+		{
+			LockSupport.parkNanos(remaining);
+		}
+	}
+}
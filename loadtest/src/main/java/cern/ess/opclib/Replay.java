@@ -0,0 +1,61 @@
+package cern.ess.opclib;
+
+import java.io.File;
+
+import cern.ess.opclib.historian.Historian;
+import cern.ess.opclib.log.OPCLogger;
+import cern.ess.opclib.replay.CommandRecording;
+import cern.ess.opclib.replay.CommandReplayer;
+import cern.ess.opclib.replay.ReplayClock;
+import cern.ess.opclib.replay.ReplayOpcApi;
+import cern.ess.opclib.replay.ReplayResult;
+
+/**
+ * Replays recorded production traffic through an OPCClient backed by the
+ * recorded history - reproducible on a laptop, for comparing versions.
+ *
+ * usage: java -cp loadtest.jar cern.ess.opclib.Replay [command recording] [historian directory] [speed]
+ * e.g.   java -cp loadtest.jar cern.ess.opclib.Replay commands.rec /data/historian 10
+ *
+ * The replay starts where the recording did on the historian's time line;
+ * speed (default 1) scales both the command timing and the history.
+ */
+public class Replay
+{
+	private static final OPCLogger LOG = OPCLogger.getLogger(Replay.class);
+
+	public static void main(String[] args) throws Exception
+	{
+		if(args.length < 2)
+		{
+			System.err.println("usage: Replay [command recording] [historian directory] [speed]");
+			System.exit(1);
+		}
+		try
+		{
+			CommandRecording recording = CommandRecording.read(new File(args[0]));
+			ReplayClock clock = new ReplayClock(recording.getStartMillis(), args.length > 2 ? Double.parseDouble(args[2]) : 1.0);
+			ReplayResult result = run(recording, new Historian(new File(args[1])), clock);
+			LOG.info("replay of [{}] - {}", args[0], result);
+		}
+		finally
+		{
+			OPCLogger.flush();
+		}
+	}
+
+	public static ReplayResult run(CommandRecording recording, Historian history, ReplayClock clock) throws Exception
+	{
+		OPCClient client = new OPCClient(new ReplayOpcApi(history, clock));
+		client.start();
+		try
+		{
+			client.init("replay", ReplayOpcApi.SERVER_NAME);
+			return new CommandReplayer(recording.getCommands(), clock).replay(client);
+		}
+		finally
+		{
+			client.stop();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package cern.ess.opclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cern.ess.opclib.simulator.LatencyModel;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+import cern.ess.opclib.simulator.ValueGenerator;
+
+public class LoadTestRunnerTest 
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private SimulatedOpcApi simulator;
+	private List<LoadTestItem> items;
+	
+	@Before
+	public void setup()
+	{
+		simulator = new SimulatedOpcApi(7);
+		items = Arrays.asList(new LoadTestItem("sim.bool", OPCDataType.BOOL), new LoadTestItem("sim.float", OPCDataType.R8));
+		simulator.addItem("sim.bool", OPCDataType.BOOL, ValueGenerator.toggle(1000000L));
+		simulator.addItem("sim.float", OPCDataType.R8, ValueGenerator.constant(1.5));
+	}
+	
+	@Test
+	public void testOpenLoopRunAchievesTargetRateAndWritesResults() throws Exception
+	{
+		LoadTestResult result = new LoadTestRunner(profile("threads=2", "rate=500", "duration=2", "warmup=0", "name=open"), simulator, items).run();
+		
+		assertEquals(result.getOperations(), result.getLatency().getTotalCount());
+		assertTrue("operations ["+result.getOperations()+"]", result.getOperations() > 900 && result.getOperations() <= 1000);
+		assertEquals(0, result.getErrors());
+		
+		File output = folder.getRoot();
+		assertEquals(result.getOperations(), totalCountInLog(new File(output, "open-latency.hlog")));
+		assertTrue(new File(output, "open-latency.hgrm").length() > 0);
+		assertEquals(3, lines(new File(output, "open-intervals.csv")).size());
+		assertEquals(2, lines(new File(output, "summary.csv")).size());
+	}
+	
+	@Test
+	public void testStallsAreChargedToTheOperationsThatWaited() throws Exception
+	{
+		// one in a hundred calls stalls for 100ms: at 1000/s open loop about a hundred
+		// scheduled operations wait behind each stall, which service time hides
+		simulator.setHangProbability(0.01, 100000000L);
+		simulator.setLatency(LatencyModel.fixed(10000L));
+		
+		LoadTestResult result = new LoadTestRunner(profile("threads=1", "rate=1000", "duration=2", "warmup=0"), simulator, items).run();
+		
+		long correctedP90 = result.getLatency().getValueAtPercentile(90.0);
+		long serviceTimeP90 = result.getServiceTime().getValueAtPercentile(90.0);
+		assertTrue("service time p90 ["+serviceTimeP90+"]", serviceTimeP90 < 5000000L);
+		assertTrue("corrected p90 ["+correctedP90+"]", correctedP90 > 10000000L);
+	}
+	
+	@Test
+	public void testErrorsAreCounted() throws Exception
+	{
+		simulator.setErrorProbability(1.0);
+		
+		LoadTestResult result = new LoadTestRunner(profile("threads=2", "duration=1", "warmup=0", "writeRatio=0.5"), simulator, items).run();
+		
+		assertTrue(result.getOperations() > 0);
+		assertEquals(result.getOperations(), result.getErrors());
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testRealTargetRequiresItems()
+	{
+		profile("target=opc");
+	}
+	
+	private LoadTestProfile profile(String... settings)
+	{
+		Properties properties = new Properties();
+		properties.setProperty("output", folder.getRoot().getPath());
+		for(String setting : settings)
+		{
+			String[] keyValue = setting.split("=", 2);
+			properties.setProperty(keyValue[0], keyValue[1]);
+		}
+		return new LoadTestProfile(properties);
+	}
+	
+	private static long totalCountInLog(File hlog) throws IOException
+	{
+		HistogramLogReader reader = new HistogramLogReader(hlog);
+		long count = 0;
+		while(reader.hasNext())
+		{
+			count += ((Histogram)reader.nextIntervalHistogram()).getTotalCount();
+		}
+		reader.close();
+		return count;
+	}
+	
+	private static List<String> lines(File file) throws IOException
+	{
+		List<String> result = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try
+		{
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				result.add(line);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return result;
+	}
+}
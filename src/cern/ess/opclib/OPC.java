@@ -25,15 +25,11 @@ class OPC
   {
   	try
   	{
-      System.out.println("OPC:Trying to load OPCLib.dll");
-      System.out.println("OPC:Path = " + System.getProperty("java.library.path"));
-      System.loadLibrary("OPCLib");
-      System.out.println("OPC:OPCLib.dll loaded");
+  	  OPCNativeLibrary.load();
   	}
   	catch(UnsatisfiedLinkError ule)
   	{
-  		System.err.println("OPC:Failed to to load OPCLib.dll");
-  		ule.printStackTrace();
+  	  // logged by the loader - the native calls fail with UnsatisfiedLinkError
   	}
   }
 }
@@ -0,0 +1,15 @@
+package cern.ess.opclib;
+
+/**
+ * Thrown without scheduling the command when its item group already has
+ * the maximum number of commands queued or executing.
+ */
+public class OPCBulkheadFullException extends OPCException
+{
+	private static final long serialVersionUID = 1L;
+
+	public OPCBulkheadFullException(String s)
+	{
+		super(s);
+	}
+}
@@ -1,38 +1,120 @@
 package cern.ess.opclib;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import cern.ess.opclib.browse.OPCBrowseIndex;
+import cern.ess.opclib.cache.OPCCachedValue;
+import cern.ess.opclib.cache.OPCValueCache;
+import cern.ess.opclib.cache.OPCWarmStart;
+import cern.ess.opclib.clientThread.OPCBulkheads;
+import cern.ess.opclib.clientThread.OPCCircuitBreaker;
 import cern.ess.opclib.clientThread.OPCCommand;
+import cern.ess.opclib.clientThread.OPCCommandBase;
 import cern.ess.opclib.clientThread.OPCCommandResult;
+import cern.ess.opclib.clientThread.OPCCommandRouter;
+import cern.ess.opclib.clientThread.OPCFairScheduler;
+import cern.ess.opclib.clientThread.OPCCommandType;
+import cern.ess.opclib.clientThread.OPCSlowItemDetector;
+import cern.ess.opclib.clientThread.OPCWaitStrategy;
 import cern.ess.opclib.clientThread.OpcCommandFactory;
+import cern.ess.opclib.clientThread.ReadGroupCommand;
+import cern.ess.opclib.historian.Historian;
+import cern.ess.opclib.jfr.OPCCommandEvent;
+import cern.ess.opclib.jfr.OPCCommandEvents;
+import cern.ess.opclib.jfr.OPCCommandExecutedEvent;
+import cern.ess.opclib.log.OPCLogger;
+import cern.ess.opclib.metrics.OPCClientMetrics;
 
 /**
  * Multithreaded class - starts an internal thread to handle processing
  * commands and also exposes (to external class client threads) methods
  * for scheduling commands for the central processor thread.
+ * 
+ * The processor thread and the OpcApi it calls form a session. A watchdog
+ * checks the session: a native call running longer than the hung call
+ * threshold is failed. Given an OpcApiFactory of independent sessions, the
+ * stuck session (thread and all) is abandoned and a standby session - a
+ * separate OpcApi, initialised on its own thread ahead of time (hot
+ * standby) - takes over the request queue. Given a single OpcApi there is
+ * nothing to take over with: another thread would only queue up behind the
+ * hung call (the native OpcApi's calls are synchronized), so the circuit
+ * breaker is opened instead and commands fail fast until the call returns
+ * and the session is re-initialised. The native OpcApi is always a single
+ * OpcApi - there is one native session per process - so a native call that
+ * never returns takes a process restart.
+ * 
+ * Given independent sessions, commands for items found to be slow (see
+ * OPCSlowItemDetector) go to a second, low priority lane with its own
+ * request queue and session, so they no longer hold up the fast items. A
+ * single OpcApi gets no slow lane: its calls are serialised (the native
+ * one's are synchronized), so a slow call holds up the others whichever
+ * lane it comes from. Per item group bulkheads (see OPCBulkheads) limit
+ * how many callers one device can tie up, with either. With a
+ * fair scheduler set, the lanes are shared between the callers' tenants
+ * (see OPCTenant) by weighted fair queueing instead of first come first
+ * served, optionally with per tenant rate limits.
+ * 
+ * Item data types in the OPCItemCatalog are checked before a read or
+ * write is queued, and let writes leave out the wire type.
+ * 
+ * Read values can be recorded to an embedded Historian. With warm start
+ * enabled the last known values and item names survive a restart (see
+ * OPCWarmStart).
  *  
  * @author bfarnham
  *
  */
-class OPCClient implements OpcApi
+class OPCClient implements OPCTypedApi
 {
-	private int numberOfCommandsProcessed;
+	public static final long DEFAULT_HUNG_CALL_THRESHOLD_MS = 2000;
+	/**
+	 * Items per group read command at most - larger groups take several
+	 * commands, as does a batch that runs past ReadGroupCommand.MAX_BATCH_MS.
+	 */
+	public static final int GROUP_READ_BATCH_SIZE = 64;
+	
+	private final AtomicInteger numberOfCommandsProcessed;
+	private final AtomicInteger sessionCount;
 	private final SynchronousQueue<OPCCommand> requestQueue;
-	private final ExecutorService threadRunner;
-	private Future<Integer> threadResult;
+	private final List<Lane> lanes;
+	private final OpcApiFactory sessionFactory;
+	private final OpcApi sharedSession;
+	private final long hungCallThresholdNanos;
+	private final ScheduledExecutorService watchdog;
 	private final OpcCommandFactory commandFactory;
+	private final OPCCommandRouter router;
+	private final OPCClientMetrics metrics;
+	private final OPCCircuitBreaker circuitBreaker;
+	private final OPCItemCatalog itemCatalog;
 	
-	private boolean initialised = false;
+	private volatile Historian historian;
+	private volatile OPCWarmStart warmStart;
+	private volatile OPCBrowseIndex browseIndex;
+	private volatile OPCWaitStrategy waitStrategy = OPCWaitStrategy.blocking();
+	
+	private volatile boolean initialised = false;
+	/** remembered for re-initialisation after losing the server */
+	private volatile String initHost;
+	private volatile String initServer;
 	
 	private final static int MAX_THREAD_SHUTDOWN_WAIT_MS = 250;
 	
+	private static final OPCLogger LOG = OPCLogger.getLogger(OPCClient.class);
+	
 	/**
 	 * Each thread calling the OPC client has its own response queue (embedded
 	 * in a thread local)
@@ -42,39 +124,265 @@ class OPCClient implements OpcApi
 		@Override
 		protected SynchronousQueue<OPCCommandResult> initialValue() 
 		{
-			System.out.println("Creating a response queue for thread ["+Thread.currentThread().getId()+"]");
+			LOG.debug("Creating a response queue for thread [{}]", Long.valueOf(Thread.currentThread().getId()));
 			return new SynchronousQueue<OPCCommandResult>();
 		};		
 	};
 	
 	public OPCClient(OpcApi opcInterface) 
 	{
-		System.out.println("Creating OPCClient instance");
+		this(opcInterface, OPCCircuitBreaker.DEFAULT_FAILURE_THRESHOLD, OPCCircuitBreaker.DEFAULT_INITIAL_BACKOFF_MS, OPCCircuitBreaker.DEFAULT_MAX_BACKOFF_MS);
+	}
+	
+	/**
+	 * Hot standby: every session gets its own OpcApi from the factory
+	 * 
+	 * @throws IllegalArgumentException if the factory's OpcApis are not independent sessions
+	 */
+	public OPCClient(OpcApiFactory sessionFactory) 
+	{
+		this(sessionFactory, null, DEFAULT_HUNG_CALL_THRESHOLD_MS, OPCCircuitBreaker.DEFAULT_FAILURE_THRESHOLD, OPCCircuitBreaker.DEFAULT_INITIAL_BACKOFF_MS, OPCCircuitBreaker.DEFAULT_MAX_BACKOFF_MS,
+				OPCBulkheads.DEFAULT_MAX_IN_FLIGHT_PER_GROUP, OPCSlowItemDetector.DEFAULT_SLOW_THRESHOLD_MS);
+	}
+	
+	/**
+	 * @param failureThreshold consecutive failures that open the circuit breaker
+	 * @param initialBackoffMs delay before the first reconnect attempt, doubled per failed attempt
+	 * @param maxBackoffMs upper bound of the reconnect delay
+	 */
+	OPCClient(OpcApi opcInterface, int failureThreshold, long initialBackoffMs, long maxBackoffMs) 
+	{
+		this(null, opcInterface, DEFAULT_HUNG_CALL_THRESHOLD_MS, failureThreshold, initialBackoffMs, maxBackoffMs,
+				OPCBulkheads.DEFAULT_MAX_IN_FLIGHT_PER_GROUP, OPCSlowItemDetector.DEFAULT_SLOW_THRESHOLD_MS);
+	}
+	
+	/**
+	 * @param sessionFactory creates an OpcApi per session (independent sessions only), null to share sharedSession between sessions
+	 * @param hungCallThresholdMs native call duration after which the watchdog abandons the session
+	 * @param maxInFlightPerGroup bulkhead size per item group, 0 for no limit
+	 * @param slowItemThresholdMs average native time above which an item moves to the slow lane, 0 for no slow lane - there is none without a session factory
+	 */
+	OPCClient(OpcApiFactory sessionFactory, OpcApi sharedSession, long hungCallThresholdMs, int failureThreshold, long initialBackoffMs, long maxBackoffMs,
+			int maxInFlightPerGroup, long slowItemThresholdMs) 
+	{
+		if(sessionFactory != null && !sessionFactory.createsIndependentSessions())
+		{
+			throw new IllegalArgumentException("the session factory's OpcApis share one session - give the client a single shared OpcApi instead");
+		}
+		LOG.info("Creating OPCClient instance");
 		this.requestQueue = new SynchronousQueue<OPCCommand>();
-		this.commandFactory = new OpcCommandFactory(opcInterface, requestQueue);
-		this.threadRunner = Executors.newFixedThreadPool(1);
-		this.numberOfCommandsProcessed = 0;
+		this.sessionFactory = sessionFactory;
+		this.sharedSession = sharedSession;
+		this.hungCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(hungCallThresholdMs);
+		this.metrics = new OPCClientMetrics();
+		this.circuitBreaker = new OPCCircuitBreaker(failureThreshold, initialBackoffMs, maxBackoffMs, new OPCCircuitBreaker.Reconnector()
+		{
+			@Override
+			public void reconnect() throws OPCException
+			{
+				if(sessionFactory == null && isNativeCallHung())
+				{
+					// the init would only queue up behind the hung call
+					throw new OPCServerUnavailableException("OPC session still stuck in a hung native call");
+				}
+				LOG.info("re-initialising OPC session host [{}] server [{}]", initHost, initServer);
+				commandFactory.createInitCommand(initHost, initServer, threadResponseQueue.get()).scheduleAndWaitForResponse();
+				// the other sessions most likely lost the server too
+				sessionsReinitialised();
+			}
+		}, metrics);
+		
+		this.lanes = new ArrayList<Lane>();
+		lanes.add(new Lane(OPCCommandRouter.Lane.FAST, requestQueue, "opclib-executor-", Thread.NORM_PRIORITY, true));
+		SynchronousQueue<OPCCommand> slowLaneQueue = requestQueue;
+		if(slowItemThresholdMs > 0 && sessionFactory == null)
+		{
+			LOG.info("single OPC session - no slow lane, slow items would hold up the fast ones all the same");
+			slowItemThresholdMs = 0;
+		}
+		if(slowItemThresholdMs > 0)
+		{
+			slowLaneQueue = new SynchronousQueue<OPCCommand>();
+			lanes.add(new Lane(OPCCommandRouter.Lane.SLOW, slowLaneQueue, "opclib-slow-executor-", Thread.MIN_PRIORITY, false));
+		}
+		this.router = new OPCCommandRouter(requestQueue, slowLaneQueue, new OPCBulkheads(maxInFlightPerGroup), 
+				new OPCSlowItemDetector(TimeUnit.MILLISECONDS.toNanos(slowItemThresholdMs), metrics));
+		
+		this.commandFactory = new OpcCommandFactory(sharedSession, requestQueue, metrics, circuitBreaker, router);
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads("opclib-watchdog", Thread.NORM_PRIORITY));
+		this.numberOfCommandsProcessed = new AtomicInteger();
+		this.sessionCount = new AtomicInteger();
+		this.itemCatalog = new OPCItemCatalog();
+	}
+	
+	public OPCClientMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	public OPCCircuitBreaker.State getCircuitState()
+	{
+		return circuitBreaker.getState();
+	}
+	
+	/**
+	 * How the executor threads wait for commands and callers for their
+	 * responses, blocking by default. Call before start().
+	 */
+	public void setWaitStrategy(OPCWaitStrategy waitStrategy)
+	{
+		this.waitStrategy = waitStrategy;
+		commandFactory.setWaitStrategy(waitStrategy);
+	}
+	
+	/**
+	 * Commands are scheduled fairly between tenants by the scheduler (null
+	 * for first come first served); its weights and rate limits can be
+	 * changed at any time.
+	 */
+	public void setFairScheduler(OPCFairScheduler fairScheduler)
+	{
+		router.setFairScheduler(fairScheduler);
+	}
+	
+	public OPCFairScheduler getFairScheduler()
+	{
+		return router.getFairScheduler();
+	}
+	
+	/**
+	 * Successfully read values are recorded to the historian (null to stop recording).
+	 */
+	public void setHistorian(Historian historian)
+	{
+		this.historian = historian;
+	}
+	
+	/**
+	 * Loads the snapshot (if there is one) and checkpoints to it from start()
+	 * on; once initialised, the loaded values are refreshed in the
+	 * background. Call before start().
+	 */
+	public void enableWarmStart(File snapshot, long checkpointIntervalMs)
+	{
+		this.warmStart = new OPCWarmStart(snapshot, checkpointIntervalMs);
+	}
+	
+	/**
+	 * @return the item's last read value - possibly stale (from the snapshot), null if unknown or warm start is not enabled
+	 */
+	public OPCCachedValue getLastKnownValue(String opcItemAddress)
+	{
+		OPCWarmStart cache = warmStart;
+		return cache == null ? null : cache.getCache().get(opcItemAddress);
+	}
+	
+	@Override
+	public OPCItemCatalog getItemCatalog()
+	{
+		return itemCatalog;
+	}
+	
+	@Override
+	public int discoverItemTypes(OPCItemTypeSource source) throws OPCException
+	{
+		int registered = 0;
+		for(String item : fetchItemNames())
+		{
+			OPCDataType dataType = source.getDataType(item);
+			if(dataType != null)
+			{
+				itemCatalog.register(item, dataType);
+				registered++;
+			}
+		}
+		LOG.info("item catalog - types of [{}] items discovered", Integer.valueOf(registered));
+		return registered;
+	}
+	
+	public boolean isSlowItem(String opcItemAddress)
+	{
+		return router.getSlowItemDetector().isSlow(opcItemAddress);
 	}
 	
 	public void start()
 	{
-		threadResult = threadRunner.submit(new CommandExecutor());
+		synchronized(this)
+		{
+			for(Lane lane : lanes)
+			{
+				lane.active = newSession(lane, false);
+				lane.active.activate();
+			}
+		}
+		long periodNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(10), hungCallThresholdNanos / 4);
+		watchdog.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for(Lane lane : lanes)
+				{
+					checkForHungCall(lane);
+				}
+			}
+		}, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+		if(warmStart != null)
+		{
+			warmStart.start();
+		}
 	}
 	
+	/**
+	 * Does not wait for a session stuck in a native call - it is abandoned.
+	 */
 	public int stop() throws InterruptedException, ExecutionException, TimeoutException
 	{	
-		System.out.println("Stopping OPC Client thread...");
-		threadRunner.shutdownNow();
-		requestQueue.clear();
+		LOG.info("Stopping OPC Client thread...");
+		circuitBreaker.shutdown();
+		watchdog.shutdownNow();
+		if(warmStart != null)
+		{
+			warmStart.stop();
+		}
+		
+		List<ExecutorSession> stopping = new ArrayList<ExecutorSession>();
+		synchronized(this)
+		{
+			for(Lane lane : lanes)
+			{
+				if(lane.active != null)
+				{
+					stopping.add(lane.active);
+					lane.active = null;
+				}
+				if(lane.standby != null)
+				{
+					lane.standby.abandon();
+					lane.standby = null;
+				}
+			}
+		}
+		for(Lane lane : lanes)
+		{
+			lane.queue.clear();
+		}
 	
-		int result = -1;
-		Integer objectResult = threadResult.get(MAX_THREAD_SHUTDOWN_WAIT_MS, TimeUnit.MILLISECONDS);
-		if(objectResult != null)
+		for(ExecutorSession session : stopping)
 		{
-			result = objectResult.intValue();
+			session.abandon();
+			try
+			{
+				session.awaitTermination(MAX_THREAD_SHUTDOWN_WAIT_MS);
+			}
+			catch(TimeoutException e)
+			{
+				LOG.warn("session [{}] still in native call [{}] - abandoned", Integer.valueOf(session.id), session.currentCommand);
+			}
 		}
 		
-		System.out.println("command queue consumer task stopped - processed ["+result+"] commands");
+		int result = numberOfCommandsProcessed.get();
+		LOG.info("command queue consumer task stopped - processed [{}] commands", Integer.valueOf(result));
 		
 		return result;
 	}
@@ -99,63 +407,468 @@ class OPCClient implements OpcApi
 		}
 	}
 	
-	private class CommandExecutor implements Callable<Integer>
+	private void checkForHungCall(Lane lane)
+	{
+		ExecutorSession session;
+		synchronized(this)
+		{
+			session = lane.active;
+		}
+		OPCCommand hungCommand = session == null ? null : session.commandRunningLongerThan(hungCallThresholdNanos);
+		if(hungCommand == null)
+		{
+			return;
+		}
+		if(sessionFactory != null)
+		{
+			takeOver(lane, session, hungCommand);
+		}
+		else if(hungCommand != lane.hungCommand)
+		{
+			lane.hungCommand = hungCommand;
+			sharedSessionHung(hungCommand);
+		}
+	}
+	
+	/**
+	 * Called from the watchdog thread, once per hung command: a single OpcApi
+	 * is not replaced - a new thread would block behind the hung call, one
+	 * more for every threshold it goes on hanging - the hung command is
+	 * failed and the circuit breaker opened until the call has returned.
+	 */
+	private void sharedSessionHung(OPCCommand hungCommand)
 	{
+		circuitBreaker.forceOpen();
+		router.commandExecuted(hungCommand, hungCallThresholdNanos);
+		LOG.warn("native call hung for more than [{}ms] - {}", Long.valueOf(TimeUnit.NANOSECONDS.toMillis(hungCallThresholdNanos)), hungCommand);
+		LOG.warn("single OPC session stuck - failing fast until the call returns, a call that never returns takes a process restart");
+		try
+		{
+			hungCommand.reportError(new OPCTimeoutException("native call hung, OPC session stuck - "+hungCommand));
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @return true while a session is in a native call that has run past the hung call threshold
+	 */
+	private boolean isNativeCallHung()
+	{
+		synchronized(this)
+		{
+			for(Lane lane : lanes)
+			{
+				if(lane.active != null && lane.active.commandRunningLongerThan(hungCallThresholdNanos) != null)
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Called from the watchdog thread, with a session factory only: the
+	 * standby (or, if there is none, a new session) starts taking commands,
+	 * the stuck one is abandoned and the hung command failed.
+	 */
+	private void takeOver(Lane lane, ExecutorSession hungSession, OPCCommand hungCommand)
+	{
+		ExecutorSession replacement;
+		synchronized(this)
+		{
+			if(lane.active != hungSession)
+			{
+				return;
+			}
+			replacement = lane.standby != null ? lane.standby : newSession(lane, initialised);
+			lane.standby = null;
+			lane.active = replacement;
+			replacement.activate();
+		}
+		metrics.executorTakenOver();
+		circuitBreaker.recordFailure();
+		// the call may never return to report its time - the item is at least this slow
+		router.commandExecuted(hungCommand, hungCallThresholdNanos);
+		LOG.warn("native call hung for more than [{}ms] - {}", Long.valueOf(TimeUnit.NANOSECONDS.toMillis(hungCallThresholdNanos)), hungCommand);
+		LOG.warn("session [{}] abandoned, taken over by session [{}]", Integer.valueOf(hungSession.id), Integer.valueOf(replacement.id));
+		
+		try
+		{
+			hungCommand.reportError(new OPCTimeoutException("native call hung, OPC session abandoned - "+hungCommand));
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		// only after the error is reported - an interrupt could let the hung call return and report first
+		hungSession.abandon();
+		replaceStandby(lane);
+	}
+	
+	/**
+	 * After (re-)initialising the fast lane session the other sessions - only
+	 * separate ones, with a session factory - are replaced by freshly
+	 * initialised ones.
+	 */
+	private void sessionsReinitialised()
+	{
+		for(Lane lane : lanes)
+		{
+			if(lane.hotStandby)
+			{
+				replaceStandby(lane);
+			}
+			else
+			{
+				replaceIdleSession(lane);
+			}
+		}
+	}
+	
+	/**
+	 * Prepares a new standby session (only with a session factory, once initialised).
+	 */
+	private void replaceStandby(Lane lane)
+	{
+		if(sessionFactory == null || !initialised || !lane.hotStandby)
+		{
+			return;
+		}
+		synchronized(this)
+		{
+			if(lane.active == null)
+			{
+				return;
+			}
+			if(lane.standby != null)
+			{
+				lane.standby.abandon();
+			}
+			lane.standby = newSession(lane, true);
+		}
+	}
+	
+	private void replaceIdleSession(Lane lane)
+	{
+		if(sessionFactory == null || !initialised)
+		{
+			return;
+		}
+		synchronized(this)
+		{
+			if(lane.active == null)
+			{
+				return;
+			}
+			lane.active.retire();
+			lane.active = newSession(lane, true);
+			lane.active.activate();
+		}
+	}
+	
+	/** guarded by this */
+	private ExecutorSession newSession(Lane lane, boolean initialiseFirst)
+	{
+		OpcApi session = sessionFactory != null ? sessionFactory.createOpcApi() : sharedSession;
+		ExecutorSession result = new ExecutorSession(sessionCount.incrementAndGet(), lane, session, initialiseFirst);
+		result.launch();
+		return result;
+	}
+	
+	private static ThreadFactory daemonThreads(final String name, final int priority)
+	{
+		return new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				thread.setPriority(priority);
+				return thread;
+			}
+		};
+	}
+	
+	/**
+	 * A request queue with the session taking commands from it and, for the
+	 * fast lane, a hot standby.
+	 */
+	private static class Lane
+	{
+		private final OPCCommandRouter.Lane id;
+		private final SynchronousQueue<OPCCommand> queue;
+		private final String threadNamePrefix;
+		private final int threadPriority;
+		private final boolean hotStandby;
+		/** guarded by the OPCClient */
+		private ExecutorSession active;
+		private ExecutorSession standby;
+		/** the single OpcApi's hung command already failed - watchdog thread only */
+		private OPCCommand hungCommand;
+		
+		Lane(OPCCommandRouter.Lane id, SynchronousQueue<OPCCommand> queue, String threadNamePrefix, int threadPriority, boolean hotStandby)
+		{
+			this.id = id;
+			this.queue = queue;
+			this.threadNamePrefix = threadNamePrefix;
+			this.threadPriority = threadPriority;
+			this.hotStandby = hotStandby;
+		}
+	}
+	
+	/**
+	 * A processor thread with the OpcApi it (and only it) calls.
+	 */
+	private class ExecutorSession implements Callable<Integer>
+	{
+		private final int id;
+		private final Lane lane;
+		private final OpcApi session;
+		private final boolean initialiseFirst;
+		private final CountDownLatch activated;
+		private final ExecutorService threadRunner;
+		private Future<Integer> threadResult;
+		private volatile boolean abandoned;
+		private volatile OPCCommand currentCommand;
+		private volatile long currentCommandStartNanos;
+		
+		/**
+		 * @param initialiseFirst init the session (with the remembered host/server) on its thread before taking commands
+		 */
+		ExecutorSession(int id, Lane lane, OpcApi session, boolean initialiseFirst)
+		{
+			this.id = id;
+			this.lane = lane;
+			this.session = session;
+			this.initialiseFirst = initialiseFirst;
+			this.activated = new CountDownLatch(1);
+			this.threadRunner = Executors.newSingleThreadExecutor(daemonThreads(lane.threadNamePrefix+id, lane.threadPriority));
+		}
+		
+		void launch()
+		{
+			threadResult = threadRunner.submit(this);
+		}
+		
+		/**
+		 * Lets the (standby) session start taking commands.
+		 */
+		void activate()
+		{
+			activated.countDown();
+		}
+		
+		/**
+		 * The thread is interrupted; if it is stuck in a native call it is
+		 * left to it and exits if that call ever returns.
+		 */
+		void abandon()
+		{
+			abandoned = true;
+			threadRunner.shutdownNow();
+		}
+		
+		/**
+		 * Like abandon() but a command in progress is left to finish.
+		 */
+		void retire()
+		{
+			abandoned = true;
+			if(currentCommand == null)
+			{
+				threadRunner.shutdownNow();
+			}
+			else
+			{
+				threadRunner.shutdown();
+			}
+		}
+		
+		void awaitTermination(long timeoutMs) throws InterruptedException, ExecutionException, TimeoutException
+		{
+			threadResult.get(timeoutMs, TimeUnit.MILLISECONDS);
+		}
+		
+		OPCCommand commandRunningLongerThan(long nanos)
+		{
+			OPCCommand command = currentCommand;
+			return command != null && System.nanoTime() - currentCommandStartNanos > nanos ? command : null;
+		}
+		
 		/**
 		 * task loops taking commands from the command queue and processing them.
 		 * Loop is killed by a thread interrupt.
 		 */
 		@Override
 		public Integer call() {
-			System.out.println("OPC Client task for executing commands started");
-			
-
 			try 
 			{
+				if(initialiseFirst)
+				{
+					initialise();
+				}
+				activated.await();
+				LOG.info("OPC Client task for executing commands started, {} lane session [{}]", lane.id, Integer.valueOf(id));
 				processCommands();
 			} 
 			catch (InterruptedException e) 
 			{
-				System.out.println("Task interrupted - exiting");
+				LOG.info("Task interrupted - exiting");
 			} 
 
-			System.out.println("OPC Client thread stopped");
+			LOG.info("OPC Client thread stopped, session [{}]", Integer.valueOf(id));
 			
-			return Integer.valueOf(numberOfCommandsProcessed);
+			return Integer.valueOf(numberOfCommandsProcessed.get());
+		}
+		
+		private void initialise()
+		{
+			try
+			{
+				session.init(initHost, initServer);
+				LOG.info("{} lane session [{}] initialised", lane.id, Integer.valueOf(id));
+			}
+			catch(OPCException e)
+			{
+				// still usable - if it takes over, failures open the circuit breaker and its reconnect re-inits
+				LOG.warn("session [{}] failed to initialise - {}", Integer.valueOf(id), e.getMessage());
+			}
 		}
 
 		private int processCommands() throws InterruptedException 
 		{
-			while(true)
+			while(!abandoned)
 			{
-				System.out.println("waiting for command...");
-				OPCCommand command = requestQueue.take();
-				System.out.println("command received, "+command+", processing");
+				LOG.debug("waiting for command...");
+				OPCCommand command = waitStrategy.take(lane.queue);
+				if(abandoned)
+				{
+					handBack(command);
+					break;
+				}
+				command.markDequeued();
+				LOG.debug("command received, {}, processing", command);
 				
 				if(!initialised && !command.isInitCommand())
 				{
+					metrics.commandRejected(command.getCommandType());
 					command.reportError(new OPCException("init must be called before any other operation"));
 				}
 				else
 				{
-					processCommand(command);					
+					command.setSession(session);
+					currentCommandStartNanos = System.nanoTime();
+					currentCommand = command;
+					try
+					{
+						processCommand(command);
+					}
+					finally
+					{
+						currentCommand = null;
+					}
 				}
 				
 			}
+			return numberOfCommandsProcessed.get();
+		}
+		
+		/**
+		 * A command taken in the moment of being abandoned goes to the session that took over.
+		 */
+		private void handBack(OPCCommand command) throws InterruptedException
+		{
+			if(!lane.queue.offer(command, OPCCommandBase.RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+			{
+				command.reportError(new OPCTimeoutException("OPC session abandoned - "+command));
+			}
 		}
 
 		private void processCommand(OPCCommand command) throws InterruptedException 
 		{
+			OPCCommandExecutedEvent executedEvent = OPCCommandEvents.beginExecuted();
+			long startNanos = System.nanoTime();
 			try 
 			{
 				Object executionResult = command.execute();
+				long nativeNanos = System.nanoTime() - startNanos;
+				metrics.commandExecuted(command.getCommandType(), command.getOpcItemAddress(), nativeNanos, true);
+				router.commandExecuted(command, nativeNanos);
+				circuitBreaker.recordSuccess();
+				record(command, executionResult);
+				endExecutedEvent(executedEvent, command, OPCCommandEvent.SUCCESS);
 				command.reportSuccess(executionResult);
-				numberOfCommandsProcessed++;
+				numberOfCommandsProcessed.incrementAndGet();
 			} 
 			catch (OPCException e) 
 			{
+				long nativeNanos = System.nanoTime() - startNanos;
+				metrics.commandExecuted(command.getCommandType(), command.getOpcItemAddress(), nativeNanos, false);
+				router.commandExecuted(command, nativeNanos);
+				if(OPCCircuitBreaker.isSessionFailure(command.getCommandType(), e))
+				{
+					circuitBreaker.recordFailure();
+				}
+				endExecutedEvent(executedEvent, command, OPCCommandEvent.ERROR);
 				command.reportError(e);
 			}
+		}
+		
+		private void record(OPCCommand command, Object value)
+		{
+			Historian target = historian;
+			OPCWarmStart cache = warmStart;
+			if(command.getCommandType().isRead() && (target != null || cache != null))
+			{
+				long timestampMillis = System.currentTimeMillis();
+				if(target != null)
+				{
+					target.record(command.getOpcItemAddress(), timestampMillis, value);
+				}
+				if(cache != null)
+				{
+					cache.getCache().update(command.getOpcItemAddress(), value, timestampMillis);
+				}
+			}
+			else if(command.getCommandType() == OPCCommandType.READ_GROUP && (target != null || cache != null))
+			{
+				ReadGroupCommand groupRead = (ReadGroupCommand)command;
+				OPCGroupValues values = groupRead.getBatch();
+				long timestampMillis = System.currentTimeMillis();
+				for(int i=0; i<groupRead.getReadTo()-groupRead.getFrom(); i++)
+				{
+					Object itemValue = values.getValue(i);
+					if(itemValue == null)
+					{
+						continue;
+					}
+					if(target != null)
+					{
+						target.record(values.getItem(i), timestampMillis, itemValue);
+					}
+					if(cache != null)
+					{
+						cache.getCache().update(values.getItem(i), itemValue, timestampMillis);
+					}
+				}
+			}
+			else if(cache != null && command.getCommandType() == OPCCommandType.GET_ITEM_NAMES)
+			{
+				cache.getCache().setItemNames((String[])value, false);
+			}
+		}
+		
+		private void endExecutedEvent(OPCCommandExecutedEvent event, OPCCommand command, String outcome)
+		{
+			if(event != null)
+			{
+				OPCCommandEvents.end(event, command.getCommandName(), command.getOpcItemAddress(), outcome);
+			}
 		}		
 	}
 	
@@ -165,29 +878,89 @@ class OPCClient implements OpcApi
 		{
 			OPCCommand command = commandFactory.createInitCommand(host, server, threadResponseQueue.get());
 			command.scheduleAndWaitForResponse();
+			initHost = host;
+			initServer = server;
 			initialised = true;
+			sessionsReinitialised();
+			if(warmStart != null)
+			{
+				warmStart.refresh(this, new OPCWarmStart.ItemNamesSource()
+				{
+					@Override
+					public String[] fetchItemNames() throws OPCException
+					{
+						return OPCClient.this.fetchItemNames();
+					}
+				});
+			}
 		}
 		else
 		{
-			System.out.println("OPCClient thread already initialised - ignoring initialise request");
+			LOG.info("OPCClient thread already initialised - ignoring initialise request");
 		}
 	}
 	
+	/**
+	 * Answered from the warm start snapshot until refreshed from the server.
+	 */
 	public String[] getItemNames() throws OPCException
+	{
+		OPCWarmStart cache = warmStart;
+		if(cache != null && cache.getCache().isItemNamesStale())
+		{
+			return cache.getCache().getItemNames().clone();
+		}
+		return fetchItemNames();
+	}
+	
+	private String[] fetchItemNames() throws OPCException
 	{
 		OPCCommand command = commandFactory.createGetItemNamesCommand(threadResponseQueue.get());	
-		Object result = command.scheduleAndWaitForResponse();		
-		return (String[]) result;
+		String[] result = (String[]) command.scheduleAndWaitForResponse();
+		browseIndex = OPCBrowseIndex.build(result);
+		return result;
+	}
+	
+	/**
+	 * Built from the item names the first time it is asked for (from the warm
+	 * start snapshot if those are not refreshed yet) and rebuilt whenever the
+	 * names are fetched from the server again.
+	 */
+	@Override
+	public OPCBrowseIndex getBrowseIndex() throws OPCException
+	{
+		OPCBrowseIndex index = browseIndex;
+		if(index == null)
+		{
+			String[] names = getItemNames();
+			index = browseIndex;
+			if(index == null)
+			{
+				// names from the snapshot - fetchItemNames() did not run
+				index = OPCBrowseIndex.build(names);
+				browseIndex = index;
+			}
+		}
+		return index;
+	}
+	
+	@Override
+	public OPCBrowseIndex refreshBrowseIndex() throws OPCException
+	{
+		fetchItemNames();
+		return browseIndex;
 	}
 	
 	public boolean readBoolean(final String opcItemAddress) throws OPCException
 	{
+		checkType(opcItemAddress, OPCCommandType.READ_BOOLEAN);
 		OPCCommand command = 
 			commandFactory.createReadBooleanCommand(
 					opcItemAddress, 
 					threadResponseQueue.get()); 
 
 		Object result = command.scheduleAndWaitForResponse();		
+		itemCatalog.learn(opcItemAddress, OPCDataType.BOOL);
 		return ((Boolean)result).booleanValue();			
 	}
 
@@ -200,46 +973,170 @@ class OPCClient implements OpcApi
 
 	public float readFloat(String opcItemAddress) throws OPCException
 	{
+		checkType(opcItemAddress, OPCCommandType.READ_FLOAT);
 		OPCCommand command = commandFactory.createReadFloatCommand(opcItemAddress, threadResponseQueue.get());
 		Object result = command.scheduleAndWaitForResponse();
+		itemCatalog.learn(opcItemAddress, OPCDataType.R4);
 		return ((Float)result).floatValue();
 	}
 
 	public int readInt(String opcItemAddress) throws OPCException
 	{
+		checkType(opcItemAddress, OPCCommandType.READ_INT);
 		OPCCommand command = commandFactory.createReadIntCommand(opcItemAddress, threadResponseQueue.get());
 		Object result = command.scheduleAndWaitForResponse();
+		itemCatalog.learn(opcItemAddress, OPCDataType.I4);
 		return ((Integer)result).intValue();
 	}
 
 	public String readString(String opcItemAddress) throws OPCException
 	{
+		checkType(opcItemAddress, OPCCommandType.READ_STRING);
 		OPCCommand command = commandFactory.createReadStringCommand(opcItemAddress, threadResponseQueue.get());
 		Object result = command.scheduleAndWaitForResponse();
+		itemCatalog.learn(opcItemAddress, OPCDataType.STRING);
 		return (String)result;
 	}
 
 	public void writeBoolean(String opcItemAddress, boolean value) throws OPCException 
 	{
+		checkType(opcItemAddress, OPCCommandType.WRITE_BOOLEAN);
 		OPCCommand command = commandFactory.createWriteBooleanCommand(opcItemAddress, threadResponseQueue.get(), value);
 		command.scheduleAndWaitForResponse();
+		itemCatalog.learn(opcItemAddress, OPCDataType.BOOL);
 	}
 
 	public void writeFloat(String opcItemAddress, String floatType, float value) throws OPCException 
 	{
+		checkType(opcItemAddress, OPCCommandType.WRITE_FLOAT);
 		OPCCommand command = commandFactory.createWriteFloatCommand(opcItemAddress, threadResponseQueue.get(), value, floatType);
 		command.scheduleAndWaitForResponse();
+		itemCatalog.learn(opcItemAddress, floatType);
 	}
 
 	public void writeInt(String opcItemAddress, String intType, int value) throws OPCException
 	{
+		checkType(opcItemAddress, OPCCommandType.WRITE_INT);
 		OPCCommand command = commandFactory.createWriteIntCommand(opcItemAddress, threadResponseQueue.get(), value, intType);
 		command.scheduleAndWaitForResponse();
+		itemCatalog.learn(opcItemAddress, intType);
 	}
 
 	public void writeString(String opcItemAddress, String value) throws OPCException
 	{
+		checkType(opcItemAddress, OPCCommandType.WRITE_STRING);
 		OPCCommand command = commandFactory.createWriteStringCommand(opcItemAddress, threadResponseQueue.get(), value);
 		command.scheduleAndWaitForResponse();
+		itemCatalog.learn(opcItemAddress, OPCDataType.STRING);
 	}	
+
+	@Override
+	public void writeFloat(String opcItemAddress, float value) throws OPCException 
+	{
+		writeFloat(opcItemAddress, wireTypeOf(opcItemAddress, OPCCommandType.WRITE_FLOAT), value);
+	}
+
+	@Override
+	public void writeInt(String opcItemAddress, int value) throws OPCException
+	{
+		writeInt(opcItemAddress, wireTypeOf(opcItemAddress, OPCCommandType.WRITE_INT), value);
+	}
+	
+	/**
+	 * Items with a type not in the item catalog - neither registered nor
+	 * learnt from a single read or write - are not read and get an error.
+	 */
+	@Override
+	public OPCGroupValues readGroup(String prefix) throws OPCException
+	{
+		return readGroup("group ["+prefix+"]", getBrowseIndex().itemsUnder(prefix));
+	}
+	
+	/**
+	 * Items with a type not in the item catalog - neither registered nor
+	 * learnt from a single read or write - are not read and get an error.
+	 */
+	@Override
+	public OPCGroupValues readMatching(String pattern) throws OPCException
+	{
+		return readGroup("pattern ["+pattern+"]", getBrowseIndex().match(pattern));
+	}
+	
+	/**
+	 * Items with a type not in the item catalog - neither registered nor
+	 * learnt from a single read or write - are not read and get an error.
+	 */
+	@Override
+	public OPCGroupValues readItems(List<String> items)
+	{
+		return readGroup("["+items.size()+"] items", items);
+	}
+	
+	private OPCGroupValues readGroup(String description, List<String> items)
+	{
+		OPCDataType[] dataTypes = new OPCDataType[items.size()];
+		for(int i=0; i<dataTypes.length; i++)
+		{
+			dataTypes[i] = itemCatalog.getDataType(items.get(i));
+		}
+		OPCGroupValues values = new OPCGroupValues(items, dataTypes, System.currentTimeMillis());
+		int from = 0;
+		while(from < dataTypes.length)
+		{
+			int to = Math.min(from + GROUP_READ_BATCH_SIZE, dataTypes.length);
+			OPCCommand command = commandFactory.createReadGroupCommand(description, values, from, to, threadResponseQueue.get());
+			try
+			{
+				from = ((Integer)command.scheduleAndWaitForResponse()).intValue();
+			}
+			catch(OPCException e)
+			{
+				int next = firstNotFailed(values, from, to);
+				if(next == from)
+				{
+					// not read at all (timeout, server unavailable...) - the rest would not be either
+					values.fail(from, dataTypes.length, e);
+					break;
+				}
+				// every item the batch got to failed
+				from = next;
+			}
+		}
+		return values;
+	}
+	
+	private static int firstNotFailed(OPCGroupValues values, int from, int to)
+	{
+		for(int i=from; i<to; i++)
+		{
+			if(!values.isFailed(i))
+			{
+				return i;
+			}
+		}
+		return to;
+	}
+	
+	private String wireTypeOf(String opcItemAddress, OPCCommandType commandType) throws OPCException
+	{
+		OPCDataType dataType = itemCatalog.getDataType(opcItemAddress);
+		if(dataType == null)
+		{
+			metrics.commandRejected(commandType);
+			throw new OPCException("data type of opc item ["+opcItemAddress+"] not in the item catalog - register it or pass the wire type");
+		}
+		return dataType.getWireType();
+	}
+	
+	/**
+	 * Rejects a command the item's known type cannot serve before it is queued.
+	 */
+	private void checkType(String opcItemAddress, OPCCommandType commandType) throws OPCException
+	{
+		if(!itemCatalog.accepts(opcItemAddress, commandType))
+		{
+			metrics.commandRejected(commandType);
+			throw new OPCException("type mismatch for opc item ["+opcItemAddress+"] - is ["+itemCatalog.getDataType(opcItemAddress)+"] not usable for ["+commandType.getCommandName()+"]");
+		}
+	}
 }
@@ -0,0 +1,294 @@
+package cern.ess.opclib;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import cern.ess.opclib.clientThread.OPCBulkheads;
+import cern.ess.opclib.clientThread.OPCCircuitBreaker;
+import cern.ess.opclib.clientThread.OPCFairScheduler;
+import cern.ess.opclib.clientThread.OPCSlowItemDetector;
+import cern.ess.opclib.clientThread.OPCWaitStrategy;
+import cern.ess.opclib.historian.Historian;
+import cern.ess.opclib.log.OPCLogger;
+
+/**
+ * Configures and starts an OPC client without blocking the caller.
+ *
+ * start() only creates the client and its threads; loading the native
+ * library, initialising the session (if host and server are set),
+ * discovering item types and pre-resolving the configured items - one read
+ * each, so the server has them resolved before traffic arrives - happen on
+ * a background thread. Pre-resolved items' types go into the item catalog.
+ * The returned future completes with the client once all that is done, or
+ * exceptionally if the library or init failed. Items that fail to
+ * pre-resolve are logged, they do not fail the start.
+ *
+ * <pre>
+ * CompletableFuture&lt;OPCTypedApi&gt; ready = new OPCClientBuilder()
+ *     .session("localhost", "Matrikon.OPC.Simulation")
+ *     .preResolve("group.temperature", OPCDataType.R4)
+ *     .start();
+ * </pre>
+ */
+public class OPCClientBuilder
+{
+	private static final OPCLogger LOG = OPCLogger.getLogger(OPCClientBuilder.class);
+
+	private final OpcApiFactory sessionFactory;
+	private final OpcApi sharedSession;
+	private final boolean nativeLibrary;
+	private String host;
+	private String server;
+	private long hungCallThresholdMs;
+	private int failureThreshold;
+	private long initialBackoffMs;
+	private long maxBackoffMs;
+	private int maxInFlightPerGroup;
+	private long slowItemThresholdMs;
+	private Historian historian;
+	private File warmStartSnapshot;
+	private long checkpointIntervalMs;
+	private OPCItemTypeSource itemTypes;
+	private OPCWaitStrategy waitStrategy;
+	private OPCFairScheduler fairScheduler;
+	private final Map<String, OPCDataType> preResolve;
+
+	/**
+	 * A client of the native OPC library - its sessions share the one native session.
+	 */
+	public OPCClientBuilder()
+	{
+		this(null, new OpcApiFactory().createOpcApi(), true);
+	}
+
+	/**
+	 * A client over another OpcApi (e.g. a simulator), shared between sessions.
+	 */
+	public OPCClientBuilder(OpcApi opcApi)
+	{
+		this(null, opcApi, false);
+	}
+
+	OPCClientBuilder(OpcApiFactory sessionFactory, OpcApi sharedSession, boolean nativeLibrary)
+	{
+		this.sessionFactory = sessionFactory;
+		this.sharedSession = sharedSession;
+		this.nativeLibrary = nativeLibrary;
+		this.hungCallThresholdMs = OPCClient.DEFAULT_HUNG_CALL_THRESHOLD_MS;
+		this.failureThreshold = OPCCircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+		this.initialBackoffMs = OPCCircuitBreaker.DEFAULT_INITIAL_BACKOFF_MS;
+		this.maxBackoffMs = OPCCircuitBreaker.DEFAULT_MAX_BACKOFF_MS;
+		this.maxInFlightPerGroup = OPCBulkheads.DEFAULT_MAX_IN_FLIGHT_PER_GROUP;
+		this.slowItemThresholdMs = OPCSlowItemDetector.DEFAULT_SLOW_THRESHOLD_MS;
+		this.preResolve = new LinkedHashMap<String, OPCDataType>();
+	}
+
+	/**
+	 * Initialise the session as part of the start - otherwise the caller calls init().
+	 */
+	public OPCClientBuilder session(String host, String server)
+	{
+		this.host = host;
+		this.server = server;
+		return this;
+	}
+
+	/**
+	 * A native call running longer fails and opens the circuit breaker until
+	 * it returns - there is one native session per process, a call that never
+	 * returns takes a process restart.
+	 */
+	public OPCClientBuilder hungCallThresholdMs(long hungCallThresholdMs)
+	{
+		this.hungCallThresholdMs = hungCallThresholdMs;
+		return this;
+	}
+
+	public OPCClientBuilder circuitBreaker(int failureThreshold, long initialBackoffMs, long maxBackoffMs)
+	{
+		this.failureThreshold = failureThreshold;
+		this.initialBackoffMs = initialBackoffMs;
+		this.maxBackoffMs = maxBackoffMs;
+		return this;
+	}
+
+	/**
+	 * @param maxInFlightPerGroup 0 for no limit
+	 */
+	public OPCClientBuilder maxInFlightPerGroup(int maxInFlightPerGroup)
+	{
+		this.maxInFlightPerGroup = maxInFlightPerGroup;
+		return this;
+	}
+
+	/**
+	 * @param slowItemThresholdMs 0 for no slow lane - a single (the native) OpcApi never gets one
+	 */
+	public OPCClientBuilder slowItemThresholdMs(long slowItemThresholdMs)
+	{
+		this.slowItemThresholdMs = slowItemThresholdMs;
+		return this;
+	}
+
+	public OPCClientBuilder historian(Historian historian)
+	{
+		this.historian = historian;
+		return this;
+	}
+
+	public OPCClientBuilder warmStart(File snapshot, long checkpointIntervalMs)
+	{
+		this.warmStartSnapshot = snapshot;
+		this.checkpointIntervalMs = checkpointIntervalMs;
+		return this;
+	}
+
+	/**
+	 * See OPCWaitStrategy - blocking if not set.
+	 */
+	public OPCClientBuilder waitStrategy(OPCWaitStrategy waitStrategy)
+	{
+		this.waitStrategy = waitStrategy;
+		return this;
+	}
+
+	/**
+	 * Shares the executor between tenants (see OPCTenant) - first come first
+	 * served if not set. Tenant weights and rate limits are set on the scheduler.
+	 */
+	public OPCClientBuilder fairScheduling(OPCFairScheduler fairScheduler)
+	{
+		this.fairScheduler = fairScheduler;
+		return this;
+	}
+
+	/**
+	 * Registers the types of the server's items the source knows during the start - requires session().
+	 */
+	public OPCClientBuilder itemTypes(OPCItemTypeSource itemTypes)
+	{
+		this.itemTypes = itemTypes;
+		return this;
+	}
+
+	/**
+	 * Reads the item (as the given type) once during the start - requires session().
+	 */
+	public OPCClientBuilder preResolve(String item, OPCDataType dataType)
+	{
+		preResolve.put(item, dataType);
+		return this;
+	}
+
+	public OPCClientBuilder preResolve(Map<String, OPCDataType> items)
+	{
+		preResolve.putAll(items);
+		return this;
+	}
+
+	/**
+	 * @return completes with the client once it is ready to take traffic
+	 */
+	public CompletableFuture<OPCTypedApi> start()
+	{
+		return start(build());
+	}
+
+	OPCClient build()
+	{
+		OPCClient client = new OPCClient(sessionFactory, sharedSession, hungCallThresholdMs, failureThreshold, initialBackoffMs, maxBackoffMs,
+				maxInFlightPerGroup, slowItemThresholdMs);
+		client.setHistorian(historian);
+		if(waitStrategy != null)
+		{
+			client.setWaitStrategy(waitStrategy);
+		}
+		client.setFairScheduler(fairScheduler);
+		if(warmStartSnapshot != null)
+		{
+			client.enableWarmStart(warmStartSnapshot, checkpointIntervalMs);
+		}
+		for(Map.Entry<String, OPCDataType> item : preResolve.entrySet())
+		{
+			client.getItemCatalog().register(item.getKey(), item.getValue());
+		}
+		return client;
+	}
+
+	/**
+	 * Starts the client's threads, the rest in the background.
+	 */
+	CompletableFuture<OPCTypedApi> start(final OPCClient client)
+	{
+		if((!preResolve.isEmpty() || itemTypes != null) && host == null)
+		{
+			throw new IllegalStateException("pre-resolving items and discovering their types require the session to be initialised on start");
+		}
+		client.start();
+		final CompletableFuture<OPCTypedApi> ready = new CompletableFuture<OPCTypedApi>();
+		Thread startup = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					if(nativeLibrary)
+					{
+						OPCNativeLibrary.load();
+					}
+					if(host != null)
+					{
+						client.init(host, server);
+						if(itemTypes != null)
+						{
+							client.discoverItemTypes(itemTypes);
+						}
+						preResolve(client);
+					}
+					LOG.info("OPC client ready");
+					ready.complete(client);
+				}
+				catch(Throwable e)
+				{
+					// OPCException from init, UnsatisfiedLinkError from the library
+					LOG.error("OPC client failed to start - {}", e.toString());
+					ready.completeExceptionally(e);
+				}
+			}
+		}, "opclib-startup");
+		startup.setDaemon(true);
+		startup.start();
+		return ready;
+	}
+
+	private void preResolve(OPCTypedApi client)
+	{
+		int failed = 0;
+		for(Map.Entry<String, OPCDataType> item : preResolve.entrySet())
+		{
+			try
+			{
+				switch(item.getValue())
+				{
+					case BOOL: client.readBoolean(item.getKey()); break;
+					case STRING: client.readString(item.getKey()); break;
+					case I2:
+					case I4: client.readInt(item.getKey()); break;
+					default: client.readFloat(item.getKey()); break;
+				}
+			}
+			catch(OPCException e)
+			{
+				failed++;
+				LOG.warn("failed to pre-resolve item [{}] - {}", item.getKey(), e.getMessage());
+			}
+		}
+		if(!preResolve.isEmpty())
+		{
+			LOG.info("pre-resolved [{}] of [{}] items", Integer.valueOf(preResolve.size() - failed), Integer.valueOf(preResolve.size()));
+		}
+	}
+}
@@ -1,25 +1,83 @@
 package cern.ess.opclib;
 
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+
+import javax.management.ObjectName;
+
+import cern.ess.opclib.log.OPCLogger;
+import cern.ess.opclib.metrics.OPCClientMetrics;
+import cern.ess.opclib.metrics.PrometheusExporter;
+
 /**
  * 
  * Class is just a singleton wrapper (eager instantiation model) for 
  * the one and only OPCClient thread instance.
  * 
+ * Touching the class only creates the client and starts its threads; the
+ * native library is loaded in the background (see ready()). New code should
+ * prefer its own client from an OPCClientBuilder.
+ * 
+ * The client metrics are registered as an MBean (see OPCClientMetrics.OBJECT_NAME);
+ * setting system property cern.ess.opclib.metrics.port additionally serves them
+ * in Prometheus text format on http://127.0.0.1:port/metrics
+ * 
  * @author bfarnham
  */
 public abstract class OPCClientInstance 
 {
+	public static final String METRICS_PORT_PROPERTY = "cern.ess.opclib.metrics.port";
 	
 	public static OpcApi theOPCClient;
 	
+	private static final CompletableFuture<OPCTypedApi> readiness;
+	
+	private static final OPCLogger LOG = OPCLogger.getLogger(OPCClientInstance.class);
+	
 	static
 	{
-		theOPCClient = new OPCClient(new OpcApiFactory().createOpcApi());
-		((OPCClient)theOPCClient).start();
+		OPCClientBuilder builder = new OPCClientBuilder();
+		OPCClient client = builder.build();
+		theOPCClient = client;
+		readiness = builder.start(client);
+		exposeMetrics(client.getMetrics());
+	}
+	
+	/**
+	 * @return completes once the native library is loaded - the client still needs init()
+	 */
+	public static CompletableFuture<OPCTypedApi> ready()
+	{
+		return readiness;
 	}
 	
 	private OPCClientInstance()
 	{
 		throw new UnsupportedOperationException("Not constructible - class is a holder for the single OPCClient instance");
 	}
+	
+	private static void exposeMetrics(OPCClientMetrics metrics)
+	{
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OPCClientMetrics.OBJECT_NAME));
+		}
+		catch(Exception e)
+		{
+			LOG.error("failed to register metrics MBean - {}", e.getMessage());
+		}
+
+		String port = System.getProperty(METRICS_PORT_PROPERTY);
+		if(port != null)
+		{
+			try
+			{
+				new PrometheusExporter(metrics).start(Integer.parseInt(port.trim()));
+			}
+			catch(Exception e)
+			{
+				LOG.error("failed to start metrics endpoint on port [{}]", port, e);
+			}
+		}
+	}
 }
@@ -0,0 +1,57 @@
+package cern.ess.opclib;
+
+/**
+ * Data types of OPC items as far as this library is concerned; the wire type
+ * code is what the native writeInt/writeFloat calls expect.
+ */
+public enum OPCDataType
+{
+	BOOL("BOOL"),
+	I2("I2"),
+	I4("I4"),
+	R4("R4"),
+	R8("R8"),
+	STRING("STRING");
+
+	private final String wireType;
+
+	private OPCDataType(String wireType)
+	{
+		this.wireType = wireType;
+	}
+
+	public String getWireType()
+	{
+		return wireType;
+	}
+
+	/**
+	 * @return null for an unknown wire type
+	 */
+	public static OPCDataType fromWireType(String wireType)
+	{
+		for(OPCDataType dataType : values())
+		{
+			if(dataType.wireType.equals(wireType))
+			{
+				return dataType;
+			}
+		}
+		return null;
+	}
+
+	public boolean isInteger()
+	{
+		return this == I2 || this == I4;
+	}
+
+	public boolean isFloat()
+	{
+		return this == R4 || this == R8;
+	}
+
+	public boolean isNumeric()
+	{
+		return isInteger() || isFloat();
+	}
+}
@@ -0,0 +1,316 @@
+package cern.ess.opclib;
+
+import java.util.List;
+
+/**
+ * Result of a group read (readGroup / readMatching): the item names and
+ * their values in typed columns instead of one boxed result per item.
+ *
+ * Column i of the type's array holds item i's value - booleans for BOOL,
+ * ints for I2/I4, floats for R4/R8, strings for STRING; a column is only
+ * allocated if the group has items of its type. Items that could not be
+ * read have an error instead of a value.
+ *
+ * The columns are returned as they are, not copied - do not modify them.
+ * The setters are for filling the result in (the group read command, the
+ * gateway client). The group read command reads each batch into a batch()
+ * of its own and only copies it in (setRange) if the caller still waits for
+ * it, so a caller that timed out never sees its result change.
+ */
+public class OPCGroupValues
+{
+	private static final OPCDataType[] DATA_TYPES = OPCDataType.values();
+
+	private final List<String> items;
+	private final byte[] types;
+	private final long timestampMillis;
+	private boolean[] booleans;
+	private int[] ints;
+	private float[] floats;
+	private String[] strings;
+	private OPCException[] errors;
+	private int failed;
+
+	/**
+	 * @param dataTypes of the items, null where unknown
+	 */
+	public OPCGroupValues(List<String> items, OPCDataType[] dataTypes, long timestampMillis)
+	{
+		this.items = items;
+		this.types = new byte[items.size()];
+		this.timestampMillis = timestampMillis;
+		for(int i=0; i<dataTypes.length; i++)
+		{
+			OPCDataType dataType = dataTypes[i];
+			types[i] = (byte)(dataType == null ? -1 : dataType.ordinal());
+			if(dataType == OPCDataType.BOOL && booleans == null)
+			{
+				booleans = new boolean[types.length];
+			}
+			else if(dataType == OPCDataType.STRING && strings == null)
+			{
+				strings = new String[types.length];
+			}
+			else if(dataType != null && dataType.isInteger() && ints == null)
+			{
+				ints = new int[types.length];
+			}
+			else if(dataType != null && dataType.isFloat() && floats == null)
+			{
+				floats = new float[types.length];
+			}
+		}
+	}
+
+	/**
+	 * @return an empty result for items [from, to), of the same types
+	 */
+	public OPCGroupValues batch(int from, int to)
+	{
+		OPCDataType[] dataTypes = new OPCDataType[to - from];
+		for(int i=from; i<to; i++)
+		{
+			dataTypes[i - from] = getDataType(i);
+		}
+		return new OPCGroupValues(items.subList(from, to), dataTypes, timestampMillis);
+	}
+
+	/**
+	 * Reads items [from, to) one by one from the session, an item that fails
+	 * gets its error and the rest are still read. Stops early, after at least
+	 * one item, once the deadline has passed. Called on the OPC client
+	 * executor thread by the group read command.
+	 *
+	 * @return the index after the last item read (or failed)
+	 */
+	public int read(OpcApi session, int from, int to, long deadlineNanos)
+	{
+		for(int i=from; i<to; i++)
+		{
+			if(i > from && System.nanoTime() - deadlineNanos >= 0)
+			{
+				return i;
+			}
+			OPCDataType dataType = getDataType(i);
+			String item = items.get(i);
+			try
+			{
+				if(dataType == null)
+				{
+					throw new OPCException("data type of opc item ["+item+"] not in the item catalog - not read");
+				}
+				switch(dataType)
+				{
+					case BOOL: setBoolean(i, session.readBoolean(item)); break;
+					case STRING: setString(i, session.readString(item)); break;
+					case I2:
+					case I4: setInt(i, session.readInt(item)); break;
+					default: setFloat(i, session.readFloat(item)); break;
+				}
+			}
+			catch(OPCException e)
+			{
+				setError(i, e);
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * Copies items [0, count) of a batch() in as items [from, from+count).
+	 */
+	public void setRange(int from, OPCGroupValues batch, int count)
+	{
+		for(int i=0; i<count; i++)
+		{
+			OPCException error = batch.getError(i);
+			if(error != null)
+			{
+				setError(from + i, error);
+				continue;
+			}
+			OPCDataType dataType = batch.getDataType(i);
+			if(dataType == null)
+			{
+				continue;
+			}
+			switch(dataType)
+			{
+				case BOOL: setBoolean(from + i, batch.getBoolean(i)); break;
+				case STRING: setString(from + i, batch.getString(i)); break;
+				case I2:
+				case I4: setInt(from + i, batch.getInt(i)); break;
+				default: setFloat(from + i, batch.getFloat(i)); break;
+			}
+		}
+	}
+
+	/**
+	 * Gives items [from, to) the error - for a range whose command failed.
+	 */
+	void fail(int from, int to, OPCException error)
+	{
+		for(int i=from; i<to; i++)
+		{
+			if(!isFailed(i))
+			{
+				setError(i, error);
+			}
+		}
+	}
+
+	public void setBoolean(int index, boolean value)
+	{
+		booleans[index] = value;
+	}
+
+	public void setInt(int index, int value)
+	{
+		ints[index] = value;
+	}
+
+	public void setFloat(int index, float value)
+	{
+		floats[index] = value;
+	}
+
+	public void setString(int index, String value)
+	{
+		strings[index] = value;
+	}
+
+	public synchronized void setError(int index, OPCException error)
+	{
+		if(errors == null)
+		{
+			errors = new OPCException[types.length];
+		}
+		if(errors[index] == null)
+		{
+			failed++;
+		}
+		errors[index] = error;
+	}
+
+	public int size()
+	{
+		return types.length;
+	}
+
+	public List<String> getItems()
+	{
+		return items;
+	}
+
+	public String getItem(int index)
+	{
+		return items.get(index);
+	}
+
+	/**
+	 * @return when the read was started
+	 */
+	public long getTimestampMillis()
+	{
+		return timestampMillis;
+	}
+
+	/**
+	 * @return null if the item's type is not in the item catalog (it is not read)
+	 */
+	public OPCDataType getDataType(int index)
+	{
+		int type = types[index];
+		return type < 0 ? null : DATA_TYPES[type];
+	}
+
+	public synchronized int getFailedCount()
+	{
+		return failed;
+	}
+
+	public synchronized boolean isFailed(int index)
+	{
+		return errors != null && errors[index] != null;
+	}
+
+	/**
+	 * @return null if the item was read
+	 */
+	public synchronized OPCException getError(int index)
+	{
+		return errors == null ? null : errors[index];
+	}
+
+	public boolean getBoolean(int index)
+	{
+		return booleans[index];
+	}
+
+	public int getInt(int index)
+	{
+		return ints[index];
+	}
+
+	public float getFloat(int index)
+	{
+		return floats[index];
+	}
+
+	public String getString(int index)
+	{
+		return strings[index];
+	}
+
+	/**
+	 * @return the BOOL column, null if the group has no BOOL items
+	 */
+	public boolean[] getBooleans()
+	{
+		return booleans;
+	}
+
+	/**
+	 * @return the I2/I4 column, null if the group has no integer items
+	 */
+	public int[] getInts()
+	{
+		return ints;
+	}
+
+	/**
+	 * @return the R4/R8 column, null if the group has no float items
+	 */
+	public float[] getFloats()
+	{
+		return floats;
+	}
+
+	/**
+	 * @return the STRING column, null if the group has no STRING items
+	 */
+	public String[] getStrings()
+	{
+		return strings;
+	}
+
+	/**
+	 * @return the item's value boxed (as the single item reads would return it), null if it failed
+	 */
+	public Object getValue(int index)
+	{
+		OPCDataType dataType = getDataType(index);
+		if(dataType == null || isFailed(index))
+		{
+			return null;
+		}
+		switch(dataType)
+		{
+			case BOOL: return Boolean.valueOf(booleans[index]);
+			case STRING: return strings[index];
+			case I2:
+			case I4: return Integer.valueOf(ints[index]);
+			default: return Float.valueOf(floats[index]);
+		}
+	}
+}
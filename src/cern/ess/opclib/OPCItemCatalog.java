@@ -0,0 +1,166 @@
+package cern.ess.opclib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import cern.ess.opclib.clientThread.OPCCommandType;
+
+/**
+ * Data types of the items the client knows, so writes can pick the wire
+ * type themselves and a read or write of the wrong type is rejected before
+ * it is queued.
+ *
+ * Each item gets a dense index on registration; its type is a byte in a
+ * table at that index - a lookup is one hash lookup and an array read, no
+ * comparison of type strings. Types come from registration (e.g. discovery
+ * from an OPCItemTypeSource, the builder's pre-resolve list) or are learnt
+ * from the first successful typed read or write of the item. A registered
+ * type never changes; a learnt one is only replaced by registration, since
+ * the type the caller asked for may not be the item's - it picks the wire
+ * type and the group read type, but never rejects a command. Thread safe.
+ */
+public class OPCItemCatalog
+{
+	private static final OPCDataType[] DATA_TYPES = OPCDataType.values();
+
+	private final ConcurrentMap<String, Integer> indexes;
+	/** guarded by this */
+	private final List<String> items;
+	/** data type ordinal + 1 by index, negated if learnt, 0 if not known; replaced (by this) when full */
+	private volatile byte[] types;
+
+	public OPCItemCatalog()
+	{
+		this.indexes = new ConcurrentHashMap<String, Integer>();
+		this.items = new ArrayList<String>();
+		this.types = new byte[64];
+	}
+
+	/**
+	 * @return the item's index
+	 */
+	public synchronized int register(String item, OPCDataType dataType)
+	{
+		Integer existing = indexes.get(item);
+		int index = existing != null ? existing.intValue() : items.size();
+		if(existing == null)
+		{
+			if(index == types.length)
+			{
+				byte[] grown = new byte[types.length * 2];
+				System.arraycopy(types, 0, grown, 0, types.length);
+				types = grown;
+			}
+			items.add(item);
+		}
+		if(types[index] <= 0 && dataType != null)
+		{
+			types[index] = (byte)(dataType.ordinal() + 1);
+		}
+		if(existing == null)
+		{
+			// published last - a reader finding the index finds the type
+			indexes.put(item, Integer.valueOf(index));
+		}
+		return index;
+	}
+
+	/**
+	 * @return the item's index, -1 if not in the catalog
+	 */
+	public int indexOf(String item)
+	{
+		Integer index = indexes.get(item);
+		return index == null ? -1 : index.intValue();
+	}
+
+	/**
+	 * @return null if not known
+	 */
+	public OPCDataType getDataType(String item)
+	{
+		Integer index = indexes.get(item);
+		return index == null ? null : getDataType(index.intValue());
+	}
+
+	public OPCDataType getDataType(int index)
+	{
+		int code = Math.abs(types[index]);
+		return code == 0 ? null : DATA_TYPES[code - 1];
+	}
+
+	public synchronized String getItem(int index)
+	{
+		return items.get(index);
+	}
+
+	public int size()
+	{
+		return indexes.size();
+	}
+
+	/**
+	 * Takes the type named by a successful write's wire type if the item's
+	 * type is not known yet - until a type is registered for the item.
+	 */
+	public void learn(String item, String wireType)
+	{
+		OPCDataType dataType = OPCDataType.fromWireType(wireType);
+		if(dataType != null)
+		{
+			learn(item, dataType);
+		}
+	}
+
+	/**
+	 * Takes the type a successful typed read returned (or write wrote) if
+	 * the item's type is not known yet - until a type is registered for it.
+	 */
+	public void learn(String item, OPCDataType dataType)
+	{
+		if(getDataType(item) != null)
+		{
+			return;
+		}
+		synchronized(this)
+		{
+			int index = register(item, null);
+			if(types[index] == 0)
+			{
+				types[index] = (byte)-(dataType.ordinal() + 1);
+			}
+		}
+	}
+
+	/**
+	 * @return false if the item's type is registered and the command cannot read or write it
+	 */
+	public boolean accepts(String item, OPCCommandType command)
+	{
+		Integer index = indexes.get(item);
+		int code = index == null ? 0 : types[index.intValue()];
+		return code <= 0 || isCompatible(DATA_TYPES[code - 1], command);
+	}
+
+	public static boolean isCompatible(OPCDataType dataType, OPCCommandType command)
+	{
+		switch(command)
+		{
+			case READ_BOOLEAN:
+			case WRITE_BOOLEAN:
+				return dataType == OPCDataType.BOOL;
+			case READ_STRING:
+			case WRITE_STRING:
+				return dataType == OPCDataType.STRING;
+			case READ_INT:
+			case READ_FLOAT:
+			case WRITE_INT:
+			case WRITE_FLOAT:
+				return dataType.isNumeric();
+			default:
+				return true;
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package cern.ess.opclib;
+
+/**
+ * Something that knows the data types of a server's items - implemented by
+ * OpcApi implementations that can tell (the native library cannot).
+ */
+public interface OPCItemTypeSource
+{
+	/**
+	 * @return null if unknown
+	 */
+	public OPCDataType getDataType(String item);
+}
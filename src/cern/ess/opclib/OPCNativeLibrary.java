@@ -0,0 +1,50 @@
+package cern.ess.opclib;
+
+import cern.ess.opclib.log.OPCLogger;
+
+/**
+ * Loads OPCLib.dll once, either when first needed (the OPC class' static
+ * initialiser) or ahead of time on the startup thread of
+ * OPCClientBuilder.start(), so whichever thread first touches the client is
+ * not the one paying for it.
+ */
+class OPCNativeLibrary
+{
+	private static final OPCLogger LOG = OPCLogger.getLogger(OPCNativeLibrary.class);
+
+	private static final String LIBRARY_NAME = "OPCLib";
+
+	/** guarded by the class */
+	private static boolean attempted;
+	private static UnsatisfiedLinkError failure;
+
+	private OPCNativeLibrary()
+	{
+	}
+
+	/**
+	 * Returns once the library is loaded or failed to load - a later call only repeats the outcome.
+	 */
+	static synchronized void load() throws UnsatisfiedLinkError
+	{
+		if(!attempted)
+		{
+			attempted = true;
+			LOG.debug("loading OPCLib.dll from [{}]", System.getProperty("java.library.path"));
+			try
+			{
+				System.loadLibrary(LIBRARY_NAME);
+				LOG.info("OPCLib.dll loaded");
+			}
+			catch(UnsatisfiedLinkError e)
+			{
+				LOG.error("Failed to load OPCLib.dll from [{}]", System.getProperty("java.library.path"), e);
+				failure = e;
+			}
+		}
+		if(failure != null)
+		{
+			throw failure;
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package cern.ess.opclib;
+
+/**
+ * Thrown without scheduling the command when the caller's tenant has used
+ * up its rate limit (see OPCFairScheduler).
+ */
+public class OPCRateLimitExceededException extends OPCException
+{
+	private static final long serialVersionUID = 1L;
+
+	public OPCRateLimitExceededException(String s)
+	{
+		super(s);
+	}
+}
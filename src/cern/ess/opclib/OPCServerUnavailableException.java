@@ -0,0 +1,15 @@
+package cern.ess.opclib;
+
+/**
+ * Thrown without contacting the OPC server while the OPCClient considers it
+ * unavailable (circuit breaker open); the client reconnects in the background.
+ */
+public class OPCServerUnavailableException extends OPCException
+{
+	private static final long serialVersionUID = 1L;
+
+	public OPCServerUnavailableException(String s)
+	{
+		super(s);
+	}
+}
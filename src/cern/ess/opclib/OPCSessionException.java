@@ -0,0 +1,16 @@
+package cern.ess.opclib;
+
+/**
+ * The OPC session itself failed (server or connection lost) rather than
+ * the one item the call was for - counted by the OPCClient's circuit
+ * breaker, unlike item errors.
+ */
+public class OPCSessionException extends OPCException
+{
+	private static final long serialVersionUID = 1L;
+
+	public OPCSessionException(String s)
+	{
+		super(s);
+	}
+}
@@ -0,0 +1,47 @@
+package cern.ess.opclib;
+
+/**
+ * Who the commands scheduled by the current thread are executed for - the
+ * unit OPCFairScheduler shares the executor between and per tenant metrics
+ * are kept for. A thread that has not been given a tenant is its own
+ * tenant, named after the thread.
+ *
+ * <pre>
+ * OPCTenant.set("archiver");
+ * try { client.readFloat(item); } finally { OPCTenant.clear(); }
+ * </pre>
+ */
+public final class OPCTenant
+{
+	private static final ThreadLocal<String> CURRENT = new ThreadLocal<String>();
+
+	private OPCTenant()
+	{
+	}
+
+	/**
+	 * The thread's commands are scheduled for the tenant until clear().
+	 */
+	public static void set(String tenant)
+	{
+		if(tenant == null)
+		{
+			throw new IllegalArgumentException("tenant must not be null");
+		}
+		CURRENT.set(tenant);
+	}
+
+	public static void clear()
+	{
+		CURRENT.remove();
+	}
+
+	/**
+	 * @return the tenant set for the current thread, otherwise the thread's name
+	 */
+	public static String current()
+	{
+		String tenant = CURRENT.get();
+		return tenant != null ? tenant : Thread.currentThread().getName();
+	}
+}
@@ -0,0 +1,15 @@
+package cern.ess.opclib;
+
+/**
+ * Thrown when a command is not taken, or not answered, by the OPCClient
+ * executor within the response timeout.
+ */
+public class OPCTimeoutException extends OPCException
+{
+	private static final long serialVersionUID = 1L;
+
+	public OPCTimeoutException(String s)
+	{
+		super(s);
+	}
+}
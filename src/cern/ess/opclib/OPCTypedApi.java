@@ -0,0 +1,62 @@
+package cern.ess.opclib;
+
+import java.util.List;
+
+import cern.ess.opclib.browse.OPCBrowseIndex;
+
+/**
+ * OpcApi with writes that take the wire type from the client's
+ * OPCItemCatalog instead of every call naming it, and browsing of the
+ * item names through a shared OPCBrowseIndex, including reading whole
+ * groups of items in batches.
+ */
+public interface OPCTypedApi extends OpcApi
+{
+	public OPCItemCatalog getItemCatalog();
+
+	/**
+	 * Registers the types of the server's items (getItemNames()) the source knows.
+	 *
+	 * @return the number of items registered
+	 */
+	public int discoverItemTypes(OPCItemTypeSource source) throws OPCException;
+
+	/**
+	 * @throws OPCException also if the item's type is not in the catalog
+	 */
+	public void writeInt(String item, int val) throws OPCException;
+
+	/**
+	 * @throws OPCException also if the item's type is not in the catalog
+	 */
+	public void writeFloat(String item, float val) throws OPCException;
+
+	/**
+	 * @return the index over the item names, shared and immutable
+	 */
+	public OPCBrowseIndex getBrowseIndex() throws OPCException;
+
+	/**
+	 * Fetches the item names from the server again.
+	 *
+	 * @return the index over the new names
+	 */
+	public OPCBrowseIndex refreshBrowseIndex() throws OPCException;
+
+	/**
+	 * Reads every item at or below the prefix (see OPCBrowseIndex.itemsUnder).
+	 * Items that fail have an error in the result, the others are still read.
+	 */
+	public OPCGroupValues readGroup(String prefix) throws OPCException;
+
+	/**
+	 * Reads every item matching the pattern (see OPCBrowseIndex.match).
+	 * Items that fail have an error in the result, the others are still read.
+	 */
+	public OPCGroupValues readMatching(String pattern) throws OPCException;
+
+	/**
+	 * Reads the items like readGroup, e.g. a set of subscribed items.
+	 */
+	public OPCGroupValues readItems(List<String> items);
+}
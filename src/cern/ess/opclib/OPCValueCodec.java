@@ -0,0 +1,452 @@
+package cern.ess.opclib;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight over typed value records in a ByteBuffer - heap, direct or
+ * memory mapped - for passing values between processes or to disk without
+ * boxing or serialization (the value snapshot, OPCSnapshot, keeps its
+ * values as these records). Wrap a buffer and an offset, then read or write
+ * the record's fields in place; one codec can be moved over any number of
+ * records and allocates nothing (except getString()).
+ * <pre>
+ *  0 int   handle          the writer's id of the item (e.g. an OPCItemCatalog index)
+ *  4 byte  type            OPCValueType code
+ *  5 byte  quality         OPC quality: QUALITY_GOOD, QUALITY_UNCERTAIN, QUALITY_BAD
+ *  6 short payload length  bytes of the string, 8 for the other types
+ *  8 long  timestamp       millis since the epoch
+ * 16       payload         boolean/int/float bits in a long, or the UTF-8 bytes of the string
+ * </pre>
+ * Records are padded to a multiple of 8 bytes, so a buffer of records
+ * written one after the other keeps every header aligned. Fields are
+ * accessed by absolute index - the buffer's position is not used - in the
+ * buffer's byte order.
+ *
+ * Not thread safe, use one codec per thread.
+ */
+public final class OPCValueCodec
+{
+	public static final byte QUALITY_GOOD = (byte)0xC0;
+	public static final byte QUALITY_UNCERTAIN = (byte)0x40;
+	public static final byte QUALITY_BAD = (byte)0x00;
+
+	public static final int HEADER_BYTES = 16;
+	/** a boolean, int or float record */
+	public static final int SCALAR_RECORD_BYTES = HEADER_BYTES + 8;
+	public static final int MAX_STRING_BYTES = 0xFFFF;
+
+	private static final int HANDLE = 0;
+	private static final int TYPE = 4;
+	private static final int QUALITY = 5;
+	private static final int PAYLOAD_LENGTH = 6;
+	private static final int TIMESTAMP = 8;
+	private static final int PAYLOAD = HEADER_BYTES;
+
+	private ByteBuffer buffer;
+	private int offset;
+
+	/**
+	 * Points the codec at the record at offset.
+	 *
+	 * @return this
+	 */
+	public OPCValueCodec wrap(ByteBuffer buffer, int offset)
+	{
+		this.buffer = buffer;
+		this.offset = offset;
+		return this;
+	}
+
+	public ByteBuffer getBuffer()
+	{
+		return buffer;
+	}
+
+	public int getOffset()
+	{
+		return offset;
+	}
+
+	/**
+	 * @return the offset of the record after this one
+	 */
+	public int getNextOffset()
+	{
+		return offset + getRecordBytes();
+	}
+
+	/**
+	 * Moves on to the record after this one.
+	 *
+	 * @return this
+	 */
+	public OPCValueCodec next()
+	{
+		offset = getNextOffset();
+		return this;
+	}
+
+	/**
+	 * @return the bytes the record takes, padding included
+	 */
+	public int getRecordBytes()
+	{
+		return recordBytes(getPayloadLength());
+	}
+
+	public int getHandle()
+	{
+		return buffer.getInt(offset + HANDLE);
+	}
+
+	public byte getTypeCode()
+	{
+		return buffer.get(offset + TYPE);
+	}
+
+	/**
+	 * @return null for an unknown type code
+	 */
+	public OPCValueType getType()
+	{
+		return OPCValueType.fromCode(getTypeCode());
+	}
+
+	public byte getQuality()
+	{
+		return buffer.get(offset + QUALITY);
+	}
+
+	public boolean isGood()
+	{
+		return (getQuality() & QUALITY_GOOD) == QUALITY_GOOD;
+	}
+
+	public long getTimestampMillis()
+	{
+		return buffer.getLong(offset + TIMESTAMP);
+	}
+
+	public int getPayloadLength()
+	{
+		return buffer.getShort(offset + PAYLOAD_LENGTH) & 0xFFFF;
+	}
+
+	/**
+	 * @return the payload of a boolean, int or float record as stored
+	 */
+	public long getValueBits()
+	{
+		return buffer.getLong(offset + PAYLOAD);
+	}
+
+	public boolean getBoolean()
+	{
+		return getValueBits() != 0;
+	}
+
+	public int getInt()
+	{
+		return (int)getValueBits();
+	}
+
+	public float getFloat()
+	{
+		return Float.intBitsToFloat((int)getValueBits());
+	}
+
+	/**
+	 * Decodes the string of a string record - allocates it, unlike the
+	 * other getters; see copyStringBytes() and stringEquals().
+	 */
+	public String getString()
+	{
+		int length = getPayloadLength();
+		char[] chars = new char[length];
+		return new String(chars, 0, decodeUtf8(chars));
+	}
+
+	/**
+	 * Copies the UTF-8 bytes of a string record.
+	 *
+	 * @return the number of bytes
+	 */
+	public int copyStringBytes(byte[] target)
+	{
+		int length = getPayloadLength();
+		for(int i=0; i<length; i++)
+		{
+			target[i] = buffer.get(offset + PAYLOAD + i);
+		}
+		return length;
+	}
+
+	/**
+	 * @return true if the string record holds the value, compared without decoding
+	 */
+	public boolean stringEquals(CharSequence value)
+	{
+		int length = getPayloadLength();
+		if(utf8Bytes(value) != length)
+		{
+			return false;
+		}
+		int position = offset + PAYLOAD;
+		int end = position + length;
+		for(int i=0; i<value.length(); i++)
+		{
+			int codePoint = Character.codePointAt(value, i);
+			if(codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT)
+			{
+				i++;
+			}
+			int written = utf8Length(codePoint);
+			if(position + written > end || !matches(position, codePoint, written))
+			{
+				return false;
+			}
+			position += written;
+		}
+		return position == end;
+	}
+
+	/**
+	 * @return the record's bytes
+	 */
+	public int putBoolean(int handle, long timestampMillis, byte quality, boolean value)
+	{
+		return putScalar(handle, OPCValueType.BOOLEAN, timestampMillis, quality, value ? 1 : 0);
+	}
+
+	/**
+	 * @return the record's bytes
+	 */
+	public int putInt(int handle, long timestampMillis, byte quality, int value)
+	{
+		return putScalar(handle, OPCValueType.INT, timestampMillis, quality, value);
+	}
+
+	/**
+	 * @return the record's bytes
+	 */
+	public int putFloat(int handle, long timestampMillis, byte quality, float value)
+	{
+		return putScalar(handle, OPCValueType.FLOAT, timestampMillis, quality, Float.floatToRawIntBits(value));
+	}
+
+	/**
+	 * @return the record's bytes
+	 * @throws IllegalArgumentException if the string's UTF-8 form is longer than MAX_STRING_BYTES
+	 */
+	public int putString(int handle, long timestampMillis, byte quality, CharSequence value)
+	{
+		int length = utf8Bytes(value);
+		if(length > MAX_STRING_BYTES)
+		{
+			throw new IllegalArgumentException("string of ["+length+"] bytes does not fit a value record");
+		}
+		putHeader(handle, OPCValueType.STRING, quality, length, timestampMillis);
+		int position = offset + PAYLOAD;
+		for(int i=0; i<value.length(); i++)
+		{
+			int codePoint = Character.codePointAt(value, i);
+			if(codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT)
+			{
+				i++;
+			}
+			position = encodeUtf8(position, codePoint);
+		}
+		return pad(length);
+	}
+
+	/**
+	 * Writes a value as returned by the OpcApi reads (Boolean, Integer, Float or String).
+	 *
+	 * @return the record's bytes
+	 */
+	public int putValue(int handle, long timestampMillis, byte quality, Object value)
+	{
+		if(value instanceof Float)
+		{
+			return putFloat(handle, timestampMillis, quality, ((Float)value).floatValue());
+		}
+		if(value instanceof Integer)
+		{
+			return putInt(handle, timestampMillis, quality, ((Integer)value).intValue());
+		}
+		if(value instanceof Boolean)
+		{
+			return putBoolean(handle, timestampMillis, quality, ((Boolean)value).booleanValue());
+		}
+		if(value instanceof String)
+		{
+			return putString(handle, timestampMillis, quality, (String)value);
+		}
+		throw new IllegalArgumentException("not an OPC value ["+value+"]");
+	}
+
+	/**
+	 * @return the bytes of the value's UTF-8 form, at most MAX_STRING_BYTES for a string record
+	 */
+	public static int stringBytes(CharSequence value)
+	{
+		return utf8Bytes(value);
+	}
+
+	/**
+	 * @return the bytes a string record of the value takes, padding included
+	 */
+	public static int stringRecordBytes(CharSequence value)
+	{
+		return recordBytes(utf8Bytes(value));
+	}
+
+	private static int recordBytes(int payloadLength)
+	{
+		return HEADER_BYTES + ((Math.max(payloadLength, 8) + 7) & ~7);
+	}
+
+	private int putScalar(int handle, OPCValueType type, long timestampMillis, byte quality, int bits)
+	{
+		putHeader(handle, type, quality, 8, timestampMillis);
+		buffer.putLong(offset + PAYLOAD, bits);
+		return SCALAR_RECORD_BYTES;
+	}
+
+	private void putHeader(int handle, OPCValueType type, byte quality, int payloadLength, long timestampMillis)
+	{
+		buffer.putInt(offset + HANDLE, handle);
+		buffer.put(offset + TYPE, type.getCode());
+		buffer.put(offset + QUALITY, quality);
+		buffer.putShort(offset + PAYLOAD_LENGTH, (short)payloadLength);
+		buffer.putLong(offset + TIMESTAMP, timestampMillis);
+	}
+
+	/**
+	 * Zeroes the padding of a string record.
+	 *
+	 * @return the record's bytes
+	 */
+	private int pad(int payloadLength)
+	{
+		int bytes = recordBytes(payloadLength);
+		for(int i=offset + PAYLOAD + payloadLength; i<offset + bytes; i++)
+		{
+			buffer.put(i, (byte)0);
+		}
+		return bytes;
+	}
+
+	private static int utf8Bytes(CharSequence value)
+	{
+		int bytes = 0;
+		for(int i=0; i<value.length(); i++)
+		{
+			int codePoint = Character.codePointAt(value, i);
+			if(codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT)
+			{
+				i++;
+			}
+			bytes += utf8Length(codePoint);
+		}
+		return bytes;
+	}
+
+	private static int utf8Length(int codePoint)
+	{
+		if(codePoint < 0x80)
+		{
+			return 1;
+		}
+		if(codePoint < 0x800)
+		{
+			return 2;
+		}
+		return codePoint < 0x10000 ? 3 : 4;
+	}
+
+	/**
+	 * @return the position after the code point's bytes
+	 */
+	private int encodeUtf8(int position, int codePoint)
+	{
+		switch(utf8Length(codePoint))
+		{
+			case 1:
+				buffer.put(position++, (byte)codePoint);
+				break;
+			case 2:
+				buffer.put(position++, (byte)(0xC0 | (codePoint >> 6)));
+				buffer.put(position++, (byte)(0x80 | (codePoint & 0x3F)));
+				break;
+			case 3:
+				buffer.put(position++, (byte)(0xE0 | (codePoint >> 12)));
+				buffer.put(position++, (byte)(0x80 | ((codePoint >> 6) & 0x3F)));
+				buffer.put(position++, (byte)(0x80 | (codePoint & 0x3F)));
+				break;
+			default:
+				buffer.put(position++, (byte)(0xF0 | (codePoint >> 18)));
+				buffer.put(position++, (byte)(0x80 | ((codePoint >> 12) & 0x3F)));
+				buffer.put(position++, (byte)(0x80 | ((codePoint >> 6) & 0x3F)));
+				buffer.put(position++, (byte)(0x80 | (codePoint & 0x3F)));
+				break;
+		}
+		return position;
+	}
+
+	private boolean matches(int position, int codePoint, int bytes)
+	{
+		int decoded;
+		int first = buffer.get(position) & 0xFF;
+		switch(bytes)
+		{
+			case 1: decoded = first; break;
+			case 2: decoded = ((first & 0x1F) << 6) | continuation(position+1, 0); break;
+			case 3: decoded = ((first & 0x0F) << 12) | continuation(position+1, 6) | continuation(position+2, 0); break;
+			default: decoded = ((first & 0x07) << 18) | continuation(position+1, 12) | continuation(position+2, 6) | continuation(position+3, 0); break;
+		}
+		return decoded == codePoint;
+	}
+
+	private int continuation(int position, int shift)
+	{
+		return (buffer.get(position) & 0x3F) << shift;
+	}
+
+	/**
+	 * @return the number of chars decoded
+	 */
+	private int decodeUtf8(char[] chars)
+	{
+		int position = offset + PAYLOAD;
+		int end = position + getPayloadLength();
+		int count = 0;
+		while(position < end)
+		{
+			int first = buffer.get(position) & 0xFF;
+			int codePoint;
+			if(first < 0x80)
+			{
+				codePoint = first;
+				position += 1;
+			}
+			else if(first < 0xE0)
+			{
+				codePoint = ((first & 0x1F) << 6) | continuation(position+1, 0);
+				position += 2;
+			}
+			else if(first < 0xF0)
+			{
+				codePoint = ((first & 0x0F) << 12) | continuation(position+1, 6) | continuation(position+2, 0);
+				position += 3;
+			}
+			else
+			{
+				codePoint = ((first & 0x07) << 18) | continuation(position+1, 12) | continuation(position+2, 6) | continuation(position+3, 0);
+				position += 4;
+			}
+			count += Character.toChars(codePoint, chars, count);
+		}
+		return count;
+	}
+}
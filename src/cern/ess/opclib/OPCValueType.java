@@ -0,0 +1,35 @@
+package cern.ess.opclib;
+
+/**
+ * Types of OPC values as the OpcApi read calls return them. The code is what
+ * value records store - OPCValueCodec's, the historian's segments.
+ */
+public enum OPCValueType
+{
+	BOOLEAN(1),
+	INT(2),
+	FLOAT(3),
+	STRING(4);
+
+	private static final OPCValueType[] BY_CODE = { null, BOOLEAN, INT, FLOAT, STRING };
+
+	private final byte code;
+
+	private OPCValueType(int code)
+	{
+		this.code = (byte)code;
+	}
+
+	public byte getCode()
+	{
+		return code;
+	}
+
+	/**
+	 * @return null for an unknown code
+	 */
+	public static OPCValueType fromCode(byte code)
+	{
+		return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+	}
+}
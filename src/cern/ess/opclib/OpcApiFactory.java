@@ -1,9 +1,23 @@
 package cern.ess.opclib;
 
+/**
+ * Creates the OpcApi of each OPCClient session. A client only accepts a
+ * factory whose OpcApis are independent sessions that may be called
+ * concurrently - the native one is not: every OpcApiImpl call goes to the
+ * one process wide native session.
+ */
 class OpcApiFactory 
 {
 	public OpcApi createOpcApi()
 	{
-		return new OpcApiImpl();
+		return OpcApiImpl.getInstance();
+	}
+	
+	/**
+	 * @return true if every OpcApi created is a session of its own, independent of the others
+	 */
+	public boolean createsIndependentSessions()
+	{
+		return false;
 	}
 }
@@ -5,8 +5,24 @@ import java.util.concurrent.TimeoutException;
 
 import cern.ess.opclib.OPC;
 
+/**
+ * The OPC natives are static - there is one native session per process - so
+ * there is one OpcApiImpl, whose synchronized methods keep the native calls
+ * of all threads (and all OPCClients) from overlapping.
+ */
 class OpcApiImpl implements OpcApi
 {
+	private static final OpcApiImpl INSTANCE = new OpcApiImpl();
+	
+	private OpcApiImpl()
+	{
+	}
+	
+	static OpcApiImpl getInstance()
+	{
+		return INSTANCE;
+	}
+	
 	@Override
 	public synchronized void init(String host, String server) throws OPCException 
 	{
@@ -0,0 +1,15 @@
+package cern.ess.opclib.aggregation;
+
+/**
+ * Receives the aggregate of each window that closes with samples in it,
+ * on the thread feeding the WindowAggregator.
+ */
+public interface AggregateListener
+{
+	/**
+	 * @param item the item's handle (the historian's ItemCatalog handle when attached to a historian)
+	 * @param windowStartMillis inclusive
+	 * @param windowEndMillis exclusive
+	 */
+	public void windowClosed(int item, long windowStartMillis, long windowEndMillis, long count, double min, double max, double mean);
+}
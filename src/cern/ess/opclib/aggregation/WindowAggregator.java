@@ -0,0 +1,286 @@
+package cern.ess.opclib.aggregation;
+
+import java.util.Arrays;
+
+import cern.ess.opclib.OPCValueType;
+import cern.ess.opclib.historian.HistorianListener;
+
+/**
+ * Incremental count/min/max/mean of item values over tumbling or sliding
+ * time windows, emitted to an AggregateListener as each window closes.
+ *
+ * Windows are aligned to multiples of the slide (the window length for
+ * tumbling windows) since the epoch. A sliding window is kept as its panes -
+ * window / slide per item, each slide long - and combined when it closes, so
+ * a sample costs one pane update whatever the overlap. All state is in
+ * primitive arrays indexed by item handle, grown (doubled) only when a
+ * higher handle shows up: feeding a sample allocates nothing and memory is
+ * items * panes * 32 bytes.
+ *
+ * Time is driven by the sample timestamps: an item's windows close when one
+ * of its samples falls beyond them, and every item's once any sample is
+ * past them by more than the allowed lateness (or on advanceTo()). A sample
+ * for a window already closed is dropped and counted as late. Strings are
+ * ignored, booleans count as 0/1.
+ *
+ * Attach to a Historian with addListener() to aggregate everything it
+ * records, or feed add() directly. Not thread safe: feed from one thread.
+ */
+public class WindowAggregator implements HistorianListener
+{
+	private static final long NONE = Long.MIN_VALUE;
+	private static final int INITIAL_ITEMS = 1024;
+
+	private final long windowMillis;
+	private final long slideMillis;
+	private final int panes;
+	private final long allowedLatenessMillis;
+	private final AggregateListener listener;
+
+	/** per item: start of its newest pane, NONE while it has no open window */
+	private long[] currentPane;
+	/** per item and pane (item * panes + slot) */
+	private long[] paneStart;
+	private long[] paneCount;
+	private double[] paneMin;
+	private double[] paneMax;
+	private double[] paneSum;
+
+	private int highestItem;
+	/** every item's windows ending at or before this have been emitted */
+	private long closedMillis;
+	private long nextSweepMillis;
+	private long lateCount;
+
+	/**
+	 * @param windowMillis window length, a multiple of slideMillis
+	 * @param slideMillis how often a window closes, windowMillis for tumbling windows
+	 * @param allowedLatenessMillis how far behind the newest sample another item's sample may be and still count
+	 */
+	public WindowAggregator(long windowMillis, long slideMillis, long allowedLatenessMillis, AggregateListener listener)
+	{
+		if(slideMillis <= 0 || windowMillis < slideMillis || windowMillis % slideMillis != 0)
+		{
+			throw new IllegalArgumentException("window ["+windowMillis+"ms] must be a positive multiple of slide ["+slideMillis+"ms]");
+		}
+		this.windowMillis = windowMillis;
+		this.slideMillis = slideMillis;
+		this.panes = (int)(windowMillis / slideMillis);
+		this.allowedLatenessMillis = allowedLatenessMillis;
+		this.listener = listener;
+		this.highestItem = -1;
+		this.closedMillis = NONE;
+		this.nextSweepMillis = NONE;
+		allocate(INITIAL_ITEMS);
+	}
+
+	public static WindowAggregator tumbling(long windowMillis, AggregateListener listener)
+	{
+		return new WindowAggregator(windowMillis, windowMillis, 0, listener);
+	}
+
+	public static WindowAggregator sliding(long windowMillis, long slideMillis, AggregateListener listener)
+	{
+		return new WindowAggregator(windowMillis, slideMillis, 0, listener);
+	}
+
+	public long getLateCount()
+	{
+		return lateCount;
+	}
+
+	@Override
+	public void recorded(int handle, OPCValueType type, long timestampMillis, long valueBits, String stringValue)
+	{
+		switch(type)
+		{
+			case BOOLEAN:
+			case INT:
+				add(handle, timestampMillis, (int)valueBits);
+				break;
+			case FLOAT:
+				add(handle, timestampMillis, Float.intBitsToFloat((int)valueBits));
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * @param item a non negative item handle - keep them dense, they index the state arrays
+	 */
+	public void add(int item, long timestampMillis, double value)
+	{
+		if(item >= currentPane.length)
+		{
+			allocate(Math.max(currentPane.length * 2, item + 1));
+		}
+		if(item > highestItem)
+		{
+			highestItem = item;
+		}
+		if(nextSweepMillis == NONE || timestampMillis - allowedLatenessMillis >= nextSweepMillis)
+		{
+			long sweepTo = paneStartOf(timestampMillis - allowedLatenessMillis);
+			advanceTo(sweepTo);
+			nextSweepMillis = sweepTo + slideMillis;
+		}
+
+		long pane = paneStartOf(timestampMillis);
+		long current = currentPane[item];
+		if(timestampMillis < closedMillis || (current != NONE && pane < current))
+		{
+			lateCount++;
+			return;
+		}
+		if(current != NONE && pane > current)
+		{
+			close(item, pane);
+			current = currentPane[item];
+		}
+		if(current == NONE)
+		{
+			open(item, pane);
+		}
+
+		int slot = slot(item, pane);
+		paneCount[slot]++;
+		paneSum[slot] += value;
+		if(value < paneMin[slot])
+		{
+			paneMin[slot] = value;
+		}
+		if(value > paneMax[slot])
+		{
+			paneMax[slot] = value;
+		}
+	}
+
+	/**
+	 * Closes every item's windows ending at or before timestampMillis, e.g.
+	 * from a timer when samples stop arriving.
+	 */
+	public void advanceTo(long timestampMillis)
+	{
+		closedMillis = Math.max(closedMillis, paneStartOf(timestampMillis));
+		for(int item=0; item<=highestItem; item++)
+		{
+			if(currentPane[item] != NONE)
+			{
+				close(item, timestampMillis);
+			}
+		}
+	}
+
+	/**
+	 * Emits the item's windows ending at or before limit, moving its newest
+	 * pane forward to the one containing limit - or dropping the item's
+	 * state once no later window can contain any of its samples.
+	 */
+	private void close(int item, long limit)
+	{
+		long pane = currentPane[item];
+		while(pane + slideMillis <= limit)
+		{
+			long end = pane + slideMillis;
+			emit(item, end);
+			long next = end;
+			if(!hasSamplesFrom(item, next + slideMillis - windowMillis))
+			{
+				currentPane[item] = NONE;
+				return;
+			}
+			reset(slot(item, next), next);
+			currentPane[item] = pane = next;
+		}
+	}
+
+	private void open(int item, long pane)
+	{
+		int base = item * panes;
+		for(int i=0; i<panes; i++)
+		{
+			paneCount[base + i] = 0;
+		}
+		reset(slot(item, pane), pane);
+		currentPane[item] = pane;
+	}
+
+	private void emit(int item, long windowEndMillis)
+	{
+		long windowStartMillis = windowEndMillis - windowMillis;
+		long count = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		double sum = 0;
+		int base = item * panes;
+		for(int i=base; i<base+panes; i++)
+		{
+			if(paneCount[i] > 0 && paneStart[i] >= windowStartMillis && paneStart[i] < windowEndMillis)
+			{
+				count += paneCount[i];
+				sum += paneSum[i];
+				min = Math.min(min, paneMin[i]);
+				max = Math.max(max, paneMax[i]);
+			}
+		}
+		if(count > 0)
+		{
+			listener.windowClosed(item, windowStartMillis, windowEndMillis, count, min, max, sum / count);
+		}
+	}
+
+	private boolean hasSamplesFrom(int item, long fromMillis)
+	{
+		int base = item * panes;
+		for(int i=base; i<base+panes; i++)
+		{
+			if(paneCount[i] > 0 && paneStart[i] >= fromMillis)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void reset(int slot, long start)
+	{
+		paneStart[slot] = start;
+		paneCount[slot] = 0;
+		paneSum[slot] = 0;
+		paneMin[slot] = Double.POSITIVE_INFINITY;
+		paneMax[slot] = Double.NEGATIVE_INFINITY;
+	}
+
+	private int slot(int item, long pane)
+	{
+		return item * panes + (int)Math.floorMod(Math.floorDiv(pane, slideMillis), (long)panes);
+	}
+
+	private long paneStartOf(long timestampMillis)
+	{
+		return Math.floorDiv(timestampMillis, slideMillis) * slideMillis;
+	}
+
+	private void allocate(int items)
+	{
+		int previous = currentPane == null ? 0 : currentPane.length;
+		currentPane = currentPane == null ? new long[items] : Arrays.copyOf(currentPane, items);
+		Arrays.fill(currentPane, previous, items, NONE);
+		paneStart = grow(paneStart, items * panes);
+		paneCount = grow(paneCount, items * panes);
+		paneMin = grow(paneMin, items * panes);
+		paneMax = grow(paneMax, items * panes);
+		paneSum = grow(paneSum, items * panes);
+	}
+
+	private static long[] grow(long[] array, int length)
+	{
+		return array == null ? new long[length] : Arrays.copyOf(array, length);
+	}
+
+	private static double[] grow(double[] array, int length)
+	{
+		return array == null ? new double[length] : Arrays.copyOf(array, length);
+	}
+}
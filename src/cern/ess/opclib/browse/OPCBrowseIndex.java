@@ -0,0 +1,416 @@
+package cern.ess.opclib.browse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable trie over dotted item names ("testGroup.sub.myBool"), one node
+ * per name segment, for answering browse queries without scanning or
+ * copying the flat item list.
+ *
+ * The names are kept in one array sorted segment by segment, so the items
+ * at and below any node are a contiguous range of it - listing them is a
+ * view of the array. Queries:
+ * <pre>
+ * children("testGroup")            child segment names of a node
+ * itemsUnder("testGroup")          every item at or below a node
+ * match("testGroup.*.my*", ...)    wildcard query, streamed to a visitor or paged
+ * </pre>
+ * Pattern segments may contain '*' (any characters) and '?' (one
+ * character); a "**" segment matches any number of segments. Results come
+ * in index order, so a page is stable for a given index.
+ *
+ * Safe to share between threads.
+ */
+public class OPCBrowseIndex
+{
+	private static final String ANY_SEGMENTS = "**";
+
+	/**
+	 * Segment by segment - '.' sorts before any other character - so trie
+	 * pre-order and array order agree.
+	 */
+	private static final Comparator<String> SEGMENT_ORDER = new Comparator<String>()
+	{
+		@Override
+		public int compare(String a, String b)
+		{
+			int length = Math.min(a.length(), b.length());
+			for(int i=0; i<length; i++)
+			{
+				char ca = a.charAt(i);
+				char cb = b.charAt(i);
+				if(ca != cb)
+				{
+					if(ca == '.')
+					{
+						return -1;
+					}
+					if(cb == '.')
+					{
+						return 1;
+					}
+					return ca - cb;
+				}
+			}
+			return a.length() - b.length();
+		}
+	};
+
+	private final String[] names;
+	private final List<String> view;
+	private final Node root;
+
+	private OPCBrowseIndex(String[] names)
+	{
+		this.names = names;
+		this.view = Collections.unmodifiableList(Arrays.asList(names));
+		this.root = buildTrie(names);
+	}
+
+	/**
+	 * @param itemNames as returned by getItemNames() - not modified, duplicates are dropped
+	 */
+	public static OPCBrowseIndex build(String[] itemNames)
+	{
+		String[] sorted = itemNames.clone();
+		Arrays.sort(sorted, SEGMENT_ORDER);
+		int distinct = 0;
+		for(int i=0; i<sorted.length; i++)
+		{
+			if(distinct == 0 || !sorted[i].equals(sorted[distinct-1]))
+			{
+				sorted[distinct++] = sorted[i];
+			}
+		}
+		return new OPCBrowseIndex(distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct));
+	}
+
+	public int size()
+	{
+		return names.length;
+	}
+
+	/**
+	 * @return every item, in index order (read only view)
+	 */
+	public List<String> getItemNames()
+	{
+		return view;
+	}
+
+	public String getItemName(int index)
+	{
+		return names[index];
+	}
+
+	/**
+	 * @param path a dotted node path, "" for the root
+	 * @return the names of the node's child segments (read only), empty for an unknown path
+	 */
+	public List<String> children(String path)
+	{
+		Node node = find(path);
+		if(node == null || node.children.length == 0)
+		{
+			return Collections.emptyList();
+		}
+		return node.childNames();
+	}
+
+	/**
+	 * @return the item at path (if there is one) and all items below it, a read only view
+	 */
+	public List<String> itemsUnder(String path)
+	{
+		Node node = find(path);
+		return node == null ? Collections.<String>emptyList() : view.subList(node.from, node.to);
+	}
+
+	/**
+	 * Streams the items matching the pattern to the visitor until it returns false.
+	 */
+	public void match(String pattern, OPCItemVisitor visitor)
+	{
+		String[] segments = pattern.isEmpty() ? new String[0] : pattern.split("\\.", -1);
+		if(segments.length >= Long.SIZE)
+		{
+			throw new IllegalArgumentException("pattern has more than " + (Long.SIZE-1) + " segments: " + pattern);
+		}
+		match(root, segments, closure(segments, 1L), visitor);
+	}
+
+	/**
+	 * @return the matching items from the offset-th on, at most limit of them
+	 */
+	public List<String> match(String pattern, final int offset, final int limit)
+	{
+		final List<String> page = new ArrayList<String>(Math.min(limit, 256));
+		if(limit <= 0)
+		{
+			return page;
+		}
+		match(pattern, new OPCItemVisitor()
+		{
+			private int skipped;
+
+			@Override
+			public boolean visit(String item, int index)
+			{
+				if(skipped < offset)
+				{
+					skipped++;
+					return true;
+				}
+				page.add(item);
+				return page.size() < limit;
+			}
+		});
+		return page;
+	}
+
+	/**
+	 * @return all matching items
+	 */
+	public List<String> match(String pattern)
+	{
+		return match(pattern, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Pre-order walk of the trie carrying the set of pattern positions still
+	 * alive at each node (bit p: segments[0..p) matched), so every item is
+	 * visited at most once and in index order however many ways "**" could
+	 * match it. Subtrees no position survives into are skipped.
+	 *
+	 * @return false if the visitor stopped the query
+	 */
+	private boolean match(Node node, String[] segments, long positions, OPCItemVisitor visitor)
+	{
+		if(node.item >= 0 && (positions & (1L << segments.length)) != 0 && !visitor.visit(names[node.item], node.item))
+		{
+			return false;
+		}
+		int literal = literalPosition(segments, positions);
+		if(literal >= 0)
+		{
+			// only one way on - look the child up instead of trying them all
+			Node child = node.child(segments[literal]);
+			return child == null || match(child, segments, closure(segments, 1L << (literal+1)), visitor);
+		}
+		for(Node child : node.children)
+		{
+			long next = 0;
+			for(int p=0; p<segments.length; p++)
+			{
+				if((positions & (1L << p)) == 0)
+				{
+					continue;
+				}
+				if(ANY_SEGMENTS.equals(segments[p]))
+				{
+					next |= 1L << p;
+				}
+				else if(glob(segments[p], 0, child.segment, 0))
+				{
+					next |= 1L << (p+1);
+				}
+			}
+			if(next != 0 && !match(child, segments, closure(segments, next), visitor))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the position if positions holds just one, for a segment without wildcards, else -1
+	 */
+	private static int literalPosition(String[] segments, long positions)
+	{
+		if(Long.bitCount(positions) != 1)
+		{
+			return -1;
+		}
+		int p = Long.numberOfTrailingZeros(positions);
+		if(p == segments.length)
+		{
+			return -1;
+		}
+		String segment = segments[p];
+		return segment.indexOf('*') < 0 && segment.indexOf('?') < 0 ? p : -1;
+	}
+
+	/**
+	 * Adds the positions reachable by letting a "**" match no segment.
+	 */
+	private static long closure(String[] segments, long positions)
+	{
+		for(int p=0; p<segments.length; p++)
+		{
+			if((positions & (1L << p)) != 0 && ANY_SEGMENTS.equals(segments[p]))
+			{
+				positions |= 1L << (p+1);
+			}
+		}
+		return positions;
+	}
+
+	private Node find(String path)
+	{
+		Node node = root;
+		if(path.isEmpty())
+		{
+			return node;
+		}
+		int start = 0;
+		while(node != null)
+		{
+			int end = path.indexOf('.', start);
+			String segment = end < 0 ? path.substring(start) : path.substring(start, end);
+			node = node.child(segment);
+			if(end < 0)
+			{
+				return node;
+			}
+			start = end + 1;
+		}
+		return null;
+	}
+
+	/**
+	 * '*' any run of characters, '?' one character.
+	 */
+	static boolean glob(String pattern, int p, String text, int t)
+	{
+		while(p < pattern.length())
+		{
+			char c = pattern.charAt(p);
+			if(c == '*')
+			{
+				for(int i=text.length(); i>=t; i--)
+				{
+					if(glob(pattern, p+1, text, i))
+					{
+						return true;
+					}
+				}
+				return false;
+			}
+			if(t == text.length() || (c != '?' && c != text.charAt(t)))
+			{
+				return false;
+			}
+			p++;
+			t++;
+		}
+		return t == text.length();
+	}
+
+	private static Node buildTrie(String[] names)
+	{
+		Node root = new Node("", 0);
+		List<Node> path = new ArrayList<Node>();
+		path.add(root);
+		for(int index=0; index<names.length; index++)
+		{
+			String[] segments = names[index].split("\\.", -1);
+			// the shared prefix with the previous name is still open
+			int depth = 1;
+			while(depth < path.size() && depth <= segments.length && path.get(depth).segment.equals(segments[depth-1]))
+			{
+				depth++;
+			}
+			while(path.size() > depth)
+			{
+				path.remove(path.size()-1).close(index);
+			}
+			for(int s=depth-1; s<segments.length; s++)
+			{
+				Node node = new Node(segments[s], index);
+				path.get(path.size()-1).add(node);
+				path.add(node);
+			}
+			path.get(path.size()-1).item = index;
+		}
+		while(!path.isEmpty())
+		{
+			path.remove(path.size()-1).close(names.length);
+		}
+		return root;
+	}
+
+	private static class Node
+	{
+		private final String segment;
+		private final int from;
+		private int to;
+		/** index of the item at this node, -1 if none */
+		private int item;
+		private Node[] children;
+		private List<Node> building;
+		private List<String> childNames;
+
+		Node(String segment, int from)
+		{
+			this.segment = segment;
+			this.from = from;
+			this.item = -1;
+			this.building = new ArrayList<Node>();
+		}
+
+		void add(Node child)
+		{
+			building.add(child);
+		}
+
+		void close(int end)
+		{
+			to = end;
+			children = building.toArray(new Node[building.size()]);
+			String[] segments = new String[children.length];
+			for(int i=0; i<children.length; i++)
+			{
+				segments[i] = children[i].segment;
+			}
+			childNames = Collections.unmodifiableList(Arrays.asList(segments));
+			building = null;
+		}
+
+		List<String> childNames()
+		{
+			return childNames;
+		}
+
+		/**
+		 * Children are in segment order - binary search.
+		 */
+		Node child(String name)
+		{
+			int low = 0;
+			int high = children.length - 1;
+			while(low <= high)
+			{
+				int middle = (low + high) >>> 1;
+				int comparison = children[middle].segment.compareTo(name);
+				if(comparison < 0)
+				{
+					low = middle + 1;
+				}
+				else if(comparison > 0)
+				{
+					high = middle - 1;
+				}
+				else
+				{
+					return children[middle];
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package cern.ess.opclib.browse;
+
+/**
+ * Receives the items of a browse query one at a time, in index order.
+ */
+public interface OPCItemVisitor
+{
+	/**
+	 * @param index the item's position in OPCBrowseIndex.getItemNames()
+	 * @return false to stop the query
+	 */
+	public boolean visit(String item, int index);
+}
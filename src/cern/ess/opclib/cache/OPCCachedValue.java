@@ -0,0 +1,53 @@
+package cern.ess.opclib.cache;
+
+/**
+ * The last known value of an item. Stale values were loaded from a
+ * snapshot and have not been read from the server since the client started.
+ */
+public class OPCCachedValue
+{
+	private final String itemAddress;
+	private final Object value;
+	private final long timestampMillis;
+	private final boolean stale;
+
+	/**
+	 * @param value Boolean, Integer, Float or String
+	 */
+	public OPCCachedValue(String itemAddress, Object value, long timestampMillis, boolean stale)
+	{
+		this.itemAddress = itemAddress;
+		this.value = value;
+		this.timestampMillis = timestampMillis;
+		this.stale = stale;
+	}
+
+	public String getItemAddress()
+	{
+		return itemAddress;
+	}
+
+	public Object getValue()
+	{
+		return value;
+	}
+
+	/**
+	 * @return when the value was read from the server
+	 */
+	public long getTimestampMillis()
+	{
+		return timestampMillis;
+	}
+
+	public boolean isStale()
+	{
+		return stale;
+	}
+
+	@Override
+	public String toString()
+	{
+		return itemAddress+" ["+value+"] at ["+timestampMillis+"]"+(stale ? " (stale)" : "");
+	}
+}
@@ -0,0 +1,248 @@
+package cern.ess.opclib.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import cern.ess.opclib.OPCValueCodec;
+
+/**
+ * Checkpoint of an OPCValueCache in a file, so a restarted client knows
+ * item values and names without asking the server.
+ *
+ * Layout: magic, version, written at (millis), item name count, value
+ * count; the item names; the items of the values; then, 8 byte aligned,
+ * one OPCValueCodec record per value, its handle the index of its item.
+ * Strings (names, items) are an unsigned short length and UTF-16 chars;
+ * names and values too long for that or for a value record are left out.
+ *
+ * Written to a temporary file that replaces the snapshot once complete, so
+ * a crash leaves the previous snapshot. Both are read and written through
+ * a heap buffer, not mapped: a mapping is only released when collected,
+ * and on Windows a mapped file can be neither replaced nor resized.
+ */
+public class OPCSnapshot
+{
+	public static final int MAGIC = 0x4F504353;
+	public static final int VERSION = 2;
+
+	private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+	private static final int MAX_STRING_CHARS = 0xFFFF;
+
+	private OPCSnapshot()
+	{
+	}
+
+	/**
+	 * @return the number of values written
+	 */
+	public static int write(File snapshot, OPCValueCache cache) throws IOException
+	{
+		List<String> names = new ArrayList<String>();
+		List<OPCCachedValue> values = new ArrayList<OPCCachedValue>();
+		long size = HEADER_BYTES;
+		if(cache.getItemNames() != null)
+		{
+			for(String name : cache.getItemNames())
+			{
+				if(stringBytes(name) > 0)
+				{
+					names.add(name);
+					size += stringBytes(name);
+				}
+			}
+		}
+		long recordBytes = 0;
+		for(OPCCachedValue value : cache.values())
+		{
+			int bytes = recordBytes(value.getValue());
+			if(bytes > 0 && stringBytes(value.getItemAddress()) > 0)
+			{
+				values.add(value);
+				size += stringBytes(value.getItemAddress());
+				recordBytes += bytes;
+			}
+		}
+		size = align(size) + recordBytes;
+		if(size > Integer.MAX_VALUE)
+		{
+			throw new IOException("snapshot of ["+values.size()+"] values too large");
+		}
+
+		File temporary = new File(snapshot.getPath() + ".tmp");
+		ByteBuffer buffer = ByteBuffer.allocate((int)size);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(System.currentTimeMillis());
+		buffer.putInt(names.size());
+		buffer.putInt(values.size());
+		for(String name : names)
+		{
+			putString(buffer, name);
+		}
+		for(OPCCachedValue value : values)
+		{
+			putString(buffer, value.getItemAddress());
+		}
+		OPCValueCodec record = new OPCValueCodec().wrap(buffer, (int)align(buffer.position()));
+		for(int i=0; i<values.size(); i++)
+		{
+			OPCCachedValue value = values.get(i);
+			record.putValue(i, value.getTimestampMillis(), OPCValueCodec.QUALITY_GOOD, value.getValue());
+			record.next();
+		}
+		buffer.clear();
+		FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try
+		{
+			while(buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		finally
+		{
+			channel.close();
+		}
+		Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return values.size();
+	}
+
+	/**
+	 * Puts the snapshot's values (stale) and item names into the cache.
+	 *
+	 * @return the number of values loaded
+	 */
+	public static int load(File snapshot, OPCValueCache cache) throws IOException
+	{
+		ByteBuffer buffer = readFully(snapshot);
+		try
+		{
+			if(buffer.capacity() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			{
+				throw new IOException("not a value snapshot ["+snapshot+"]");
+			}
+			buffer.getLong();
+			String[] names = new String[buffer.getInt()];
+			String[] items = new String[buffer.getInt()];
+			for(int i=0; i<names.length; i++)
+			{
+				names[i] = getString(buffer);
+			}
+			for(int i=0; i<items.length; i++)
+			{
+				items[i] = getString(buffer);
+			}
+			OPCValueCodec record = new OPCValueCodec().wrap(buffer, (int)align(buffer.position()));
+			for(int i=0; i<items.length; i++)
+			{
+				if(record.getHandle() != i || record.getType() == null)
+				{
+					throw new IOException("corrupt value snapshot ["+snapshot+"] - bad record of ["+items[i]+"]");
+				}
+				Object value;
+				switch(record.getType())
+				{
+					case BOOLEAN: value = Boolean.valueOf(record.getBoolean()); break;
+					case INT: value = Integer.valueOf(record.getInt()); break;
+					case FLOAT: value = Float.valueOf(record.getFloat()); break;
+					default: value = record.getString(); break;
+				}
+				cache.putStale(items[i], value, record.getTimestampMillis());
+				record.next();
+			}
+			if(names.length > 0 && cache.getItemNames() == null)
+			{
+				cache.setItemNames(names, true);
+			}
+			return items.length;
+		}
+		catch(RuntimeException e)
+		{
+			// buffer under/overflow, negative sizes
+			throw new IOException("corrupt value snapshot ["+snapshot+"] - "+e);
+		}
+	}
+
+	private static ByteBuffer readFully(File file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try
+		{
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+			{
+				throw new IOException("not a value snapshot ["+file+"] - too large");
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int)size);
+			while(buffer.hasRemaining())
+			{
+				if(channel.read(buffer) < 0)
+				{
+					throw new IOException("value snapshot ["+file+"] truncated while reading");
+				}
+			}
+			buffer.clear();
+			return buffer;
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return the bytes of the value's record, 0 if the value cannot be stored
+	 */
+	private static int recordBytes(Object value)
+	{
+		if(value instanceof Boolean || value instanceof Integer || value instanceof Float)
+		{
+			return OPCValueCodec.SCALAR_RECORD_BYTES;
+		}
+		if(value instanceof String && OPCValueCodec.stringBytes((String)value) <= OPCValueCodec.MAX_STRING_BYTES)
+		{
+			return OPCValueCodec.stringRecordBytes((String)value);
+		}
+		return 0;
+	}
+
+	private static long align(long position)
+	{
+		return (position + 7) & ~7L;
+	}
+
+	/**
+	 * @return -1 if too long
+	 */
+	private static int stringBytes(String text)
+	{
+		return text.length() > MAX_STRING_CHARS ? -1 : 2 + 2 * text.length();
+	}
+
+	private static void putString(ByteBuffer buffer, String text)
+	{
+		buffer.putChar((char)text.length());
+		for(int i=0; i<text.length(); i++)
+		{
+			buffer.putChar(text.charAt(i));
+		}
+	}
+
+	private static String getString(ByteBuffer buffer)
+	{
+		char[] chars = new char[buffer.getChar()];
+		for(int i=0; i<chars.length; i++)
+		{
+			chars[i] = buffer.getChar();
+		}
+		return new String(chars);
+	}
+}
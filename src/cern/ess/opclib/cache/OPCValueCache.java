@@ -0,0 +1,88 @@
+package cern.ess.opclib.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Last known value per item and the server's item names, as last read
+ * through the client - what an OPCSnapshot checkpoints. Thread safe.
+ */
+public class OPCValueCache
+{
+	private final ConcurrentMap<String, OPCCachedValue> values;
+	private volatile String[] itemNames;
+	private volatile boolean itemNamesStale;
+
+	public OPCValueCache()
+	{
+		this.values = new ConcurrentHashMap<String, OPCCachedValue>();
+	}
+
+	public void update(String itemAddress, Object value, long timestampMillis)
+	{
+		values.put(itemAddress, new OPCCachedValue(itemAddress, value, timestampMillis, false));
+	}
+
+	/**
+	 * Loaded from a snapshot - does not replace a value read meanwhile.
+	 */
+	public void putStale(String itemAddress, Object value, long timestampMillis)
+	{
+		values.putIfAbsent(itemAddress, new OPCCachedValue(itemAddress, value, timestampMillis, true));
+	}
+
+	/**
+	 * @return null if the item's value is not known
+	 */
+	public OPCCachedValue get(String itemAddress)
+	{
+		return values.get(itemAddress);
+	}
+
+	public Iterable<OPCCachedValue> values()
+	{
+		return values.values();
+	}
+
+	public int size()
+	{
+		return values.size();
+	}
+
+	/**
+	 * @return items whose value has not been read since it was loaded
+	 */
+	public List<OPCCachedValue> getStaleValues()
+	{
+		List<OPCCachedValue> stale = new ArrayList<OPCCachedValue>();
+		for(OPCCachedValue value : values.values())
+		{
+			if(value.isStale())
+			{
+				stale.add(value);
+			}
+		}
+		return stale;
+	}
+
+	public void setItemNames(String[] names, boolean stale)
+	{
+		this.itemNames = names;
+		this.itemNamesStale = stale;
+	}
+
+	/**
+	 * @return null if never read (nor loaded)
+	 */
+	public String[] getItemNames()
+	{
+		return itemNames;
+	}
+
+	public boolean isItemNamesStale()
+	{
+		return itemNamesStale;
+	}
+}
@@ -0,0 +1,201 @@
+package cern.ess.opclib.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OpcApi;
+import cern.ess.opclib.log.OPCLogger;
+
+/**
+ * Keeps an OPCValueCache across restarts: loads the snapshot file (values
+ * marked stale) when created, checkpoints the cache to it periodically and
+ * on stop(), and after the client is initialised re-reads the stale values
+ * one at a time on a low priority background thread - instead of every
+ * caller hitting the server at once on redeploy.
+ */
+public class OPCWarmStart
+{
+	/**
+	 * The client's getItemNames() bypassing the cache, which it answers from while stale.
+	 */
+	public interface ItemNamesSource
+	{
+		public String[] fetchItemNames() throws OPCException;
+	}
+
+	public static final long DEFAULT_CHECKPOINT_INTERVAL_MS = 30000;
+
+	private static final OPCLogger LOG = OPCLogger.getLogger(OPCWarmStart.class);
+
+	private final File snapshot;
+	private final long checkpointIntervalMs;
+	private final OPCValueCache cache;
+	private final ScheduledExecutorService checkpointThread;
+	private volatile Thread refreshThread;
+
+	public OPCWarmStart(File snapshot, long checkpointIntervalMs)
+	{
+		this.snapshot = snapshot;
+		this.checkpointIntervalMs = checkpointIntervalMs;
+		this.cache = new OPCValueCache();
+		this.checkpointThread = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "opclib-snapshot");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		if(snapshot.exists())
+		{
+			try
+			{
+				int loaded = OPCSnapshot.load(snapshot, cache);
+				LOG.info("loaded [{}] item values from snapshot [{}]", Integer.valueOf(loaded), snapshot);
+			}
+			catch(IOException e)
+			{
+				LOG.warn("failed to load snapshot [{}] - starting cold: {}", snapshot, e.getMessage());
+			}
+		}
+	}
+
+	public OPCValueCache getCache()
+	{
+		return cache;
+	}
+
+	public void start()
+	{
+		checkpointThread.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				checkpoint();
+			}
+		}, checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Re-reads the stale item names and values through the client, in the background.
+	 */
+	public synchronized void refresh(final OpcApi client, final ItemNamesSource itemNames)
+	{
+		if(refreshThread != null)
+		{
+			return;
+		}
+		refreshThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				refreshStale(client, itemNames);
+			}
+		}, "opclib-warm-start");
+		refreshThread.setDaemon(true);
+		refreshThread.setPriority(Thread.MIN_PRIORITY);
+		refreshThread.start();
+	}
+
+	/**
+	 * Stops the background threads and writes a last checkpoint.
+	 */
+	public void stop()
+	{
+		Thread refreshing = refreshThread;
+		if(refreshing != null)
+		{
+			refreshing.interrupt();
+		}
+		checkpointThread.shutdownNow();
+		checkpoint();
+	}
+
+	public synchronized void checkpoint()
+	{
+		try
+		{
+			int written = OPCSnapshot.write(snapshot, cache);
+			LOG.debug("checkpointed [{}] item values to [{}]", Integer.valueOf(written), snapshot);
+		}
+		catch(IOException e)
+		{
+			LOG.error("failed to write snapshot [{}]", snapshot, e);
+		}
+	}
+
+	private void refreshStale(OpcApi client, ItemNamesSource itemNames)
+	{
+		if(cache.isItemNamesStale())
+		{
+			try
+			{
+				itemNames.fetchItemNames();
+			}
+			catch(OPCException e)
+			{
+				LOG.warn("failed to refresh item names - {}", e.getMessage());
+			}
+		}
+
+		List<OPCCachedValue> stale = cache.getStaleValues();
+		int refreshed = 0;
+		for(OPCCachedValue value : stale)
+		{
+			if(Thread.currentThread().isInterrupted())
+			{
+				return;
+			}
+			if(!cache.get(value.getItemAddress()).isStale())
+			{
+				// read by the application meanwhile
+				continue;
+			}
+			try
+			{
+				read(client, value);
+				refreshed++;
+			}
+			catch(OPCException e)
+			{
+				LOG.debug("failed to refresh [{}] - {}", value.getItemAddress(), e.getMessage());
+			}
+		}
+		LOG.info("warm start refreshed [{}] of [{}] stale item values", Integer.valueOf(refreshed), Integer.valueOf(stale.size()));
+	}
+
+	/**
+	 * The client puts the value read into the cache.
+	 */
+	private static void read(OpcApi client, OPCCachedValue value) throws OPCException
+	{
+		String item = value.getItemAddress();
+		if(value.getValue() instanceof Boolean)
+		{
+			client.readBoolean(item);
+		}
+		else if(value.getValue() instanceof Integer)
+		{
+			client.readInt(item);
+		}
+		else if(value.getValue() instanceof Float)
+		{
+			client.readFloat(item);
+		}
+		else
+		{
+			client.readString(item);
+		}
+	}
+}
@@ -20,4 +20,10 @@ public class GetItemNamesCommand extends OPCCommandBase implements OPCCommand {
 	{
 		return getOpcApi().getItemNames();
 	}
+	
+	@Override
+	public OPCCommandType getCommandType() 
+	{
+		return OPCCommandType.GET_ITEM_NAMES;
+	}
 }
@@ -20,4 +20,10 @@ public class GetLocalServerListCommand extends OPCCommandBase implements OPCComm
 	{
 		return getOpcApi().getLocalServerList();
 	}
+	
+	@Override
+	public OPCCommandType getCommandType() 
+	{
+		return OPCCommandType.GET_LOCAL_SERVER_LIST;
+	}
 }
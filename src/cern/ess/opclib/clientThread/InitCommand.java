@@ -36,4 +36,10 @@ public class InitCommand extends OPCCommandBase implements OPCCommand
 	{
 		return true;
 	}
+	
+	@Override
+	public OPCCommandType getCommandType() 
+	{
+		return OPCCommandType.INIT;
+	}
 }
@@ -0,0 +1,83 @@
+package cern.ess.opclib.clientThread;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Per item group limits on the commands in flight (queued or executing), so
+ * the callers of one misbehaving device cannot occupy the whole request
+ * queue. The group of an item is its address up to the last '.', e.g.
+ * "Bucket Brigade" for "Bucket Brigade.Int4" - items without a '.' each form
+ * their own group.
+ */
+public class OPCBulkheads
+{
+	public static final int DEFAULT_MAX_IN_FLIGHT_PER_GROUP = 16;
+
+	private final int maxInFlightPerGroup;
+	private final ConcurrentMap<String, Semaphore> groups;
+
+	/**
+	 * @param maxInFlightPerGroup 0 (or less) for no limit
+	 */
+	public OPCBulkheads(int maxInFlightPerGroup)
+	{
+		this.maxInFlightPerGroup = maxInFlightPerGroup;
+		this.groups = new ConcurrentHashMap<String, Semaphore>();
+	}
+
+	public static String groupOf(String itemAddress)
+	{
+		int separator = itemAddress.lastIndexOf('.');
+		return separator > 0 ? itemAddress.substring(0, separator) : itemAddress;
+	}
+
+	/**
+	 * Does not wait - a full group means its device is not keeping up.
+	 *
+	 * @return false if the item's group is full, otherwise the caller must release()
+	 */
+	public boolean tryAcquire(String itemAddress)
+	{
+		return maxInFlightPerGroup <= 0 || semaphoreFor(itemAddress).tryAcquire();
+	}
+
+	public void release(String itemAddress)
+	{
+		if(maxInFlightPerGroup > 0)
+		{
+			semaphoreFor(itemAddress).release();
+		}
+	}
+
+	public int getMaxInFlightPerGroup()
+	{
+		return maxInFlightPerGroup;
+	}
+
+	/**
+	 * @return commands currently in flight for the group
+	 */
+	public int getInFlight(String group)
+	{
+		Semaphore semaphore = groups.get(group);
+		return semaphore == null ? 0 : maxInFlightPerGroup - semaphore.availablePermits();
+	}
+
+	private Semaphore semaphoreFor(String itemAddress)
+	{
+		String group = groupOf(itemAddress);
+		Semaphore semaphore = groups.get(group);
+		if(semaphore == null)
+		{
+			Semaphore created = new Semaphore(maxInFlightPerGroup);
+			semaphore = groups.putIfAbsent(group, created);
+			if(semaphore == null)
+			{
+				semaphore = created;
+			}
+		}
+		return semaphore;
+	}
+}
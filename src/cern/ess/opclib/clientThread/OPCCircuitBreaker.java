@@ -0,0 +1,208 @@
+package cern.ess.opclib.clientThread;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OPCSessionException;
+import cern.ess.opclib.log.OPCLogger;
+import cern.ess.opclib.metrics.OPCClientMetrics;
+
+/**
+ * Circuit breaker around the native OPC session.
+ *
+ * CLOSED: commands run normally; failureThreshold consecutive session
+ * failures (see isSessionFailure, and native calls the watchdog found hung)
+ * trip the breaker, as does a session found stuck (forceOpen).
+ *
+ * OPEN: commands fail immediately with OPCServerUnavailableException instead
+ * of each blocking for the full response timeout. A background thread calls
+ * the Reconnector (re-init with the remembered host/server) with exponential
+ * backoff until it succeeds.
+ *
+ * HALF_OPEN: after a successful reconnect traffic is let through again; the
+ * first success closes the breaker, the first failure opens it again.
+ *
+ * Item errors (e.g. an unknown item) and callers timing out because the
+ * executor is busy say nothing about the session and are not counted. The
+ * native layer does not tell a lost session apart from an item error, so
+ * there a lost session shows as failing init or browse calls and as hung
+ * native calls.
+ */
+public class OPCCircuitBreaker
+{
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	/**
+	 * Re-establishes the session, called from the breaker's reconnect thread.
+	 */
+	public interface Reconnector
+	{
+		public void reconnect() throws OPCException;
+	}
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_INITIAL_BACKOFF_MS = 250;
+	public static final long DEFAULT_MAX_BACKOFF_MS = 30000;
+
+	private static final OPCLogger LOG = OPCLogger.getLogger(OPCCircuitBreaker.class);
+
+	private final int failureThreshold;
+	private final long initialBackoffMs;
+	private final long maxBackoffMs;
+	private final Reconnector reconnector;
+	private final OPCClientMetrics metrics;
+	private final AtomicReference<State> state;
+	private final AtomicInteger consecutiveFailures;
+	private final ScheduledExecutorService reconnectThread;
+
+	public OPCCircuitBreaker(Reconnector reconnector, OPCClientMetrics metrics)
+	{
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_INITIAL_BACKOFF_MS, DEFAULT_MAX_BACKOFF_MS, reconnector, metrics);
+	}
+
+	public OPCCircuitBreaker(int failureThreshold, long initialBackoffMs, long maxBackoffMs, Reconnector reconnector, OPCClientMetrics metrics)
+	{
+		this.failureThreshold = failureThreshold;
+		this.initialBackoffMs = initialBackoffMs;
+		this.maxBackoffMs = maxBackoffMs;
+		this.reconnector = reconnector;
+		this.metrics = metrics;
+		this.state = new AtomicReference<State>(State.CLOSED);
+		this.consecutiveFailures = new AtomicInteger();
+		this.reconnectThread = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "opclib-reconnect");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public State getState()
+	{
+		return state.get();
+	}
+
+	/**
+	 * @return false while the breaker is open - the caller should fail fast
+	 */
+	public boolean allowRequest()
+	{
+		return state.get() != State.OPEN;
+	}
+
+	/**
+	 * @return true if the command's failure means the session failed, not just the command's item
+	 */
+	public static boolean isSessionFailure(OPCCommandType type, OPCException failure)
+	{
+		return failure instanceof OPCSessionException || type == OPCCommandType.INIT || type == OPCCommandType.GET_ITEM_NAMES;
+	}
+
+	public void recordSuccess()
+	{
+		consecutiveFailures.set(0);
+		if(state.compareAndSet(State.HALF_OPEN, State.CLOSED))
+		{
+			changed(State.CLOSED);
+			LOG.info("circuit closed - OPC server calls succeeding again");
+		}
+	}
+
+	public void recordFailure()
+	{
+		State current = state.get();
+		if(current == State.HALF_OPEN || (current == State.CLOSED && consecutiveFailures.incrementAndGet() >= failureThreshold))
+		{
+			trip(current);
+		}
+	}
+
+	/**
+	 * Opens the breaker whatever the failure count - the session cannot take
+	 * commands at all.
+	 */
+	public void forceOpen()
+	{
+		State current = state.get();
+		if(current != State.OPEN)
+		{
+			trip(current);
+		}
+	}
+
+	/**
+	 * Stops the reconnect thread, an attempt in progress is interrupted.
+	 */
+	public void shutdown()
+	{
+		reconnectThread.shutdownNow();
+	}
+
+	private void trip(State from)
+	{
+		if(state.compareAndSet(from, State.OPEN))
+		{
+			changed(State.OPEN);
+			LOG.warn("circuit opened after [{}] consecutive failures - failing fast and reconnecting in the background", Integer.valueOf(consecutiveFailures.get()));
+			scheduleReconnect(initialBackoffMs);
+		}
+	}
+
+	private void scheduleReconnect(final long backoffMs)
+	{
+		try
+		{
+			reconnectThread.schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					attemptReconnect(backoffMs);
+				}
+			}, backoffMs, TimeUnit.MILLISECONDS);
+		}
+		catch(RejectedExecutionException e)
+		{
+			LOG.debug("breaker shut down - not reconnecting");
+		}
+	}
+
+	private void attemptReconnect(long backoffMs)
+	{
+		try
+		{
+			reconnector.reconnect();
+			consecutiveFailures.set(0);
+			if(state.compareAndSet(State.OPEN, State.HALF_OPEN))
+			{
+				changed(State.HALF_OPEN);
+				LOG.info("reconnected to OPC server - circuit half open");
+			}
+		}
+		catch(Exception e)
+		{
+			// not just OPCException - whatever goes wrong the breaker must not stay open for good
+			long nextBackoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+			LOG.warn("reconnect failed [{}] - retrying in [{}ms]", e.getMessage(), Long.valueOf(nextBackoffMs));
+			scheduleReconnect(nextBackoffMs);
+		}
+	}
+
+	private void changed(State newState)
+	{
+		if(metrics != null)
+		{
+			metrics.circuitStateChanged(newState);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package cern.ess.opclib.clientThread;
 
 import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OpcApi;
 
 
 
@@ -11,6 +12,19 @@ public interface OPCCommand
 	 */
 	public Object execute() throws OPCException, InterruptedException;
 	
+	/**
+	 * Called from the context of the OPC client handler thread just before
+	 * execute(): the session (OpcApi) owned by that thread, which the command
+	 * runs against instead of the one it was created with
+	 */
+	public void setSession(OpcApi session);
+	
+	/**
+	 * Called from the context of the OPC client handler thread as soon
+	 * as it takes the command from the request queue
+	 */
+	public void markDequeued();
+	
 	/**
 	 * Called from the context of the OPC client handler thread
 	 */
@@ -31,5 +45,15 @@ public interface OPCCommand
 	
 	public String getCommandName();
 	
+	public String getOpcItemAddress();
+	
+	public OPCCommandType getCommandType();
+	
+	/**
+	 * @return System.nanoTime() at which the command was handed to the
+	 * request queue (0 if never scheduled)
+	 */
+	public long getScheduledTimeNanos();
+	
 	public boolean isInitCommand();
 }
@@ -2,17 +2,55 @@ package cern.ess.opclib.clientThread;
 
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import cern.ess.opclib.OPCBulkheadFullException;
 import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OPCRateLimitExceededException;
+import cern.ess.opclib.OPCServerUnavailableException;
+import cern.ess.opclib.OPCTenant;
+import cern.ess.opclib.OPCTimeoutException;
 import cern.ess.opclib.OpcApi;
+import cern.ess.opclib.jfr.OPCCommandCompletedEvent;
+import cern.ess.opclib.jfr.OPCCommandEvent;
+import cern.ess.opclib.jfr.OPCCommandEvents;
+import cern.ess.opclib.jfr.OPCCommandQueuedEvent;
+import cern.ess.opclib.jfr.OPCCommandResponseEvent;
+import cern.ess.opclib.log.OPCLogger;
+import cern.ess.opclib.metrics.OPCClientMetrics;
 
 
 public abstract class OPCCommandBase implements OPCCommand 
 {
+	/**
+	 * How long a client waits for the executor to take its command, and then
+	 * again for the response; also how long the executor waits for the client
+	 * to collect a response.
+	 */
+	public static final long RESPONSE_TIMEOUT_MS = 1000;
+	
+	private static final OPCLogger LOG = OPCLogger.getLogger(OPCCommandBase.class);
+	
+	/** completion handshake: whichever of client (timeout) and executor (response) moves first wins */
+	private static final int PENDING = 0;
+	private static final int ABANDONED = 1;
+	private static final int RESPONDING = 2;
+	
 	private final OpcApi opcInterface;
 	private final String opcItemAddress;
+	private final String tenant;
 	private final SynchronousQueue<OPCCommand> requestQueue;
 	protected final SynchronousQueue<OPCCommandResult> responseQueue;
+	private final AtomicInteger completion;
+	private OPCClientMetrics metrics;
+	private OPCCircuitBreaker circuitBreaker;
+	private OPCCommandRouter router;
+	private OPCWaitStrategy waitStrategy;
+	/** null unless scheduled by the router's fair scheduler */
+	private OPCFairScheduler fairScheduler;
+	private volatile OpcApi session;
+	private volatile long scheduledTimeNanos;
+	private volatile OPCCommandQueuedEvent queuedEvent;
 	
 	public OPCCommandBase(
 			OpcApi opcInterface,
@@ -22,61 +60,256 @@ public abstract class OPCCommandBase implements OPCCommand
 	{
 		this.opcInterface = opcInterface;
 		this.opcItemAddress = opcItemAddress;
+		this.tenant = OPCTenant.current();
 		this.requestQueue = requestQueue;
 		this.responseQueue = responseQueue;		
+		this.completion = new AtomicInteger(PENDING);
 	}
 	
 	@Override
 	public Object scheduleAndWaitForResponse() throws OPCException
 	{	
-		scheduleCommand();			
-		return getResponse(responseQueue);
+		if(circuitBreaker != null && !isInitCommand() && !circuitBreaker.allowRequest())
+		{
+			if(metrics != null)
+			{
+				metrics.commandFastFailed(getCommandType());
+			}
+			throw new OPCServerUnavailableException("OPC server unavailable, reconnecting - not executing "+this);
+		}
+		
+		fairScheduler = router == null || isInitCommand() ? null : router.getFairScheduler();
+		if(fairScheduler != null && !fairScheduler.tryAcquireRate(tenant))
+		{
+			if(metrics != null)
+			{
+				metrics.commandRateLimited(getCommandType(), tenant);
+			}
+			throw new OPCRateLimitExceededException("tenant ["+tenant+"] is over its rate limit - not executing "+this);
+		}
+		
+		boolean bulkheadEntered = enterBulkhead();
+		long startNanos = System.nanoTime();
+		try
+		{
+			OPCCommandCompletedEvent completedEvent = OPCCommandEvents.beginCompleted();
+			scheduleCommand(completedEvent);			
+			return getResponse(responseQueue, completedEvent);
+		}
+		finally
+		{
+			if(bulkheadEntered)
+			{
+				router.getBulkheads().release(opcItemAddress);
+			}
+			if(fairScheduler != null && metrics != null)
+			{
+				metrics.tenantCommandCompleted(tenant, System.nanoTime() - startNanos);
+			}
+		}
+	}
+	
+	/**
+	 * @return true if a bulkhead permit was taken (and must be released)
+	 */
+	private boolean enterBulkhead() throws OPCBulkheadFullException
+	{
+		if(router == null || !getCommandType().isItemSpecific())
+		{
+			return false;
+		}
+		if(!router.getBulkheads().tryAcquire(opcItemAddress))
+		{
+			if(metrics != null)
+			{
+				metrics.commandBulkheadRejected(getCommandType());
+			}
+			throw new OPCBulkheadFullException("item group ["+OPCBulkheads.groupOf(opcItemAddress)+"] already has ["+router.getBulkheads().getMaxInFlightPerGroup()+"] commands in flight - not executing "+this);
+		}
+		return true;
 	}
 	
 
-	private Object getResponse(SynchronousQueue<OPCCommandResult> responseQueue) throws OPCException {
+	private Object getResponse(SynchronousQueue<OPCCommandResult> responseQueue, OPCCommandCompletedEvent completedEvent) throws OPCException {
 		try 
 		{
-			OPCCommandResult commandResult = responseQueue.poll(1, TimeUnit.SECONDS);
+			OPCCommandResult commandResult = pollOwnResult(responseQueue);
+			if(commandResult == null && !completion.compareAndSet(PENDING, ABANDONED))
+			{
+				// too late to give up - the executor is already handing over the response
+				commandResult = pollOwnResult(responseQueue);
+			}
+			
 			if(commandResult != null)
 			{
 				if(commandResult.isSuccess())
 				{					
+					endEvent(completedEvent, OPCCommandEvent.SUCCESS);
 					return commandResult.getResult();
 				}
 				else
 				{
-					System.err.println("**ERROR**: execution failure - "+this);
+					endEvent(completedEvent, OPCCommandEvent.ERROR);
+					LOG.error("**ERROR**: execution failure - {}", this);
 					throw commandResult.getException();
 				}
 			}
 			else
 			{
-				System.err.println("**ERROR**: timeout failure - "+this);
+				timedOut(completedEvent);
+				throw new OPCTimeoutException("no response within ["+RESPONSE_TIMEOUT_MS+"ms] - "+this);
 			}
 		} 
 		catch (InterruptedException e) 
 		{
-			System.err.println("**ERROR**: interrupt failure while waiting for reponse for - "+this);
+			completion.compareAndSet(PENDING, ABANDONED);
+			Thread.currentThread().interrupt();
+			endEvent(completedEvent, OPCCommandEvent.INTERRUPTED);
+			LOG.error("**ERROR**: interrupt failure while waiting for reponse for - {}", this);
+			throw new OPCException("interrupted while waiting for response - "+this);
+		}
+	}
+	
+	/**
+	 * A response the executor was still handing over when an earlier command
+	 * of this thread gave up waiting may be waiting in the (per thread)
+	 * response queue - it is discarded.
+	 */
+	private OPCCommandResult pollOwnResult(SynchronousQueue<OPCCommandResult> responseQueue) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MS);
+		while(true)
+		{
+			long remainingNanos = deadline - System.nanoTime();
+			OPCCommandResult commandResult = waitStrategy == null ? responseQueue.poll(remainingNanos, TimeUnit.NANOSECONDS) : waitStrategy.poll(responseQueue, remainingNanos);
+			if(commandResult == null || commandResult.getCommand() == null || commandResult.getCommand() == this)
+			{
+				return commandResult;
+			}
+			LOG.debug("discarding stale response for - {}", commandResult.getCommand());
 		}
-		
-		return null;
+	}
+	
+	private void timedOut(OPCCommandCompletedEvent completedEvent)
+	{
+		// not a circuit breaker failure - a busy executor is no lost session, a hung call is the watchdog's
+		if(metrics != null)
+		{
+			metrics.commandTimedOut(getCommandType());
+		}
+		endEvent(completedEvent, OPCCommandEvent.TIMEOUT);
+		LOG.error("**ERROR**: timeout failure - {}", this);
 	}
 
-	private void scheduleCommand() 
+	private void scheduleCommand(OPCCommandCompletedEvent completedEvent) throws OPCException 
 	{
+		boolean accepted = false;
 		try 
 		{
-			System.out.println("scheduling command...");
-			requestQueue.put(this);
-			System.out.println("scheduled command");
+			LOG.debug("scheduling command...");
+			scheduledTimeNanos = System.nanoTime();
+			queuedEvent = OPCCommandEvents.beginQueued();
+			if(metrics != null)
+			{
+				metrics.commandScheduled();
+			}
+			OPCCommandRouter.Lane lane = routedLane();
+			if(lane == null)
+			{
+				accepted = requestQueue.offer(this, RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			}
+			else if(fairScheduler == null)
+			{
+				accepted = router.getQueue(lane).offer(this, RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			}
+			else
+			{
+				accepted = offerInTurn(lane);
+			}
+			LOG.debug("scheduled command");
 		} 
 		catch (InterruptedException e1) 
 		{
-			System.err.println("**ERROR**: interrupt failure while submitting request for - "+this);
+			Thread.currentThread().interrupt();
+			notAccepted(OPCCommandEvent.INTERRUPTED);
+			endEvent(completedEvent, OPCCommandEvent.INTERRUPTED);
+			LOG.error("**ERROR**: interrupt failure while submitting request for - {}", this);
+			throw new OPCException("interrupted while submitting request - "+this);
+		}
+		
+		if(!accepted)
+		{
+			notAccepted(OPCCommandEvent.TIMEOUT);
+			timedOut(completedEvent);
+			throw new OPCTimeoutException("not taken by the OPC client executor within ["+RESPONSE_TIMEOUT_MS+"ms] - "+this);
 		}
 	}
 	
+	/**
+	 * @return null without a router - the command goes to the request queue
+	 */
+	private OPCCommandRouter.Lane routedLane()
+	{
+		if(router == null)
+		{
+			return null;
+		}
+		OPCCommandRouter.Lane lane = router.laneFor(this);
+		if(lane == OPCCommandRouter.Lane.SLOW && metrics != null)
+		{
+			metrics.commandRoutedToSlowLane();
+		}
+		return lane;
+	}
+	
+	/**
+	 * Waiting for the tenant's turn counts against the same timeout as the
+	 * offer; the turn ends once the executor has taken the command.
+	 */
+	private boolean offerInTurn(OPCCommandRouter.Lane lane) throws InterruptedException
+	{
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MS);
+		long deadline = System.nanoTime() + timeoutNanos;
+		if(!fairScheduler.acquire(lane, tenant, timeoutNanos))
+		{
+			return false;
+		}
+		try
+		{
+			return router.getQueue(lane).offer(this, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+		finally
+		{
+			fairScheduler.release(lane);
+		}
+	}
+	
+	private void notAccepted(String outcome)
+	{
+		if(metrics != null)
+		{
+			metrics.commandDequeued(null, 0);
+		}
+		endEvent(queuedEvent, outcome);
+		queuedEvent = null;
+	}
+	
+	@Override
+	public void markDequeued()
+	{
+		if(metrics != null)
+		{
+			long queueWaitNanos = System.nanoTime() - scheduledTimeNanos;
+			metrics.commandDequeued(getCommandType(), queueWaitNanos);
+			if(fairScheduler != null)
+			{
+				metrics.tenantCommandDequeued(tenant, queueWaitNanos);
+			}
+		}
+		endEvent(queuedEvent, OPCCommandEvent.SUCCESS);
+		queuedEvent = null;
+	}
+	
 	@Override
 	public String toString() 
 	{
@@ -88,9 +321,50 @@ public abstract class OPCCommandBase implements OPCCommand
 		return opcItemAddress;		
 	}
 	
+	/**
+	 * @return the tenant of the thread that created the command
+	 */
+	public String getTenant()
+	{
+		return tenant;
+	}
+	
 	public OpcApi getOpcApi()
 	{
-		return opcInterface;
+		OpcApi boundSession = session;
+		return boundSession != null ? boundSession : opcInterface;
+	}
+	
+	@Override
+	public void setSession(OpcApi session)
+	{
+		this.session = session;
+	}
+	
+	void setMetrics(OPCClientMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+	
+	void setCircuitBreaker(OPCCircuitBreaker circuitBreaker)
+	{
+		this.circuitBreaker = circuitBreaker;
+	}
+	
+	void setRouter(OPCCommandRouter router)
+	{
+		this.router = router;
+	}
+	
+	void setWaitStrategy(OPCWaitStrategy waitStrategy)
+	{
+		this.waitStrategy = waitStrategy;
+	}
+	
+	@Override
+	public long getScheduledTimeNanos()
+	{
+		return scheduledTimeNanos;
 	}
 	
 	@Override
@@ -109,12 +383,51 @@ public abstract class OPCCommandBase implements OPCCommand
 	@Override
 	public void reportError(OPCException exception) throws InterruptedException 
 	{
-		responseQueue.put(new OPCCommandResult(exception));
+		respond(new OPCCommandResult(this, exception), OPCCommandEvent.ERROR);
 	}
 	
 	@Override
 	public void reportSuccess(Object result) throws InterruptedException 
 	{
-		responseQueue.put(new OPCCommandResult(result));
+		respond(new OPCCommandResult(this, result), OPCCommandEvent.SUCCESS);
+	}
+	
+	/**
+	 * The handover is bounded so a client that gave up (timeout, interrupt)
+	 * can never block the executor.
+	 */
+	private void respond(OPCCommandResult commandResult, String outcome) throws InterruptedException
+	{
+		if(!completion.compareAndSet(PENDING, RESPONDING))
+		{
+			LOG.debug("client no longer waiting - dropping response for - {}", this);
+			return;
+		}
+		responding();
+		
+		OPCCommandResponseEvent responseEvent = OPCCommandEvents.beginResponse();
+		if(!responseQueue.offer(commandResult, RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+		{
+			LOG.warn("response not collected within [{}ms] - dropped for - {}", Long.valueOf(RESPONSE_TIMEOUT_MS), this);
+			outcome = OPCCommandEvent.TIMEOUT;
+		}
+		endEvent(responseEvent, outcome);
+	}
+	
+	/**
+	 * Called on the executor once the client is certain to collect the
+	 * response, before it is handed over - a command can publish what it
+	 * wrote to caller visible state here. Does nothing by default.
+	 */
+	protected void responding()
+	{
+	}
+	
+	private void endEvent(OPCCommandEvent event, String outcome)
+	{
+		if(event != null)
+		{
+			OPCCommandEvents.end(event, getCommandName(), opcItemAddress, outcome);
+		}
 	}
 }
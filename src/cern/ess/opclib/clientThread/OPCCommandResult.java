@@ -4,23 +4,44 @@ import cern.ess.opclib.OPCException;
 
 public class OPCCommandResult 
 {
+	private final OPCCommand command;
 	private final boolean success;
 	private final Object result;
 	private final OPCException exception;
 		
 	public OPCCommandResult(Object result)
 	{
+		this(null, result);
+	}
+	
+	public OPCCommandResult(OPCException opcException) 
+	{
+		this(null, opcException);
+	}
+	
+	OPCCommandResult(OPCCommand command, Object result)
+	{
+		this.command = command;
 		this.success = true;
 		this.result = result;
 		this.exception = null;
 	}
 	
-	public OPCCommandResult(OPCException opcException) 
+	OPCCommandResult(OPCCommand command, OPCException opcException) 
 	{
+		this.command = command;
 		this.success = false;
 		this.result = null;
 		this.exception = opcException;
 	}
+	
+	/**
+	 * @return the command this is the result of, null if not known
+	 */
+	OPCCommand getCommand()
+	{
+		return command;
+	}
 
 	public boolean isSuccess() 
 	{
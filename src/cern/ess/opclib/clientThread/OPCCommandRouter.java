@@ -0,0 +1,76 @@
+package cern.ess.opclib.clientThread;
+
+import java.util.concurrent.SynchronousQueue;
+
+/**
+ * Decides which request queue (lane) a command goes to: commands for items
+ * the OPCSlowItemDetector has found slow go to the slow lane, everything else
+ * to the fast lane, so a handful of slow tags cannot hold up all the others.
+ * Also owns the per item group bulkheads and, if enabled, the fair
+ * scheduler sharing the lanes between tenants.
+ */
+public class OPCCommandRouter
+{
+	public enum Lane { FAST, SLOW }
+
+	private final SynchronousQueue<OPCCommand> fastLane;
+	private final SynchronousQueue<OPCCommand> slowLane;
+	private final OPCBulkheads bulkheads;
+	private final OPCSlowItemDetector slowItemDetector;
+	private volatile OPCFairScheduler fairScheduler;
+
+	public OPCCommandRouter(SynchronousQueue<OPCCommand> fastLane, SynchronousQueue<OPCCommand> slowLane, OPCBulkheads bulkheads, OPCSlowItemDetector slowItemDetector)
+	{
+		this.fastLane = fastLane;
+		this.slowLane = slowLane;
+		this.bulkheads = bulkheads;
+		this.slowItemDetector = slowItemDetector;
+	}
+
+	public Lane laneFor(OPCCommand command)
+	{
+		return command.getCommandType().isItemSpecific() && slowItemDetector.isSlow(command.getOpcItemAddress()) ? Lane.SLOW : Lane.FAST;
+	}
+
+	public SynchronousQueue<OPCCommand> getQueue(Lane lane)
+	{
+		return lane == Lane.SLOW ? slowLane : fastLane;
+	}
+
+	/**
+	 * Called from the context of an OPC client handler thread after each native call.
+	 */
+	public void commandExecuted(OPCCommand command, long nativeNanos)
+	{
+		if(command.getCommandType().isItemSpecific())
+		{
+			slowItemDetector.record(command.getOpcItemAddress(), nativeNanos);
+		}
+	}
+
+	public OPCBulkheads getBulkheads()
+	{
+		return bulkheads;
+	}
+
+	/**
+	 * @return null if commands are taken first come first served
+	 */
+	public OPCFairScheduler getFairScheduler()
+	{
+		return fairScheduler;
+	}
+
+	/**
+	 * @param fairScheduler null for first come first served
+	 */
+	public void setFairScheduler(OPCFairScheduler fairScheduler)
+	{
+		this.fairScheduler = fairScheduler;
+	}
+
+	public OPCSlowItemDetector getSlowItemDetector()
+	{
+		return slowItemDetector;
+	}
+}
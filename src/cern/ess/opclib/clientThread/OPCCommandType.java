@@ -0,0 +1,56 @@
+package cern.ess.opclib.clientThread;
+
+/**
+ * Identifies the kind of an OPC command. Used as a cheap, allocation free
+ * key (via ordinal()) for per command type statistics.
+ */
+public enum OPCCommandType
+{
+	INIT("InitCommand", Access.NONE),
+	GET_ITEM_NAMES("GetItemNamesCommand", Access.NONE),
+	GET_LOCAL_SERVER_LIST("GetLocalServerListCommand", Access.NONE),
+	READ_BOOLEAN("ReadBooleanCommand", Access.READ),
+	READ_INT("ReadIntCommand", Access.READ),
+	READ_FLOAT("ReadFloatCommand", Access.READ),
+	READ_STRING("ReadStringCommand", Access.READ),
+	WRITE_BOOLEAN("WriteBooleanCommand", Access.WRITE),
+	WRITE_INT("WriteIntCommand", Access.WRITE),
+	WRITE_FLOAT("WriteFloatCommand", Access.WRITE),
+	WRITE_STRING("WriteStringCommand", Access.WRITE),
+	/** reads a batch of items - not specific to one */
+	READ_GROUP("ReadGroupCommand", Access.NONE);
+
+	private enum Access { NONE, READ, WRITE }
+
+	private final String commandName;
+	private final Access access;
+
+	private OPCCommandType(String commandName, Access access)
+	{
+		this.commandName = commandName;
+		this.access = access;
+	}
+
+	public String getCommandName()
+	{
+		return commandName;
+	}
+
+	/**
+	 * @return true if the command reads or writes a single opc item
+	 */
+	public boolean isItemSpecific()
+	{
+		return access != Access.NONE;
+	}
+
+	public boolean isRead()
+	{
+		return access == Access.READ;
+	}
+
+	public boolean isWrite()
+	{
+		return access == Access.WRITE;
+	}
+}
@@ -0,0 +1,310 @@
+package cern.ess.opclib.clientThread;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shares each lane's executor between the callers' tenants (see OPCTenant)
+ * by weighted fair queueing, so one busy caller - however many threads it
+ * calls from - cannot take every turn.
+ *
+ * Only slotsPerLane commands per lane are let through to offer themselves
+ * to the lane's request queue at a time; the others wait. When a slot frees
+ * up it goes to the tenant furthest behind its share, a tenant of weight 2
+ * getting twice the turns of one of weight 1 (the default). With nobody
+ * waiting a command goes straight through. A slot is only held until the
+ * executor takes the command, so the next command is already offered while
+ * the current one executes.
+ *
+ * Tenants can also be given a rate limit (token bucket): over it, commands
+ * are refused rather than queued.
+ */
+public class OPCFairScheduler
+{
+	public static final int DEFAULT_SLOTS_PER_LANE = 1;
+	public static final int DEFAULT_WEIGHT = 1;
+
+	private final int slotsPerLane;
+	private final LaneScheduler[] lanes;
+	private final ConcurrentMap<String, Integer> weights;
+	private final ConcurrentMap<String, RateLimit> rateLimits;
+
+	public OPCFairScheduler()
+	{
+		this(DEFAULT_SLOTS_PER_LANE);
+	}
+
+	/**
+	 * @param slotsPerLane commands per lane offered to the executor at once
+	 */
+	public OPCFairScheduler(int slotsPerLane)
+	{
+		if(slotsPerLane < 1)
+		{
+			throw new IllegalArgumentException("slots per lane must be at least 1, not ["+slotsPerLane+"]");
+		}
+		this.slotsPerLane = slotsPerLane;
+		this.lanes = new LaneScheduler[OPCCommandRouter.Lane.values().length];
+		for(int i=0; i<lanes.length; i++)
+		{
+			lanes[i] = new LaneScheduler();
+		}
+		this.weights = new ConcurrentHashMap<String, Integer>();
+		this.rateLimits = new ConcurrentHashMap<String, RateLimit>();
+	}
+
+	/**
+	 * @param weight the tenant's share of the turns relative to the others
+	 */
+	public void setWeight(String tenant, int weight)
+	{
+		if(weight < 1)
+		{
+			throw new IllegalArgumentException("weight must be at least 1, not ["+weight+"]");
+		}
+		weights.put(tenant, Integer.valueOf(weight));
+	}
+
+	public int getWeight(String tenant)
+	{
+		Integer weight = weights.get(tenant);
+		return weight == null ? DEFAULT_WEIGHT : weight.intValue();
+	}
+
+	/**
+	 * @param commandsPerSecond sustained rate, 0 (or less) for no limit
+	 * @param burst commands the tenant may send at once after being idle
+	 */
+	public void setRateLimit(String tenant, double commandsPerSecond, int burst)
+	{
+		if(commandsPerSecond <= 0)
+		{
+			rateLimits.remove(tenant);
+		}
+		else
+		{
+			rateLimits.put(tenant, new RateLimit(commandsPerSecond, burst));
+		}
+	}
+
+	/**
+	 * Does not wait - a tenant over its limit is told so straight away.
+	 *
+	 * @return false if the tenant has used up its rate limit
+	 */
+	public boolean tryAcquireRate(String tenant)
+	{
+		RateLimit rateLimit = rateLimits.get(tenant);
+		return rateLimit == null || rateLimit.tryTake(System.nanoTime());
+	}
+
+	/**
+	 * Waits for the tenant's turn on the lane.
+	 *
+	 * @return false if the turn did not come within the timeout, otherwise the caller must release()
+	 */
+	public boolean acquire(OPCCommandRouter.Lane lane, String tenant, long timeoutNanos) throws InterruptedException
+	{
+		return lanes[lane.ordinal()].acquire(tenant, timeoutNanos);
+	}
+
+	public void release(OPCCommandRouter.Lane lane)
+	{
+		lanes[lane.ordinal()].release();
+	}
+
+	/**
+	 * @return commands waiting for their turn on the lane
+	 */
+	public int getWaiting(OPCCommandRouter.Lane lane)
+	{
+		return lanes[lane.ordinal()].getWaiting();
+	}
+
+	public int getSlotsPerLane()
+	{
+		return slotsPerLane;
+	}
+
+	/**
+	 * Start-time fair queueing: a waiting command is tagged with the later
+	 * of the virtual time and its tenant's previous command's finish tag,
+	 * and finishes 1/weight after its start. The lowest tag goes first; the
+	 * virtual time is the tag of the command let through last. A tenant
+	 * that was idle starts at the virtual time - it neither saves up turns
+	 * nor has to wait behind a busy tenant's backlog.
+	 */
+	private final class LaneScheduler
+	{
+		private int inUse;
+		private long arrivals;
+		private double virtualTime;
+		/** tenants with waiting commands */
+		private final Map<String, TenantState> tenants = new HashMap<String, TenantState>();
+		/** by start tag, then arrival */
+		private final PriorityQueue<Waiter> waiters = new PriorityQueue<Waiter>();
+
+		boolean acquire(String tenant, long timeoutNanos) throws InterruptedException
+		{
+			Waiter waiter;
+			synchronized(this)
+			{
+				if(inUse < slotsPerLane && waiters.isEmpty())
+				{
+					inUse++;
+					return true;
+				}
+				TenantState state = tenants.get(tenant);
+				if(state == null)
+				{
+					state = new TenantState(tenant);
+					tenants.put(tenant, state);
+				}
+				double startTag = Math.max(virtualTime, state.finishTag);
+				state.finishTag = startTag + 1.0 / getWeight(tenant);
+				state.waiting++;
+				waiter = new Waiter(state, startTag, arrivals++);
+				waiters.add(waiter);
+				grant();
+			}
+
+			long deadline = System.nanoTime() + timeoutNanos;
+			boolean interrupted = false;
+			while(!waiter.granted)
+			{
+				long remainingNanos = deadline - System.nanoTime();
+				interrupted = Thread.interrupted();
+				if(remainingNanos <= 0 || interrupted)
+				{
+					synchronized(this)
+					{
+						if(!waiter.granted)
+						{
+							waiters.remove(waiter);
+							left(waiter.state);
+							if(interrupted)
+							{
+								throw new InterruptedException();
+							}
+							return false;
+						}
+					}
+					break;
+				}
+				LockSupport.parkNanos(this, remainingNanos);
+			}
+			if(interrupted)
+			{
+				// granted after all - keep the slot, pass the interrupt on
+				Thread.currentThread().interrupt();
+			}
+			return true;
+		}
+
+		synchronized void release()
+		{
+			inUse--;
+			grant();
+		}
+
+		synchronized int getWaiting()
+		{
+			return waiters.size();
+		}
+
+		/**
+		 * Hands the free slots out. Holding the lock.
+		 */
+		private void grant()
+		{
+			while(inUse < slotsPerLane && !waiters.isEmpty())
+			{
+				Waiter waiter = waiters.poll();
+				virtualTime = Math.max(virtualTime, waiter.startTag);
+				inUse++;
+				left(waiter.state);
+				waiter.granted = true;
+				LockSupport.unpark(waiter.thread);
+			}
+		}
+
+		/**
+		 * A waiter of the tenant was let through or gave up. Holding the lock.
+		 */
+		private void left(TenantState state)
+		{
+			if(--state.waiting == 0)
+			{
+				tenants.remove(state.tenant);
+			}
+		}
+	}
+
+	private static final class TenantState
+	{
+		private final String tenant;
+		private int waiting;
+		private double finishTag;
+
+		TenantState(String tenant)
+		{
+			this.tenant = tenant;
+		}
+	}
+
+	private static final class Waiter implements Comparable<Waiter>
+	{
+		private final Thread thread;
+		private final TenantState state;
+		private final double startTag;
+		private final long arrival;
+		private volatile boolean granted;
+
+		Waiter(TenantState state, double startTag, long arrival)
+		{
+			this.thread = Thread.currentThread();
+			this.state = state;
+			this.startTag = startTag;
+			this.arrival = arrival;
+		}
+
+		@Override
+		public int compareTo(Waiter other)
+		{
+			int byTag = Double.compare(startTag, other.startTag);
+			return byTag != 0 ? byTag : Long.compare(arrival, other.arrival);
+		}
+	}
+
+	private static final class RateLimit
+	{
+		private final double tokensPerNano;
+		private final double burst;
+		private double tokens;
+		private long lastNanos;
+
+		RateLimit(double commandsPerSecond, int burst)
+		{
+			this.tokensPerNano = commandsPerSecond / 1.0e9;
+			this.burst = Math.max(1, burst);
+			this.tokens = this.burst;
+			this.lastNanos = System.nanoTime();
+		}
+
+		synchronized boolean tryTake(long nowNanos)
+		{
+			tokens = Math.min(burst, tokens + (nowNanos - lastNanos) * tokensPerNano);
+			lastNanos = nowNanos;
+			if(tokens < 1)
+			{
+				return false;
+			}
+			tokens -= 1;
+			return true;
+		}
+	}
+}
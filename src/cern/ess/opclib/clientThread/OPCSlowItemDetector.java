@@ -0,0 +1,104 @@
+package cern.ess.opclib.clientThread;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cern.ess.opclib.metrics.OPCClientMetrics;
+
+/**
+ * Learns which items are slow from their measured native call times.
+ *
+ * Keeps an exponentially weighted moving average per item: an item becomes
+ * slow when its average exceeds the threshold and fast again only once it
+ * drops below half the threshold, so an item near the threshold does not
+ * flip between lanes on every call.
+ */
+public class OPCSlowItemDetector
+{
+	public static final long DEFAULT_SLOW_THRESHOLD_MS = 50;
+
+	/** weight of the newest sample */
+	private static final double ALPHA = 0.25;
+
+	private final long slowThresholdNanos;
+	private final ConcurrentMap<String, ItemLatency> items;
+	private final AtomicInteger slowItemCount;
+	private final OPCClientMetrics metrics;
+
+	/**
+	 * @param slowThresholdNanos 0 (or less) to never classify an item as slow
+	 * @param metrics may be null
+	 */
+	public OPCSlowItemDetector(long slowThresholdNanos, OPCClientMetrics metrics)
+	{
+		this.slowThresholdNanos = slowThresholdNanos;
+		this.metrics = metrics;
+		this.items = new ConcurrentHashMap<String, ItemLatency>();
+		this.slowItemCount = new AtomicInteger();
+	}
+
+	/**
+	 * Called from the context of an OPC client handler thread after each
+	 * native call for an item.
+	 */
+	public void record(String itemAddress, long nativeNanos)
+	{
+		if(slowThresholdNanos <= 0)
+		{
+			return;
+		}
+		ItemLatency item = items.get(itemAddress);
+		if(item == null)
+		{
+			ItemLatency created = new ItemLatency();
+			item = items.putIfAbsent(itemAddress, created);
+			if(item == null)
+			{
+				item = created;
+			}
+		}
+		item.record(nativeNanos);
+	}
+
+	public boolean isSlow(String itemAddress)
+	{
+		ItemLatency item = items.get(itemAddress);
+		return item != null && item.slow;
+	}
+
+	public int getSlowItemCount()
+	{
+		return slowItemCount.get();
+	}
+
+	private void classified(int count)
+	{
+		if(metrics != null)
+		{
+			metrics.slowItemCountChanged(count);
+		}
+	}
+
+	private class ItemLatency
+	{
+		/** guarded by this */
+		private double averageNanos = -1;
+		private volatile boolean slow;
+
+		synchronized void record(long nativeNanos)
+		{
+			averageNanos = averageNanos < 0 ? nativeNanos : ALPHA * nativeNanos + (1 - ALPHA) * averageNanos;
+			if(!slow && averageNanos > slowThresholdNanos)
+			{
+				slow = true;
+				classified(slowItemCount.incrementAndGet());
+			}
+			else if(slow && averageNanos < slowThresholdNanos / 2)
+			{
+				slow = false;
+				classified(slowItemCount.decrementAndGet());
+			}
+		}
+	}
+}
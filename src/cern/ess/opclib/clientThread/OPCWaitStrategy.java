@@ -0,0 +1,163 @@
+package cern.ess.opclib.clientThread;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How a thread waits for the other side of a hand-off queue: the executor
+ * for the next command, a caller for its response. The side handing over
+ * keeps its timed offer, so whichever strategy the waiting side uses the
+ * two still meet.
+ *
+ * blocking: parks at once - no CPU while idle, but every hand-off pays for
+ * a park and unpark (tens of microseconds).
+ *
+ * spin-yield-park: polls in a spin loop, then yields, then parks - fast
+ * hand-offs when commands come back to back, idle threads still park.
+ *
+ * busy-spin: never parks - the lowest latency, but every waiting thread
+ * (each lane's executor, each caller) burns a core; only for dedicated
+ * cores.
+ */
+public abstract class OPCWaitStrategy
+{
+	public static final int DEFAULT_SPINS = 10000;
+	public static final int DEFAULT_YIELDS = 100;
+
+	/**
+	 * @return the next element
+	 */
+	public abstract <T> T take(BlockingQueue<T> queue) throws InterruptedException;
+
+	/**
+	 * @return the next element, null if there was none within the timeout
+	 */
+	public abstract <T> T poll(BlockingQueue<T> queue, long timeoutNanos) throws InterruptedException;
+
+	public static OPCWaitStrategy blocking()
+	{
+		return new OPCWaitStrategy()
+		{
+			@Override
+			public <T> T take(BlockingQueue<T> queue) throws InterruptedException
+			{
+				return queue.take();
+			}
+
+			@Override
+			public <T> T poll(BlockingQueue<T> queue, long timeoutNanos) throws InterruptedException
+			{
+				return queue.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+			}
+
+			@Override
+			public String toString()
+			{
+				return "blocking";
+			}
+		};
+	}
+
+	public static OPCWaitStrategy spinYieldPark()
+	{
+		return spinYieldPark(DEFAULT_SPINS, DEFAULT_YIELDS);
+	}
+
+	public static OPCWaitStrategy spinYieldPark(int spins, int yields)
+	{
+		return new Phased(spins, yields, true, "spin-yield-park ["+spins+"/"+yields+"]");
+	}
+
+	public static OPCWaitStrategy busySpin()
+	{
+		return new Phased(0, 0, false, "busy-spin");
+	}
+
+	/**
+	 * @param name blocking, spin-yield-park or busy-spin
+	 */
+	public static OPCWaitStrategy fromName(String name)
+	{
+		if("blocking".equals(name))
+		{
+			return blocking();
+		}
+		if("spin-yield-park".equals(name))
+		{
+			return spinYieldPark();
+		}
+		if("busy-spin".equals(name))
+		{
+			return busySpin();
+		}
+		throw new IllegalArgumentException("unknown wait strategy ["+name+"] - blocking, spin-yield-park or busy-spin");
+	}
+
+	/**
+	 * Spins, then yields, then parks - or, without parking, spins for good.
+	 */
+	private static final class Phased extends OPCWaitStrategy
+	{
+		private final int spins;
+		private final int yields;
+		private final boolean park;
+		private final String name;
+
+		Phased(int spins, int yields, boolean park, String name)
+		{
+			this.spins = spins;
+			this.yields = yields;
+			this.park = park;
+			this.name = name;
+		}
+
+		@Override
+		public <T> T take(BlockingQueue<T> queue) throws InterruptedException
+		{
+			return poll(queue, Long.MAX_VALUE);
+		}
+
+		@Override
+		public <T> T poll(BlockingQueue<T> queue, long timeoutNanos) throws InterruptedException
+		{
+			long startNanos = System.nanoTime();
+			int waited = 0;
+			while(true)
+			{
+				T element = queue.poll();
+				if(element != null)
+				{
+					return element;
+				}
+				if(Thread.interrupted())
+				{
+					throw new InterruptedException();
+				}
+				long remainingNanos = timeoutNanos - (System.nanoTime() - startNanos);
+				if(remainingNanos <= 0)
+				{
+					return null;
+				}
+				if(!park || waited < spins)
+				{
+					Thread.onSpinWait();
+				}
+				else if(waited < spins + yields)
+				{
+					Thread.yield();
+				}
+				else
+				{
+					return timeoutNanos == Long.MAX_VALUE ? queue.take() : queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+				}
+				waited++;
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return name;
+		}
+	}
+}
@@ -2,71 +2,123 @@ package cern.ess.opclib.clientThread;
 
 import java.util.concurrent.SynchronousQueue;
 
+import cern.ess.opclib.OPCGroupValues;
 import cern.ess.opclib.OpcApi;
+import cern.ess.opclib.metrics.OPCClientMetrics;
 
 public class OpcCommandFactory 
 {
 	private final OpcApi opcInterface;
 	private final SynchronousQueue<OPCCommand> reqQueue;
+	private final OPCClientMetrics metrics;
+	private final OPCCircuitBreaker circuitBreaker;
+	private final OPCCommandRouter router;
+	private volatile OPCWaitStrategy waitStrategy;
 	
 	public OpcCommandFactory(final OpcApi opcInterface, final SynchronousQueue<OPCCommand> reqQueue)
+	{
+		this(opcInterface, reqQueue, null);
+	}
+	
+	public OpcCommandFactory(final OpcApi opcInterface, final SynchronousQueue<OPCCommand> reqQueue, final OPCClientMetrics metrics)
+	{
+		this(opcInterface, reqQueue, metrics, null);
+	}
+	
+	public OpcCommandFactory(final OpcApi opcInterface, final SynchronousQueue<OPCCommand> reqQueue, final OPCClientMetrics metrics, final OPCCircuitBreaker circuitBreaker)
+	{
+		this(opcInterface, reqQueue, metrics, circuitBreaker, null);
+	}
+	
+	/**
+	 * @param router picks the lane per command and applies the bulkheads, reqQueue is then only the default lane
+	 */
+	public OpcCommandFactory(final OpcApi opcInterface, final SynchronousQueue<OPCCommand> reqQueue, final OPCClientMetrics metrics, final OPCCircuitBreaker circuitBreaker, final OPCCommandRouter router)
 	{
 		this.opcInterface = opcInterface;
 		this.reqQueue = reqQueue;
+		this.metrics = metrics;
+		this.circuitBreaker = circuitBreaker;
+		this.router = router;
 	}
 	
 	public OPCCommand createReadBooleanCommand(final String opcItemAddress, final SynchronousQueue<OPCCommandResult> rspQueue)
 	{
-		return new ReadBooleanCommand(opcInterface, opcItemAddress, reqQueue, rspQueue);		
+		return monitored(new ReadBooleanCommand(opcInterface, opcItemAddress, reqQueue, rspQueue));		
 	}
 	
 	public OPCCommand createGetItemNamesCommand(final SynchronousQueue<OPCCommandResult> rspQueue)
 	{
-		return new GetItemNamesCommand(opcInterface, reqQueue, rspQueue);
+		return monitored(new GetItemNamesCommand(opcInterface, reqQueue, rspQueue));
 	}
 
 	public OPCCommand createGetLocalServerList(SynchronousQueue<OPCCommandResult> rspQueue) 
 	{
-		return new GetLocalServerListCommand(opcInterface, reqQueue, rspQueue);
+		return monitored(new GetLocalServerListCommand(opcInterface, reqQueue, rspQueue));
 	}
 
 	public OPCCommand createReadFloatCommand(String opcItemAddress, SynchronousQueue<OPCCommandResult> rspQueue) 
 	{
-		return new ReadFloatCommand(opcInterface, opcItemAddress, reqQueue, rspQueue);
+		return monitored(new ReadFloatCommand(opcInterface, opcItemAddress, reqQueue, rspQueue));
 	}
 
 	public OPCCommand createReadIntCommand(String opcItemAddress, SynchronousQueue<OPCCommandResult> rspQueue) 
 	{
-		return new ReadIntCommand(opcInterface, opcItemAddress, reqQueue, rspQueue);
+		return monitored(new ReadIntCommand(opcInterface, opcItemAddress, reqQueue, rspQueue));
 	}
 
 	public OPCCommand createReadStringCommand(String opcItemAddress, SynchronousQueue<OPCCommandResult> rspQueue) 
 	{
-		return new ReadStringCommand(opcInterface, opcItemAddress, reqQueue, rspQueue);
+		return monitored(new ReadStringCommand(opcInterface, opcItemAddress, reqQueue, rspQueue));
 	}
 
 	public OPCCommand createWriteBooleanCommand(String opcItemAddress, SynchronousQueue<OPCCommandResult> rspQueue, boolean value) 
 	{
-		return new WriteBooleanCommand(opcInterface, opcItemAddress, reqQueue, rspQueue, value);
+		return monitored(new WriteBooleanCommand(opcInterface, opcItemAddress, reqQueue, rspQueue, value));
 	}
 
 	public OPCCommand createWriteFloatCommand(String opcItemAddress, SynchronousQueue<OPCCommandResult> rspQueue, float value, String floatType) 
 	{
-		return new WriteFloatCommand(opcInterface, opcItemAddress, reqQueue, rspQueue, value, floatType);
+		return monitored(new WriteFloatCommand(opcInterface, opcItemAddress, reqQueue, rspQueue, value, floatType));
 	}
 
 	public OPCCommand createWriteIntCommand(String opcItemAddress, SynchronousQueue<OPCCommandResult> rspQueue, int value, String intType) 
 	{
-		return new WriteIntCommand(opcInterface, opcItemAddress, reqQueue, rspQueue, value, intType);
+		return monitored(new WriteIntCommand(opcInterface, opcItemAddress, reqQueue, rspQueue, value, intType));
 	}
 
 	public OPCCommand createWriteStringCommand(String opcItemAddress, SynchronousQueue<OPCCommandResult> rspQueue, String value) 
 	{
-		return new WriteStringCommand(opcInterface, opcItemAddress, reqQueue, rspQueue, value);
+		return monitored(new WriteStringCommand(opcInterface, opcItemAddress, reqQueue, rspQueue, value));
+	}
+
+	/**
+	 * @param description what the items were selected by, for logging
+	 */
+	public OPCCommand createReadGroupCommand(String description, OPCGroupValues values, int from, int to, SynchronousQueue<OPCCommandResult> rspQueue)
+	{
+		return monitored(new ReadGroupCommand(opcInterface, description, reqQueue, rspQueue, values, from, to));
 	}
 
 	public OPCCommand createInitCommand(String host, String server, SynchronousQueue<OPCCommandResult> rspQueue) 
 	{
-		return new InitCommand(opcInterface, reqQueue, rspQueue, host, server);
+		return monitored(new InitCommand(opcInterface, reqQueue, rspQueue, host, server));
+	}
+	
+	/**
+	 * @param waitStrategy how callers of the commands created from now on wait for their response, null for blocking
+	 */
+	public void setWaitStrategy(OPCWaitStrategy waitStrategy)
+	{
+		this.waitStrategy = waitStrategy;
+	}
+	
+	private OPCCommand monitored(OPCCommandBase command)
+	{
+		command.setMetrics(metrics);
+		command.setCircuitBreaker(circuitBreaker);
+		command.setRouter(router);
+		command.setWaitStrategy(waitStrategy);
+		return command;
 	}
 }
@@ -19,4 +19,10 @@ public class ReadBooleanCommand extends OPCCommandBase implements OPCCommand
 	{
 		return Boolean.valueOf(getOpcApi().readBoolean(getOpcItemAddress()));
 	}
+	
+	@Override
+	public OPCCommandType getCommandType() 
+	{
+		return OPCCommandType.READ_BOOLEAN;
+	}
 }
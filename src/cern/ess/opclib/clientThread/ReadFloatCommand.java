@@ -20,5 +20,10 @@ public class ReadFloatCommand extends OPCCommandBase implements OPCCommand
 	{
 		return Float.valueOf(getOpcApi().readFloat(getOpcItemAddress()));
 	}
-
+	
+	@Override
+	public OPCCommandType getCommandType() 
+	{
+		return OPCCommandType.READ_FLOAT;
+	}
 }
@@ -0,0 +1,98 @@
+package cern.ess.opclib.clientThread;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OPCGroupValues;
+import cern.ess.opclib.OpcApi;
+
+/**
+ * Reads items [from, to) of a group read into its OPCGroupValues, in one
+ * round trip through the executor instead of one per item.
+ *
+ * The executor reads into a batch of its own, copied into the caller's
+ * values only once the response is certain to be collected - a caller that
+ * gave up never has its values written to after it returned. A batch stops
+ * early after MAX_BATCH_MS, well within the response timeout; the caller
+ * goes on from where it stopped (the command's result).
+ */
+public class ReadGroupCommand extends OPCCommandBase implements OPCCommand 
+{
+	public static final long MAX_BATCH_MS = RESPONSE_TIMEOUT_MS / 4;
+	
+	private final OPCGroupValues values;
+	private final OPCGroupValues batch;
+	private final int from;
+	private final int to;
+	/** executor only until the response is handed over */
+	private int readTo;
+
+	public ReadGroupCommand(OpcApi opcInterface, String description,
+			SynchronousQueue<OPCCommand> requestQueue,
+			SynchronousQueue<OPCCommandResult> responseQueue,
+			OPCGroupValues values, int from, int to) 
+	{
+		super(opcInterface, description, requestQueue, responseQueue);
+		this.values = values;
+		this.batch = values.batch(from, to);
+		this.from = from;
+		this.to = to;
+		this.readTo = from;
+	}
+
+	/**
+	 * @return Integer - the index after the last item read, where the next batch starts
+	 * @throws OPCException the first error if no item of the batch could be read
+	 */
+	@Override
+	public Object execute() throws OPCException, InterruptedException 
+	{
+		long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_MS);
+		int count = batch.read(getOpcApi(), 0, batch.size(), deadlineNanos);
+		readTo = from + count;
+		if(batch.getFailedCount() == count)
+		{
+			throw batch.getError(0);
+		}
+		return Integer.valueOf(readTo);
+	}
+	
+	@Override
+	protected void responding()
+	{
+		values.setRange(from, batch, readTo - from);
+	}
+	
+	@Override
+	public OPCCommandType getCommandType() 
+	{
+		return OPCCommandType.READ_GROUP;
+	}
+	
+	/**
+	 * @return the executor's batch - item i is item from+i of the group
+	 */
+	public OPCGroupValues getBatch()
+	{
+		return batch;
+	}
+	
+	public int getFrom()
+	{
+		return from;
+	}
+	
+	public int getTo()
+	{
+		return to;
+	}
+	
+	/**
+	 * @return the index after the last item read
+	 */
+	public int getReadTo()
+	{
+		return readTo;
+	}
+}
@@ -19,4 +19,10 @@ public class ReadIntCommand extends OPCCommandBase implements OPCCommand {
 	{
 		return Integer.valueOf(getOpcApi().readInt(getOpcItemAddress()));
 	}
+	
+	@Override
+	public OPCCommandType getCommandType() 
+	{
+		return OPCCommandType.READ_INT;
+	}
 }
@@ -19,5 +19,10 @@ public class ReadStringCommand extends OPCCommandBase implements OPCCommand {
 	{
 		return getOpcApi().readString(getOpcItemAddress());
 	}
-
+	
+	@Override
+	public OPCCommandType getCommandType() 
+	{
+		return OPCCommandType.READ_STRING;
+	}
 }
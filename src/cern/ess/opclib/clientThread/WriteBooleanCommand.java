@@ -21,5 +21,10 @@ public class WriteBooleanCommand extends OPCWriteCommandBase implements OPCComma
 		getOpcApi().writeBoolean(getOpcItemAddress(), ((Boolean)getValueToWrite()).booleanValue());
 		return new Object();
 	}
-
+	
+	@Override
+	public OPCCommandType getCommandType() 
+	{
+		return OPCCommandType.WRITE_BOOLEAN;
+	}
 }
@@ -25,5 +25,10 @@ public class WriteFloatCommand extends OPCWriteCommandBase implements OPCCommand
 		getOpcApi().writeFloat(getOpcItemAddress(), floatType, ((Float)getValueToWrite()).floatValue());
 		return new Object();
 	}
-
+	
+	@Override
+	public OPCCommandType getCommandType() 
+	{
+		return OPCCommandType.WRITE_FLOAT;
+	}
 }
@@ -25,5 +25,10 @@ public class WriteIntCommand extends OPCWriteCommandBase implements OPCCommand
 		getOpcApi().writeInt(getOpcItemAddress(), intType, ((Integer)getValueToWrite()).intValue());
 		return new Object();
 	}
-
+	
+	@Override
+	public OPCCommandType getCommandType() 
+	{
+		return OPCCommandType.WRITE_INT;
+	}
 }
@@ -22,4 +22,10 @@ public class WriteStringCommand extends OPCWriteCommandBase implements OPCComman
 		getOpcApi().writeString(getOpcItemAddress(), (String)getValueToWrite());
 		return new Object();
 	}
+	
+	@Override
+	public OPCCommandType getCommandType() 
+	{
+		return OPCCommandType.WRITE_STRING;
+	}
 }
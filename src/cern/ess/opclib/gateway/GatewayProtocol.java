@@ -0,0 +1,296 @@
+package cern.ess.opclib.gateway;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import cern.ess.opclib.OPCDataType;
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OPCGroupValues;
+import cern.ess.opclib.OPCServerUnavailableException;
+import cern.ess.opclib.OPCTimeoutException;
+
+/**
+ * Wire format between OPCGatewayClient and OPCGateway, all big endian.
+ * <pre>
+ * request:  int length | int requestId | byte op     | payload
+ * response: int length | int requestId | byte status | payload
+ * </pre>
+ * length counts the bytes after it. Strings are an int byte count and the
+ * UTF-8 bytes. Request payloads by op:
+ * <pre>
+ * READ_*            int maxAgeMs | string item  (maxAgeMs 0: always read the server)
+ * WRITE_BOOLEAN     string item | byte value
+ * WRITE_INT/FLOAT   string item | string wireType | int/float value
+ * WRITE_STRING      string item | string value
+ * READ_GROUP        string prefix
+ * READ_MATCHING     string pattern
+ * (UN)SUBSCRIBE     int count | string item...
+ * SET_TENANT        string tenant name
+ * GET_*             -
+ * </pre>
+ * A successful response carries the value read (byte, int, float or string
+ * by op), nothing for writes, an int count and the strings for the name
+ * lists, or for group reads: long timestamp | int count | per item: string
+ * item | byte data type ordinal (-1 unknown) | byte failed | error message
+ * or value by data type (none if unknown, BOOL as an int). A failed response
+ * carries the error message.
+ *
+ * The gateway pushes the changed values of subscribed items as UPDATE
+ * frames with request id PUSH_REQUEST_ID, the payload as for group reads -
+ * an item that failed to read is sent failed, with its error message.
+ */
+final class GatewayProtocol
+{
+	static final byte READ_BOOLEAN = 1;
+	static final byte READ_INT = 2;
+	static final byte READ_FLOAT = 3;
+	static final byte READ_STRING = 4;
+	static final byte WRITE_BOOLEAN = 5;
+	static final byte WRITE_INT = 6;
+	static final byte WRITE_FLOAT = 7;
+	static final byte WRITE_STRING = 8;
+	static final byte READ_GROUP = 9;
+	static final byte READ_MATCHING = 10;
+	static final byte GET_ITEM_NAMES = 11;
+	static final byte GET_LOCAL_SERVER_LIST = 12;
+	static final byte SUBSCRIBE = 13;
+	static final byte UNSUBSCRIBE = 14;
+	/** names the connection's tenant for the requests after it */
+	static final byte SET_TENANT = 15;
+
+	static final byte OK = 0;
+	static final byte ERROR = 1;
+	static final byte TIMEOUT = 2;
+	static final byte UNAVAILABLE = 3;
+	/** the gateway has too many requests in progress */
+	static final byte BUSY = 4;
+	/** pushed subscription update, not a response */
+	static final byte UPDATE = 5;
+
+	/** request id of pushed frames, never used by a request */
+	static final int PUSH_REQUEST_ID = 0;
+
+	/** length and request id */
+	static final int HEADER_BYTES = 8;
+	static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+	private static final OPCDataType[] DATA_TYPES = OPCDataType.values();
+
+	private GatewayProtocol()
+	{
+	}
+
+	static boolean isRead(byte op)
+	{
+		return op >= READ_BOOLEAN && op <= READ_STRING;
+	}
+
+	static void putString(ByteBuffer buffer, String value)
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+	static String getString(ByteBuffer buffer)
+	{
+		int length = buffer.getInt();
+		if(length < 0 || length > buffer.remaining())
+		{
+			throw new IllegalArgumentException("bad string length ["+length+"]");
+		}
+		String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+
+	/**
+	 * Upper bound of the bytes putString takes.
+	 */
+	static int stringBytes(String value)
+	{
+		return 4 + value.length() * 3;
+	}
+
+	/**
+	 * @return a buffer with room for the frame, header written
+	 */
+	static ByteBuffer startFrame(int requestId, byte code, int payloadBytes)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 1 + payloadBytes);
+		buffer.putInt(0);
+		buffer.putInt(requestId);
+		buffer.put(code);
+		return buffer;
+	}
+
+	/**
+	 * Fills in the length and flips the buffer for writing.
+	 */
+	static ByteBuffer endFrame(ByteBuffer buffer)
+	{
+		buffer.putInt(0, buffer.position() - 4);
+		buffer.flip();
+		return buffer;
+	}
+
+	static byte statusOf(OPCException error)
+	{
+		if(error instanceof OPCTimeoutException)
+		{
+			return TIMEOUT;
+		}
+		if(error instanceof OPCServerUnavailableException)
+		{
+			return UNAVAILABLE;
+		}
+		return ERROR;
+	}
+
+	/**
+	 * Rebuilds the exception the gateway's client threw.
+	 */
+	static OPCException errorOf(byte status, String message)
+	{
+		switch(status)
+		{
+			case TIMEOUT: return new OPCTimeoutException(message);
+			case UNAVAILABLE: return new OPCServerUnavailableException(message);
+			case BUSY: return new OPCServerUnavailableException("gateway busy - "+message);
+			default: return new OPCException(message);
+		}
+	}
+
+	/**
+	 * @return the data type a value as returned by the OpcApi reads is sent as
+	 */
+	static OPCDataType dataTypeOf(Object value)
+	{
+		if(value instanceof Boolean)
+		{
+			return OPCDataType.BOOL;
+		}
+		if(value instanceof Integer)
+		{
+			return OPCDataType.I4;
+		}
+		if(value instanceof Float)
+		{
+			return OPCDataType.R4;
+		}
+		return OPCDataType.STRING;
+	}
+
+	static int groupBytes(OPCGroupValues values)
+	{
+		int bytes = 12;
+		for(int i=0; i<values.size(); i++)
+		{
+			bytes += stringBytes(values.getItem(i)) + 2;
+			OPCException error = values.getError(i);
+			if(error != null)
+			{
+				bytes += stringBytes(String.valueOf(error.getMessage()));
+			}
+			else if(values.getDataType(i) == OPCDataType.STRING)
+			{
+				bytes += stringBytes(values.getString(i));
+			}
+			else
+			{
+				bytes += 4;
+			}
+		}
+		return bytes;
+	}
+
+	static void putGroup(ByteBuffer buffer, OPCGroupValues values)
+	{
+		buffer.putLong(values.getTimestampMillis());
+		buffer.putInt(values.size());
+		for(int i=0; i<values.size(); i++)
+		{
+			putString(buffer, values.getItem(i));
+			OPCDataType dataType = values.getDataType(i);
+			buffer.put((byte)(dataType == null ? -1 : dataType.ordinal()));
+			OPCException error = values.getError(i);
+			buffer.put((byte)(error == null ? 0 : 1));
+			if(error != null)
+			{
+				putString(buffer, String.valueOf(error.getMessage()));
+				continue;
+			}
+			if(dataType == null)
+			{
+				continue;
+			}
+			switch(dataType)
+			{
+				case BOOL: buffer.putInt(values.getBoolean(i) ? 1 : 0); break;
+				case STRING: putString(buffer, values.getString(i)); break;
+				case I2:
+				case I4: buffer.putInt(values.getInt(i)); break;
+				default: buffer.putFloat(values.getFloat(i)); break;
+			}
+		}
+	}
+
+	static OPCGroupValues getGroup(ByteBuffer buffer)
+	{
+		long timestampMillis = buffer.getLong();
+		int size = buffer.getInt();
+		if(size < 0 || size > buffer.remaining())
+		{
+			throw new IllegalArgumentException("bad group size ["+size+"]");
+		}
+		String[] items = new String[size];
+		OPCDataType[] dataTypes = new OPCDataType[size];
+		int start = buffer.position();
+		for(int i=0; i<size; i++)
+		{
+			items[i] = getString(buffer);
+			int type = buffer.get();
+			dataTypes[i] = type < 0 ? null : DATA_TYPES[type];
+			skipValue(buffer, buffer.get() != 0 ? OPCDataType.STRING : dataTypes[i]);
+		}
+
+		OPCGroupValues values = new OPCGroupValues(Arrays.asList(items), dataTypes, timestampMillis);
+		buffer.position(start);
+		for(int i=0; i<size; i++)
+		{
+			getString(buffer);
+			buffer.get();
+			if(buffer.get() != 0)
+			{
+				values.setError(i, new OPCException(getString(buffer)));
+				continue;
+			}
+			if(dataTypes[i] == null)
+			{
+				continue;
+			}
+			switch(dataTypes[i])
+			{
+				case BOOL: values.setBoolean(i, buffer.getInt() != 0); break;
+				case STRING: values.setString(i, getString(buffer)); break;
+				case I2:
+				case I4: values.setInt(i, buffer.getInt()); break;
+				default: values.setFloat(i, buffer.getFloat()); break;
+			}
+		}
+		return values;
+	}
+
+	private static void skipValue(ByteBuffer buffer, OPCDataType dataType)
+	{
+		if(dataType == OPCDataType.STRING)
+		{
+			getString(buffer);
+		}
+		else if(dataType != null)
+		{
+			buffer.position(buffer.position() + 4);
+		}
+	}
+}
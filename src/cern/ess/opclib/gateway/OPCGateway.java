@@ -0,0 +1,1103 @@
+package cern.ess.opclib.gateway;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cern.ess.opclib.OPCClientBuilder;
+import cern.ess.opclib.OPCDataType;
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OPCGroupValues;
+import cern.ess.opclib.OPCTenant;
+import cern.ess.opclib.OPCTypedApi;
+import cern.ess.opclib.cache.OPCCachedValue;
+import cern.ess.opclib.cache.OPCValueCache;
+import cern.ess.opclib.log.OPCLogger;
+
+/**
+ * Serves one OPC client (and so one native session) to other processes on
+ * the host over a loopback TCP socket, see GatewayProtocol for the wire
+ * format and OPCGatewayClient for the other end.
+ *
+ * One selector thread does all socket io without blocking; the requests it
+ * decodes run on a small pool of worker threads which call the client and
+ * so share its executor like any other callers. When the client schedules
+ * fairly, a connection's requests are scheduled for the tenant it named
+ * (OPCGatewayClient.setTenant), "gateway-" and the name - connections that
+ * named none share the tenant "gateway". Responses go back in the
+ * order they complete, matched to their request by id, so a connection can
+ * have many requests in progress. When the pool's queue is full a request
+ * is answered BUSY straight away.
+ *
+ * Every value read or written through the gateway goes into a value cache
+ * shared by all connections; a read with a maximum age is answered from it
+ * without a round trip to the server if the value is recent enough.
+ *
+ * Connections can subscribe to items instead of polling them: a poller
+ * thread reads all subscribed items with one group read per scan, however
+ * many connections subscribed to them, and pushes each connection the
+ * values that changed as one UPDATE frame per scan (a new subscriber first
+ * gets the current value). An item that fails to read - unknown, or of a
+ * type not in the client's item catalog - is pushed failed with its error,
+ * again only when that changes. Updates a connection has not taken yet are
+ * conflated - only an item's latest value is kept - so a slow consumer
+ * costs at most one pending value per subscribed item, never a backlog.
+ * Queued frames go out with one gathering write.
+ *
+ * A connection that does not take its responses is not read from while
+ * more than maxQueuedResponseBytes of them wait to be written - it cannot
+ * grow the gateway's memory by sending requests faster than it reads.
+ *
+ * usage: java cern.ess.opclib.gateway.OPCGateway host server [port]
+ */
+public class OPCGateway
+{
+	public static final int DEFAULT_PORT = 4840;
+	public static final int DEFAULT_WORKERS = 16;
+	public static final int DEFAULT_MAX_QUEUED_REQUESTS = 1024;
+	public static final long DEFAULT_SCAN_INTERVAL_MS = 500;
+	public static final int DEFAULT_MAX_QUEUED_RESPONSE_BYTES = 4 * 1024 * 1024;
+	/** the tenant of connections that have not named theirs */
+	public static final String DEFAULT_TENANT = "gateway";
+
+	private static final OPCLogger LOG = OPCLogger.getLogger(OPCGateway.class);
+
+	private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+	private final OPCTypedApi client;
+	private final OPCValueCache cache;
+	private final ThreadPoolExecutor workers;
+	private final Queue<Connection> writable;
+	private final AtomicInteger connections;
+	private final AtomicLong requests;
+	private final long scanIntervalMs;
+	private final int maxQueuedResponseBytes;
+	/** item - connections subscribed to it, changed under its own lock */
+	private final Map<String, Set<Connection>> subscribers;
+	/** item - value pushed last, poller thread only */
+	private final Map<String, Object> pushedValues;
+	private final AtomicLong scans;
+	private final AtomicLong conflated;
+	private final AtomicLong readPauses;
+	private ScheduledExecutorService poller;
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private Thread selectorThread;
+	/** the selector thread closes the connections and the selector, then exits */
+	private volatile boolean stopping;
+
+	public OPCGateway(OPCTypedApi client)
+	{
+		this(client, DEFAULT_WORKERS, DEFAULT_MAX_QUEUED_REQUESTS);
+	}
+
+	public OPCGateway(OPCTypedApi client, int workers, int maxQueuedRequests)
+	{
+		this(client, workers, maxQueuedRequests, DEFAULT_SCAN_INTERVAL_MS);
+	}
+
+	public OPCGateway(OPCTypedApi client, int workers, int maxQueuedRequests, long scanIntervalMs)
+	{
+		this(client, workers, maxQueuedRequests, scanIntervalMs, DEFAULT_MAX_QUEUED_RESPONSE_BYTES);
+	}
+
+	/**
+	 * @param scanIntervalMs between reads of the subscribed items
+	 * @param maxQueuedResponseBytes a connection is not read from while more of its responses wait to be written
+	 */
+	public OPCGateway(OPCTypedApi client, int workers, int maxQueuedRequests, long scanIntervalMs, int maxQueuedResponseBytes)
+	{
+		this.client = client;
+		this.cache = new OPCValueCache();
+		this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(maxQueuedRequests), new ThreadFactory()
+		{
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "opclib-gateway-worker-"+count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.writable = new ConcurrentLinkedQueue<Connection>();
+		this.connections = new AtomicInteger();
+		this.requests = new AtomicLong();
+		this.scanIntervalMs = scanIntervalMs;
+		this.maxQueuedResponseBytes = maxQueuedResponseBytes;
+		this.subscribers = new ConcurrentHashMap<String, Set<Connection>>();
+		this.pushedValues = new HashMap<String, Object>();
+		this.scans = new AtomicLong();
+		this.conflated = new AtomicLong();
+		this.readPauses = new AtomicLong();
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		if(args.length < 2)
+		{
+			System.err.println("usage: OPCGateway host server [port]");
+			System.exit(1);
+		}
+		int port = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+		final OPCTypedApi client = new OPCClientBuilder().session(args[0], args[1]).start().get();
+		final OPCGateway gateway = new OPCGateway(client);
+		gateway.start(port);
+		Runtime.getRuntime().addShutdownHook(new Thread("opclib-gateway-shutdown")
+		{
+			@Override
+			public void run()
+			{
+				gateway.stop();
+				try
+				{
+					client.stop();
+				}
+				catch(Exception e)
+				{
+					LOG.warn("failed to stop the OPC client - {}", e.getMessage());
+				}
+				OPCLogger.flush();
+			}
+		});
+	}
+
+	/**
+	 * Starts serving on 127.0.0.1:port. Port 0 picks a free port, see getPort().
+	 */
+	public synchronized void start(int port) throws IOException
+	{
+		if(selectorThread != null)
+		{
+			return;
+		}
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		selectorThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				serve();
+			}
+		}, "opclib-gateway");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+		poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "opclib-gateway-poller");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		poller.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				scan();
+			}
+		}, scanIntervalMs, scanIntervalMs, TimeUnit.MILLISECONDS);
+		LOG.info("OPC gateway listening on port [{}]", Integer.valueOf(getPort()));
+	}
+
+	public synchronized int getPort()
+	{
+		return serverChannel == null ? -1 : serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Closes all connections; requests in progress are not answered.
+	 */
+	public synchronized void stop()
+	{
+		if(selectorThread == null)
+		{
+			return;
+		}
+		poller.shutdownNow();
+		workers.shutdownNow();
+		stopping = true;
+		selector.wakeup();
+		try
+		{
+			selectorThread.join(1000);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		if(selector.isOpen())
+		{
+			LOG.warn("gateway selector thread did not stop - closing the gateway socket only");
+			closeQuietly(serverChannel);
+			closeQuietly(selector);
+		}
+		selectorThread = null;
+		LOG.info("OPC gateway stopped");
+	}
+
+	/**
+	 * @return the values read and written through the gateway
+	 */
+	public OPCValueCache getCache()
+	{
+		return cache;
+	}
+
+	public int getConnectionCount()
+	{
+		return connections.get();
+	}
+
+	public long getRequestCount()
+	{
+		return requests.get();
+	}
+
+	/**
+	 * @return the scans of subscribed items so far
+	 */
+	public long getScanCount()
+	{
+		return scans.get();
+	}
+
+	/**
+	 * @return pending updates replaced by a newer value before a slow connection took them
+	 */
+	public long getConflatedCount()
+	{
+		return conflated.get();
+	}
+
+	/**
+	 * @return times a connection stopped being read because its responses were not taken
+	 */
+	public long getReadPauseCount()
+	{
+		return readPauses.get();
+	}
+
+	/**
+	 * @return the items subscribed to by any connection
+	 */
+	public Set<String> getSubscribedItems()
+	{
+		return Collections.unmodifiableSet(subscribers.keySet());
+	}
+
+	/**
+	 * One group read of all subscribed items; the changes go to the
+	 * connections subscribed to them. Poller thread only.
+	 */
+	private void scan()
+	{
+		if(subscribers.isEmpty())
+		{
+			return;
+		}
+		try
+		{
+			OPCGroupValues values = client.readItems(new ArrayList<String>(subscribers.keySet()));
+			scans.incrementAndGet();
+			long timestampMillis = values.getTimestampMillis();
+			Set<Connection> updated = new HashSet<Connection>();
+			for(int i=0; i<values.size(); i++)
+			{
+				Object value = values.getValue(i);
+				OPCException error = values.getError(i);
+				if(value == null && error == null)
+				{
+					continue;
+				}
+				String item = values.getItem(i);
+				if(value == null)
+				{
+					// its subscribers are told, not left waiting for a value that never comes
+					value = new ReadFailure(error.getMessage());
+				}
+				boolean changed = !value.equals(pushedValues.put(item, value));
+				if(changed && error == null)
+				{
+					cache.update(item, value, timestampMillis);
+				}
+				Set<Connection> connections = subscribers.get(item);
+				if(connections == null)
+				{
+					continue;
+				}
+				for(Connection connection : connections)
+				{
+					if(connection.publish(item, value, changed))
+					{
+						updated.add(connection);
+					}
+				}
+			}
+			for(Connection connection : updated)
+			{
+				connection.scheduleFlush();
+			}
+			pushedValues.keySet().retainAll(subscribers.keySet());
+		}
+		catch(RuntimeException e)
+		{
+			// the poller must keep going
+			LOG.error("gateway subscription scan failed - {}", e.getMessage(), e);
+		}
+	}
+
+	private void subscribe(Connection connection, String[] items)
+	{
+		synchronized(subscribers)
+		{
+			if(!connection.isOpen())
+			{
+				// closed meanwhile, its subscriptions already dropped
+				return;
+			}
+			for(String item : items)
+			{
+				Set<Connection> connections = subscribers.get(item);
+				if(connections == null)
+				{
+					connections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+					subscribers.put(item, connections);
+				}
+				connection.subscribed(item);
+				connections.add(connection);
+			}
+		}
+	}
+
+	private void unsubscribe(Connection connection, Iterable<String> items)
+	{
+		synchronized(subscribers)
+		{
+			for(String item : items)
+			{
+				Set<Connection> connections = subscribers.get(item);
+				if(connections != null && connections.remove(connection) && connections.isEmpty())
+				{
+					subscribers.remove(item);
+				}
+			}
+		}
+	}
+
+	private void serve()
+	{
+		try
+		{
+			while(!stopping)
+			{
+				selector.select();
+				Connection connection;
+				while((connection = writable.poll()) != null)
+				{
+					connection.flush();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid())
+					{
+						continue;
+					}
+					if(key.isAcceptable())
+					{
+						accept();
+					}
+					else
+					{
+						connection = (Connection)key.attachment();
+						if(key.isReadable())
+						{
+							connection.read();
+						}
+						if(key.isValid() && key.isWritable())
+						{
+							connection.flush();
+						}
+					}
+				}
+			}
+		}
+		catch(ClosedSelectorException e)
+		{
+			// stopped
+		}
+		catch(IOException e)
+		{
+			LOG.error("OPC gateway selector failed - no longer serving [{}]", e.getMessage(), e);
+		}
+		finally
+		{
+			// closing the selector alone would leave the connections open
+			for(SelectionKey key : selectorKeys())
+			{
+				if(key.attachment() instanceof Connection)
+				{
+					((Connection)key.attachment()).close();
+				}
+				else
+				{
+					closeQuietly(key);
+				}
+			}
+			closeQuietly(selector);
+		}
+	}
+
+	private Collection<SelectionKey> selectorKeys()
+	{
+		try
+		{
+			return new ArrayList<SelectionKey>(selector.keys());
+		}
+		catch(ClosedSelectorException e)
+		{
+			return Collections.emptySet();
+		}
+	}
+
+	private void accept() throws IOException
+	{
+		SocketChannel channel = serverChannel.accept();
+		if(channel == null)
+		{
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		key.attach(new Connection(channel, key));
+		connections.incrementAndGet();
+		LOG.debug("gateway connection from [{}]", channel.socket().getRemoteSocketAddress());
+	}
+
+	private static void closeQuietly(SelectionKey key)
+	{
+		key.cancel();
+		closeQuietly(key.channel());
+	}
+
+	private static void closeQuietly(Closeable closeable)
+	{
+		try
+		{
+			closeable.close();
+		}
+		catch(IOException e)
+		{
+			// closing anyway
+		}
+	}
+
+	/**
+	 * Runs on a worker thread.
+	 */
+	private ByteBuffer handle(Connection connection, int requestId, byte op, ByteBuffer payload) throws OPCException
+	{
+		switch(op)
+		{
+			case GatewayProtocol.SUBSCRIBE:
+				subscribe(connection, items(payload));
+				return GatewayProtocol.endFrame(GatewayProtocol.startFrame(requestId, GatewayProtocol.OK, 0));
+			case GatewayProtocol.UNSUBSCRIBE:
+			{
+				String[] items = items(payload);
+				connection.unsubscribed(items);
+				unsubscribe(connection, Arrays.asList(items));
+				return GatewayProtocol.endFrame(GatewayProtocol.startFrame(requestId, GatewayProtocol.OK, 0));
+			}
+			case GatewayProtocol.READ_BOOLEAN:
+			case GatewayProtocol.READ_INT:
+			case GatewayProtocol.READ_FLOAT:
+			case GatewayProtocol.READ_STRING:
+			{
+				int maxAgeMs = payload.getInt();
+				String item = GatewayProtocol.getString(payload);
+				return valueResponse(requestId, op, read(op, item, maxAgeMs));
+			}
+			case GatewayProtocol.WRITE_BOOLEAN:
+			{
+				String item = GatewayProtocol.getString(payload);
+				boolean value = payload.get() != 0;
+				client.writeBoolean(item, value);
+				return written(requestId, item, Boolean.valueOf(value));
+			}
+			case GatewayProtocol.WRITE_INT:
+			{
+				String item = GatewayProtocol.getString(payload);
+				String wireType = GatewayProtocol.getString(payload);
+				int value = payload.getInt();
+				client.writeInt(item, wireType, value);
+				return written(requestId, item, Integer.valueOf(value));
+			}
+			case GatewayProtocol.WRITE_FLOAT:
+			{
+				String item = GatewayProtocol.getString(payload);
+				String wireType = GatewayProtocol.getString(payload);
+				float value = payload.getFloat();
+				client.writeFloat(item, wireType, value);
+				return written(requestId, item, Float.valueOf(value));
+			}
+			case GatewayProtocol.WRITE_STRING:
+			{
+				String item = GatewayProtocol.getString(payload);
+				String value = GatewayProtocol.getString(payload);
+				client.writeString(item, value);
+				return written(requestId, item, value);
+			}
+			case GatewayProtocol.READ_GROUP:
+				return groupResponse(requestId, client.readGroup(GatewayProtocol.getString(payload)));
+			case GatewayProtocol.READ_MATCHING:
+				return groupResponse(requestId, client.readMatching(GatewayProtocol.getString(payload)));
+			case GatewayProtocol.GET_ITEM_NAMES:
+				return namesResponse(requestId, client.getItemNames());
+			case GatewayProtocol.GET_LOCAL_SERVER_LIST:
+				return namesResponse(requestId, client.getLocalServerList());
+			default:
+				throw new OPCException("unknown gateway request ["+op+"]");
+		}
+	}
+
+	private static String[] items(ByteBuffer payload)
+	{
+		int count = payload.getInt();
+		if(count < 0 || count > payload.remaining())
+		{
+			throw new IllegalArgumentException("bad item count ["+count+"]");
+		}
+		String[] items = new String[count];
+		for(int i=0; i<count; i++)
+		{
+			items[i] = GatewayProtocol.getString(payload);
+		}
+		return items;
+	}
+
+	private Object read(byte op, String item, int maxAgeMs) throws OPCException
+	{
+		if(maxAgeMs > 0)
+		{
+			OPCCachedValue cached = cache.get(item);
+			if(cached != null && !cached.isStale() && System.currentTimeMillis() - cached.getTimestampMillis() <= maxAgeMs && isOfType(cached.getValue(), op))
+			{
+				return cached.getValue();
+			}
+		}
+		Object value;
+		switch(op)
+		{
+			case GatewayProtocol.READ_BOOLEAN: value = Boolean.valueOf(client.readBoolean(item)); break;
+			case GatewayProtocol.READ_INT: value = Integer.valueOf(client.readInt(item)); break;
+			case GatewayProtocol.READ_FLOAT: value = Float.valueOf(client.readFloat(item)); break;
+			default: value = client.readString(item); break;
+		}
+		cache.update(item, value, System.currentTimeMillis());
+		return value;
+	}
+
+	private static boolean isOfType(Object value, byte op)
+	{
+		switch(op)
+		{
+			case GatewayProtocol.READ_BOOLEAN: return value instanceof Boolean;
+			case GatewayProtocol.READ_INT: return value instanceof Integer;
+			case GatewayProtocol.READ_FLOAT: return value instanceof Float;
+			default: return value instanceof String;
+		}
+	}
+
+	private static ByteBuffer valueResponse(int requestId, byte op, Object value)
+	{
+		if(op == GatewayProtocol.READ_STRING)
+		{
+			String string = (String)value;
+			ByteBuffer buffer = GatewayProtocol.startFrame(requestId, GatewayProtocol.OK, GatewayProtocol.stringBytes(string));
+			GatewayProtocol.putString(buffer, string);
+			return GatewayProtocol.endFrame(buffer);
+		}
+		ByteBuffer buffer = GatewayProtocol.startFrame(requestId, GatewayProtocol.OK, 4);
+		switch(op)
+		{
+			case GatewayProtocol.READ_BOOLEAN: buffer.put((byte)(((Boolean)value).booleanValue() ? 1 : 0)); break;
+			case GatewayProtocol.READ_INT: buffer.putInt(((Integer)value).intValue()); break;
+			default: buffer.putFloat(((Float)value).floatValue()); break;
+		}
+		return GatewayProtocol.endFrame(buffer);
+	}
+
+	private ByteBuffer written(int requestId, String item, Object value)
+	{
+		cache.update(item, value, System.currentTimeMillis());
+		return GatewayProtocol.endFrame(GatewayProtocol.startFrame(requestId, GatewayProtocol.OK, 0));
+	}
+
+	private ByteBuffer groupResponse(int requestId, OPCGroupValues values)
+	{
+		long timestampMillis = System.currentTimeMillis();
+		for(int i=0; i<values.size(); i++)
+		{
+			Object value = values.getValue(i);
+			if(value != null)
+			{
+				cache.update(values.getItem(i), value, timestampMillis);
+			}
+		}
+		ByteBuffer buffer = GatewayProtocol.startFrame(requestId, GatewayProtocol.OK, GatewayProtocol.groupBytes(values));
+		GatewayProtocol.putGroup(buffer, values);
+		return GatewayProtocol.endFrame(buffer);
+	}
+
+	private static ByteBuffer namesResponse(int requestId, String[] names)
+	{
+		int bytes = 4;
+		for(String name : names)
+		{
+			bytes += GatewayProtocol.stringBytes(name);
+		}
+		ByteBuffer buffer = GatewayProtocol.startFrame(requestId, GatewayProtocol.OK, bytes);
+		buffer.putInt(names.length);
+		for(String name : names)
+		{
+			GatewayProtocol.putString(buffer, name);
+		}
+		return GatewayProtocol.endFrame(buffer);
+	}
+
+	private static ByteBuffer errorResponse(int requestId, byte status, String message)
+	{
+		String text = String.valueOf(message);
+		ByteBuffer buffer = GatewayProtocol.startFrame(requestId, status, GatewayProtocol.stringBytes(text));
+		GatewayProtocol.putString(buffer, text);
+		return GatewayProtocol.endFrame(buffer);
+	}
+
+	/**
+	 * A client connection. Reading, writing and closing happen on the
+	 * selector thread only; workers just queue responses and the poller
+	 * leaves updates in the conflation map, turned into a frame only when
+	 * the previous update frame has been written.
+	 */
+	private class Connection
+	{
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private final Queue<ByteBuffer> responses;
+		/** bytes of the responses queued and not written yet (update frames not counted) */
+		private final AtomicLong queuedResponseBytes;
+		/** selector thread only */
+		private final ArrayDeque<ByteBuffer> outgoing;
+		/** item - latest value (or ReadFailure) not yet framed, guarded by this */
+		private final Map<String, Object> pendingUpdates;
+		/** subscribed items, guarded by this */
+		private final Set<String> subscriptions;
+		/** subscribed items still owed their current value, guarded by this */
+		private final Set<String> initialUpdates;
+		/** the connection's commands are scheduled for it, see OPCTenant - selector thread only */
+		private String tenant;
+		private ByteBuffer in;
+		/** selector thread only, in outgoing until written */
+		private ByteBuffer updateFrame;
+		/** selector thread only - not read from until the responses are taken */
+		private boolean readPaused;
+
+		Connection(SocketChannel channel, SelectionKey key)
+		{
+			this.channel = channel;
+			this.key = key;
+			this.responses = new ConcurrentLinkedQueue<ByteBuffer>();
+			this.queuedResponseBytes = new AtomicLong();
+			this.outgoing = new ArrayDeque<ByteBuffer>();
+			this.pendingUpdates = new LinkedHashMap<String, Object>();
+			this.subscriptions = new HashSet<String>();
+			this.initialUpdates = new HashSet<String>();
+			this.in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+			this.tenant = DEFAULT_TENANT;
+		}
+
+		void read()
+		{
+			try
+			{
+				if(channel.read(in) < 0)
+				{
+					close();
+					return;
+				}
+				dispatchFrames();
+			}
+			catch(IOException e)
+			{
+				LOG.debug("gateway connection failed - {}", e.getMessage());
+				close();
+			}
+		}
+
+		/**
+		 * Dispatches the complete requests in the read buffer - while the
+		 * responses are backed up the rest stay buffered until flush() has
+		 * written enough of them.
+		 */
+		private void dispatchFrames()
+		{
+			in.flip();
+			while(in.remaining() >= 4 && !isBackedUp())
+			{
+				int length = in.getInt(in.position());
+				if(length < GatewayProtocol.HEADER_BYTES - 4 + 1 || length > GatewayProtocol.MAX_FRAME_BYTES)
+				{
+					LOG.warn("bad gateway frame length [{}] - closing connection", Integer.valueOf(length));
+					close();
+					return;
+				}
+				if(in.remaining() < 4 + length)
+				{
+					if(in.capacity() < 4 + length)
+					{
+						ByteBuffer larger = ByteBuffer.allocate(4 + length);
+						larger.put(in);
+						in = larger;
+						return;
+					}
+					break;
+				}
+				in.getInt();
+				int requestId = in.getInt();
+				byte op = in.get();
+				byte[] payload = new byte[length - 5];
+				in.get(payload);
+				dispatch(requestId, op, ByteBuffer.wrap(payload));
+			}
+			in.compact();
+		}
+
+		private boolean isBackedUp()
+		{
+			return queuedResponseBytes.get() >= maxQueuedResponseBytes;
+		}
+
+		private void dispatch(final int requestId, final byte op, final ByteBuffer payload)
+		{
+			requests.incrementAndGet();
+			if(op == GatewayProtocol.SET_TENANT)
+			{
+				// here, not on a worker - every request after it is for the new tenant
+				setTenant(requestId, payload);
+				return;
+			}
+			final String tenant = this.tenant;
+			try
+			{
+				workers.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						ByteBuffer response;
+						OPCTenant.set(tenant);
+						try
+						{
+							response = handle(Connection.this, requestId, op, payload);
+						}
+						catch(OPCException e)
+						{
+							response = errorResponse(requestId, GatewayProtocol.statusOf(e), e.getMessage());
+						}
+						catch(RuntimeException e)
+						{
+							// malformed payload
+							response = errorResponse(requestId, GatewayProtocol.ERROR, "bad request - "+e);
+						}
+						finally
+						{
+							OPCTenant.clear();
+						}
+						send(response);
+					}
+				});
+			}
+			catch(RejectedExecutionException e)
+			{
+				send(errorResponse(requestId, GatewayProtocol.BUSY, "["+workers.getQueue().size()+"] requests queued"));
+			}
+		}
+
+		private void setTenant(int requestId, ByteBuffer payload)
+		{
+			try
+			{
+				String name = GatewayProtocol.getString(payload);
+				if(name.isEmpty())
+				{
+					send(errorResponse(requestId, GatewayProtocol.ERROR, "tenant name must not be empty"));
+					return;
+				}
+				tenant = DEFAULT_TENANT+"-"+name;
+				send(GatewayProtocol.endFrame(GatewayProtocol.startFrame(requestId, GatewayProtocol.OK, 0)));
+			}
+			catch(RuntimeException e)
+			{
+				send(errorResponse(requestId, GatewayProtocol.ERROR, "bad request - "+e));
+			}
+		}
+
+		void send(ByteBuffer response)
+		{
+			queuedResponseBytes.addAndGet(response.remaining());
+			responses.add(response);
+			scheduleFlush();
+		}
+
+		void scheduleFlush()
+		{
+			writable.add(this);
+			selector.wakeup();
+		}
+
+		synchronized void subscribed(String item)
+		{
+			if(subscriptions.add(item))
+			{
+				initialUpdates.add(item);
+			}
+		}
+
+		synchronized void unsubscribed(String[] items)
+		{
+			for(String item : items)
+			{
+				subscriptions.remove(item);
+				initialUpdates.remove(item);
+				pendingUpdates.remove(item);
+			}
+		}
+
+		/**
+		 * @return true if the value is to be pushed
+		 */
+		synchronized boolean publish(String item, Object value, boolean changed)
+		{
+			if(!initialUpdates.remove(item) && !changed)
+			{
+				return false;
+			}
+			if(pendingUpdates.put(item, value) != null)
+			{
+				conflated.incrementAndGet();
+			}
+			return true;
+		}
+
+		/**
+		 * @return an UPDATE frame of the pending updates, null if there are none
+		 */
+		private synchronized ByteBuffer takeUpdateFrame()
+		{
+			if(pendingUpdates.isEmpty())
+			{
+				return null;
+			}
+			List<String> items = new ArrayList<String>(pendingUpdates.keySet());
+			OPCDataType[] dataTypes = new OPCDataType[items.size()];
+			int i = 0;
+			for(Object value : pendingUpdates.values())
+			{
+				dataTypes[i++] = value instanceof ReadFailure ? null : GatewayProtocol.dataTypeOf(value);
+			}
+			OPCGroupValues values = new OPCGroupValues(items, dataTypes, System.currentTimeMillis());
+			i = 0;
+			for(Object value : pendingUpdates.values())
+			{
+				if(value instanceof ReadFailure)
+				{
+					values.setError(i++, new OPCException(((ReadFailure)value).message));
+					continue;
+				}
+				switch(dataTypes[i])
+				{
+					case BOOL: values.setBoolean(i, ((Boolean)value).booleanValue()); break;
+					case I4: values.setInt(i, ((Integer)value).intValue()); break;
+					case R4: values.setFloat(i, ((Float)value).floatValue()); break;
+					default: values.setString(i, String.valueOf(value)); break;
+				}
+				i++;
+			}
+			pendingUpdates.clear();
+			ByteBuffer frame = GatewayProtocol.startFrame(GatewayProtocol.PUSH_REQUEST_ID, GatewayProtocol.UPDATE, GatewayProtocol.groupBytes(values));
+			GatewayProtocol.putGroup(frame, values);
+			return GatewayProtocol.endFrame(frame);
+		}
+
+		/**
+		 * Writes whatever is queued with one gathering write per round; the
+		 * next update frame is only built once the previous one is out.
+		 */
+		void flush()
+		{
+			if(!key.isValid())
+			{
+				return;
+			}
+			try
+			{
+				while(true)
+				{
+					ByteBuffer response;
+					while((response = responses.poll()) != null)
+					{
+						outgoing.add(response);
+					}
+					if(updateFrame == null)
+					{
+						updateFrame = takeUpdateFrame();
+						if(updateFrame != null)
+						{
+							outgoing.add(updateFrame);
+						}
+					}
+					if(outgoing.isEmpty())
+					{
+						interest(false);
+						return;
+					}
+					channel.write(outgoing.toArray(new ByteBuffer[outgoing.size()]));
+					while(!outgoing.isEmpty() && !outgoing.peek().hasRemaining())
+					{
+						ByteBuffer written = outgoing.poll();
+						if(written == updateFrame)
+						{
+							updateFrame = null;
+						}
+						else
+						{
+							queuedResponseBytes.addAndGet(-written.limit());
+						}
+					}
+					if(!outgoing.isEmpty())
+					{
+						// socket buffer full - the rest when it is writable again
+						interest(true);
+						return;
+					}
+				}
+			}
+			catch(IOException e)
+			{
+				LOG.debug("gateway connection failed - {}", e.getMessage());
+				close();
+			}
+		}
+
+		/**
+		 * Stops reading while the responses are backed up, and dispatches the
+		 * requests left buffered once they are not any more.
+		 */
+		private void interest(boolean writing)
+		{
+			boolean backedUp = isBackedUp();
+			key.interestOps((backedUp ? 0 : SelectionKey.OP_READ) | (writing ? SelectionKey.OP_WRITE : 0));
+			if(backedUp && !readPaused)
+			{
+				readPaused = true;
+				readPauses.incrementAndGet();
+				LOG.debug("gateway connection [{}] not taking its responses - not read from", tenant);
+			}
+			else if(!backedUp && readPaused)
+			{
+				readPaused = false;
+				dispatchFrames();
+			}
+		}
+
+		boolean isOpen()
+		{
+			return key.isValid();
+		}
+
+		private void close()
+		{
+			if(key.isValid())
+			{
+				closeQuietly(key);
+				connections.decrementAndGet();
+				List<String> items;
+				synchronized(this)
+				{
+					items = new ArrayList<String>(subscriptions);
+				}
+				unsubscribe(this, items);
+			}
+		}
+	}
+
+	/**
+	 * Pushed in place of the value of an item that failed to read - equal to
+	 * another of the same message, so the same failure is not pushed again.
+	 */
+	private static final class ReadFailure
+	{
+		private final String message;
+
+		ReadFailure(String message)
+		{
+			this.message = String.valueOf(message);
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			return other instanceof ReadFailure && message.equals(((ReadFailure)other).message);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return message.hashCode();
+		}
+	}
+}
@@ -0,0 +1,427 @@
+package cern.ess.opclib.gateway;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OPCGroupValues;
+import cern.ess.opclib.OPCTimeoutException;
+import cern.ess.opclib.OpcApi;
+import cern.ess.opclib.log.OPCLogger;
+
+/**
+ * OpcApi of a process that is not the one owning the OPC session: calls go
+ * to an OPCGateway on the same host.
+ *
+ * Any number of threads can share one client - requests are sent as they
+ * come and a reader thread hands each response to the caller waiting for
+ * it. init() is a no-op (the gateway's client owns the session), stop()
+ * closes the connection.
+ *
+ * Subscribed items are not polled: the gateway pushes their changes to the
+ * subscription listener.
+ */
+public class OPCGatewayClient implements OpcApi, Closeable
+{
+	public static final long DEFAULT_RESPONSE_TIMEOUT_MS = 5000;
+
+	private static final OPCLogger LOG = OPCLogger.getLogger(OPCGatewayClient.class);
+
+	private final SocketChannel channel;
+	private final long responseTimeoutMs;
+	private final Map<Integer, CompletableFuture<ByteBuffer>> pending;
+	private final AtomicInteger nextRequestId;
+	private final Object writeLock;
+	private final Thread reader;
+	private volatile int maxAgeMs;
+	private volatile OPCSubscriptionListener listener;
+	private volatile boolean closed;
+
+	public OPCGatewayClient(int port) throws IOException
+	{
+		this(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), DEFAULT_RESPONSE_TIMEOUT_MS);
+	}
+
+	public OPCGatewayClient(InetSocketAddress gateway, long responseTimeoutMs) throws IOException
+	{
+		this.channel = SocketChannel.open(gateway);
+		this.channel.socket().setTcpNoDelay(true);
+		this.responseTimeoutMs = responseTimeoutMs;
+		this.pending = new ConcurrentHashMap<Integer, CompletableFuture<ByteBuffer>>();
+		this.nextRequestId = new AtomicInteger();
+		this.writeLock = new Object();
+		this.reader = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				readResponses();
+			}
+		}, "opclib-gateway-client");
+		this.reader.setDaemon(true);
+		this.reader.start();
+	}
+
+	/**
+	 * Lets reads be answered from the gateway's value cache if the value
+	 * there is at most maxAgeMs old; 0 (the default) always reads the server.
+	 */
+	public void setMaxAgeMs(int maxAgeMs)
+	{
+		this.maxAgeMs = maxAgeMs;
+	}
+
+	/**
+	 * Names the tenant (see OPCTenant) the gateway schedules this
+	 * connection's requests for from now on - "gateway-" and the name, so
+	 * one configured name keeps the same share and metrics across
+	 * reconnects. Connections that name none share the tenant "gateway".
+	 */
+	public void setTenant(String name) throws OPCException
+	{
+		request(GatewayProtocol.SET_TENANT, name);
+	}
+
+	/**
+	 * Set it before subscribing, updates arriving without one are dropped.
+	 */
+	public void setSubscriptionListener(OPCSubscriptionListener listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * The listener is pushed the items' current values and then their changes.
+	 */
+	public void subscribe(String... items) throws OPCException
+	{
+		send(itemsFrame(GatewayProtocol.SUBSCRIBE, items));
+	}
+
+	public void unsubscribe(String... items) throws OPCException
+	{
+		send(itemsFrame(GatewayProtocol.UNSUBSCRIBE, items));
+	}
+
+	private ByteBuffer itemsFrame(byte op, String[] items)
+	{
+		int bytes = 4;
+		for(String item : items)
+		{
+			bytes += GatewayProtocol.stringBytes(item);
+		}
+		ByteBuffer frame = start(op, bytes);
+		frame.putInt(items.length);
+		for(String item : items)
+		{
+			GatewayProtocol.putString(frame, item);
+		}
+		return frame;
+	}
+
+	@Override
+	public void init(String host, String server)
+	{
+		LOG.debug("init through the gateway ignored - the gateway owns the session");
+	}
+
+	@Override
+	public String[] getItemNames() throws OPCException
+	{
+		return names(request(GatewayProtocol.GET_ITEM_NAMES, null));
+	}
+
+	@Override
+	public String[] getLocalServerList() throws OPCException
+	{
+		return names(request(GatewayProtocol.GET_LOCAL_SERVER_LIST, null));
+	}
+
+	@Override
+	public boolean readBoolean(String item) throws OPCException
+	{
+		return read(GatewayProtocol.READ_BOOLEAN, item).get() != 0;
+	}
+
+	@Override
+	public String readString(String item) throws OPCException
+	{
+		return GatewayProtocol.getString(read(GatewayProtocol.READ_STRING, item));
+	}
+
+	@Override
+	public int readInt(String item) throws OPCException
+	{
+		return read(GatewayProtocol.READ_INT, item).getInt();
+	}
+
+	@Override
+	public float readFloat(String item) throws OPCException
+	{
+		return read(GatewayProtocol.READ_FLOAT, item).getFloat();
+	}
+
+	@Override
+	public void writeBoolean(String item, boolean val) throws OPCException
+	{
+		ByteBuffer frame = start(GatewayProtocol.WRITE_BOOLEAN, GatewayProtocol.stringBytes(item) + 1);
+		GatewayProtocol.putString(frame, item);
+		frame.put((byte)(val ? 1 : 0));
+		send(frame);
+	}
+
+	@Override
+	public void writeString(String item, String val) throws OPCException
+	{
+		ByteBuffer frame = start(GatewayProtocol.WRITE_STRING, GatewayProtocol.stringBytes(item) + GatewayProtocol.stringBytes(val));
+		GatewayProtocol.putString(frame, item);
+		GatewayProtocol.putString(frame, val);
+		send(frame);
+	}
+
+	@Override
+	public void writeInt(String item, String type, int val) throws OPCException
+	{
+		ByteBuffer frame = start(GatewayProtocol.WRITE_INT, GatewayProtocol.stringBytes(item) + GatewayProtocol.stringBytes(type) + 4);
+		GatewayProtocol.putString(frame, item);
+		GatewayProtocol.putString(frame, type);
+		frame.putInt(val);
+		send(frame);
+	}
+
+	@Override
+	public void writeFloat(String item, String type, float val) throws OPCException
+	{
+		ByteBuffer frame = start(GatewayProtocol.WRITE_FLOAT, GatewayProtocol.stringBytes(item) + GatewayProtocol.stringBytes(type) + 4);
+		GatewayProtocol.putString(frame, item);
+		GatewayProtocol.putString(frame, type);
+		frame.putFloat(val);
+		send(frame);
+	}
+
+	/**
+	 * See OPCTypedApi.readGroup
+	 */
+	public OPCGroupValues readGroup(String prefix) throws OPCException
+	{
+		return GatewayProtocol.getGroup(request(GatewayProtocol.READ_GROUP, prefix));
+	}
+
+	/**
+	 * See OPCTypedApi.readMatching
+	 */
+	public OPCGroupValues readMatching(String pattern) throws OPCException
+	{
+		return GatewayProtocol.getGroup(request(GatewayProtocol.READ_MATCHING, pattern));
+	}
+
+	@Override
+	public int stop() throws InterruptedException, ExecutionException, TimeoutException
+	{
+		close();
+		return 0;
+	}
+
+	@Override
+	public void close()
+	{
+		closed = true;
+		try
+		{
+			channel.close();
+		}
+		catch(IOException e)
+		{
+			LOG.debug("failed to close gateway connection - {}", e.getMessage());
+		}
+		failPending(new OPCException("gateway connection closed"));
+	}
+
+	private ByteBuffer read(byte op, String item) throws OPCException
+	{
+		ByteBuffer frame = start(op, 4 + GatewayProtocol.stringBytes(item));
+		frame.putInt(maxAgeMs);
+		GatewayProtocol.putString(frame, item);
+		return send(frame);
+	}
+
+	/**
+	 * @param text written if not null
+	 */
+	private ByteBuffer request(byte op, String text) throws OPCException
+	{
+		ByteBuffer frame = start(op, text == null ? 0 : GatewayProtocol.stringBytes(text));
+		if(text != null)
+		{
+			GatewayProtocol.putString(frame, text);
+		}
+		return send(frame);
+	}
+
+	private ByteBuffer start(byte op, int payloadBytes)
+	{
+		int requestId;
+		do
+		{
+			requestId = nextRequestId.incrementAndGet();
+		}
+		while(requestId == GatewayProtocol.PUSH_REQUEST_ID);
+		return GatewayProtocol.startFrame(requestId, op, payloadBytes);
+	}
+
+	/**
+	 * @return the payload of the successful response
+	 */
+	private ByteBuffer send(ByteBuffer frame) throws OPCException
+	{
+		Integer requestId = Integer.valueOf(frame.getInt(4));
+		CompletableFuture<ByteBuffer> response = new CompletableFuture<ByteBuffer>();
+		pending.put(requestId, response);
+		try
+		{
+			GatewayProtocol.endFrame(frame);
+			synchronized(writeLock)
+			{
+				if(closed)
+				{
+					throw new OPCException("gateway connection closed");
+				}
+				while(frame.hasRemaining())
+				{
+					channel.write(frame);
+				}
+			}
+			return response.get(responseTimeoutMs, TimeUnit.MILLISECONDS);
+		}
+		catch(IOException e)
+		{
+			throw new OPCException("failed to send to the gateway - "+e.getMessage());
+		}
+		catch(TimeoutException e)
+		{
+			throw new OPCTimeoutException("no response from the gateway within ["+responseTimeoutMs+"ms]");
+		}
+		catch(ExecutionException e)
+		{
+			throw (OPCException)e.getCause();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new OPCException("interrupted while waiting for the gateway");
+		}
+		finally
+		{
+			pending.remove(requestId);
+		}
+	}
+
+	private void readResponses()
+	{
+		ByteBuffer header = ByteBuffer.allocate(GatewayProtocol.HEADER_BYTES + 1);
+		try
+		{
+			while(!closed)
+			{
+				header.clear();
+				readFully(header);
+				header.flip();
+				int length = header.getInt();
+				Integer requestId = Integer.valueOf(header.getInt());
+				byte status = header.get();
+				if(length < GatewayProtocol.HEADER_BYTES - 4 + 1 || length > GatewayProtocol.MAX_FRAME_BYTES)
+				{
+					throw new IOException("bad frame length ["+length+"]");
+				}
+				ByteBuffer payload = ByteBuffer.allocate(length - 5);
+				readFully(payload);
+				payload.flip();
+
+				if(status == GatewayProtocol.UPDATE)
+				{
+					pushed(payload);
+					continue;
+				}
+				CompletableFuture<ByteBuffer> response = pending.get(requestId);
+				if(response == null)
+				{
+					LOG.debug("discarding gateway response [{}] nobody waits for", requestId);
+				}
+				else if(status == GatewayProtocol.OK)
+				{
+					response.complete(payload);
+				}
+				else
+				{
+					response.completeExceptionally(GatewayProtocol.errorOf(status, GatewayProtocol.getString(payload)));
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			if(!closed)
+			{
+				LOG.warn("gateway connection lost - {}", e.getMessage());
+			}
+		}
+		closed = true;
+		failPending(new OPCException("gateway connection lost"));
+	}
+
+	private void pushed(ByteBuffer payload)
+	{
+		OPCSubscriptionListener target = listener;
+		if(target == null)
+		{
+			return;
+		}
+		try
+		{
+			target.updated(GatewayProtocol.getGroup(payload));
+		}
+		catch(RuntimeException e)
+		{
+			LOG.error("subscription listener failed - {}", e.getMessage(), e);
+		}
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			if(channel.read(buffer) < 0)
+			{
+				throw new IOException("closed by the gateway");
+			}
+		}
+	}
+
+	private void failPending(OPCException error)
+	{
+		for(CompletableFuture<ByteBuffer> response : pending.values())
+		{
+			response.completeExceptionally(error);
+		}
+	}
+
+	private static String[] names(ByteBuffer payload)
+	{
+		String[] names = new String[payload.getInt()];
+		for(int i=0; i<names.length; i++)
+		{
+			names[i] = GatewayProtocol.getString(payload);
+		}
+		return names;
+	}
+}
@@ -0,0 +1,17 @@
+package cern.ess.opclib.gateway;
+
+import cern.ess.opclib.OPCGroupValues;
+
+/**
+ * Receives the values of subscribed items an OPCGatewayClient is pushed.
+ */
+public interface OPCSubscriptionListener
+{
+	/**
+	 * Called on the client's reader thread - must not block, no responses
+	 * are read meanwhile.
+	 *
+	 * @param values the items that changed in one scan of the gateway (or were just subscribed to) - failed if they could not be read
+	 */
+	public void updated(OPCGroupValues values);
+}
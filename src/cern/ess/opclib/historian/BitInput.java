@@ -0,0 +1,47 @@
+package cern.ess.opclib.historian;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bit stream reader over a region of a (mapped) buffer, most significant
+ * bit first - reads in place, allocation free.
+ */
+class BitInput
+{
+	private final ByteBuffer buffer;
+	private final int offset;
+	private long bitPosition;
+
+	BitInput(ByteBuffer buffer, int offset)
+	{
+		this.buffer = buffer;
+		this.offset = offset;
+	}
+
+	boolean readBit()
+	{
+		int value = buffer.get(offset + (int)(bitPosition >>> 3)) & 0xFF;
+		boolean bit = (value & (0x80 >>> (bitPosition & 7))) != 0;
+		bitPosition++;
+		return bit;
+	}
+
+	/**
+	 * @param count up to 64
+	 */
+	long readBits(int count)
+	{
+		long result = 0;
+		int remaining = count;
+		while(remaining > 0)
+		{
+			int value = buffer.get(offset + (int)(bitPosition >>> 3)) & 0xFF;
+			int available = 8 - (int)(bitPosition & 7);
+			int take = Math.min(available, remaining);
+			result = (result << take) | ((value >>> (available - take)) & ((1 << take) - 1));
+			remaining -= take;
+			bitPosition += take;
+		}
+		return result;
+	}
+}
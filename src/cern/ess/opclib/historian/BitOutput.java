@@ -0,0 +1,71 @@
+package cern.ess.opclib.historian;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable bit stream writer, most significant bit first.
+ */
+class BitOutput
+{
+	private byte[] bytes;
+	private long bitPosition;
+
+	BitOutput(int initialBytes)
+	{
+		this.bytes = new byte[Math.max(8, initialBytes)];
+	}
+
+	void writeBit(boolean bit)
+	{
+		ensureCapacity(1);
+		if(bit)
+		{
+			bytes[(int)(bitPosition >>> 3)] |= (byte)(0x80 >>> (bitPosition & 7));
+		}
+		bitPosition++;
+	}
+
+	/**
+	 * Writes the lowest count bits of value.
+	 */
+	void writeBits(long value, int count)
+	{
+		ensureCapacity(count);
+		int remaining = count;
+		while(remaining > 0)
+		{
+			int byteIndex = (int)(bitPosition >>> 3);
+			int free = 8 - (int)(bitPosition & 7);
+			int take = Math.min(free, remaining);
+			int bits = (int)(value >>> (remaining - take)) & ((1 << take) - 1);
+			bytes[byteIndex] |= (byte)(bits << (free - take));
+			remaining -= take;
+			bitPosition += take;
+		}
+	}
+
+	long getBitLength()
+	{
+		return bitPosition;
+	}
+
+	int getByteLength()
+	{
+		return (int)((bitPosition + 7) >>> 3);
+	}
+
+	void writeTo(ByteBuffer out)
+	{
+		out.put(bytes, 0, getByteLength());
+	}
+
+	private void ensureCapacity(int bits)
+	{
+		long neededBytes = (bitPosition + bits + 7) >>> 3;
+		if(neededBytes > bytes.length)
+		{
+			bytes = Arrays.copyOf(bytes, (int)Math.max(neededBytes, 2L * bytes.length));
+		}
+	}
+}
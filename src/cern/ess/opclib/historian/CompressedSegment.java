@@ -0,0 +1,132 @@
+package cern.ess.opclib.historian;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A sealed segment after compaction: per item GorillaBlocks instead of raw
+ * records, mapped read only (open) or read into memory (read, see
+ * HistorianSegment).
+ *
+ * Layout: the 32 byte header of a HistorianSegment (with its own magic,
+ * same sequence and creation time, block count at offset 24), then blocks
+ * of int item handle followed by the GorillaBlock.
+ */
+public class CompressedSegment
+{
+	public static final int MAGIC = 0x4F504342;
+	public static final int VERSION = 1;
+	public static final String FILE_SUFFIX = ".blocks";
+
+	private final File file;
+	private final ByteBuffer buffer;
+	private final int[] handles;
+	private final int[] blockOffsets;
+
+	private CompressedSegment(File file, ByteBuffer buffer)
+	{
+		this.file = file;
+		this.buffer = buffer;
+		int blockCount = buffer.getInt(24);
+		this.handles = new int[blockCount];
+		this.blockOffsets = new int[blockCount];
+		int position = HistorianSegment.HEADER_BYTES;
+		for(int i=0; i<blockCount; i++)
+		{
+			handles[i] = buffer.getInt(position);
+			blockOffsets[i] = position + 4;
+			position = blockOffsets[i] + new GorillaBlock(buffer, blockOffsets[i]).getByteLength();
+		}
+	}
+
+	public static CompressedSegment open(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			return of(file, raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	public static CompressedSegment read(File file) throws IOException
+	{
+		return of(file, HistorianSegment.readFully(file));
+	}
+
+	private static CompressedSegment of(File file, ByteBuffer buffer) throws IOException
+	{
+		if(buffer.capacity() < HistorianSegment.HEADER_BYTES || buffer.getInt(0) != MAGIC)
+		{
+			throw new IOException("not a compressed historian segment ["+file+"]");
+		}
+		if(buffer.getInt(4) != VERSION)
+		{
+			throw new IOException("unsupported compressed historian segment version ["+buffer.getInt(4)+"] in ["+file+"]");
+		}
+		return new CompressedSegment(file, buffer);
+	}
+
+	static File fileFor(File rawSegmentFile)
+	{
+		String name = rawSegmentFile.getName();
+		return new File(rawSegmentFile.getParentFile(), name.substring(0, name.length() - HistorianSegment.FILE_SUFFIX.length()) + FILE_SUFFIX);
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	public long getSequence()
+	{
+		return buffer.getLong(8);
+	}
+
+	public long getCreatedMillis()
+	{
+		return buffer.getLong(16);
+	}
+
+	public int getBlockCount()
+	{
+		return handles.length;
+	}
+
+	public int getHandle(int block)
+	{
+		return handles[block];
+	}
+
+	/**
+	 * @return file offset of the block (after its item handle)
+	 */
+	public int getBlockOffset(int block)
+	{
+		return blockOffsets[block];
+	}
+
+	public GorillaBlock getBlock(int block)
+	{
+		return new GorillaBlock(buffer, blockOffsets[block]);
+	}
+
+	/**
+	 * @param offset a block offset, e.g. from the segment's index
+	 */
+	public GorillaBlock getBlockAt(int offset)
+	{
+		return new GorillaBlock(buffer, offset);
+	}
+
+	public int getSize()
+	{
+		return buffer.capacity();
+	}
+}
@@ -0,0 +1,182 @@
+package cern.ess.opclib.historian;
+
+import java.nio.ByteBuffer;
+
+import cern.ess.opclib.OPCValueType;
+
+/**
+ * Read only view of a block written by GorillaEncoder, decoding in place
+ * from the (mapped) buffer it lies in.
+ *
+ * Layout: byte value type, int sample count, long first and last
+ * timestamp, int timestamp column bytes, int value column bytes, then the
+ * two columns. The columns are decoded whole into caller supplied arrays -
+ * the tight per column loops are what makes decoding fast; the first/last
+ * timestamps let a query skip a block without decoding it.
+ */
+public class GorillaBlock
+{
+	public static final int HEADER_BYTES = 1 + 4 + 8 + 8 + 4 + 4;
+
+	private final ByteBuffer buffer;
+	private final int offset;
+
+	public GorillaBlock(ByteBuffer buffer, int offset)
+	{
+		this.buffer = buffer;
+		this.offset = offset;
+	}
+
+	public OPCValueType getType()
+	{
+		return OPCValueType.fromCode(buffer.get(offset));
+	}
+
+	public int getCount()
+	{
+		return buffer.getInt(offset + 1);
+	}
+
+	public long getFirstTimestampMillis()
+	{
+		return buffer.getLong(offset + 5);
+	}
+
+	public long getLastTimestampMillis()
+	{
+		return buffer.getLong(offset + 13);
+	}
+
+	/**
+	 * @return bytes the block takes, header included
+	 */
+	public int getByteLength()
+	{
+		return HEADER_BYTES + timestampColumnBytes() + valueColumnBytes();
+	}
+
+	/**
+	 * @param out at least getCount() long
+	 */
+	public void decodeTimestamps(long[] out)
+	{
+		int count = getCount();
+		BitInput in = new BitInput(buffer, offset + HEADER_BYTES);
+		long timestamp = getFirstTimestampMillis();
+		long delta = 0;
+		out[0] = timestamp;
+		for(int i=1; i<count; i++)
+		{
+			long deltaOfDelta;
+			if(!in.readBit())
+			{
+				deltaOfDelta = 0;
+			}
+			else if(!in.readBit())
+			{
+				deltaOfDelta = in.readBits(7) - 63;
+			}
+			else if(!in.readBit())
+			{
+				deltaOfDelta = in.readBits(9) - 255;
+			}
+			else if(!in.readBit())
+			{
+				deltaOfDelta = in.readBits(12) - 2047;
+			}
+			else
+			{
+				deltaOfDelta = in.readBits(64);
+			}
+			delta += deltaOfDelta;
+			timestamp += delta;
+			out[i] = timestamp;
+		}
+	}
+
+	/**
+	 * @param out at least getCount() long, receives the boolean (0/1), int or float bits
+	 */
+	public void decodeValueBits(int[] out)
+	{
+		int count = getCount();
+		BitInput in = new BitInput(buffer, offset + HEADER_BYTES + timestampColumnBytes());
+		int value = (int)in.readBits(32);
+		int leadingZeros = 0;
+		int trailingZeros = 0;
+		out[0] = value;
+		for(int i=1; i<count; i++)
+		{
+			if(in.readBit())
+			{
+				if(in.readBit())
+				{
+					leadingZeros = (int)in.readBits(5);
+					int meaningfulBits = (int)in.readBits(5) + 1;
+					trailingZeros = 32 - leadingZeros - meaningfulBits;
+				}
+				value ^= (int)in.readBits(32 - leadingZeros - trailingZeros) << trailingZeros;
+			}
+			out[i] = value;
+		}
+	}
+
+	/**
+	 * Numeric values as doubles (booleans 0/1).
+	 *
+	 * @param scratch and out at least getCount() long
+	 */
+	public void decodeValues(int[] scratch, double[] out)
+	{
+		decodeValueBits(scratch);
+		int count = getCount();
+		if(getType() == OPCValueType.FLOAT)
+		{
+			for(int i=0; i<count; i++)
+			{
+				out[i] = Float.intBitsToFloat(scratch[i]);
+			}
+		}
+		else
+		{
+			for(int i=0; i<count; i++)
+			{
+				out[i] = scratch[i];
+			}
+		}
+	}
+
+	/**
+	 * @param out at least getCount() long
+	 */
+	public void decodeStrings(String[] out)
+	{
+		int count = getCount();
+		BitInput in = new BitInput(buffer, offset + HEADER_BYTES + timestampColumnBytes());
+		String value = null;
+		for(int i=0; i<count; i++)
+		{
+			if(in.readBit())
+			{
+				int length = (int)in.readBits(16);
+				char[] chars = new char[length];
+				for(int c=0; c<length; c++)
+				{
+					chars[c] = (char)in.readBits(16);
+				}
+				value = new String(chars);
+			}
+			out[i] = value;
+		}
+	}
+
+	private int timestampColumnBytes()
+	{
+		return buffer.getInt(offset + 21);
+	}
+
+	private int valueColumnBytes()
+	{
+		return buffer.getInt(offset + 25);
+	}
+}
@@ -0,0 +1,204 @@
+package cern.ess.opclib.historian;
+
+import java.nio.ByteBuffer;
+
+import cern.ess.opclib.OPCValueType;
+
+/**
+ * Encodes one item's samples into a column oriented block after Facebook's
+ * Gorilla (Pelkonen et al., VLDB 2015), see GorillaBlock for the layout.
+ *
+ * Timestamp column - delta of delta against the previous sample:
+ *   0                        '0'
+ *   -63..64                  '10'   + 7 bits
+ *   -255..256                '110'  + 9 bits
+ *   -2047..2048              '1110' + 12 bits
+ *   otherwise                '1111' + 64 bits
+ * A regularly polled item costs 1 bit per timestamp.
+ *
+ * Value column (boolean, int, float - as 32 bit patterns) - the first value
+ * in full, then the XOR with the previous value:
+ *   0 (unchanged)            '0'
+ *   within previous window   '10' + the meaningful bits
+ *   otherwise                '11' + 5 bits leading zeros + 5 bits length-1 + the meaningful bits
+ * A value that did not change costs 1 bit, a small change of a float only
+ * the few mantissa bits that differ.
+ *
+ * String values are '0' if unchanged, else '1' + 16 bit length + the chars.
+ */
+public class GorillaEncoder
+{
+	private final OPCValueType type;
+	private final BitOutput timestamps;
+	private final BitOutput values;
+	private int count;
+	private long firstTimestamp;
+	private long previousTimestamp;
+	private long previousDelta;
+	private int previousValue;
+	private int previousLeadingZeros;
+	private int previousTrailingZeros;
+	private String previousString;
+
+	public GorillaEncoder(OPCValueType type)
+	{
+		this.type = type;
+		this.timestamps = new BitOutput(256);
+		this.values = new BitOutput(256);
+		this.previousLeadingZeros = -1;
+	}
+
+	public OPCValueType getType()
+	{
+		return type;
+	}
+
+	public int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @param valueBits the boolean (0/1), int, or float (Float.floatToRawIntBits) value
+	 */
+	public void append(long timestampMillis, int valueBits)
+	{
+		if(type == OPCValueType.STRING)
+		{
+			throw new IllegalStateException("string series - use appendString");
+		}
+		appendTimestamp(timestampMillis);
+		if(count == 0)
+		{
+			values.writeBits(valueBits, 32);
+		}
+		else
+		{
+			appendXor(valueBits ^ previousValue);
+		}
+		previousValue = valueBits;
+		count++;
+	}
+
+	public void appendString(long timestampMillis, String value)
+	{
+		if(type != OPCValueType.STRING)
+		{
+			throw new IllegalStateException(type+" series - use append");
+		}
+		appendTimestamp(timestampMillis);
+		if(count > 0 && value.equals(previousString))
+		{
+			values.writeBit(false);
+		}
+		else
+		{
+			int length = Math.min(value.length(), HistorianSegment.MAX_STRING_CHARS);
+			values.writeBit(true);
+			values.writeBits(length, 16);
+			for(int i=0; i<length; i++)
+			{
+				values.writeBits(value.charAt(i), 16);
+			}
+		}
+		previousString = value;
+		count++;
+	}
+
+	/**
+	 * @return bytes the block takes, header included
+	 */
+	public int getEncodedBytes()
+	{
+		return GorillaBlock.HEADER_BYTES + timestamps.getByteLength() + values.getByteLength();
+	}
+
+	public void writeTo(ByteBuffer out)
+	{
+		if(count == 0)
+		{
+			throw new IllegalStateException("empty block");
+		}
+		out.put(type.getCode());
+		out.putInt(count);
+		out.putLong(firstTimestamp);
+		out.putLong(previousTimestamp);
+		out.putInt(timestamps.getByteLength());
+		out.putInt(values.getByteLength());
+		timestamps.writeTo(out);
+		values.writeTo(out);
+	}
+
+	public byte[] toBytes()
+	{
+		ByteBuffer out = ByteBuffer.allocate(getEncodedBytes());
+		writeTo(out);
+		return out.array();
+	}
+
+	private void appendTimestamp(long timestampMillis)
+	{
+		if(count == 0)
+		{
+			firstTimestamp = timestampMillis;
+		}
+		else
+		{
+			long delta = timestampMillis - previousTimestamp;
+			long deltaOfDelta = delta - previousDelta;
+			if(deltaOfDelta == 0)
+			{
+				timestamps.writeBit(false);
+			}
+			else if(deltaOfDelta >= -63 && deltaOfDelta <= 64)
+			{
+				timestamps.writeBits(0x2, 2);
+				timestamps.writeBits(deltaOfDelta + 63, 7);
+			}
+			else if(deltaOfDelta >= -255 && deltaOfDelta <= 256)
+			{
+				timestamps.writeBits(0x6, 3);
+				timestamps.writeBits(deltaOfDelta + 255, 9);
+			}
+			else if(deltaOfDelta >= -2047 && deltaOfDelta <= 2048)
+			{
+				timestamps.writeBits(0xE, 4);
+				timestamps.writeBits(deltaOfDelta + 2047, 12);
+			}
+			else
+			{
+				timestamps.writeBits(0xF, 4);
+				timestamps.writeBits(deltaOfDelta, 64);
+			}
+			previousDelta = delta;
+		}
+		previousTimestamp = timestampMillis;
+	}
+
+	private void appendXor(int xor)
+	{
+		if(xor == 0)
+		{
+			values.writeBit(false);
+			return;
+		}
+		values.writeBit(true);
+		int leadingZeros = Math.min(Integer.numberOfLeadingZeros(xor), 31);
+		int trailingZeros = Integer.numberOfTrailingZeros(xor);
+		if(previousLeadingZeros >= 0 && leadingZeros >= previousLeadingZeros && trailingZeros >= previousTrailingZeros)
+		{
+			values.writeBit(false);
+			values.writeBits(xor >>> previousTrailingZeros, 32 - previousLeadingZeros - previousTrailingZeros);
+		}
+		else
+		{
+			int meaningfulBits = 32 - leadingZeros - trailingZeros;
+			values.writeBit(true);
+			values.writeBits(leadingZeros, 5);
+			values.writeBits(meaningfulBits - 1, 5);
+			values.writeBits(xor >>> trailingZeros, meaningfulBits);
+			previousLeadingZeros = leadingZeros;
+			previousTrailingZeros = trailingZeros;
+		}
+	}
+}
@@ -0,0 +1,570 @@
+package cern.ess.opclib.historian;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import cern.ess.opclib.OPCValueType;
+import cern.ess.opclib.log.OPCLogger;
+
+/**
+ * Embedded historian: records item values into memory mapped, append only
+ * segment files in a directory (see HistorianSegment for the format and
+ * ItemCatalog for the item handles).
+ *
+ * Recording threads (the OPC client executors) only put the value into a
+ * pre-allocated ring buffer, which is allocation free and never blocks - if
+ * the writer falls behind values are dropped and counted. New items get
+ * their handle in memory; the single writer thread adds them to the
+ * catalog file before their first value, and appends the values to the current segment, starting a new one when it is
+ * full or older than the roll interval; on each roll, segments whose data is
+ * all older than the retention period are deleted. A file that cannot be
+ * deleted yet (on Windows, while a query still maps it) is logged and
+ * retried on the next roll, as are raw segments compaction could not
+ * delete and index files left without their segment.
+ *
+ * A new segment is started whenever the historian is opened, existing ones
+ * are only read.
+ *
+ * Every sealed segment is indexed (see SegmentIndex) on a background
+ * maintenance thread. With a HistorianCompactor set it is first rewritten as
+ * a CompressedSegment and the raw one deleted; so are raw segments left by
+ * earlier runs. See HistorianQuery for reading the history back.
+ */
+public class Historian
+{
+	public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+	public static final long DEFAULT_ROLL_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+	public static final long DEFAULT_RETENTION_MS = TimeUnit.DAYS.toMillis(7);
+	public static final int DEFAULT_BUFFER_CAPACITY = 64 * 1024;
+
+	private static final OPCLogger LOG = OPCLogger.getLogger(Historian.class);
+
+	private static final int DRAIN_BATCH = 1024;
+	private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+	private static final long CATALOG_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final File directory;
+	private final int segmentBytes;
+	private final long rollIntervalMs;
+	private final long retentionMs;
+	private final ItemCatalog catalog;
+	private final HistorianRecordBuffer buffer;
+	private final Thread writerThread;
+	private final AtomicLong dropped;
+	private volatile long recorded;
+	private volatile boolean running;
+	private HistorianCompactor compactor;
+	private ExecutorService maintenanceThread;
+	private volatile HistorianListener[] listeners;
+
+	/** written by the writer thread only */
+	private volatile HistorianSegment activeSegment;
+	private long nextSequence;
+	private long catalogRetryNanos;
+
+	public Historian(File directory) throws IOException
+	{
+		this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_ROLL_INTERVAL_MS, DEFAULT_RETENTION_MS, DEFAULT_BUFFER_CAPACITY);
+	}
+
+	/**
+	 * @param segmentBytes size of each segment file
+	 * @param rollIntervalMs a segment takes values for at most this long
+	 * @param retentionMs how long values are kept
+	 * @param bufferCapacity values buffered for the writer thread before recording drops them
+	 */
+	public Historian(File directory, int segmentBytes, long rollIntervalMs, long retentionMs, int bufferCapacity) throws IOException
+	{
+		if(!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("cannot create historian directory ["+directory+"]");
+		}
+		if(segmentBytes < HistorianSegment.HEADER_BYTES + HistorianSegment.RECORD_HEADER_BYTES + 4)
+		{
+			throw new IllegalArgumentException("segment size ["+segmentBytes+"] too small");
+		}
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.rollIntervalMs = rollIntervalMs;
+		this.retentionMs = retentionMs;
+		this.catalog = new ItemCatalog(directory);
+		this.buffer = new HistorianRecordBuffer(bufferCapacity);
+		this.dropped = new AtomicLong();
+		this.listeners = new HistorianListener[0];
+		this.catalogRetryNanos = System.nanoTime();
+
+		List<File> segments = listSegmentFiles(directory);
+		this.nextSequence = segments.isEmpty() ? 1 : sequenceOf(segments.get(segments.size()-1)) + 1;
+
+		this.writerThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				writeRecords();
+			}
+		}, "opclib-historian");
+		writerThread.setDaemon(true);
+	}
+
+	/**
+	 * @param compactor compacts sealed segments, null (default) to keep them raw - set before start()
+	 */
+	public void setCompactor(HistorianCompactor compactor)
+	{
+		this.compactor = compactor;
+	}
+	
+	/**
+	 * @param listener told about every value written from now on, on the writer thread
+	 */
+	public synchronized void addListener(HistorianListener listener)
+	{
+		HistorianListener[] added = Arrays.copyOf(listeners, listeners.length+1);
+		added[listeners.length] = listener;
+		listeners = added;
+	}
+
+	public void start()
+	{
+		maintenanceThread = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "opclib-historian-maintenance");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		if(compactor != null)
+		{
+			for(File segment : listSegmentFiles(directory))
+			{
+				if(HistorianSegment.isSegmentFile(segment))
+				{
+					sealed(segment);
+				}
+			}
+		}
+		running = true;
+		writerThread.start();
+	}
+
+	/**
+	 * Writes what is still buffered, then stops the writer thread.
+	 */
+	public void close() throws InterruptedException
+	{
+		running = false;
+		LockSupport.unpark(writerThread);
+		writerThread.join();
+		if(maintenanceThread != null)
+		{
+			maintenanceThread.shutdown();
+			maintenanceThread.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Waits until everything recorded so far is in the segment files (not
+	 * necessarily on disk).
+	 */
+	public void flush() throws InterruptedException
+	{
+		while(!buffer.isEmpty() && writerThread.isAlive())
+		{
+			LockSupport.unpark(writerThread);
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Records a value as returned by an OpcApi read call. Allocation free
+	 * once the item has been seen before.
+	 *
+	 * @return false if the value was dropped (buffer full, unsupported type)
+	 */
+	public boolean record(String itemAddress, long timestampMillis, Object value)
+	{
+		int handle = catalog.handleFor(itemAddress);
+		if(value instanceof Float)
+		{
+			return recordFloat(handle, timestampMillis, ((Float)value).floatValue());
+		}
+		if(value instanceof Integer)
+		{
+			return recordInt(handle, timestampMillis, ((Integer)value).intValue());
+		}
+		if(value instanceof Boolean)
+		{
+			return recordBoolean(handle, timestampMillis, ((Boolean)value).booleanValue());
+		}
+		if(value instanceof String)
+		{
+			return recordString(handle, timestampMillis, (String)value);
+		}
+		return dropped();
+	}
+
+	public boolean recordBoolean(int handle, long timestampMillis, boolean value)
+	{
+		return offer(handle, OPCValueType.BOOLEAN, timestampMillis, value ? 1 : 0, null);
+	}
+
+	public boolean recordInt(int handle, long timestampMillis, int value)
+	{
+		return offer(handle, OPCValueType.INT, timestampMillis, value, null);
+	}
+
+	public boolean recordFloat(int handle, long timestampMillis, float value)
+	{
+		return offer(handle, OPCValueType.FLOAT, timestampMillis, Float.floatToRawIntBits(value), null);
+	}
+
+	public boolean recordString(int handle, long timestampMillis, String value)
+	{
+		return offer(handle, OPCValueType.STRING, timestampMillis, 0, value);
+	}
+
+	public ItemCatalog getCatalog()
+	{
+		return catalog;
+	}
+
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * @return values written to the segment files
+	 */
+	public long getRecordedCount()
+	{
+		return recorded;
+	}
+
+	/**
+	 * @return values not recorded - buffer full, unsupported or too large
+	 */
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * @return the segment currently written to, null before the first value
+	 */
+	public HistorianSegment getActiveSegment()
+	{
+		return activeSegment;
+	}
+
+	/**
+	 * @return the segment files in the directory, raw or compressed, oldest first
+	 */
+	public List<File> getSegmentFiles()
+	{
+		return listSegmentFiles(directory);
+	}
+
+	static List<File> listSegmentFiles(File directory)
+	{
+		File[] files = directory.listFiles();
+		List<File> result = new ArrayList<File>();
+		if(files != null)
+		{
+			for(File file : files)
+			{
+				if(file.getName().endsWith(CompressedSegment.FILE_SUFFIX) 
+						|| (HistorianSegment.isSegmentFile(file) && !CompressedSegment.fileFor(file).exists()))
+				{
+					// a raw segment next to its compressed one is left over from an interrupted compaction
+					result.add(file);
+				}
+			}
+		}
+		// fixed width sequence numbers - name order is sequence order
+		Collections.sort(result, new Comparator<File>()
+		{
+			@Override
+			public int compare(File a, File b)
+			{
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		return result;
+	}
+
+	private static long sequenceOf(File segmentFile) throws IOException
+	{
+		return readHeaderLong(segmentFile, 8);
+	}
+
+	private static long createdMillisOf(File segmentFile) throws IOException
+	{
+		return readHeaderLong(segmentFile, 16);
+	}
+
+	/**
+	 * Raw and compressed segments share the header layout.
+	 */
+	private static long readHeaderLong(File segmentFile, int offset) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(segmentFile, "r");
+		try
+		{
+			raf.seek(offset);
+			return raf.readLong();
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Compacts (if configured) and indexes a sealed segment on the maintenance thread.
+	 */
+	private void sealed(final File segmentFile)
+	{
+		maintenanceThread.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				File indexed = segmentFile;
+				try
+				{
+					if(compactor != null)
+					{
+						indexed = compactor.compact(segmentFile);
+						// if still there, deleted with the leftovers on a later roll
+						SegmentIndex.fileFor(segmentFile).delete();
+						LOG.debug("historian segment compacted to [{}]", indexed);
+					}
+					SegmentIndex.forSealedSegment(indexed);
+				}
+				catch(IOException e)
+				{
+					LOG.error("failed to compact or index historian segment [{}]", indexed, e);
+				}
+			}
+		});
+	}
+
+	private boolean offer(int handle, OPCValueType type, long timestampMillis, long valueBits, String stringValue)
+	{
+		return buffer.offer(handle, type, timestampMillis, valueBits, stringValue) || dropped();
+	}
+
+	private boolean dropped()
+	{
+		dropped.incrementAndGet();
+		return false;
+	}
+
+	private void writeRecords()
+	{
+		HistorianRecordBuffer.Consumer writer = new HistorianRecordBuffer.Consumer()
+		{
+			@Override
+			public void record(int handle, OPCValueType type, long timestampMillis, long valueBits, String stringValue)
+			{
+				write(handle, type, timestampMillis, valueBits, stringValue);
+			}
+		};
+		while(running || !buffer.isEmpty())
+		{
+			if(buffer.drain(writer, DRAIN_BATCH) == 0)
+			{
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+			}
+		}
+		HistorianSegment segment = activeSegment;
+		if(segment != null)
+		{
+			segment.force();
+		}
+		LOG.info("historian stopped - recorded [{}] dropped [{}]", Long.valueOf(recorded), Long.valueOf(dropped.get()));
+	}
+
+	private void write(int handle, OPCValueType type, long timestampMillis, long valueBits, String stringValue)
+	{
+		if(!catalog.isPersisted(handle))
+		{
+			persistCatalog();
+		}
+		HistorianSegment segment = activeSegment;
+		if(segment == null || timestampMillis - segment.getCreatedMillis() >= rollIntervalMs)
+		{
+			segment = roll(timestampMillis);
+		}
+		if(segment != null && !segment.append(handle, type, timestampMillis, valueBits, stringValue))
+		{
+			segment = roll(timestampMillis);
+			if(segment != null && !segment.append(handle, type, timestampMillis, valueBits, stringValue))
+			{
+				// larger than a whole segment
+				segment = null;
+			}
+		}
+		if(segment != null)
+		{
+			recorded++;
+			notifyListeners(handle, type, timestampMillis, valueBits, stringValue);
+		}
+		else
+		{
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes the catalog's new items - on failure the value is still written
+	 * and the catalog retried after a pause rather than on every value.
+	 */
+	private void persistCatalog()
+	{
+		long now = System.nanoTime();
+		if(now - catalogRetryNanos < 0)
+		{
+			return;
+		}
+		try
+		{
+			catalog.persist();
+		}
+		catch(IOException e)
+		{
+			LOG.error("failed to add new items to the historian catalog [{}]", directory, e);
+			catalogRetryNanos = now + CATALOG_RETRY_NANOS;
+		}
+	}
+
+	private void notifyListeners(int handle, OPCValueType type, long timestampMillis, long valueBits, String stringValue)
+	{
+		for(HistorianListener listener : listeners)
+		{
+			try
+			{
+				listener.recorded(handle, type, timestampMillis, valueBits, stringValue);
+			}
+			catch(RuntimeException e)
+			{
+				// a broken listener must not stop recording
+				LOG.error("historian listener [{}] failed", listener, e);
+			}
+		}
+	}
+
+	/**
+	 * @return the new segment, null if it could not be created
+	 */
+	private HistorianSegment roll(long timestampMillis)
+	{
+		HistorianSegment previous = activeSegment;
+		if(previous != null)
+		{
+			previous.force();
+		}
+		if(previous != null)
+		{
+			sealed(previous.getFile());
+		}
+		try
+		{
+			activeSegment = HistorianSegment.create(directory, nextSequence++, segmentBytes, timestampMillis);
+			LOG.debug("historian rolled to segment [{}]", activeSegment.getFile());
+		}
+		catch(IOException e)
+		{
+			LOG.error("failed to create historian segment - {}", e.getMessage());
+			activeSegment = null;
+		}
+		deleteExpiredSegments(timestampMillis - retentionMs);
+		return activeSegment;
+	}
+
+	/**
+	 * All values in a segment are older than the creation of the one after it.
+	 */
+	private void deleteExpiredSegments(long cutoffMillis)
+	{
+		deleteLeftovers();
+		List<File> segments = listSegmentFiles(directory);
+		for(int i=0; i<segments.size()-1; i++)
+		{
+			try
+			{
+				if(createdMillisOf(segments.get(i+1)) > cutoffMillis)
+				{
+					return;
+				}
+				if(delete(segments.get(i)))
+				{
+					delete(SegmentIndex.fileFor(segments.get(i)));
+					LOG.info("historian segment [{}] past retention - deleted", segments.get(i));
+				}
+			}
+			catch(IOException e)
+			{
+				LOG.warn("cannot check retention of historian segment [{}] - {}", segments.get(i+1), e.getMessage());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Raw segments next to their compressed one and index files without
+	 * their segment - what an earlier delete failed to remove.
+	 */
+	private void deleteLeftovers()
+	{
+		File[] files = directory.listFiles();
+		if(files == null)
+		{
+			return;
+		}
+		for(File file : files)
+		{
+			String name = file.getName();
+			if(HistorianSegment.isSegmentFile(file) && CompressedSegment.fileFor(file).exists())
+			{
+				delete(file);
+			}
+			else if(name.endsWith(SegmentIndex.FILE_SUFFIX) 
+					&& !new File(directory, name.substring(0, name.length() - SegmentIndex.FILE_SUFFIX.length())).exists())
+			{
+				delete(file);
+			}
+		}
+	}
+
+	/**
+	 * @return false if the file is still there - it is retried on the next roll
+	 */
+	private static boolean delete(File file)
+	{
+		if(file.delete() || !file.exists())
+		{
+			return true;
+		}
+		LOG.warn("cannot delete historian file [{}] - retried on the next roll", file);
+		return false;
+	}
+}
@@ -0,0 +1,152 @@
+package cern.ess.opclib.historian;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cern.ess.opclib.OPCValueType;
+import cern.ess.opclib.log.OPCLogger;
+
+/**
+ * Rewrites a sealed raw segment as a CompressedSegment: the records of each
+ * item (and value type) become GorillaBlocks of at most maxBlockSamples
+ * samples. The compressed file is written under a temporary name and
+ * renamed, then the raw segment is deleted - a crash leaves one or the
+ * other complete. The raw segment is read into memory, not mapped, so
+ * nothing of the compactor's keeps it from being deleted; if it cannot be
+ * deleted yet (still mapped elsewhere, on Windows) it is left for the
+ * Historian to delete on a later roll - a raw segment next to its
+ * compressed one is ignored.
+ */
+public class HistorianCompactor
+{
+	public static final int DEFAULT_MAX_BLOCK_SAMPLES = 4096;
+
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private static final OPCLogger LOG = OPCLogger.getLogger(HistorianCompactor.class);
+
+	private final int maxBlockSamples;
+
+	public HistorianCompactor()
+	{
+		this(DEFAULT_MAX_BLOCK_SAMPLES);
+	}
+
+	public HistorianCompactor(int maxBlockSamples)
+	{
+		this.maxBlockSamples = maxBlockSamples;
+	}
+
+	/**
+	 * @return the compressed segment file
+	 */
+	public File compact(File rawSegmentFile) throws IOException
+	{
+		HistorianSegment segment = HistorianSegment.read(rawSegmentFile);
+		List<Block> blocks = encode(segment);
+
+		long size = HistorianSegment.HEADER_BYTES;
+		for(Block block : blocks)
+		{
+			size += 4 + block.encoder.getEncodedBytes();
+		}
+		if(size > Integer.MAX_VALUE)
+		{
+			throw new IOException("compressed segment too large ["+size+"]");
+		}
+
+		ByteBuffer out = ByteBuffer.allocate((int)size);
+		out.putInt(CompressedSegment.MAGIC);
+		out.putInt(CompressedSegment.VERSION);
+		out.putLong(segment.getSequence());
+		out.putLong(segment.getCreatedMillis());
+		out.putInt(blocks.size());
+		out.putInt(0);
+		for(Block block : blocks)
+		{
+			out.putInt(block.handle);
+			block.encoder.writeTo(out);
+		}
+		out.flip();
+
+		File compressed = CompressedSegment.fileFor(rawSegmentFile);
+		File temporary = new File(compressed.getPath() + TEMPORARY_SUFFIX);
+		RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+		try
+		{
+			raf.setLength(0);
+			while(out.hasRemaining())
+			{
+				raf.getChannel().write(out);
+			}
+			raf.getChannel().force(true);
+		}
+		finally
+		{
+			raf.close();
+		}
+		if(!temporary.renameTo(compressed))
+		{
+			throw new IOException("cannot rename ["+temporary+"] to ["+compressed+"]");
+		}
+		if(!rawSegmentFile.delete() && rawSegmentFile.exists())
+		{
+			LOG.warn("cannot delete compacted historian segment [{}] yet - retried on the next roll", rawSegmentFile);
+		}
+		return compressed;
+	}
+
+	private List<Block> encode(HistorianSegment segment)
+	{
+		List<Block> blocks = new ArrayList<Block>();
+		Map<Long, Block> open = new LinkedHashMap<Long, Block>();
+		HistorianSegment.Cursor cursor = segment.cursor();
+		while(cursor.next())
+		{
+			OPCValueType type = cursor.getType();
+			Long series = Long.valueOf(((long)cursor.getHandle() << 8) | type.getCode());
+			Block block = open.get(series);
+			if(block == null)
+			{
+				block = new Block(cursor.getHandle(), type);
+				open.put(series, block);
+				blocks.add(block);
+			}
+			switch(type)
+			{
+				case BOOLEAN:
+					block.encoder.append(cursor.getTimestampMillis(), cursor.getBoolean() ? 1 : 0);
+					break;
+				case STRING:
+					block.encoder.appendString(cursor.getTimestampMillis(), cursor.getString());
+					break;
+				default:
+					block.encoder.append(cursor.getTimestampMillis(), cursor.getInt());
+					break;
+			}
+			if(block.encoder.getCount() >= maxBlockSamples)
+			{
+				open.remove(series);
+			}
+		}
+		return blocks;
+	}
+
+	private static class Block
+	{
+		private final int handle;
+		private final GorillaEncoder encoder;
+
+		Block(int handle, OPCValueType type)
+		{
+			this.handle = handle;
+			this.encoder = new GorillaEncoder(type);
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package cern.ess.opclib.historian;
+
+import cern.ess.opclib.OPCValueType;
+
+/**
+ * Told about every value the historian has written, on its writer thread -
+ * in the order values are recorded, one call at a time. Must be quick:
+ * recording stalls (and eventually drops values) while it runs.
+ */
+public interface HistorianListener
+{
+	/**
+	 * @param valueBits booleans 0/1, ints as is, floats as Float.floatToRawIntBits(), 0 for strings
+	 * @param stringValue null unless type is STRING
+	 */
+	public void recorded(int handle, OPCValueType type, long timestampMillis, long valueBits, String stringValue);
+}
@@ -0,0 +1,446 @@
+package cern.ess.opclib.historian;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cern.ess.opclib.OPCValueType;
+
+/**
+ * Time range queries over a historian's segments: "item X from T1 (inclusive)
+ * to T2 (exclusive)".
+ *
+ * Each segment's SegmentIndex (mapped from its index file, cached here)
+ * leads straight to the regions holding the item's samples of the range;
+ * everything else is never touched. Raw segments are read in place, blocks
+ * of compressed ones decoded into reused arrays - SampleCursor allocates
+ * nothing per sample, publish() one HistorianSample per sample.
+ *
+ * The segment still being written has no index file yet; its index is kept
+ * here and extended by the records added since the previous query.
+ *
+ * Thread safe; a cursor is for one thread.
+ */
+public class HistorianQuery
+{
+	private final Historian historian;
+	/** guarded by this, by segment file name */
+	private final Map<String, IndexedSegment> sealedSegments;
+	private HistorianSegment activeSegment;
+	private SegmentIndex.Builder activeIndex;
+
+	public HistorianQuery(Historian historian)
+	{
+		this.historian = historian;
+		this.sealedSegments = new HashMap<String, IndexedSegment>();
+	}
+
+	/**
+	 * @return the item's samples with fromMillis <= timestamp < toMillis, oldest segment first
+	 */
+	public SampleCursor select(String itemAddress, long fromMillis, long toMillis) throws IOException
+	{
+		int handle = historian.getCatalog().lookup(itemAddress);
+		if(handle == 0)
+		{
+			return new QueryCursor(new ArrayList<IndexedSegment>(), 0, fromMillis, toMillis);
+		}
+		return new QueryCursor(segments(), handle, fromMillis, toMillis);
+	}
+
+	/**
+	 * As select(), delivered (in the requesting thread) as far as the subscriber requests.
+	 */
+	public Flow.Publisher<HistorianSample> publish(final String itemAddress, final long fromMillis, final long toMillis)
+	{
+		return new Flow.Publisher<HistorianSample>()
+		{
+			@Override
+			public void subscribe(Flow.Subscriber<? super HistorianSample> subscriber)
+			{
+				new QuerySubscription(subscriber, itemAddress, fromMillis, toMillis).start();
+			}
+		};
+	}
+
+	private synchronized List<IndexedSegment> segments() throws IOException
+	{
+		HistorianSegment active = historian.getActiveSegment();
+		File activeFile = active == null ? null : active.getFile();
+		List<IndexedSegment> result = new ArrayList<IndexedSegment>();
+		Set<String> present = new HashSet<String>();
+		for(File file : historian.getSegmentFiles())
+		{
+			if(file.equals(activeFile))
+			{
+				continue;
+			}
+			present.add(file.getName());
+			IndexedSegment segment = sealedSegments.get(file.getName());
+			if(segment == null)
+			{
+				try
+				{
+					segment = IndexedSegment.open(file);
+				}
+				catch(IOException e)
+				{
+					if(file.exists())
+					{
+						throw e;
+					}
+					// deleted by retention or compaction meanwhile
+					continue;
+				}
+				sealedSegments.put(file.getName(), segment);
+			}
+			result.add(segment);
+		}
+		sealedSegments.keySet().retainAll(present);
+
+		if(active != null)
+		{
+			if(active != activeSegment)
+			{
+				activeSegment = active;
+				activeIndex = new SegmentIndex.Builder();
+			}
+			activeIndex.extend(active);
+			result.add(new IndexedSegment(active, null, activeIndex.build()));
+		}
+		return result;
+	}
+
+	private static class IndexedSegment
+	{
+		private final HistorianSegment raw;
+		private final CompressedSegment compressed;
+		private final SegmentIndex index;
+
+		IndexedSegment(HistorianSegment raw, CompressedSegment compressed, SegmentIndex index)
+		{
+			this.raw = raw;
+			this.compressed = compressed;
+			this.index = index;
+		}
+
+		static IndexedSegment open(File file) throws IOException
+		{
+			SegmentIndex index = SegmentIndex.forSealedSegment(file);
+			if(file.getName().endsWith(CompressedSegment.FILE_SUFFIX))
+			{
+				return new IndexedSegment(null, CompressedSegment.open(file), index);
+			}
+			return new IndexedSegment(HistorianSegment.open(file), null, index);
+		}
+	}
+
+	private static class QueryCursor implements SampleCursor
+	{
+		private final List<IndexedSegment> segments;
+		private final int handle;
+		private final long fromMillis;
+		private final long toMillis;
+
+		private int segment;
+		/** -1 before the first entry of the segment */
+		private int entry;
+
+		/** the entry being read, in a raw segment */
+		private HistorianSegment.Cursor rawCursor;
+		private int entryEnd;
+		private boolean readingRaw;
+
+		/** the entry being read, in a compressed segment */
+		private OPCValueType blockType;
+		private long[] timestamps;
+		private int[] valueBits;
+		private String[] strings;
+		private int blockCount;
+		private int blockPosition;
+		private boolean readingBlock;
+
+		QueryCursor(List<IndexedSegment> segments, int handle, long fromMillis, long toMillis)
+		{
+			this.segments = segments;
+			this.handle = handle;
+			this.fromMillis = fromMillis;
+			this.toMillis = toMillis;
+			this.entry = -1;
+			this.timestamps = new long[0];
+			this.valueBits = new int[0];
+		}
+
+		@Override
+		public boolean next()
+		{
+			while(true)
+			{
+				if(readingRaw)
+				{
+					while(rawCursor.next() && rawCursor.getOffset() < entryEnd)
+					{
+						long timestamp = rawCursor.getTimestampMillis();
+						if(rawCursor.getHandle() == handle && timestamp >= fromMillis && timestamp < toMillis)
+						{
+							return true;
+						}
+					}
+					readingRaw = false;
+				}
+				else if(readingBlock)
+				{
+					while(++blockPosition < blockCount)
+					{
+						long timestamp = timestamps[blockPosition];
+						if(timestamp >= fromMillis && timestamp < toMillis)
+						{
+							return true;
+						}
+					}
+					readingBlock = false;
+				}
+				if(!nextEntry())
+				{
+					return false;
+				}
+			}
+		}
+
+		private boolean nextEntry()
+		{
+			while(segment < segments.size())
+			{
+				IndexedSegment current = segments.get(segment);
+				SegmentIndex index = current.index;
+				entry = entry < 0 ? index.find(handle) : entry + 1;
+				if(entry < 0 || entry >= index.getEntryCount() || index.getHandle(entry) != handle)
+				{
+					segment++;
+					entry = -1;
+					rawCursor = null;
+					continue;
+				}
+				if(index.getLastTimestampMillis(entry) < fromMillis || index.getFirstTimestampMillis(entry) >= toMillis)
+				{
+					continue;
+				}
+				if(current.raw != null)
+				{
+					if(rawCursor == null)
+					{
+						rawCursor = current.raw.cursor();
+					}
+					rawCursor.seek(index.getStartOffset(entry));
+					entryEnd = index.getEndOffset(entry);
+					readingRaw = true;
+				}
+				else
+				{
+					decode(current.compressed.getBlockAt(index.getStartOffset(entry)));
+					readingBlock = true;
+				}
+				return true;
+			}
+			return false;
+		}
+
+		private void decode(GorillaBlock block)
+		{
+			blockType = block.getType();
+			blockCount = block.getCount();
+			blockPosition = -1;
+			if(timestamps.length < blockCount)
+			{
+				timestamps = new long[blockCount];
+				valueBits = new int[blockCount];
+			}
+			block.decodeTimestamps(timestamps);
+			if(blockType == OPCValueType.STRING)
+			{
+				if(strings == null || strings.length < blockCount)
+				{
+					strings = new String[blockCount];
+				}
+				block.decodeStrings(strings);
+			}
+			else
+			{
+				block.decodeValueBits(valueBits);
+			}
+		}
+
+		@Override
+		public long getTimestampMillis()
+		{
+			return readingRaw ? rawCursor.getTimestampMillis() : timestamps[blockPosition];
+		}
+
+		@Override
+		public OPCValueType getType()
+		{
+			return readingRaw ? rawCursor.getType() : blockType;
+		}
+
+		@Override
+		public double getNumericValue()
+		{
+			if(readingRaw)
+			{
+				return rawCursor.getNumericValue();
+			}
+			int bits = valueBits[blockPosition];
+			switch(blockType)
+			{
+				case BOOLEAN:
+				case INT:
+					return bits;
+				case FLOAT:
+					return Float.intBitsToFloat(bits);
+				default:
+					return Double.NaN;
+			}
+		}
+
+		@Override
+		public Object getValue()
+		{
+			if(readingRaw)
+			{
+				return rawCursor.getValue();
+			}
+			int bits = valueBits[blockPosition];
+			switch(blockType)
+			{
+				case BOOLEAN:
+					return Boolean.valueOf(bits != 0);
+				case INT:
+					return Integer.valueOf(bits);
+				case FLOAT:
+					return Float.valueOf(Float.intBitsToFloat(bits));
+				default:
+					return strings[blockPosition];
+			}
+		}
+	}
+
+	/**
+	 * Delivers synchronously in whichever thread calls request(); a
+	 * request() from within onNext() only adds demand for the running loop.
+	 * A bad request is signalled by that loop too, so onError never runs
+	 * inside or alongside onNext().
+	 */
+	private class QuerySubscription implements Flow.Subscription
+	{
+		private final Flow.Subscriber<? super HistorianSample> subscriber;
+		private final String itemAddress;
+		private final long fromMillis;
+		private final long toMillis;
+		private final AtomicLong demand;
+		private final AtomicInteger workInProgress;
+		private volatile boolean done;
+		private volatile IllegalArgumentException badRequest;
+		private SampleCursor cursor;
+
+		QuerySubscription(Flow.Subscriber<? super HistorianSample> subscriber, String itemAddress, long fromMillis, long toMillis)
+		{
+			this.subscriber = subscriber;
+			this.itemAddress = itemAddress;
+			this.fromMillis = fromMillis;
+			this.toMillis = toMillis;
+			this.demand = new AtomicLong();
+			this.workInProgress = new AtomicInteger();
+		}
+
+		void start()
+		{
+			subscriber.onSubscribe(this);
+		}
+
+		@Override
+		public void request(long n)
+		{
+			if(n <= 0)
+			{
+				if(badRequest == null)
+				{
+					badRequest = new IllegalArgumentException("non-positive request ["+n+"]");
+				}
+				deliver();
+				return;
+			}
+			long current;
+			do
+			{
+				current = demand.get();
+			}
+			while(!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+			deliver();
+		}
+
+		@Override
+		public void cancel()
+		{
+			done = true;
+			// lets go of the cursor, on whichever thread is delivering
+			deliver();
+		}
+
+		private void deliver()
+		{
+			if(workInProgress.getAndIncrement() != 0)
+			{
+				return;
+			}
+			do
+			{
+				try
+				{
+					if(badRequest != null && !done)
+					{
+						done = true;
+						subscriber.onError(badRequest);
+					}
+					if(cursor == null && !done)
+					{
+						cursor = select(itemAddress, fromMillis, toMillis);
+					}
+					while(!done && badRequest == null && demand.get() > 0)
+					{
+						if(!cursor.next())
+						{
+							done = true;
+							subscriber.onComplete();
+							break;
+						}
+						subscriber.onNext(new HistorianSample(itemAddress, cursor.getTimestampMillis(), cursor.getValue()));
+						if(demand.get() != Long.MAX_VALUE)
+						{
+							// Long.MAX_VALUE is unbounded and stays so
+							demand.decrementAndGet();
+						}
+					}
+				}
+				catch(IOException e)
+				{
+					done = true;
+					subscriber.onError(e);
+				}
+				if(done)
+				{
+					// the cursor holds the segments it reads
+					cursor = null;
+				}
+			}
+			while(workInProgress.decrementAndGet() != 0);
+		}
+	}
+}
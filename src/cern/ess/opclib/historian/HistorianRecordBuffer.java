@@ -0,0 +1,118 @@
+package cern.ess.opclib.historian;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import cern.ess.opclib.OPCValueType;
+
+/**
+ * Bounded multi producer, single consumer ring buffer between the threads
+ * recording values (the OPC client executors) and the historian's writer
+ * thread. Slots are pre-allocated parallel arrays, so offering and draining
+ * allocate nothing; a full buffer drops the record rather than block the
+ * producer.
+ *
+ * A producer claims a sequence number, fills the slot and publishes it by
+ * storing the sequence in the slot's published entry; the consumer takes
+ * slots strictly in sequence order.
+ */
+class HistorianRecordBuffer
+{
+	interface Consumer
+	{
+		void record(int handle, OPCValueType type, long timestampMillis, long valueBits, String stringValue);
+	}
+
+	private final int mask;
+	private final int[] handles;
+	private final OPCValueType[] types;
+	private final long[] timestamps;
+	private final long[] values;
+	private final String[] strings;
+	private final AtomicLongArray published;
+	private final AtomicLong claimed;
+	/** written by the consumer only */
+	private volatile long consumed;
+
+	/**
+	 * @param capacity rounded up to a power of 2
+	 */
+	HistorianRecordBuffer(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(2, capacity)-1) << 1;
+		this.mask = size-1;
+		this.handles = new int[size];
+		this.types = new OPCValueType[size];
+		this.timestamps = new long[size];
+		this.values = new long[size];
+		this.strings = new String[size];
+		this.published = new AtomicLongArray(size);
+		for(int i=0; i<size; i++)
+		{
+			published.set(i, -1);
+		}
+		this.claimed = new AtomicLong();
+		this.consumed = 0;
+	}
+
+	int capacity()
+	{
+		return mask+1;
+	}
+
+	/**
+	 * @return false if the buffer is full - the record is not taken
+	 */
+	boolean offer(int handle, OPCValueType type, long timestampMillis, long valueBits, String stringValue)
+	{
+		long sequence;
+		do
+		{
+			sequence = claimed.get();
+			if(sequence - consumed > mask)
+			{
+				return false;
+			}
+		}
+		while(!claimed.compareAndSet(sequence, sequence+1));
+
+		int slot = (int)sequence & mask;
+		handles[slot] = handle;
+		types[slot] = type;
+		timestamps[slot] = timestampMillis;
+		values[slot] = valueBits;
+		strings[slot] = stringValue;
+		published.lazySet(slot, sequence);
+		return true;
+	}
+
+	/**
+	 * Called from the consumer thread only.
+	 *
+	 * @return number of records handed to the consumer, at most max
+	 */
+	int drain(Consumer consumer, int max)
+	{
+		long next = consumed;
+		int count = 0;
+		while(count < max)
+		{
+			int slot = (int)next & mask;
+			if(published.get(slot) != next)
+			{
+				break;
+			}
+			consumer.record(handles[slot], types[slot], timestamps[slot], values[slot], strings[slot]);
+			strings[slot] = null;
+			next++;
+			count++;
+			consumed = next;
+		}
+		return count;
+	}
+
+	boolean isEmpty()
+	{
+		return claimed.get() == consumed;
+	}
+}
@@ -0,0 +1,42 @@
+package cern.ess.opclib.historian;
+
+/**
+ * One recorded value of an item, as delivered by HistorianQuery.publish().
+ */
+public class HistorianSample
+{
+	private final String itemAddress;
+	private final long timestampMillis;
+	private final Object value;
+
+	public HistorianSample(String itemAddress, long timestampMillis, Object value)
+	{
+		this.itemAddress = itemAddress;
+		this.timestampMillis = timestampMillis;
+		this.value = value;
+	}
+
+	public String getItemAddress()
+	{
+		return itemAddress;
+	}
+
+	public long getTimestampMillis()
+	{
+		return timestampMillis;
+	}
+
+	/**
+	 * @return Boolean, Integer, Float or String as the OpcApi read call returned it
+	 */
+	public Object getValue()
+	{
+		return value;
+	}
+
+	@Override
+	public String toString()
+	{
+		return itemAddress+"@"+timestampMillis+"="+value;
+	}
+}
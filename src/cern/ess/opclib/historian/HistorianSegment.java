@@ -0,0 +1,444 @@
+package cern.ess.opclib.historian;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import cern.ess.opclib.OPCValueType;
+
+/**
+ * One memory mapped segment file of the historian.
+ *
+ * Layout: a 32 byte header (magic, version, sequence, creation time) followed
+ * by records of
+ *   int handle (never 0), byte value type, long timestamp (epoch millis), value
+ * where the value is 1 byte (boolean), 4 bytes (int, float bits) or an
+ * unsigned short char count followed by the chars (string). The file is
+ * created at its full size, so it is zero filled behind the last record: a
+ * 0 handle marks the end. The handle is written last, a reader in another
+ * process therefore never sees half a record.
+ *
+ * Appending is for the historian's writer thread only; any thread may read
+ * up to the last complete record via a Cursor.
+ *
+ * A mapping is only released once the segment is garbage collected, and
+ * until then the file cannot be deleted on Windows - what reads a segment
+ * once and then deletes it (compaction, indexing) uses read() instead of
+ * open().
+ */
+public class HistorianSegment
+{
+	public static final int MAGIC = 0x4F504348;
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 32;
+	public static final String FILE_SUFFIX = ".hist";
+
+	static final int RECORD_HEADER_BYTES = 4 + 1 + 8;
+	static final int MAX_STRING_CHARS = 0xFFFF;
+
+	private static final String FILE_PREFIX = "segment-";
+
+	private final File file;
+	private final long sequence;
+	private final long createdMillis;
+	/** mapped, or read onto the heap */
+	private final ByteBuffer buffer;
+	/** end of the last complete record */
+	private volatile int committed;
+
+	private HistorianSegment(File file, long sequence, long createdMillis, ByteBuffer buffer, int committed)
+	{
+		this.file = file;
+		this.sequence = sequence;
+		this.createdMillis = createdMillis;
+		this.buffer = buffer;
+		this.committed = committed;
+	}
+
+	/**
+	 * Creates (and maps) a new, empty segment file of capacity bytes.
+	 */
+	static HistorianSegment create(File directory, long sequence, int capacity, long createdMillis) throws IOException
+	{
+		File file = new File(directory, fileName(sequence));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(capacity);
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putLong(8, sequence);
+			buffer.putLong(16, createdMillis);
+			return new HistorianSegment(file, sequence, createdMillis, buffer, HEADER_BYTES);
+		}
+		finally
+		{
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Maps an existing segment file read only.
+	 */
+	public static HistorianSegment open(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			return of(file, raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads an existing segment file into memory - nothing keeps the file
+	 * from being deleted afterwards.
+	 */
+	public static HistorianSegment read(File file) throws IOException
+	{
+		return of(file, readFully(file));
+	}
+
+	private static HistorianSegment of(File file, ByteBuffer buffer) throws IOException
+	{
+		if(buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+		{
+			throw new IOException("not a historian segment ["+file+"]");
+		}
+		if(buffer.getInt(4) != VERSION)
+		{
+			throw new IOException("unsupported historian segment version ["+buffer.getInt(4)+"] in ["+file+"]");
+		}
+		return new HistorianSegment(file, buffer.getLong(8), buffer.getLong(16), buffer, findEnd(buffer));
+	}
+
+	/**
+	 * @return the file's content in a heap buffer
+	 */
+	static ByteBuffer readFully(File file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try
+		{
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+			{
+				throw new IOException("file too large ["+file+"]");
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int)size);
+			while(buffer.hasRemaining() && channel.read(buffer) >= 0)
+			{
+				// until full
+			}
+			if(buffer.hasRemaining())
+			{
+				throw new IOException("file truncated while reading ["+file+"]");
+			}
+			buffer.clear();
+			return buffer;
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	static String fileName(long sequence)
+	{
+		return String.format("%s%016d%s", FILE_PREFIX, Long.valueOf(sequence), FILE_SUFFIX);
+	}
+
+	static boolean isSegmentFile(File file)
+	{
+		String name = file.getName();
+		return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+	}
+
+	/**
+	 * @return bytes a record takes, -1 if it can never fit a segment
+	 */
+	static int recordBytes(OPCValueType type, String stringValue)
+	{
+		switch(type)
+		{
+			case BOOLEAN:
+				return RECORD_HEADER_BYTES + 1;
+			case STRING:
+				return stringValue.length() > MAX_STRING_CHARS ? -1 : RECORD_HEADER_BYTES + 2 + 2 * stringValue.length();
+			default:
+				return RECORD_HEADER_BYTES + 4;
+		}
+	}
+
+	/**
+	 * Allocation free.
+	 *
+	 * @return false if the record does not fit in the remaining space
+	 */
+	boolean append(int handle, OPCValueType type, long timestampMillis, long valueBits, String stringValue)
+	{
+		int position = committed;
+		int size = recordBytes(type, stringValue);
+		if(size < 0 || position + size > buffer.capacity())
+		{
+			return false;
+		}
+
+		buffer.put(position + 4, type.getCode());
+		buffer.putLong(position + 5, timestampMillis);
+		int valuePosition = position + RECORD_HEADER_BYTES;
+		switch(type)
+		{
+			case BOOLEAN:
+				buffer.put(valuePosition, (byte)valueBits);
+				break;
+			case STRING:
+				int length = stringValue.length();
+				buffer.putShort(valuePosition, (short)length);
+				for(int i=0; i<length; i++)
+				{
+					buffer.putChar(valuePosition + 2 + 2*i, stringValue.charAt(i));
+				}
+				break;
+			default:
+				buffer.putInt(valuePosition, (int)valueBits);
+				break;
+		}
+		buffer.putInt(position, handle);
+		committed = position + size;
+		return true;
+	}
+
+	/**
+	 * Flushes the written records to the file.
+	 */
+	void force()
+	{
+		if(buffer instanceof MappedByteBuffer)
+		{
+			((MappedByteBuffer)buffer).force();
+		}
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	public long getSequence()
+	{
+		return sequence;
+	}
+
+	public long getCreatedMillis()
+	{
+		return createdMillis;
+	}
+
+	/**
+	 * @return bytes used including the header
+	 */
+	public int getSize()
+	{
+		return committed;
+	}
+
+	public int getCapacity()
+	{
+		return buffer.capacity();
+	}
+
+	/**
+	 * @return a cursor over the records complete at the time of the call
+	 */
+	public Cursor cursor()
+	{
+		return new Cursor(buffer.duplicate(), committed);
+	}
+
+	private static int findEnd(ByteBuffer buffer)
+	{
+		int position = HEADER_BYTES;
+		while(position + RECORD_HEADER_BYTES <= buffer.capacity() && buffer.getInt(position) != 0)
+		{
+			int size = sizeAt(buffer, position);
+			if(size < 0 || position + size > buffer.capacity())
+			{
+				break;
+			}
+			position += size;
+		}
+		return position;
+	}
+
+	/**
+	 * @return -1 for a corrupt record
+	 */
+	private static int sizeAt(ByteBuffer buffer, int position)
+	{
+		OPCValueType type = OPCValueType.fromCode(buffer.get(position + 4));
+		if(type == null)
+		{
+			return -1;
+		}
+		switch(type)
+		{
+			case BOOLEAN:
+				return RECORD_HEADER_BYTES + 1;
+			case STRING:
+				int valuePosition = position + RECORD_HEADER_BYTES;
+				return valuePosition + 2 > buffer.capacity() ? -1 : RECORD_HEADER_BYTES + 2 + 2 * (buffer.getShort(valuePosition) & 0xFFFF);
+			default:
+				return RECORD_HEADER_BYTES + 4;
+		}
+	}
+
+	/**
+	 * Forward only iteration over the records, reading them in place from the
+	 * mapped file: call next() and, while it returns true, the getters for the
+	 * current record.
+	 */
+	public static class Cursor
+	{
+		private final ByteBuffer buffer;
+		private final int end;
+		private int position;
+		private int nextPosition;
+
+		Cursor(ByteBuffer buffer, int end)
+		{
+			this.buffer = buffer;
+			this.end = end;
+			this.position = -1;
+			this.nextPosition = HEADER_BYTES;
+		}
+
+		public boolean next()
+		{
+			if(nextPosition + RECORD_HEADER_BYTES > end)
+			{
+				return false;
+			}
+			int size = sizeAt(buffer, nextPosition);
+			if(size < 0)
+			{
+				return false;
+			}
+			position = nextPosition;
+			nextPosition = position + size;
+			return true;
+		}
+
+		/**
+		 * @return file offset of the current record
+		 */
+		public int getOffset()
+		{
+			return position;
+		}
+
+		/**
+		 * @return file offset just behind the current record
+		 */
+		public int getEndOffset()
+		{
+			return nextPosition;
+		}
+
+		/**
+		 * Continues from a record offset (e.g. from an index) instead of the first record.
+		 */
+		public void seek(int offset)
+		{
+			position = -1;
+			nextPosition = offset;
+		}
+
+		public int getHandle()
+		{
+			return buffer.getInt(position);
+		}
+
+		public OPCValueType getType()
+		{
+			return OPCValueType.fromCode(buffer.get(position + 4));
+		}
+
+		public long getTimestampMillis()
+		{
+			return buffer.getLong(position + 5);
+		}
+
+		public boolean getBoolean()
+		{
+			return buffer.get(position + RECORD_HEADER_BYTES) != 0;
+		}
+
+		public int getInt()
+		{
+			return buffer.getInt(position + RECORD_HEADER_BYTES);
+		}
+
+		public float getFloat()
+		{
+			return Float.intBitsToFloat(buffer.getInt(position + RECORD_HEADER_BYTES));
+		}
+
+		/**
+		 * @return the value as a double whatever its type (booleans as 0/1, strings NaN)
+		 */
+		public double getNumericValue()
+		{
+			switch(getType())
+			{
+				case BOOLEAN:
+					return getBoolean() ? 1.0 : 0.0;
+				case INT:
+					return getInt();
+				case FLOAT:
+					return getFloat();
+				default:
+					return Double.NaN;
+			}
+		}
+
+		public String getString()
+		{
+			int valuePosition = position + RECORD_HEADER_BYTES;
+			int length = buffer.getShort(valuePosition) & 0xFFFF;
+			char[] chars = new char[length];
+			for(int i=0; i<length; i++)
+			{
+				chars[i] = buffer.getChar(valuePosition + 2 + 2*i);
+			}
+			return new String(chars);
+		}
+
+		/**
+		 * @return the value boxed as the OpcApi read call returns it
+		 */
+		public Object getValue()
+		{
+			switch(getType())
+			{
+				case BOOLEAN:
+					return Boolean.valueOf(getBoolean());
+				case INT:
+					return Integer.valueOf(getInt());
+				case FLOAT:
+					return Float.valueOf(getFloat());
+				default:
+					return getString();
+			}
+		}
+	}
+}
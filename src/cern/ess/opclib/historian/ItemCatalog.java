@@ -0,0 +1,168 @@
+package cern.ess.opclib.historian;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps item addresses to the int handles records are stored under. The
+ * mapping is kept in a text file ("handle item address" per line), which a
+ * new item is appended to - so a handle never changes once given out.
+ * Handles start at 1, 0 marks the end of the records in a segment.
+ *
+ * A new item's handle is given out in memory only, so recording threads
+ * never do file I/O; the historian's writer thread appends the new items to
+ * the file (persist()) before it writes their first records.
+ */
+public class ItemCatalog
+{
+	public static final String FILE_NAME = "items.catalog";
+
+	private final File file;
+	private final ConcurrentMap<String, Integer> handles;
+	/** guarded by this, index handle-1 */
+	private final List<String> items;
+	private volatile int size;
+	/** persist() only: items already in the file */
+	private int persisted;
+
+	public ItemCatalog(File directory) throws IOException
+	{
+		this.file = new File(directory, FILE_NAME);
+		this.handles = new ConcurrentHashMap<String, Integer>();
+		this.items = new ArrayList<String>();
+		if(file.exists())
+		{
+			load();
+		}
+		this.size = items.size();
+		this.persisted = size;
+	}
+
+	/**
+	 * Allocation free for an item seen before.
+	 *
+	 * @return the item's handle, a new one for an item not in the catalog yet
+	 */
+	public int handleFor(String itemAddress)
+	{
+		Integer handle = handles.get(itemAddress);
+		return handle != null ? handle.intValue() : add(itemAddress);
+	}
+
+	/**
+	 * @return the item's handle, 0 if it has never been recorded
+	 */
+	public int lookup(String itemAddress)
+	{
+		Integer handle = handles.get(itemAddress);
+		return handle != null ? handle.intValue() : 0;
+	}
+
+	/**
+	 * @return null for an unknown handle
+	 */
+	public synchronized String itemFor(int handle)
+	{
+		return handle > 0 && handle <= items.size() ? items.get(handle-1) : null;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return true if the item of the handle has been written to the file - persist() thread only
+	 */
+	public boolean isPersisted(int handle)
+	{
+		return handle <= persisted;
+	}
+
+	/**
+	 * Appends the items given a handle since the last call to the file. Only
+	 * one thread (the historian's writer) may call this. On failure the items
+	 * stay pending for the next call.
+	 */
+	public void persist() throws IOException
+	{
+		if(persisted == size)
+		{
+			return;
+		}
+		List<String> added;
+		synchronized(this)
+		{
+			added = new ArrayList<String>(items.subList(persisted, items.size()));
+		}
+		Writer out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+		try
+		{
+			StringBuilder lines = new StringBuilder();
+			for(int i=0; i<added.size(); i++)
+			{
+				lines.append(persisted+i+1).append(' ').append(added.get(i)).append('\n');
+			}
+			out.write(lines.toString());
+		}
+		finally
+		{
+			out.close();
+		}
+		persisted += added.size();
+	}
+
+	private synchronized int add(String itemAddress)
+	{
+		Integer existing = handles.get(itemAddress);
+		if(existing != null)
+		{
+			return existing.intValue();
+		}
+		items.add(itemAddress);
+		int handle = items.size();
+		handles.put(itemAddress, Integer.valueOf(handle));
+		size = handle;
+		return handle;
+	}
+
+	private void load() throws IOException
+	{
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try
+		{
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				int separator = line.indexOf(' ');
+				if(separator <= 0)
+				{
+					continue;
+				}
+				int handle = Integer.parseInt(line.substring(0, separator));
+				if(handle != items.size()+1)
+				{
+					throw new IOException("corrupt item catalog ["+file+"] - expected handle ["+(items.size()+1)+"] found ["+handle+"]");
+				}
+				String itemAddress = line.substring(separator+1);
+				items.add(itemAddress);
+				handles.put(itemAddress, Integer.valueOf(handle));
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package cern.ess.opclib.historian;
+
+import cern.ess.opclib.OPCValueType;
+
+/**
+ * Forward only iteration over query results without a sample object per
+ * value: call next() and, while it returns true, the getters for the
+ * current sample. Raw segments are read in place from the mapping,
+ * compressed blocks are decoded into arrays reused for every block.
+ */
+public interface SampleCursor
+{
+	public boolean next();
+
+	public long getTimestampMillis();
+
+	public OPCValueType getType();
+
+	/**
+	 * @return booleans as 0/1, NaN for strings
+	 */
+	public double getNumericValue();
+
+	/**
+	 * @return Boolean, Integer, Float or String (allocates)
+	 */
+	public Object getValue();
+}
@@ -0,0 +1,285 @@
+package cern.ess.opclib.historian;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sparse index of one segment: entries of item handle, time range and the
+ * file region holding the item's samples of that range, sorted by handle -
+ * a lookup is a binary search in the entries, read into memory - the index
+ * file is small and deleted with its segment, which a mapping would keep
+ * from happening on Windows.
+ *
+ * For a compressed segment an entry is one GorillaBlock. For a raw segment
+ * an entry is a run of an item's records, closed after
+ * MAX_RECORDS_PER_ENTRY records or once it would span more than
+ * MAX_ENTRY_SPAN_BYTES; the region contains other items' records too, which
+ * a query skips.
+ *
+ * File (segment file name + ".idx"): magic, version, entry count, 4 bytes
+ * reserved, then the entries of int handle, long first and last timestamp,
+ * int start and end offset.
+ */
+public class SegmentIndex
+{
+	public static final int MAGIC = 0x4F504349;
+	public static final int VERSION = 1;
+	public static final String FILE_SUFFIX = ".idx";
+
+	static final int MAX_RECORDS_PER_ENTRY = 1024;
+	static final int MAX_ENTRY_SPAN_BYTES = 1024 * 1024;
+
+	private static final int HEADER_BYTES = 16;
+	private static final int ENTRY_BYTES = 4 + 8 + 8 + 4 + 4;
+
+	private final ByteBuffer buffer;
+	private final int entryCount;
+
+	private SegmentIndex(ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+		this.entryCount = buffer.getInt(8);
+	}
+
+	public static File fileFor(File segmentFile)
+	{
+		return new File(segmentFile.getParentFile(), segmentFile.getName() + FILE_SUFFIX);
+	}
+
+	public static SegmentIndex open(File indexFile) throws IOException
+	{
+		ByteBuffer buffer = HistorianSegment.readFully(indexFile);
+		if(buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+		{
+			throw new IOException("not a segment index ["+indexFile+"]");
+		}
+		if(buffer.capacity() < HEADER_BYTES + buffer.getInt(8) * ENTRY_BYTES)
+		{
+			throw new IOException("truncated segment index ["+indexFile+"]");
+		}
+		return new SegmentIndex(buffer);
+	}
+
+	/**
+	 * The index of a sealed segment - from its index file, which is written
+	 * first if there is none (or it is unreadable).
+	 */
+	public static SegmentIndex forSealedSegment(File segmentFile) throws IOException
+	{
+		File indexFile = fileFor(segmentFile);
+		if(indexFile.exists())
+		{
+			try
+			{
+				return open(indexFile);
+			}
+			catch(IOException e)
+			{
+				// rebuilt below
+			}
+		}
+		// read, not mapped - the segment may be deleted right after (compaction)
+		SegmentIndex index = segmentFile.getName().endsWith(CompressedSegment.FILE_SUFFIX) 
+				? build(CompressedSegment.read(segmentFile)) 
+				: build(HistorianSegment.read(segmentFile));
+		index.write(indexFile);
+		return index;
+	}
+
+	public static SegmentIndex build(HistorianSegment segment)
+	{
+		Builder builder = new Builder();
+		builder.extend(segment);
+		return builder.build();
+	}
+
+	public static SegmentIndex build(CompressedSegment segment)
+	{
+		List<long[]> entries = new ArrayList<long[]>();
+		for(int i=0; i<segment.getBlockCount(); i++)
+		{
+			GorillaBlock block = segment.getBlock(i);
+			int offset = segment.getBlockOffset(i);
+			entries.add(new long[] { segment.getHandle(i), block.getFirstTimestampMillis(), block.getLastTimestampMillis(), offset, offset + block.getByteLength() });
+		}
+		return fromEntries(entries);
+	}
+
+	/**
+	 * Written under a temporary name (per thread - a query and the
+	 * historian's maintenance thread may index the same segment) and renamed.
+	 */
+	public void write(File indexFile) throws IOException
+	{
+		File temporary = new File(indexFile.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+		try
+		{
+			raf.setLength(0);
+			ByteBuffer out = buffer.duplicate();
+			out.clear();
+			out.limit(HEADER_BYTES + entryCount * ENTRY_BYTES);
+			while(out.hasRemaining())
+			{
+				raf.getChannel().write(out);
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+		if(!temporary.renameTo(indexFile))
+		{
+			throw new IOException("cannot rename ["+temporary+"] to ["+indexFile+"]");
+		}
+	}
+
+	public int getEntryCount()
+	{
+		return entryCount;
+	}
+
+	/**
+	 * @return the first entry of the item, -1 if it has none
+	 */
+	public int find(int handle)
+	{
+		int low = 0;
+		int high = entryCount - 1;
+		int result = -1;
+		while(low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			int entryHandle = getHandle(middle);
+			if(entryHandle < handle)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				if(entryHandle == handle)
+				{
+					result = middle;
+				}
+				high = middle - 1;
+			}
+		}
+		return result;
+	}
+
+	public int getHandle(int entry)
+	{
+		return buffer.getInt(HEADER_BYTES + entry * ENTRY_BYTES);
+	}
+
+	public long getFirstTimestampMillis(int entry)
+	{
+		return buffer.getLong(HEADER_BYTES + entry * ENTRY_BYTES + 4);
+	}
+
+	public long getLastTimestampMillis(int entry)
+	{
+		return buffer.getLong(HEADER_BYTES + entry * ENTRY_BYTES + 12);
+	}
+
+	public int getStartOffset(int entry)
+	{
+		return buffer.getInt(HEADER_BYTES + entry * ENTRY_BYTES + 20);
+	}
+
+	public int getEndOffset(int entry)
+	{
+		return buffer.getInt(HEADER_BYTES + entry * ENTRY_BYTES + 24);
+	}
+
+	private static SegmentIndex fromEntries(List<long[]> entries)
+	{
+		Collections.sort(entries, new Comparator<long[]>()
+		{
+			@Override
+			public int compare(long[] a, long[] b)
+			{
+				return a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[3], b[3]);
+			}
+		});
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + entries.size() * ENTRY_BYTES);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(entries.size());
+		buffer.putInt(0);
+		for(long[] entry : entries)
+		{
+			buffer.putInt((int)entry[0]);
+			buffer.putLong(entry[1]);
+			buffer.putLong(entry[2]);
+			buffer.putInt((int)entry[3]);
+			buffer.putInt((int)entry[4]);
+		}
+		return new SegmentIndex(buffer);
+	}
+
+	/**
+	 * Indexes a raw segment incrementally - a segment still being written
+	 * can be extended with the records added since.
+	 */
+	static class Builder
+	{
+		private final List<long[]> closed;
+		/** handle to { handle, first timestamp, last timestamp, start, end, records } */
+		private final Map<Integer, long[]> open;
+		private int position;
+
+		Builder()
+		{
+			this.closed = new ArrayList<long[]>();
+			this.open = new HashMap<Integer, long[]>();
+			this.position = HistorianSegment.HEADER_BYTES;
+		}
+
+		void extend(HistorianSegment segment)
+		{
+			HistorianSegment.Cursor cursor = segment.cursor();
+			cursor.seek(position);
+			while(cursor.next())
+			{
+				Integer handle = Integer.valueOf(cursor.getHandle());
+				long timestamp = cursor.getTimestampMillis();
+				long[] run = open.get(handle);
+				if(run != null && cursor.getEndOffset() - run[3] > MAX_ENTRY_SPAN_BYTES)
+				{
+					closed.add(run);
+					run = null;
+				}
+				if(run == null)
+				{
+					run = new long[] { handle.intValue(), timestamp, timestamp, cursor.getOffset(), 0, 0 };
+					open.put(handle, run);
+				}
+				run[1] = Math.min(run[1], timestamp);
+				run[2] = Math.max(run[2], timestamp);
+				run[4] = cursor.getEndOffset();
+				if(++run[5] >= MAX_RECORDS_PER_ENTRY)
+				{
+					closed.add(run);
+					open.remove(handle);
+				}
+				position = cursor.getEndOffset();
+			}
+		}
+
+		SegmentIndex build()
+		{
+			List<long[]> entries = new ArrayList<long[]>(closed);
+			entries.addAll(open.values());
+			return fromEntries(entries);
+		}
+	}
+}
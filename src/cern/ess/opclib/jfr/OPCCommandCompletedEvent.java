@@ -0,0 +1,18 @@
+package cern.ess.opclib.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Spans the whole round trip as seen by the calling thread - from
+ * scheduling the command to receiving its result (or timing out).
+ */
+@Name("cern.ess.opclib.CommandCompleted")
+@Label("OPC Command Completed")
+@Description("Round trip of an OPC command as seen by the calling thread")
+@Category({"OPC", "Client"})
+public class OPCCommandCompletedEvent extends OPCCommandEvent
+{
+}
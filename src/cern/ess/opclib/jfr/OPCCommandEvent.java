@@ -0,0 +1,25 @@
+package cern.ess.opclib.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Common fields of the OPC command lifecycle events.
+ */
+public abstract class OPCCommandEvent extends Event
+{
+	public static final String SUCCESS = "SUCCESS";
+	public static final String ERROR = "ERROR";
+	public static final String TIMEOUT = "TIMEOUT";
+	public static final String REJECTED = "REJECTED";
+	public static final String INTERRUPTED = "INTERRUPTED";
+
+	@Label("Command")
+	public String command;
+
+	@Label("Item Address")
+	public String itemAddress;
+
+	@Label("Outcome")
+	public String outcome;
+}
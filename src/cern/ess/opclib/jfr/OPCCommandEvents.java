@@ -0,0 +1,86 @@
+package cern.ess.opclib.jfr;
+
+import jdk.jfr.EventType;
+
+/**
+ * Entry points for emitting the command lifecycle events. Each begin method
+ * returns null (and allocates nothing) unless a running recording has the
+ * event enabled, so the cost with recording off is a single flag check.
+ */
+public final class OPCCommandEvents
+{
+	private static final EventType QUEUED = EventType.getEventType(OPCCommandQueuedEvent.class);
+	private static final EventType EXECUTED = EventType.getEventType(OPCCommandExecutedEvent.class);
+	private static final EventType RESPONSE = EventType.getEventType(OPCCommandResponseEvent.class);
+	private static final EventType COMPLETED = EventType.getEventType(OPCCommandCompletedEvent.class);
+
+	private OPCCommandEvents()
+	{
+		throw new UnsupportedOperationException("Not constructible - static event helpers only");
+	}
+
+	public static OPCCommandQueuedEvent beginQueued()
+	{
+		if(!QUEUED.isEnabled())
+		{
+			return null;
+		}
+		OPCCommandQueuedEvent event = new OPCCommandQueuedEvent();
+		event.begin();
+		return event;
+	}
+
+	public static OPCCommandExecutedEvent beginExecuted()
+	{
+		if(!EXECUTED.isEnabled())
+		{
+			return null;
+		}
+		OPCCommandExecutedEvent event = new OPCCommandExecutedEvent();
+		event.begin();
+		return event;
+	}
+
+	public static OPCCommandResponseEvent beginResponse()
+	{
+		if(!RESPONSE.isEnabled())
+		{
+			return null;
+		}
+		OPCCommandResponseEvent event = new OPCCommandResponseEvent();
+		event.begin();
+		return event;
+	}
+
+	public static OPCCommandCompletedEvent beginCompleted()
+	{
+		if(!COMPLETED.isEnabled())
+		{
+			return null;
+		}
+		OPCCommandCompletedEvent event = new OPCCommandCompletedEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Ends and (if it passes the recording's threshold) commits the event.
+	 * Does nothing for a null event.
+	 */
+	public static void end(OPCCommandEvent event, String command, String itemAddress, String outcome)
+	{
+		if(event == null)
+		{
+			return;
+		}
+
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.command = command;
+			event.itemAddress = itemAddress;
+			event.outcome = outcome;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package cern.ess.opclib.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Spans the native (JNI) call made by the executor for a command.
+ */
+@Name("cern.ess.opclib.CommandExecuted")
+@Label("OPC Command Executed")
+@Description("Native OPC call made by the OPCClient executor")
+@Category({"OPC", "Client"})
+@StackTrace(false)
+public class OPCCommandExecutedEvent extends OPCCommandEvent
+{
+}
@@ -0,0 +1,20 @@
+package cern.ess.opclib.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Spans from a client thread handing a command to the request queue until
+ * the executor takes it (or the client gives up).
+ */
+@Name("cern.ess.opclib.CommandQueued")
+@Label("OPC Command Queued")
+@Description("Time an OPC command waited for the OPCClient executor")
+@Category({"OPC", "Client"})
+@StackTrace(false)
+public class OPCCommandQueuedEvent extends OPCCommandEvent
+{
+}
@@ -0,0 +1,20 @@
+package cern.ess.opclib.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Spans the executor handing the result of a command back to the waiting
+ * client thread.
+ */
+@Name("cern.ess.opclib.CommandResponse")
+@Label("OPC Command Response")
+@Description("Hand off of an OPC command result to the calling thread")
+@Category({"OPC", "Client"})
+@StackTrace(false)
+public class OPCCommandResponseEvent extends OPCCommandEvent
+{
+}
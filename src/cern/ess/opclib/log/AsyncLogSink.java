@@ -0,0 +1,148 @@
+package cern.ess.opclib.log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples logging threads from the (slow, synchronized) I/O of another
+ * sink. Records go into a bounded ring buffer and are formatted and written
+ * by a single background daemon thread; callers never block - when the
+ * buffer is full the record is dropped and counted (see getDroppedCount()).
+ */
+public class AsyncLogSink implements LogSink
+{
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private static final int MAX_BATCH = 256;
+
+	private final LogSink delegate;
+	private final ArrayBlockingQueue<LogRecord> ringBuffer;
+	private final AtomicLong accepted;
+	private final AtomicLong dropped;
+	private final AtomicLong written;
+	private final Thread writerThread;
+	private volatile boolean running;
+
+	public AsyncLogSink(LogSink delegate)
+	{
+		this(delegate, DEFAULT_CAPACITY);
+	}
+
+	public AsyncLogSink(LogSink delegate, int capacity)
+	{
+		this.delegate = delegate;
+		this.ringBuffer = new ArrayBlockingQueue<LogRecord>(capacity);
+		this.accepted = new AtomicLong();
+		this.dropped = new AtomicLong();
+		this.written = new AtomicLong();
+		this.running = true;
+		this.writerThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				drainLoop();
+			}
+		}, "opclib-async-log");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	@Override
+	public void write(LogRecord record)
+	{
+		if(ringBuffer.offer(record))
+		{
+			accepted.incrementAndGet();
+		}
+		else
+		{
+			dropped.incrementAndGet();
+		}
+	}
+
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+
+	@Override
+	public void flush()
+	{
+		long target = accepted.get();
+		while(written.get() < target && writerThread.isAlive())
+		{
+			Thread.yield();
+		}
+		synchronized(this)
+		{
+			delegate.flush();
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		running = false;
+		writerThread.interrupt();
+		try
+		{
+			writerThread.join(1000);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		synchronized(this)
+		{
+			drain(new ArrayList<LogRecord>(MAX_BATCH));
+			delegate.close();
+		}
+	}
+
+	private void drainLoop()
+	{
+		List<LogRecord> batch = new ArrayList<LogRecord>(MAX_BATCH);
+		while(running)
+		{
+			try
+			{
+				LogRecord first = ringBuffer.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null)
+				{
+					continue;
+				}
+
+				synchronized(this)
+				{
+					delegate.write(first);
+					written.incrementAndGet();
+					drain(batch);
+					delegate.flush();
+				}
+			}
+			catch(InterruptedException e)
+			{
+				// close() - fall out of the loop if no longer running
+			}
+		}
+	}
+
+	private void drain(List<LogRecord> batch)
+	{
+		do
+		{
+			batch.clear();
+			ringBuffer.drainTo(batch, MAX_BATCH);
+			for(int i=0; i<batch.size(); i++)
+			{
+				delegate.write(batch.get(i));
+			}
+			written.addAndGet(batch.size());
+		}
+		while(!batch.isEmpty());
+	}
+}
@@ -0,0 +1,31 @@
+package cern.ess.opclib.log;
+
+import java.io.PrintStream;
+
+/**
+ * Synchronous sink writing to System.out (System.err for WARN and ERROR).
+ * Normally wrapped in an AsyncLogSink so the console I/O happens off the
+ * caller's thread.
+ */
+public class ConsoleLogSink implements LogSink
+{
+	@Override
+	public void write(LogRecord record)
+	{
+		PrintStream stream = record.getLevel().isEnabledAt(LogLevel.WARN) ? System.err : System.out;
+		stream.println(record.format());
+	}
+
+	@Override
+	public void flush()
+	{
+		System.out.flush();
+		System.err.flush();
+	}
+
+	@Override
+	public void close()
+	{
+		flush();
+	}
+}
@@ -0,0 +1,62 @@
+package cern.ess.opclib.log;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Synchronous, buffered sink appending to a file. Not thread safe on its
+ * own - intended to be driven by the single consumer thread of an
+ * AsyncLogSink.
+ */
+public class FileLogSink implements LogSink
+{
+	private final Writer writer;
+
+	public FileLogSink(String fileName) throws IOException
+	{
+		this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName, true), "UTF-8"), 64 * 1024);
+	}
+
+	@Override
+	public void write(LogRecord record)
+	{
+		try
+		{
+			writer.write(record.format());
+			writer.write('\n');
+		}
+		catch(IOException e)
+		{
+			System.err.println("FileLogSink: failed to write log record - "+e.getMessage());
+		}
+	}
+
+	@Override
+	public void flush()
+	{
+		try
+		{
+			writer.flush();
+		}
+		catch(IOException e)
+		{
+			System.err.println("FileLogSink: failed to flush - "+e.getMessage());
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		try
+		{
+			writer.close();
+		}
+		catch(IOException e)
+		{
+			System.err.println("FileLogSink: failed to close - "+e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package cern.ess.opclib.log;
+
+/**
+ * Log levels in decreasing order of severity.
+ */
+public enum LogLevel
+{
+	ERROR,
+	WARN,
+	INFO,
+	DEBUG;
+
+	public boolean isEnabledAt(LogLevel threshold)
+	{
+		return ordinal() <= threshold.ordinal();
+	}
+}
@@ -0,0 +1,98 @@
+package cern.ess.opclib.log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * An unformatted log message - the template ('{}' placeholders) and its
+ * arguments are only turned into a String by getFormattedMessage(), which
+ * sinks call off the caller's thread.
+ */
+public class LogRecord
+{
+	private final LogLevel level;
+	private final String loggerName;
+	private final String threadName;
+	private final long timeMillis;
+	private final String template;
+	private final Object[] arguments;
+	private final Throwable throwable;
+
+	public LogRecord(LogLevel level, String loggerName, String template, Object[] arguments, Throwable throwable)
+	{
+		this.level = level;
+		this.loggerName = loggerName;
+		this.threadName = Thread.currentThread().getName();
+		this.timeMillis = System.currentTimeMillis();
+		this.template = template;
+		this.arguments = arguments;
+		this.throwable = throwable;
+	}
+
+	public LogLevel getLevel()
+	{
+		return level;
+	}
+
+	public String getLoggerName()
+	{
+		return loggerName;
+	}
+
+	public String getThreadName()
+	{
+		return threadName;
+	}
+
+	public long getTimeMillis()
+	{
+		return timeMillis;
+	}
+
+	public Throwable getThrowable()
+	{
+		return throwable;
+	}
+
+	public String getFormattedMessage()
+	{
+		if(arguments == null || arguments.length == 0)
+		{
+			return template;
+		}
+
+		StringBuilder result = new StringBuilder(template.length() + 32);
+		int argumentIndex = 0;
+		int start = 0;
+		int placeholder;
+		while((placeholder = template.indexOf("{}", start)) != -1 && argumentIndex < arguments.length)
+		{
+			result.append(template, start, placeholder);
+			result.append(String.valueOf(arguments[argumentIndex++]));
+			start = placeholder + 2;
+		}
+		result.append(template, start, template.length());
+		return result.toString();
+	}
+
+	/**
+	 * @return the complete line (plus stack trace if any) as written by the standard sinks
+	 */
+	public String format()
+	{
+		StringBuilder line = new StringBuilder(128);
+		line.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(timeMillis)));
+		line.append(' ').append(level).append(" [").append(threadName).append("] ");
+		line.append(loggerName).append(" - ").append(getFormattedMessage());
+
+		if(throwable != null)
+		{
+			StringWriter stackTrace = new StringWriter();
+			throwable.printStackTrace(new PrintWriter(stackTrace));
+			line.append('\n').append(stackTrace);
+		}
+		return line.toString();
+	}
+}
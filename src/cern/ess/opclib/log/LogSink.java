@@ -0,0 +1,17 @@
+package cern.ess.opclib.log;
+
+/**
+ * Destination for log records. Implementations decide when (and on which
+ * thread) the message template is actually formatted.
+ */
+public interface LogSink
+{
+	public void write(LogRecord record);
+
+	/**
+	 * Blocks until everything written so far has reached its destination.
+	 */
+	public void flush();
+
+	public void close();
+}
@@ -0,0 +1,220 @@
+package cern.ess.opclib.log;
+
+/**
+ * Minimal level gated logger used throughout opclib.
+ *
+ * Messages use '{}' placeholders and are only formatted (String concatenation,
+ * argument toString() calls) by the sink, i.e. never on the calling thread, and
+ * never at all if the level is disabled. Fixed arity overloads avoid varargs
+ * array allocation for the common cases.
+ *
+ * The default sink is an AsyncLogSink over the console so no thread calling
+ * the logger ever blocks on System.out; the default level is INFO and may be
+ * overridden with system property cern.ess.opclib.log.level
+ */
+public class OPCLogger
+{
+	public static final String LEVEL_PROPERTY = "cern.ess.opclib.log.level";
+
+	private static final Object[] NO_ARGUMENTS = new Object[0];
+
+	private static volatile LogLevel threshold = initialLevel();
+	private static volatile LogSink sink;
+
+	private final String name;
+
+	private OPCLogger(String name)
+	{
+		this.name = name;
+	}
+
+	public static OPCLogger getLogger(Class<?> owner)
+	{
+		return new OPCLogger(owner.getSimpleName());
+	}
+
+	public static LogLevel getLevel()
+	{
+		return threshold;
+	}
+
+	public static void setLevel(LogLevel level)
+	{
+		threshold = level;
+	}
+
+	/**
+	 * Replaces the sink; the previous sink (if any) is flushed and closed.
+	 */
+	public static synchronized void setSink(LogSink newSink)
+	{
+		LogSink previous = sink;
+		sink = newSink;
+		if(previous != null)
+		{
+			previous.close();
+		}
+	}
+
+	public static void flush()
+	{
+		LogSink current = sink;
+		if(current != null)
+		{
+			current.flush();
+		}
+	}
+
+	public boolean isEnabled(LogLevel level)
+	{
+		return level.isEnabledAt(threshold);
+	}
+
+	public boolean isDebugEnabled()
+	{
+		return isEnabled(LogLevel.DEBUG);
+	}
+
+	public void debug(String template)
+	{
+		if(isEnabled(LogLevel.DEBUG))
+		{
+			log(LogLevel.DEBUG, template, NO_ARGUMENTS, null);
+		}
+	}
+
+	public void debug(String template, Object argument)
+	{
+		if(isEnabled(LogLevel.DEBUG))
+		{
+			log(LogLevel.DEBUG, template, new Object[]{argument}, null);
+		}
+	}
+
+	public void debug(String template, Object argument1, Object argument2)
+	{
+		if(isEnabled(LogLevel.DEBUG))
+		{
+			log(LogLevel.DEBUG, template, new Object[]{argument1, argument2}, null);
+		}
+	}
+
+	public void info(String template)
+	{
+		if(isEnabled(LogLevel.INFO))
+		{
+			log(LogLevel.INFO, template, NO_ARGUMENTS, null);
+		}
+	}
+
+	public void info(String template, Object argument)
+	{
+		if(isEnabled(LogLevel.INFO))
+		{
+			log(LogLevel.INFO, template, new Object[]{argument}, null);
+		}
+	}
+
+	public void info(String template, Object argument1, Object argument2)
+	{
+		if(isEnabled(LogLevel.INFO))
+		{
+			log(LogLevel.INFO, template, new Object[]{argument1, argument2}, null);
+		}
+	}
+
+	public void warn(String template)
+	{
+		if(isEnabled(LogLevel.WARN))
+		{
+			log(LogLevel.WARN, template, NO_ARGUMENTS, null);
+		}
+	}
+
+	public void warn(String template, Object argument)
+	{
+		if(isEnabled(LogLevel.WARN))
+		{
+			log(LogLevel.WARN, template, new Object[]{argument}, null);
+		}
+	}
+
+	public void warn(String template, Object argument1, Object argument2)
+	{
+		if(isEnabled(LogLevel.WARN))
+		{
+			log(LogLevel.WARN, template, new Object[]{argument1, argument2}, null);
+		}
+	}
+
+	public void error(String template)
+	{
+		if(isEnabled(LogLevel.ERROR))
+		{
+			log(LogLevel.ERROR, template, NO_ARGUMENTS, null);
+		}
+	}
+
+	public void error(String template, Object argument)
+	{
+		if(isEnabled(LogLevel.ERROR))
+		{
+			log(LogLevel.ERROR, template, new Object[]{argument}, null);
+		}
+	}
+
+	public void error(String template, Object argument, Throwable throwable)
+	{
+		if(isEnabled(LogLevel.ERROR))
+		{
+			log(LogLevel.ERROR, template, new Object[]{argument}, throwable);
+		}
+	}
+
+	private void log(LogLevel level, String template, Object[] arguments, Throwable throwable)
+	{
+		currentSink().write(new LogRecord(level, name, template, arguments, throwable));
+	}
+
+	private static LogSink currentSink()
+	{
+		LogSink current = sink;
+		if(current == null)
+		{
+			synchronized(OPCLogger.class)
+			{
+				if(sink == null)
+				{
+					sink = new AsyncLogSink(new ConsoleLogSink());
+					Runtime.getRuntime().addShutdownHook(new Thread("opclib-log-flush")
+					{
+						@Override
+						public void run()
+						{
+							flush();
+						}
+					});
+				}
+				current = sink;
+			}
+		}
+		return current;
+	}
+
+	private static LogLevel initialLevel()
+	{
+		String configured = System.getProperty(LEVEL_PROPERTY);
+		if(configured != null)
+		{
+			try
+			{
+				return LogLevel.valueOf(configured.trim().toUpperCase());
+			}
+			catch(IllegalArgumentException e)
+			{
+				System.err.println("OPCLogger: unknown log level ["+configured+"] - using INFO");
+			}
+		}
+		return LogLevel.INFO;
+	}
+}
@@ -0,0 +1,76 @@
+package cern.ess.opclib.metrics;
+
+/**
+ * Point in time copy of the access counters of a single opc item.
+ *
+ * Counters are exact for as long as the item has been tracked; getOverestimate()
+ * is the weight it inherited when it was (re)admitted to the bounded table, so
+ * the true ranking weight lies in [getRankingWeight() - getOverestimate(), getRankingWeight()].
+ */
+public class ItemAccessSnapshot
+{
+	private final String itemAddress;
+	private final long rankingWeight;
+	private final long overestimate;
+	private final long reads;
+	private final long writes;
+	private final long errors;
+	private final long nativeNanos;
+
+	public ItemAccessSnapshot(String itemAddress, long rankingWeight, long overestimate, long reads, long writes, long errors, long nativeNanos)
+	{
+		this.itemAddress = itemAddress;
+		this.rankingWeight = rankingWeight;
+		this.overestimate = overestimate;
+		this.reads = reads;
+		this.writes = writes;
+		this.errors = errors;
+		this.nativeNanos = nativeNanos;
+	}
+
+	public String getItemAddress()
+	{
+		return itemAddress;
+	}
+
+	public long getRankingWeight()
+	{
+		return rankingWeight;
+	}
+
+	public long getOverestimate()
+	{
+		return overestimate;
+	}
+
+	public long getReads()
+	{
+		return reads;
+	}
+
+	public long getWrites()
+	{
+		return writes;
+	}
+
+	public long getCalls()
+	{
+		return reads + writes;
+	}
+
+	public long getErrors()
+	{
+		return errors;
+	}
+
+	public long getNativeNanos()
+	{
+		return nativeNanos;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "item ["+itemAddress+"] reads ["+reads+"] writes ["+writes+"] errors ["+errors+"] native ns ["+nativeNanos+"]";
+	}
+}
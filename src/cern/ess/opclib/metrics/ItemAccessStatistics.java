@@ -0,0 +1,141 @@
+package cern.ess.opclib.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Per item read/write/error counts and cumulative native time, with bounded
+ * memory for arbitrarily large tag sets.
+ *
+ * Two Space-Saving tables are kept: one ranked by number of calls and one
+ * ranked by native time, so items that are rarely called but very slow are
+ * found as well as the frequently called ones.
+ *
+ * record() may be called from any number of threads without a lock: every
+ * recording thread - the executor of each lane and session, including a
+ * hung session's thread that returns after it was taken over - gets its own
+ * pair of tables and is their only writer. The query methods merge the
+ * tables of all threads; an item missing from a full table may have been
+ * evicted from it, so it is charged that table's smallest weight, both in
+ * its ranking weight and in its overestimate.
+ */
+public class ItemAccessStatistics
+{
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final int capacity;
+	private final List<SpaceSavingItemCounter> byCallCount;
+	private final List<SpaceSavingItemCounter> byNativeTime;
+	private final ThreadLocal<SpaceSavingItemCounter[]> ownTables;
+
+	public ItemAccessStatistics()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity maximum number of items tracked per ranking and thread
+	 */
+	public ItemAccessStatistics(int capacity)
+	{
+		this.capacity = capacity;
+		this.byCallCount = new CopyOnWriteArrayList<SpaceSavingItemCounter>();
+		this.byNativeTime = new CopyOnWriteArrayList<SpaceSavingItemCounter>();
+		this.ownTables = new ThreadLocal<SpaceSavingItemCounter[]>()
+		{
+			@Override
+			protected SpaceSavingItemCounter[] initialValue()
+			{
+				SpaceSavingItemCounter[] tables = new SpaceSavingItemCounter[] {
+						new SpaceSavingItemCounter(ItemAccessStatistics.this.capacity),
+						new SpaceSavingItemCounter(ItemAccessStatistics.this.capacity)};
+				byCallCount.add(tables[0]);
+				byNativeTime.add(tables[1]);
+				return tables;
+			}
+		};
+	}
+
+	public void record(String itemAddress, boolean read, boolean write, boolean error, long nativeNanos)
+	{
+		SpaceSavingItemCounter[] tables = ownTables.get();
+		tables[0].record(itemAddress, 1, read, write, error, nativeNanos);
+		tables[1].record(itemAddress, Math.max(0, nativeNanos), read, write, error, nativeNanos);
+	}
+
+	/**
+	 * @return up to n items with the most calls (reads + writes), most called first
+	 */
+	public List<ItemAccessSnapshot> getTopByCallCount(int n)
+	{
+		return top(byCallCount, n);
+	}
+
+	/**
+	 * @return up to n items with the most cumulative native time, slowest first
+	 */
+	public List<ItemAccessSnapshot> getTopByNativeTime(int n)
+	{
+		return top(byNativeTime, n);
+	}
+
+	private List<ItemAccessSnapshot> top(List<SpaceSavingItemCounter> tables, int n)
+	{
+		if(tables.size() == 1)
+		{
+			return tables.get(0).top(n);
+		}
+
+		// per item: weight, overestimate, reads, writes, errors, native ns, smallest weights of the full tables it is in
+		Map<String, long[]> merged = new HashMap<String, long[]>();
+		long smallestOfFullTables = 0;
+		for(SpaceSavingItemCounter table : tables)
+		{
+			List<ItemAccessSnapshot> items = table.top(capacity);
+			long smallest = 0;
+			if(items.size() == capacity)
+			{
+				smallest = items.get(items.size() - 1).getRankingWeight();
+				smallestOfFullTables += smallest;
+			}
+			for(ItemAccessSnapshot item : items)
+			{
+				long[] sums = merged.get(item.getItemAddress());
+				if(sums == null)
+				{
+					sums = new long[7];
+					merged.put(item.getItemAddress(), sums);
+				}
+				sums[0] += item.getRankingWeight();
+				sums[1] += item.getOverestimate();
+				sums[2] += item.getReads();
+				sums[3] += item.getWrites();
+				sums[4] += item.getErrors();
+				sums[5] += item.getNativeNanos();
+				sums[6] += smallest;
+			}
+		}
+
+		List<ItemAccessSnapshot> result = new ArrayList<ItemAccessSnapshot>(merged.size());
+		for(Map.Entry<String, long[]> entry : merged.entrySet())
+		{
+			long[] sums = entry.getValue();
+			long evicted = smallestOfFullTables - sums[6];
+			result.add(new ItemAccessSnapshot(entry.getKey(), sums[0] + evicted, sums[1] + evicted, sums[2], sums[3], sums[4], sums[5]));
+		}
+		Collections.sort(result, new Comparator<ItemAccessSnapshot>()
+		{
+			@Override
+			public int compare(ItemAccessSnapshot a, ItemAccessSnapshot b)
+			{
+				return Long.compare(b.getRankingWeight(), a.getRankingWeight());
+			}
+		});
+		return result.size() > n ? new ArrayList<ItemAccessSnapshot>(result.subList(0, n)) : result;
+	}
+}
@@ -0,0 +1,146 @@
+package cern.ess.opclib.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HDR style (log-linear) histogram of nanosecond durations.
+ *
+ * Values below SUB_BUCKET_COUNT are counted exactly, above that each power
+ * of 2 range is split into SUB_BUCKET_COUNT/2 linear buckets giving a
+ * worst case relative error of ~3%. Buckets live in a fixed AtomicLongArray
+ * so recording is lock free and never allocates - safe to leave enabled on
+ * the command processing hot path. Reads (percentiles, counts) are weakly
+ * consistent snapshots.
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+	/** enough buckets to cover any positive long value */
+	static final int BUCKET_COUNT = indexOf(Long.MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong totalCount;
+	private final AtomicLong totalNanos;
+	private final AtomicLong maxNanos;
+
+	public LatencyHistogram()
+	{
+		this.counts = new AtomicLongArray(BUCKET_COUNT);
+		this.totalCount = new AtomicLong();
+		this.totalNanos = new AtomicLong();
+		this.maxNanos = new AtomicLong();
+	}
+
+	public void record(long durationNanos)
+	{
+		if(durationNanos < 0)
+		{
+			durationNanos = 0;
+		}
+
+		counts.incrementAndGet(indexOf(durationNanos));
+		totalCount.incrementAndGet();
+		totalNanos.addAndGet(durationNanos);
+
+		long currentMax = maxNanos.get();
+		while(durationNanos > currentMax && !maxNanos.compareAndSet(currentMax, durationNanos))
+		{
+			currentMax = maxNanos.get();
+		}
+	}
+
+	public long getCount()
+	{
+		return totalCount.get();
+	}
+
+	public long getTotalNanos()
+	{
+		return totalNanos.get();
+	}
+
+	public long getMaxNanos()
+	{
+		return maxNanos.get();
+	}
+
+	public double getMeanNanos()
+	{
+		long count = totalCount.get();
+		return count == 0 ? 0.0 : (double)totalNanos.get() / count;
+	}
+
+	/**
+	 * @param percentile in range [0, 100]
+	 * @return the (bucket upper bound) value at the given percentile, 0 if nothing recorded
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long[] snapshot = new long[BUCKET_COUNT];
+		long count = 0;
+		for(int i=0; i<BUCKET_COUNT; i++)
+		{
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+
+		if(count == 0)
+		{
+			return 0;
+		}
+
+		double clamped = Math.min(100.0, Math.max(0.0, percentile));
+		long target = Math.max(1, (long)Math.ceil(clamped / 100.0 * count));
+		long seen = 0;
+		for(int i=0; i<BUCKET_COUNT; i++)
+		{
+			seen += snapshot[i];
+			if(seen >= target)
+			{
+				return Math.min(highestEquivalentValue(i), maxNanos.get());
+			}
+		}
+		return maxNanos.get();
+	}
+
+	public void reset()
+	{
+		for(int i=0; i<BUCKET_COUNT; i++)
+		{
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	static int indexOf(long value)
+	{
+		if(value < SUB_BUCKET_COUNT)
+		{
+			return (int)value;
+		}
+
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+		int subBucket = (int)(value >>> shift);
+		return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (subBucket - SUB_BUCKET_HALF_COUNT);
+	}
+
+	static long highestEquivalentValue(int index)
+	{
+		if(index < SUB_BUCKET_COUNT)
+		{
+			return index;
+		}
+
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+		long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+		long lowest = subBucket << shift;
+		long width = 1L << shift;
+		return lowest + width - 1;
+	}
+}
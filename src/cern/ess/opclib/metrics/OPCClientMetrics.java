@@ -0,0 +1,569 @@
+package cern.ess.opclib.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import cern.ess.opclib.clientThread.OPCCircuitBreaker;
+import cern.ess.opclib.clientThread.OPCCommandType;
+
+/**
+ * Metrics for a single OPCClient instance. All record methods are lock free
+ * and allocation free (pre-sized arrays indexed by command type ordinal) so
+ * they are cheap enough to stay enabled in production.
+ *
+ * With fair scheduling enabled, queue wait, latency (schedule to response)
+ * and rate limit refusals are also kept per tenant (see OPCTenant) - for
+ * the MAX_TENANTS most recently active ones, the least recently active
+ * tenant being dropped to make room for a new one.
+ *
+ * Exposed via JMX (see OPCClientMetricsMXBean) and in Prometheus text format
+ * (see PrometheusExporter).
+ */
+public class OPCClientMetrics implements OPCClientMetricsMXBean
+{
+	public static final String OBJECT_NAME = "cern.ess.opclib:type=OPCClient,name=metrics";
+
+	private static final OPCCommandType[] COMMAND_TYPES = OPCCommandType.values();
+	private static final int TOP_ITEMS_REPORTED = 10;
+	public static final int MAX_TENANTS = 256;
+
+	private final LatencyHistogram[] queueWait;
+	private final LatencyHistogram[] nativeTime;
+	private final AtomicLongArray processed;
+	private final AtomicLongArray errors;
+	private final AtomicLongArray timeouts;
+	private final AtomicLong fastFails;
+	private final AtomicLong bulkheadRejections;
+	private final AtomicLong slowLaneCommands;
+	private volatile int slowItems;
+
+	private volatile ItemAccessStatistics itemStatistics;
+
+	private final AtomicInteger queueDepth;
+	private final AtomicLong executorBusyNanos;
+	private final AtomicLong executorTakeovers;
+	private volatile long startNanos;
+
+	private volatile OPCCircuitBreaker.State circuitState;
+	private final AtomicLong circuitOpenedCount;
+
+	private final AtomicLong rateLimited;
+	private final ConcurrentMap<String, TenantStatistics> tenants;
+
+	public OPCClientMetrics()
+	{
+		this.queueWait = new LatencyHistogram[COMMAND_TYPES.length];
+		this.nativeTime = new LatencyHistogram[COMMAND_TYPES.length];
+		for(int i=0; i<COMMAND_TYPES.length; i++)
+		{
+			queueWait[i] = new LatencyHistogram();
+			nativeTime[i] = new LatencyHistogram();
+		}
+		this.processed = new AtomicLongArray(COMMAND_TYPES.length);
+		this.errors = new AtomicLongArray(COMMAND_TYPES.length);
+		this.timeouts = new AtomicLongArray(COMMAND_TYPES.length);
+		this.fastFails = new AtomicLong();
+		this.bulkheadRejections = new AtomicLong();
+		this.slowLaneCommands = new AtomicLong();
+		this.itemStatistics = new ItemAccessStatistics();
+		this.queueDepth = new AtomicInteger();
+		this.executorBusyNanos = new AtomicLong();
+		this.executorTakeovers = new AtomicLong();
+		this.startNanos = System.nanoTime();
+		this.circuitState = OPCCircuitBreaker.State.CLOSED;
+		this.circuitOpenedCount = new AtomicLong();
+		this.rateLimited = new AtomicLong();
+		this.tenants = new ConcurrentHashMap<String, TenantStatistics>();
+	}
+
+	/**
+	 * Called from the context of a client thread just before it hands a
+	 * command to the request queue.
+	 */
+	public void commandScheduled()
+	{
+		queueDepth.incrementAndGet();
+	}
+
+	/**
+	 * Called when a scheduled command leaves the request queue - either taken
+	 * by the executor or abandoned by the client.
+	 */
+	public void commandDequeued(OPCCommandType type, long queueWaitNanos)
+	{
+		queueDepth.decrementAndGet();
+		if(type != null)
+		{
+			queueWait[type.ordinal()].record(queueWaitNanos);
+		}
+	}
+
+	/**
+	 * Called from the context of the OPC client handler thread after each
+	 * native call.
+	 */
+	public void commandExecuted(OPCCommandType type, String itemAddress, long nativeNanos, boolean success)
+	{
+		executorBusyNanos.addAndGet(nativeNanos);
+		if(type.isItemSpecific())
+		{
+			itemStatistics.record(itemAddress, type.isRead(), type.isWrite(), !success, nativeNanos);
+		}
+		nativeTime[type.ordinal()].record(nativeNanos);
+		if(success)
+		{
+			processed.incrementAndGet(type.ordinal());
+		}
+		else
+		{
+			errors.incrementAndGet(type.ordinal());
+		}
+	}
+
+	public void commandRejected(OPCCommandType type)
+	{
+		errors.incrementAndGet(type.ordinal());
+	}
+
+	public void commandTimedOut(OPCCommandType type)
+	{
+		timeouts.incrementAndGet(type.ordinal());
+	}
+
+	/**
+	 * Called from the context of a client thread when a command is refused
+	 * without being scheduled because the circuit breaker is open.
+	 */
+	public void commandFastFailed(OPCCommandType type)
+	{
+		errors.incrementAndGet(type.ordinal());
+		fastFails.incrementAndGet();
+	}
+
+	/**
+	 * Called from the context of a client thread when a command is refused
+	 * without being scheduled because its item group's bulkhead is full.
+	 */
+	public void commandBulkheadRejected(OPCCommandType type)
+	{
+		errors.incrementAndGet(type.ordinal());
+		bulkheadRejections.incrementAndGet();
+	}
+
+	/**
+	 * Called from the context of a client thread when a command is refused
+	 * without being scheduled because its tenant is over its rate limit.
+	 */
+	public void commandRateLimited(OPCCommandType type, String tenant)
+	{
+		errors.incrementAndGet(type.ordinal());
+		rateLimited.incrementAndGet();
+		tenant(tenant).rateLimited.incrementAndGet();
+	}
+
+	/**
+	 * Called from the context of the OPC client handler thread when it takes
+	 * a fairly scheduled command - the wait includes waiting for the turn.
+	 */
+	public void tenantCommandDequeued(String tenant, long queueWaitNanos)
+	{
+		tenant(tenant).queueWait.record(queueWaitNanos);
+	}
+
+	/**
+	 * Called from the context of a client thread when a fairly scheduled
+	 * command has completed, failed or timed out.
+	 */
+	public void tenantCommandCompleted(String tenant, long latencyNanos)
+	{
+		tenant(tenant).latency.record(latencyNanos);
+	}
+
+	/**
+	 * Called from the context of a client thread scheduling a command for a slow item.
+	 */
+	public void commandRoutedToSlowLane()
+	{
+		slowLaneCommands.incrementAndGet();
+	}
+
+	public void slowItemCountChanged(int count)
+	{
+		slowItems = count;
+	}
+
+	/**
+	 * Called by the watchdog when it abandons a hung executor session for the standby.
+	 */
+	public void executorTakenOver()
+	{
+		executorTakeovers.incrementAndGet();
+	}
+
+	public void circuitStateChanged(OPCCircuitBreaker.State state)
+	{
+		circuitState = state;
+		if(state == OPCCircuitBreaker.State.OPEN)
+		{
+			circuitOpenedCount.incrementAndGet();
+		}
+	}
+
+	public LatencyHistogram getQueueWaitHistogram(OPCCommandType type)
+	{
+		return queueWait[type.ordinal()];
+	}
+
+	public LatencyHistogram getNativeTimeHistogram(OPCCommandType type)
+	{
+		return nativeTime[type.ordinal()];
+	}
+
+	public long getProcessedCount(OPCCommandType type)
+	{
+		return processed.get(type.ordinal());
+	}
+
+	public long getErrorCount(OPCCommandType type)
+	{
+		return errors.get(type.ordinal());
+	}
+
+	public long getTimeoutCount(OPCCommandType type)
+	{
+		return timeouts.get(type.ordinal());
+	}
+
+	/**
+	 * @return the tenants metrics are kept for, sorted
+	 */
+	public Set<String> getTenants()
+	{
+		return new TreeSet<String>(tenants.keySet());
+	}
+
+	/**
+	 * @return the tenant's histogram, empty if no metrics are kept for it
+	 */
+	public LatencyHistogram getTenantQueueWaitHistogram(String tenant)
+	{
+		TenantStatistics statistics = tenants.get(tenant);
+		return statistics == null ? new LatencyHistogram() : statistics.queueWait;
+	}
+
+	/**
+	 * @return the tenant's histogram, empty if no metrics are kept for it
+	 */
+	public LatencyHistogram getTenantLatencyHistogram(String tenant)
+	{
+		TenantStatistics statistics = tenants.get(tenant);
+		return statistics == null ? new LatencyHistogram() : statistics.latency;
+	}
+
+	public long getTenantRateLimitedCount(String tenant)
+	{
+		TenantStatistics statistics = tenants.get(tenant);
+		return statistics == null ? 0 : statistics.rateLimited.get();
+	}
+
+	public ItemAccessStatistics getItemStatistics()
+	{
+		return itemStatistics;
+	}
+
+	public long getExecutorBusyNanos()
+	{
+		return executorBusyNanos.get();
+	}
+
+	public long getUptimeNanos()
+	{
+		return System.nanoTime() - startNanos;
+	}
+
+	@Override
+	public int getQueueDepth()
+	{
+		return queueDepth.get();
+	}
+
+	@Override
+	public double getExecutorUtilisation()
+	{
+		long uptime = getUptimeNanos();
+		return uptime <= 0 ? 0.0 : Math.min(1.0, (double)executorBusyNanos.get() / uptime);
+	}
+
+	@Override
+	public long getTotalProcessedCount()
+	{
+		return sum(processed);
+	}
+
+	@Override
+	public long getTotalErrorCount()
+	{
+		return sum(errors);
+	}
+
+	@Override
+	public long getTotalTimeoutCount()
+	{
+		return sum(timeouts);
+	}
+
+	@Override
+	public long getTotalFastFailCount()
+	{
+		return fastFails.get();
+	}
+
+	@Override
+	public long getTotalBulkheadRejectionCount()
+	{
+		return bulkheadRejections.get();
+	}
+
+	@Override
+	public long getSlowLaneCommandCount()
+	{
+		return slowLaneCommands.get();
+	}
+
+	@Override
+	public long getTotalRateLimitedCount()
+	{
+		return rateLimited.get();
+	}
+
+	@Override
+	public int getSlowItemCount()
+	{
+		return slowItems;
+	}
+
+	@Override
+	public long getExecutorTakeoverCount()
+	{
+		return executorTakeovers.get();
+	}
+
+	@Override
+	public String getCircuitState()
+	{
+		return circuitState.name();
+	}
+
+	@Override
+	public long getCircuitOpenedCount()
+	{
+		return circuitOpenedCount.get();
+	}
+
+	@Override
+	public Map<String, Long> getProcessedCounts()
+	{
+		return byCommandName(processed);
+	}
+
+	@Override
+	public Map<String, Long> getErrorCounts()
+	{
+		return byCommandName(errors);
+	}
+
+	@Override
+	public Map<String, Long> getTimeoutCounts()
+	{
+		return byCommandName(timeouts);
+	}
+
+	@Override
+	public Map<String, Long> getQueueWaitP50Nanos()
+	{
+		return percentileByCommandName(queueWait, 50.0);
+	}
+
+	@Override
+	public Map<String, Long> getQueueWaitP99Nanos()
+	{
+		return percentileByCommandName(queueWait, 99.0);
+	}
+
+	@Override
+	public Map<String, Long> getNativeTimeP50Nanos()
+	{
+		return percentileByCommandName(nativeTime, 50.0);
+	}
+
+	@Override
+	public Map<String, Long> getNativeTimeP99Nanos()
+	{
+		return percentileByCommandName(nativeTime, 99.0);
+	}
+
+	@Override
+	public Map<String, Long> getTopItemsByCallCount()
+	{
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for(ItemAccessSnapshot item : itemStatistics.getTopByCallCount(TOP_ITEMS_REPORTED))
+		{
+			result.put(item.getItemAddress(), Long.valueOf(item.getCalls()));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getTopItemsByNativeTimeNanos()
+	{
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for(ItemAccessSnapshot item : itemStatistics.getTopByNativeTime(TOP_ITEMS_REPORTED))
+		{
+			result.put(item.getItemAddress(), Long.valueOf(item.getNativeNanos()));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getTenantRateLimitedCounts()
+	{
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for(String tenant : getTenants())
+		{
+			result.put(tenant, Long.valueOf(getTenantRateLimitedCount(tenant)));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getTenantLatencyP99Nanos()
+	{
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for(String tenant : getTenants())
+		{
+			result.put(tenant, Long.valueOf(getTenantLatencyHistogram(tenant).getValueAtPercentile(99.0)));
+		}
+		return result;
+	}
+
+	@Override
+	public String getPrometheusText()
+	{
+		return new PrometheusExporter(this).scrape();
+	}
+
+	@Override
+	public void reset()
+	{
+		for(int i=0; i<COMMAND_TYPES.length; i++)
+		{
+			queueWait[i].reset();
+			nativeTime[i].reset();
+			processed.set(i, 0);
+			errors.set(i, 0);
+			timeouts.set(i, 0);
+		}
+		fastFails.set(0);
+		bulkheadRejections.set(0);
+		rateLimited.set(0);
+		tenants.clear();
+		slowLaneCommands.set(0);
+		circuitOpenedCount.set(0);
+		executorTakeovers.set(0);
+		executorBusyNanos.set(0);
+		itemStatistics = new ItemAccessStatistics();
+		startNanos = System.nanoTime();
+	}
+
+	private TenantStatistics tenant(String tenant)
+	{
+		long nowNanos = System.nanoTime();
+		TenantStatistics statistics = tenants.get(tenant);
+		if(statistics == null)
+		{
+			// rare - only a tenant's first command after it was dropped
+			synchronized(tenants)
+			{
+				statistics = tenants.get(tenant);
+				if(statistics == null)
+				{
+					if(tenants.size() >= MAX_TENANTS)
+					{
+						dropLeastRecentlyUsedTenant();
+					}
+					statistics = new TenantStatistics();
+					tenants.put(tenant, statistics);
+				}
+			}
+		}
+		statistics.lastUsedNanos = nowNanos;
+		return statistics;
+	}
+
+	/**
+	 * Holding the tenants lock.
+	 */
+	private void dropLeastRecentlyUsedTenant()
+	{
+		String oldest = null;
+		long oldestNanos = 0;
+		for(Map.Entry<String, TenantStatistics> entry : tenants.entrySet())
+		{
+			long usedNanos = entry.getValue().lastUsedNanos;
+			if(oldest == null || usedNanos - oldestNanos < 0)
+			{
+				oldest = entry.getKey();
+				oldestNanos = usedNanos;
+			}
+		}
+		if(oldest != null)
+		{
+			tenants.remove(oldest);
+		}
+	}
+
+	private static long sum(AtomicLongArray values)
+	{
+		long result = 0;
+		for(int i=0; i<values.length(); i++)
+		{
+			result += values.get(i);
+		}
+		return result;
+	}
+
+	private static Map<String, Long> byCommandName(AtomicLongArray values)
+	{
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for(int i=0; i<COMMAND_TYPES.length; i++)
+		{
+			result.put(COMMAND_TYPES[i].getCommandName(), Long.valueOf(values.get(i)));
+		}
+		return result;
+	}
+
+	private static Map<String, Long> percentileByCommandName(LatencyHistogram[] histograms, double percentile)
+	{
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for(int i=0; i<COMMAND_TYPES.length; i++)
+		{
+			result.put(COMMAND_TYPES[i].getCommandName(), Long.valueOf(histograms[i].getValueAtPercentile(percentile)));
+		}
+		return result;
+	}
+
+	private static final class TenantStatistics
+	{
+		private final LatencyHistogram queueWait = new LatencyHistogram();
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong rateLimited = new AtomicLong();
+		private volatile long lastUsedNanos;
+	}
+}
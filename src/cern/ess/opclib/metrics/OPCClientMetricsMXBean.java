@@ -0,0 +1,55 @@
+package cern.ess.opclib.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the OPCClient metrics. Per command type values are keyed by
+ * command name (e.g. "ReadBooleanCommand"), latencies are in nanoseconds.
+ */
+public interface OPCClientMetricsMXBean
+{
+	public int getQueueDepth();
+	public double getExecutorUtilisation();
+
+	public long getTotalProcessedCount();
+	public long getTotalErrorCount();
+	public long getTotalTimeoutCount();
+	/** commands refused while the circuit breaker was open */
+	public long getTotalFastFailCount();
+	/** commands refused because their item group already had the maximum in flight */
+	public long getTotalBulkheadRejectionCount();
+	/** commands refused because their tenant was over its rate limit */
+	public long getTotalRateLimitedCount();
+	/** commands scheduled on the slow lane */
+	public long getSlowLaneCommandCount();
+	/** items currently classified as slow */
+	public int getSlowItemCount();
+
+	/** CLOSED, OPEN or HALF_OPEN */
+	public String getCircuitState();
+	public long getCircuitOpenedCount();
+	/** hung native calls after which the watchdog switched to a standby session */
+	public long getExecutorTakeoverCount();
+
+	public Map<String, Long> getProcessedCounts();
+	public Map<String, Long> getErrorCounts();
+	public Map<String, Long> getTimeoutCounts();
+
+	public Map<String, Long> getQueueWaitP50Nanos();
+	public Map<String, Long> getQueueWaitP99Nanos();
+	public Map<String, Long> getNativeTimeP50Nanos();
+	public Map<String, Long> getNativeTimeP99Nanos();
+
+	/** the 10 most frequently called items and their call counts */
+	public Map<String, Long> getTopItemsByCallCount();
+	/** the 10 items with most cumulative native time and that time */
+	public Map<String, Long> getTopItemsByNativeTimeNanos();
+
+	/** per tenant (fair scheduling only) */
+	public Map<String, Long> getTenantRateLimitedCounts();
+	public Map<String, Long> getTenantLatencyP99Nanos();
+
+	public String getPrometheusText();
+
+	public void reset();
+}
@@ -0,0 +1,255 @@
+package cern.ess.opclib.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.Set;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import cern.ess.opclib.clientThread.OPCCommandType;
+
+/**
+ * Renders OPCClientMetrics in the Prometheus text exposition format and,
+ * optionally, serves it on a local (loopback only) http endpoint at /metrics.
+ *
+ * Latency histograms are exposed as summaries (quantiles + sum + count),
+ * all durations in seconds as per Prometheus conventions.
+ */
+public class PrometheusExporter
+{
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+	private static final double NANOS_PER_SECOND = 1.0e9;
+
+	private final OPCClientMetrics metrics;
+	private HttpServer server;
+
+	public PrometheusExporter(OPCClientMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Starts serving the metrics on http://127.0.0.1:port/metrics. Port 0
+	 * picks a free port, see getPort().
+	 */
+	public synchronized void start(int port) throws IOException
+	{
+		if(server != null)
+		{
+			return;
+		}
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+		server.createContext("/metrics", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				byte[] body = scrape().getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				try
+				{
+					out.write(body);
+				}
+				finally
+				{
+					out.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	public synchronized int getPort()
+	{
+		return server == null ? -1 : server.getAddress().getPort();
+	}
+
+	public synchronized void stop()
+	{
+		if(server != null)
+		{
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	public String scrape()
+	{
+		StringBuilder out = new StringBuilder(8192);
+
+		summary(out, "opc_command_queue_wait_seconds", "Time commands spent waiting for the OPC client executor", true);
+		summary(out, "opc_command_native_seconds", "Time spent in the native OPC call", false);
+
+		counter(out, "opc_commands_processed_total", "Commands executed successfully", Kind.PROCESSED);
+		counter(out, "opc_command_errors_total", "Commands that failed", Kind.ERRORS);
+		counter(out, "opc_command_timeouts_total", "Commands the caller gave up waiting for", Kind.TIMEOUTS);
+
+		out.append("# HELP opc_request_queue_depth Commands currently waiting to be taken by the executor\n");
+		out.append("# TYPE opc_request_queue_depth gauge\n");
+		out.append("opc_request_queue_depth ").append(metrics.getQueueDepth()).append('\n');
+
+		out.append("# HELP opc_executor_busy_seconds_total Time the executor spent in native calls\n");
+		out.append("# TYPE opc_executor_busy_seconds_total counter\n");
+		out.append("opc_executor_busy_seconds_total ").append(seconds(metrics.getExecutorBusyNanos())).append('\n');
+
+		out.append("# HELP opc_executor_utilisation Fraction of uptime the executor spent in native calls\n");
+		out.append("# TYPE opc_executor_utilisation gauge\n");
+		out.append("opc_executor_utilisation ").append(format(metrics.getExecutorUtilisation())).append('\n');
+
+		out.append("# HELP opc_executor_takeovers_total Hung native calls after which a standby session took over\n");
+		out.append("# TYPE opc_executor_takeovers_total counter\n");
+		out.append("opc_executor_takeovers_total ").append(metrics.getExecutorTakeoverCount()).append('\n');
+
+		out.append("# HELP opc_circuit_open 1 while the circuit breaker is open (commands fail fast)\n");
+		out.append("# TYPE opc_circuit_open gauge\n");
+		out.append("opc_circuit_open ").append("OPEN".equals(metrics.getCircuitState()) ? 1 : 0).append('\n');
+
+		out.append("# HELP opc_circuit_opened_total Times the circuit breaker opened\n");
+		out.append("# TYPE opc_circuit_opened_total counter\n");
+		out.append("opc_circuit_opened_total ").append(metrics.getCircuitOpenedCount()).append('\n');
+
+		out.append("# HELP opc_commands_fast_failed_total Commands refused while the circuit breaker was open\n");
+		out.append("# TYPE opc_commands_fast_failed_total counter\n");
+		out.append("opc_commands_fast_failed_total ").append(metrics.getTotalFastFailCount()).append('\n');
+
+		out.append("# HELP opc_commands_bulkhead_rejected_total Commands refused because their item group bulkhead was full\n");
+		out.append("# TYPE opc_commands_bulkhead_rejected_total counter\n");
+		out.append("opc_commands_bulkhead_rejected_total ").append(metrics.getTotalBulkheadRejectionCount()).append('\n');
+
+		out.append("# HELP opc_commands_rate_limited_total Commands refused because their tenant was over its rate limit\n");
+		out.append("# TYPE opc_commands_rate_limited_total counter\n");
+		out.append("opc_commands_rate_limited_total ").append(metrics.getTotalRateLimitedCount()).append('\n');
+
+		out.append("# HELP opc_slow_lane_commands_total Commands scheduled on the slow lane\n");
+		out.append("# TYPE opc_slow_lane_commands_total counter\n");
+		out.append("opc_slow_lane_commands_total ").append(metrics.getSlowLaneCommandCount()).append('\n');
+
+		out.append("# HELP opc_slow_items Items currently classified as slow\n");
+		out.append("# TYPE opc_slow_items gauge\n");
+		out.append("opc_slow_items ").append(metrics.getSlowItemCount()).append('\n');
+
+		tenants(out);
+
+		return out.toString();
+	}
+
+	private enum Kind { PROCESSED, ERRORS, TIMEOUTS }
+
+	private void summary(StringBuilder out, String name, String help, boolean queueWait)
+	{
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(" summary\n");
+		for(OPCCommandType type : OPCCommandType.values())
+		{
+			LatencyHistogram histogram = queueWait ? metrics.getQueueWaitHistogram(type) : metrics.getNativeTimeHistogram(type);
+			if(histogram.getCount() == 0)
+			{
+				continue;
+			}
+
+			for(double quantile : QUANTILES)
+			{
+				out.append(name).append("{command=\"").append(type.getCommandName())
+					.append("\",quantile=\"").append(quantile).append("\"} ")
+					.append(seconds(histogram.getValueAtPercentile(quantile * 100.0))).append('\n');
+			}
+			out.append(name).append("_sum{command=\"").append(type.getCommandName()).append("\"} ")
+				.append(seconds(histogram.getTotalNanos())).append('\n');
+			out.append(name).append("_count{command=\"").append(type.getCommandName()).append("\"} ")
+				.append(histogram.getCount()).append('\n');
+		}
+	}
+
+	/**
+	 * Per tenant series, only with fair scheduling enabled.
+	 */
+	private void tenants(StringBuilder out)
+	{
+		Set<String> tenants = metrics.getTenants();
+		if(tenants.isEmpty())
+		{
+			return;
+		}
+
+		tenantSummary(out, tenants, "opc_tenant_queue_wait_seconds", "Time the tenant's commands waited for their turn and the executor", true);
+		tenantSummary(out, tenants, "opc_tenant_latency_seconds", "Time from scheduling the tenant's commands to their response", false);
+
+		out.append("# HELP opc_tenant_rate_limited_total Commands refused because the tenant was over its rate limit\n");
+		out.append("# TYPE opc_tenant_rate_limited_total counter\n");
+		for(String tenant : tenants)
+		{
+			out.append("opc_tenant_rate_limited_total{tenant=\"").append(escape(tenant)).append("\"} ")
+				.append(metrics.getTenantRateLimitedCount(tenant)).append('\n');
+		}
+	}
+
+	private void tenantSummary(StringBuilder out, Set<String> tenants, String name, String help, boolean queueWait)
+	{
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(" summary\n");
+		for(String tenant : tenants)
+		{
+			LatencyHistogram histogram = queueWait ? metrics.getTenantQueueWaitHistogram(tenant) : metrics.getTenantLatencyHistogram(tenant);
+			if(histogram.getCount() == 0)
+			{
+				continue;
+			}
+
+			String label = escape(tenant);
+			for(double quantile : QUANTILES)
+			{
+				out.append(name).append("{tenant=\"").append(label)
+					.append("\",quantile=\"").append(quantile).append("\"} ")
+					.append(seconds(histogram.getValueAtPercentile(quantile * 100.0))).append('\n');
+			}
+			out.append(name).append("_sum{tenant=\"").append(label).append("\"} ")
+				.append(seconds(histogram.getTotalNanos())).append('\n');
+			out.append(name).append("_count{tenant=\"").append(label).append("\"} ")
+				.append(histogram.getCount()).append('\n');
+		}
+	}
+
+	/**
+	 * Tenants default to thread names - anything may be in them.
+	 */
+	private static String escape(String labelValue)
+	{
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private void counter(StringBuilder out, String name, String help, Kind kind)
+	{
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(" counter\n");
+		for(OPCCommandType type : OPCCommandType.values())
+		{
+			long value;
+			switch(kind)
+			{
+				case PROCESSED: value = metrics.getProcessedCount(type); break;
+				case ERRORS: value = metrics.getErrorCount(type); break;
+				default: value = metrics.getTimeoutCount(type); break;
+			}
+			out.append(name).append("{command=\"").append(type.getCommandName()).append("\"} ")
+				.append(value).append('\n');
+		}
+	}
+
+	private static String seconds(long nanos)
+	{
+		return format(nanos / NANOS_PER_SECOND);
+	}
+
+	private static String format(double value)
+	{
+		return String.format(Locale.ROOT, "%.9f", value);
+	}
+}
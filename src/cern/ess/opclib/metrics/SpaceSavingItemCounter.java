@@ -0,0 +1,235 @@
+package cern.ess.opclib.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Space-Saving (Metwally et al.) heavy hitter counter over a fixed number of
+ * slots: memory is bounded regardless of how many distinct items are seen.
+ * Once all slots are taken a new item replaces the item with the smallest
+ * weight and inherits that weight as its (over)estimation error, so every
+ * item whose true weight exceeds total/capacity is guaranteed to be tracked.
+ *
+ * A single writer (ItemAccessStatistics gives each recording thread its
+ * own tables), any number of readers. Readers never block the writer - each
+ * slot carries a sequence number which is odd while the writer is updating
+ * it and readers retry on change.
+ * Recording an already tracked item does not allocate; only admitting a new
+ * item touches the (writer private) item to slot map.
+ */
+class SpaceSavingItemCounter
+{
+	private final int capacity;
+
+	/** writer only: item name -> slot */
+	private final Map<String, Integer> slotByItem;
+	/** writer only: binary min-heap of slots ordered by weight and its inverse */
+	private final int[] heap;
+	private final int[] heapPositionOfSlot;
+	private int used;
+
+	private final AtomicIntegerArray sequence;
+	private final AtomicReferenceArray<String> items;
+	private final AtomicLongArray weight;
+	private final AtomicLongArray overestimate;
+	private final AtomicLongArray reads;
+	private final AtomicLongArray writes;
+	private final AtomicLongArray errors;
+	private final AtomicLongArray nativeNanos;
+
+	SpaceSavingItemCounter(int capacity)
+	{
+		this.capacity = capacity;
+		this.slotByItem = new HashMap<String, Integer>(capacity * 2);
+		this.heap = new int[capacity];
+		this.heapPositionOfSlot = new int[capacity];
+		this.used = 0;
+		this.sequence = new AtomicIntegerArray(capacity);
+		this.items = new AtomicReferenceArray<String>(capacity);
+		this.weight = new AtomicLongArray(capacity);
+		this.overestimate = new AtomicLongArray(capacity);
+		this.reads = new AtomicLongArray(capacity);
+		this.writes = new AtomicLongArray(capacity);
+		this.errors = new AtomicLongArray(capacity);
+		this.nativeNanos = new AtomicLongArray(capacity);
+	}
+
+	/**
+	 * Writer thread only.
+	 */
+	void record(String item, long itemWeight, boolean read, boolean write, boolean error, long nanos)
+	{
+		Integer existing = slotByItem.get(item);
+		boolean newLeaf = false;
+		int slot;
+		if(existing != null)
+		{
+			slot = existing.intValue();
+			sequence.incrementAndGet(slot);
+		}
+		else if(used < capacity)
+		{
+			slot = used;
+			heap[used] = slot;
+			heapPositionOfSlot[slot] = used;
+			used++;
+			newLeaf = true;
+			sequence.incrementAndGet(slot);
+			items.set(slot, item);
+			slotByItem.put(item, Integer.valueOf(slot));
+		}
+		else
+		{
+			slot = heap[0];
+			sequence.incrementAndGet(slot);
+			slotByItem.remove(items.get(slot));
+			long inherited = weight.get(slot);
+			items.set(slot, item);
+			overestimate.set(slot, inherited);
+			reads.set(slot, 0);
+			writes.set(slot, 0);
+			errors.set(slot, 0);
+			nativeNanos.set(slot, 0);
+			slotByItem.put(item, Integer.valueOf(slot));
+		}
+
+		weight.addAndGet(slot, itemWeight);
+		if(read)
+		{
+			reads.incrementAndGet(slot);
+		}
+		if(write)
+		{
+			writes.incrementAndGet(slot);
+		}
+		if(error)
+		{
+			errors.incrementAndGet(slot);
+		}
+		nativeNanos.addAndGet(slot, nanos);
+		sequence.incrementAndGet(slot);
+
+		// weights only ever grow so only a newly added leaf can move up
+		if(newLeaf)
+		{
+			siftUp(heapPositionOfSlot[slot]);
+		}
+		else
+		{
+			siftDown(heapPositionOfSlot[slot]);
+		}
+	}
+
+	/**
+	 * Any thread.
+	 *
+	 * @return up to n tracked items, heaviest first
+	 */
+	List<ItemAccessSnapshot> top(int n)
+	{
+		List<ItemAccessSnapshot> result = new ArrayList<ItemAccessSnapshot>(capacity);
+		for(int slot=0; slot<capacity; slot++)
+		{
+			ItemAccessSnapshot snapshot = read(slot);
+			if(snapshot != null)
+			{
+				result.add(snapshot);
+			}
+		}
+
+		Collections.sort(result, new Comparator<ItemAccessSnapshot>()
+		{
+			@Override
+			public int compare(ItemAccessSnapshot a, ItemAccessSnapshot b)
+			{
+				return Long.compare(b.getRankingWeight(), a.getRankingWeight());
+			}
+		});
+		return result.size() > n ? new ArrayList<ItemAccessSnapshot>(result.subList(0, n)) : result;
+	}
+
+	private ItemAccessSnapshot read(int slot)
+	{
+		while(true)
+		{
+			int before = sequence.get(slot);
+			if((before & 1) != 0)
+			{
+				Thread.yield();
+				continue;
+			}
+
+			String item = items.get(slot);
+			if(item == null)
+			{
+				return null;
+			}
+			ItemAccessSnapshot snapshot = new ItemAccessSnapshot(item,
+					weight.get(slot),
+					overestimate.get(slot),
+					reads.get(slot),
+					writes.get(slot),
+					errors.get(slot),
+					nativeNanos.get(slot));
+
+			if(sequence.get(slot) == before)
+			{
+				return snapshot;
+			}
+		}
+	}
+
+	private void siftUp(int position)
+	{
+		while(position > 0)
+		{
+			int parent = (position - 1) / 2;
+			if(weight.get(heap[parent]) <= weight.get(heap[position]))
+			{
+				return;
+			}
+
+			swap(position, parent);
+			position = parent;
+		}
+	}
+
+	private void siftDown(int position)
+	{
+		while(true)
+		{
+			int left = 2 * position + 1;
+			if(left >= used)
+			{
+				return;
+			}
+
+			int right = left + 1;
+			int smallest = (right < used && weight.get(heap[right]) < weight.get(heap[left])) ? right : left;
+			if(weight.get(heap[position]) <= weight.get(heap[smallest]))
+			{
+				return;
+			}
+
+			swap(position, smallest);
+			position = smallest;
+		}
+	}
+
+	private void swap(int a, int b)
+	{
+		int slotA = heap[a];
+		int slotB = heap[b];
+		heap[a] = slotB;
+		heap[b] = slotA;
+		heapPositionOfSlot[slotB] = a;
+		heapPositionOfSlot[slotA] = b;
+	}
+}
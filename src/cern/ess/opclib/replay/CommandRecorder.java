@@ -0,0 +1,286 @@
+package cern.ess.opclib.replay;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OpcApi;
+import cern.ess.opclib.clientThread.OPCCommandType;
+import cern.ess.opclib.log.OPCLogger;
+
+/**
+ * OpcApi decorator capturing every call made through it - what, by which
+ * thread, when and how long it took - as a CommandRecording, for a
+ * CommandReplayer to issue again later. Wrap the client the application
+ * uses, e.g. new CommandRecorder(OPCClientInstance.theOPCClient, file).
+ *
+ * Recording costs one formatted line per call, written through a buffer
+ * under a lock. An I/O error stops the recording (logged once), never the
+ * call. stop() is passed through but not recorded.
+ */
+public class CommandRecorder implements OpcApi, Closeable
+{
+	private static final OPCLogger LOG = OPCLogger.getLogger(CommandRecorder.class);
+
+	private final OpcApi target;
+	private final File recording;
+	private final long startNanos;
+	private final Object lock;
+	/** guarded by lock, null once closed or failed */
+	private Writer out;
+
+	public CommandRecorder(OpcApi target, File recording) throws IOException
+	{
+		this.target = target;
+		this.recording = recording;
+		this.startNanos = System.nanoTime();
+		this.lock = new Object();
+		this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(recording), StandardCharsets.UTF_8));
+		out.write(CommandRecording.startLine(System.currentTimeMillis()));
+		out.write('\n');
+	}
+
+	@Override
+	public void init(String host, String server) throws OPCException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			target.init(host, server);
+			failed = false;
+		}
+		finally
+		{
+			record(start, OPCCommandType.INIT, server, null, host, failed);
+		}
+	}
+
+	@Override
+	public String[] getItemNames() throws OPCException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			String[] result = target.getItemNames();
+			failed = false;
+			return result;
+		}
+		finally
+		{
+			record(start, OPCCommandType.GET_ITEM_NAMES, null, null, null, failed);
+		}
+	}
+
+	@Override
+	public String[] getLocalServerList() throws OPCException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			String[] result = target.getLocalServerList();
+			failed = false;
+			return result;
+		}
+		finally
+		{
+			record(start, OPCCommandType.GET_LOCAL_SERVER_LIST, null, null, null, failed);
+		}
+	}
+
+	@Override
+	public boolean readBoolean(String item) throws OPCException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			boolean result = target.readBoolean(item);
+			failed = false;
+			return result;
+		}
+		finally
+		{
+			record(start, OPCCommandType.READ_BOOLEAN, item, null, null, failed);
+		}
+	}
+
+	@Override
+	public String readString(String item) throws OPCException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			String result = target.readString(item);
+			failed = false;
+			return result;
+		}
+		finally
+		{
+			record(start, OPCCommandType.READ_STRING, item, null, null, failed);
+		}
+	}
+
+	@Override
+	public int readInt(String item) throws OPCException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			int result = target.readInt(item);
+			failed = false;
+			return result;
+		}
+		finally
+		{
+			record(start, OPCCommandType.READ_INT, item, null, null, failed);
+		}
+	}
+
+	@Override
+	public float readFloat(String item) throws OPCException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			float result = target.readFloat(item);
+			failed = false;
+			return result;
+		}
+		finally
+		{
+			record(start, OPCCommandType.READ_FLOAT, item, null, null, failed);
+		}
+	}
+
+	@Override
+	public void writeBoolean(String item, boolean val) throws OPCException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			target.writeBoolean(item, val);
+			failed = false;
+		}
+		finally
+		{
+			record(start, OPCCommandType.WRITE_BOOLEAN, item, null, String.valueOf(val), failed);
+		}
+	}
+
+	@Override
+	public void writeString(String item, String val) throws OPCException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			target.writeString(item, val);
+			failed = false;
+		}
+		finally
+		{
+			record(start, OPCCommandType.WRITE_STRING, item, null, val, failed);
+		}
+	}
+
+	@Override
+	public void writeInt(String item, String type, int val) throws OPCException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			target.writeInt(item, type, val);
+			failed = false;
+		}
+		finally
+		{
+			record(start, OPCCommandType.WRITE_INT, item, type, String.valueOf(val), failed);
+		}
+	}
+
+	@Override
+	public void writeFloat(String item, String type, float val) throws OPCException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			target.writeFloat(item, type, val);
+			failed = false;
+		}
+		finally
+		{
+			record(start, OPCCommandType.WRITE_FLOAT, item, type, String.valueOf(val), failed);
+		}
+	}
+
+	@Override
+	public int stop() throws InterruptedException, ExecutionException, TimeoutException
+	{
+		return target.stop();
+	}
+
+	/**
+	 * Writes out what is buffered, later calls are not recorded.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		synchronized(lock)
+		{
+			if(out != null)
+			{
+				Writer closing = out;
+				out = null;
+				closing.close();
+			}
+		}
+	}
+
+	private void record(long start, OPCCommandType type, String item, String wireType, String value, boolean failed)
+	{
+		long end = System.nanoTime();
+		String line = new RecordedCommand(start - startNanos, Thread.currentThread().getId(), type, item, wireType, value, end - start, failed).toLine();
+		synchronized(lock)
+		{
+			if(out == null)
+			{
+				return;
+			}
+			try
+			{
+				out.write(line);
+				out.write('\n');
+			}
+			catch(IOException e)
+			{
+				LOG.error("failed to write command recording [{}] - recording stopped", recording, e);
+				try
+				{
+					out.close();
+				}
+				catch(IOException ignored)
+				{
+					// already failing
+				}
+				out = null;
+			}
+		}
+	}
+}
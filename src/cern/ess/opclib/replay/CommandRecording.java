@@ -0,0 +1,84 @@
+package cern.ess.opclib.replay;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A file written by a CommandRecorder: a "#started [wall clock millis]"
+ * line, then one RecordedCommand line per call. The start time is where
+ * the recorded traffic sits on the historian's time line, i.e. the
+ * ReplayClock's fromMillis for replaying the two together.
+ */
+public class CommandRecording
+{
+	private static final String START_PREFIX = "#started\t";
+
+	private final long startMillis;
+	private final List<RecordedCommand> commands;
+
+	public CommandRecording(long startMillis, List<RecordedCommand> commands)
+	{
+		this.startMillis = startMillis;
+		this.commands = commands;
+	}
+
+	public static CommandRecording read(File file) throws IOException
+	{
+		long startMillis = 0;
+		List<RecordedCommand> commands = new ArrayList<RecordedCommand>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try
+		{
+			String line;
+			int lineNumber = 0;
+			while((line = in.readLine()) != null)
+			{
+				lineNumber++;
+				try
+				{
+					if(line.startsWith(START_PREFIX))
+					{
+						startMillis = Long.parseLong(line.substring(START_PREFIX.length()));
+					}
+					else if(!line.isEmpty())
+					{
+						commands.add(RecordedCommand.parse(line));
+					}
+				}
+				catch(IllegalArgumentException e)
+				{
+					throw new IOException("corrupt command recording ["+file+"] line ["+lineNumber+"] - "+e.getMessage());
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return new CommandRecording(startMillis, commands);
+	}
+
+	static String startLine(long startMillis)
+	{
+		return START_PREFIX + startMillis;
+	}
+
+	public long getStartMillis()
+	{
+		return startMillis;
+	}
+
+	/**
+	 * @return the commands, in the order they completed
+	 */
+	public List<RecordedCommand> getCommands()
+	{
+		return commands;
+	}
+}
@@ -0,0 +1,167 @@
+package cern.ess.opclib.replay;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OpcApi;
+import cern.ess.opclib.log.OPCLogger;
+import cern.ess.opclib.metrics.LatencyHistogram;
+
+/**
+ * Issues recorded commands against an OpcApi with their original timing,
+ * scaled by the ReplayClock's speed.
+ *
+ * Every recorded caller thread gets a replay thread issuing its commands
+ * in order, so the replay has the original concurrency. The replay is open
+ * loop: a command is due at its recorded offset regardless of how long
+ * earlier ones took, and latency is measured from when it was due - a
+ * stall is charged to every command that should have been issued during it
+ * (as in the load test's open loop mode).
+ */
+public class CommandReplayer
+{
+	private static final OPCLogger LOG = OPCLogger.getLogger(CommandReplayer.class);
+
+	private final List<RecordedCommand> commands;
+	private final ReplayClock clock;
+
+	public CommandReplayer(List<RecordedCommand> commands, ReplayClock clock)
+	{
+		this.commands = commands;
+		this.clock = clock;
+	}
+
+	/**
+	 * Starts the clock if not started yet and returns once every command has completed.
+	 */
+	public ReplayResult replay(final OpcApi target) throws InterruptedException
+	{
+		Map<Long, List<RecordedCommand>> byThread = new LinkedHashMap<Long, List<RecordedCommand>>();
+		for(RecordedCommand command : commands)
+		{
+			List<RecordedCommand> sequence = byThread.get(Long.valueOf(command.getThreadId()));
+			if(sequence == null)
+			{
+				sequence = new ArrayList<RecordedCommand>();
+				byThread.put(Long.valueOf(command.getThreadId()), sequence);
+			}
+			sequence.add(command);
+		}
+
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LatencyHistogram serviceTime = new LatencyHistogram();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong divergent = new AtomicLong();
+
+		LOG.info("replaying [{}] commands of [{}] caller threads", Integer.valueOf(commands.size()), Integer.valueOf(byThread.size()));
+		clock.start();
+		long startNanos = System.nanoTime();
+		List<Thread> threads = new ArrayList<Thread>();
+		int index = 0;
+		for(final List<RecordedCommand> sequence : byThread.values())
+		{
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for(RecordedCommand command : sequence)
+					{
+						long dueNanos = clock.nanoTimeFor(command.getOffsetNanos());
+						if(!waitUntil(dueNanos))
+						{
+							return;
+						}
+						long issuedNanos = System.nanoTime();
+						boolean failed = !issue(target, command);
+						long completedNanos = System.nanoTime();
+						latency.record(completedNanos - dueNanos);
+						serviceTime.record(completedNanos - issuedNanos);
+						if(failed)
+						{
+							errors.incrementAndGet();
+						}
+						if(failed != command.isFailed())
+						{
+							divergent.incrementAndGet();
+						}
+					}
+				}
+			}, "opclib-replay-"+(index++));
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+		try
+		{
+			for(Thread thread : threads)
+			{
+				thread.join();
+			}
+		}
+		finally
+		{
+			for(Thread thread : threads)
+			{
+				thread.interrupt();
+			}
+		}
+
+		ReplayResult result = new ReplayResult(latency, serviceTime, latency.getCount(), errors.get(), divergent.get(), System.nanoTime() - startNanos);
+		LOG.info("replay done - {}", result);
+		return result;
+	}
+
+	/**
+	 * @return false if the command failed
+	 */
+	static boolean issue(OpcApi target, RecordedCommand command)
+	{
+		String item = command.getItem();
+		try
+		{
+			switch(command.getType())
+			{
+				case INIT: target.init(command.getValue(), item); break;
+				case GET_ITEM_NAMES: target.getItemNames(); break;
+				case GET_LOCAL_SERVER_LIST: target.getLocalServerList(); break;
+				case READ_BOOLEAN: target.readBoolean(item); break;
+				case READ_INT: target.readInt(item); break;
+				case READ_FLOAT: target.readFloat(item); break;
+				case READ_STRING: target.readString(item); break;
+				case WRITE_BOOLEAN: target.writeBoolean(item, Boolean.parseBoolean(command.getValue())); break;
+				case WRITE_INT: target.writeInt(item, command.getWireType(), Integer.parseInt(command.getValue())); break;
+				case WRITE_FLOAT: target.writeFloat(item, command.getWireType(), Float.parseFloat(command.getValue())); break;
+				case WRITE_STRING: target.writeString(item, command.getValue()); break;
+				default: throw new IllegalStateException("unexpected command type ["+command.getType()+"]");
+			}
+			return true;
+		}
+		catch(OPCException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * @return false if interrupted
+	 */
+	private static boolean waitUntil(long deadlineNanos)
+	{
+		long remaining;
+		while((remaining = deadlineNanos - System.nanoTime()) > 0)
+		{
+			LockSupport.parkNanos(remaining);
+			if(Thread.currentThread().isInterrupted())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,147 @@
+package cern.ess.opclib.replay;
+
+import cern.ess.opclib.clientThread.OPCCommandType;
+
+/**
+ * One OpcApi call captured by a CommandRecorder.
+ *
+ * Stored as one tab separated line: offset (ns since the recording
+ * started), caller thread id, command type, item (the server for INIT),
+ * wire type (writeInt/writeFloat only), value (written value, the host for
+ * INIT), duration (ns) and OK or FAILED. Tabs, line breaks and backslashes
+ * in the text fields are escaped.
+ */
+public class RecordedCommand
+{
+	private static final String OK = "OK";
+	private static final String FAILED = "FAILED";
+	private static final int FIELD_COUNT = 8;
+
+	private final long offsetNanos;
+	private final long threadId;
+	private final OPCCommandType type;
+	private final String item;
+	private final String wireType;
+	private final String value;
+	private final long durationNanos;
+	private final boolean failed;
+
+	public RecordedCommand(long offsetNanos, long threadId, OPCCommandType type, String item, String wireType, String value, long durationNanos, boolean failed)
+	{
+		this.offsetNanos = offsetNanos;
+		this.threadId = threadId;
+		this.type = type;
+		this.item = item == null ? "" : item;
+		this.wireType = wireType == null ? "" : wireType;
+		this.value = value == null ? "" : value;
+		this.durationNanos = durationNanos;
+		this.failed = failed;
+	}
+
+	public static RecordedCommand parse(String line)
+	{
+		String[] fields = line.split("\t", -1);
+		if(fields.length != FIELD_COUNT)
+		{
+			throw new IllegalArgumentException("expected ["+FIELD_COUNT+"] fields found ["+fields.length+"]");
+		}
+		return new RecordedCommand(Long.parseLong(fields[0]), Long.parseLong(fields[1]), OPCCommandType.valueOf(fields[2]),
+				unescape(fields[3]), unescape(fields[4]), unescape(fields[5]), Long.parseLong(fields[6]), FAILED.equals(fields[7]));
+	}
+
+	public String toLine()
+	{
+		return offsetNanos+"\t"+threadId+"\t"+type.name()+"\t"+escape(item)+"\t"+escape(wireType)+"\t"+escape(value)+"\t"+durationNanos+"\t"+(failed ? FAILED : OK);
+	}
+
+	public long getOffsetNanos()
+	{
+		return offsetNanos;
+	}
+
+	public long getThreadId()
+	{
+		return threadId;
+	}
+
+	public OPCCommandType getType()
+	{
+		return type;
+	}
+
+	public String getItem()
+	{
+		return item;
+	}
+
+	public String getWireType()
+	{
+		return wireType;
+	}
+
+	public String getValue()
+	{
+		return value;
+	}
+
+	public long getDurationNanos()
+	{
+		return durationNanos;
+	}
+
+	public boolean isFailed()
+	{
+		return failed;
+	}
+
+	@Override
+	public String toString()
+	{
+		return type+" ["+item+"] at ["+offsetNanos+"ns]";
+	}
+
+	private static String escape(String text)
+	{
+		if(text.indexOf('\\') < 0 && text.indexOf('\t') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0)
+		{
+			return text;
+		}
+		StringBuilder escaped = new StringBuilder(text.length() + 8);
+		for(int i=0; i<text.length(); i++)
+		{
+			char c = text.charAt(i);
+			switch(c)
+			{
+				case '\\': escaped.append("\\\\"); break;
+				case '\t': escaped.append("\\t"); break;
+				case '\n': escaped.append("\\n"); break;
+				case '\r': escaped.append("\\r"); break;
+				default: escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	private static String unescape(String text)
+	{
+		if(text.indexOf('\\') < 0)
+		{
+			return text;
+		}
+		StringBuilder unescaped = new StringBuilder(text.length());
+		for(int i=0; i<text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if(c == '\\' && i+1 < text.length())
+			{
+				char next = text.charAt(++i);
+				unescaped.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			}
+			else
+			{
+				unescaped.append(c);
+			}
+		}
+		return unescaped.toString();
+	}
+}
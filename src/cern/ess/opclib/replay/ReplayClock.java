@@ -0,0 +1,79 @@
+package cern.ess.opclib.replay;
+
+/**
+ * Maps wall clock time during a replay onto the recorded time line: once
+ * started, recorded time runs from fromMillis at speed times real time
+ * (1.0 original pace, 60.0 an hour per minute).
+ *
+ * Shared by a ReplayOpcApi and a CommandReplayer so replayed commands see
+ * the values that were current when they were originally issued.
+ */
+public class ReplayClock
+{
+	private final long fromMillis;
+	private final double speed;
+	private volatile long startNanos;
+	private volatile boolean started;
+
+	/**
+	 * @param fromMillis recorded time the replay starts at
+	 * @param speed replay speed relative to the original, > 0
+	 */
+	public ReplayClock(long fromMillis, double speed)
+	{
+		if(!(speed > 0))
+		{
+			throw new IllegalArgumentException("replay speed must be positive ["+speed+"]");
+		}
+		this.fromMillis = fromMillis;
+		this.speed = speed;
+	}
+
+	/**
+	 * Starts the clock, later calls have no effect.
+	 */
+	public synchronized void start()
+	{
+		if(!started)
+		{
+			startNanos = System.nanoTime();
+			started = true;
+		}
+	}
+
+	public boolean isStarted()
+	{
+		return started;
+	}
+
+	public long getFromMillis()
+	{
+		return fromMillis;
+	}
+
+	public double getSpeed()
+	{
+		return speed;
+	}
+
+	/**
+	 * @return the recorded time being replayed now, fromMillis until started
+	 */
+	public long currentMillis()
+	{
+		if(!started)
+		{
+			return fromMillis;
+		}
+		return fromMillis + (long)((System.nanoTime() - startNanos) * speed / 1000000.0);
+	}
+
+	/**
+	 * @param recordedOffsetNanos time since fromMillis on the recorded time line
+	 * @return the System.nanoTime() at which it is replayed
+	 */
+	public long nanoTimeFor(long recordedOffsetNanos)
+	{
+		return startNanos + (long)(recordedOffsetNanos / speed);
+	}
+}
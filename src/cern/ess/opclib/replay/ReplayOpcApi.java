@@ -0,0 +1,251 @@
+package cern.ess.opclib.replay;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OpcApi;
+import cern.ess.opclib.historian.Historian;
+import cern.ess.opclib.historian.HistorianQuery;
+import cern.ess.opclib.historian.ItemCatalog;
+import cern.ess.opclib.historian.SampleCursor;
+
+/**
+ * Stand-in OPC server serving recorded history: a read returns the item's
+ * last value recorded at or before the ReplayClock's current time, so the
+ * client sees yesterday's values at the pace (or faster) they changed.
+ *
+ * Writes are accepted and read back until the item's next recorded value.
+ * Reading an item that has no recorded value yet, or as the wrong type,
+ * fails like it would against the server. Calls return immediately - use
+ * SimulatedOpcApi to model server latency.
+ *
+ * The historian need not be started; an open one may still be recording.
+ * The clock starts (if not started already) on init(). Thread safe.
+ */
+public class ReplayOpcApi implements OpcApi
+{
+	public static final String SERVER_NAME = "Replay.OPC.Server";
+
+	private final HistorianQuery query;
+	private final ItemCatalog catalog;
+	private final ReplayClock clock;
+	private final ConcurrentMap<String, ReplayItem> items;
+	private final AtomicLong callCount;
+
+	public ReplayOpcApi(Historian historian, ReplayClock clock)
+	{
+		this.query = new HistorianQuery(historian);
+		this.catalog = historian.getCatalog();
+		this.clock = clock;
+		this.items = new ConcurrentHashMap<String, ReplayItem>();
+		this.callCount = new AtomicLong();
+	}
+
+	public ReplayClock getClock()
+	{
+		return clock;
+	}
+
+	public long getCallCount()
+	{
+		return callCount.get();
+	}
+
+	@Override
+	public void init(String host, String server) throws OPCException
+	{
+		callCount.incrementAndGet();
+		clock.start();
+	}
+
+	@Override
+	public String[] getItemNames() throws OPCException
+	{
+		callCount.incrementAndGet();
+		String[] names = new String[catalog.size()];
+		for(int i=0; i<names.length; i++)
+		{
+			names[i] = catalog.itemFor(i+1);
+		}
+		return names;
+	}
+
+	@Override
+	public String[] getLocalServerList() throws OPCException
+	{
+		callCount.incrementAndGet();
+		return new String[] {SERVER_NAME};
+	}
+
+	@Override
+	public boolean readBoolean(String item) throws OPCException
+	{
+		Object value = read(item);
+		if(!(value instanceof Boolean))
+		{
+			throw mismatch(item, value, "boolean");
+		}
+		return ((Boolean)value).booleanValue();
+	}
+
+	@Override
+	public String readString(String item) throws OPCException
+	{
+		Object value = read(item);
+		if(!(value instanceof String))
+		{
+			throw mismatch(item, value, "string");
+		}
+		return (String)value;
+	}
+
+	@Override
+	public int readInt(String item) throws OPCException
+	{
+		Object value = read(item);
+		if(!(value instanceof Number))
+		{
+			throw mismatch(item, value, "numeric");
+		}
+		return ((Number)value).intValue();
+	}
+
+	@Override
+	public float readFloat(String item) throws OPCException
+	{
+		Object value = read(item);
+		if(!(value instanceof Number))
+		{
+			throw mismatch(item, value, "numeric");
+		}
+		return ((Number)value).floatValue();
+	}
+
+	@Override
+	public void writeBoolean(String item, boolean val) throws OPCException
+	{
+		write(item, Boolean.valueOf(val));
+	}
+
+	@Override
+	public void writeString(String item, String val) throws OPCException
+	{
+		write(item, val);
+	}
+
+	@Override
+	public void writeInt(String item, String type, int val) throws OPCException
+	{
+		write(item, Integer.valueOf(val));
+	}
+
+	@Override
+	public void writeFloat(String item, String type, float val) throws OPCException
+	{
+		write(item, Float.valueOf(val));
+	}
+
+	@Override
+	public int stop() throws InterruptedException, ExecutionException, TimeoutException
+	{
+		throw new UnsupportedOperationException("not supported in this context - only thread based implementations support this (like OPCClient)");
+	}
+
+	private Object read(String item) throws OPCException
+	{
+		callCount.incrementAndGet();
+		Object value = find(item).valueAt(clock.currentMillis());
+		if(value == null)
+		{
+			throw new OPCException("no recorded value for opc item ["+item+"] at ["+clock.currentMillis()+"]");
+		}
+		return value;
+	}
+
+	private void write(String item, Object value) throws OPCException
+	{
+		callCount.incrementAndGet();
+		find(item).write(clock.currentMillis(), value);
+	}
+
+	private ReplayItem find(String item) throws OPCException
+	{
+		ReplayItem replayItem = items.get(item);
+		if(replayItem == null)
+		{
+			if(catalog.lookup(item) == 0)
+			{
+				throw new OPCException("failed to find opc item ["+item+"]");
+			}
+			try
+			{
+				// from the start of the history - the value current at fromMillis may be older than that
+				replayItem = new ReplayItem(query.select(item, Long.MIN_VALUE, Long.MAX_VALUE));
+			}
+			catch(IOException e)
+			{
+				throw new OPCException("failed to read history of opc item ["+item+"] - "+e.getMessage());
+			}
+			ReplayItem existing = items.putIfAbsent(item, replayItem);
+			if(existing != null)
+			{
+				replayItem = existing;
+			}
+		}
+		return replayItem;
+	}
+
+	private static OPCException mismatch(String item, Object value, String expected)
+	{
+		return new OPCException("type mismatch for opc item ["+item+"] - is ["+value.getClass().getSimpleName()+"] not ["+expected+"]");
+	}
+
+	/**
+	 * An item's history, consumed as the clock advances.
+	 */
+	private static class ReplayItem
+	{
+		private final SampleCursor cursor;
+		private boolean pending;
+		private long pendingMillis;
+		private Object pendingValue;
+		private Object value;
+
+		ReplayItem(SampleCursor cursor)
+		{
+			this.cursor = cursor;
+			advance();
+		}
+
+		synchronized Object valueAt(long millis)
+		{
+			while(pending && pendingMillis <= millis)
+			{
+				value = pendingValue;
+				advance();
+			}
+			return value;
+		}
+
+		synchronized void write(long millis, Object written)
+		{
+			valueAt(millis);
+			value = written;
+		}
+
+		private void advance()
+		{
+			pending = cursor.next();
+			if(pending)
+			{
+				pendingMillis = cursor.getTimestampMillis();
+				pendingValue = cursor.getValue();
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package cern.ess.opclib.replay;
+
+import cern.ess.opclib.metrics.LatencyHistogram;
+
+/**
+ * Outcome of a CommandReplayer run. Latencies are in nanoseconds.
+ */
+public class ReplayResult
+{
+	private final LatencyHistogram latency;
+	private final LatencyHistogram serviceTime;
+	private final long commands;
+	private final long errors;
+	private final long divergent;
+	private final long elapsedNanos;
+
+	ReplayResult(LatencyHistogram latency, LatencyHistogram serviceTime, long commands, long errors, long divergent, long elapsedNanos)
+	{
+		this.latency = latency;
+		this.serviceTime = serviceTime;
+		this.commands = commands;
+		this.errors = errors;
+		this.divergent = divergent;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @return response times measured from when each command was due (coordinated omission corrected)
+	 */
+	public LatencyHistogram getLatency()
+	{
+		return latency;
+	}
+
+	/**
+	 * @return response times measured from the actual start of each command
+	 */
+	public LatencyHistogram getServiceTime()
+	{
+		return serviceTime;
+	}
+
+	public long getCommands()
+	{
+		return commands;
+	}
+
+	public long getErrors()
+	{
+		return errors;
+	}
+
+	/**
+	 * @return commands that failed in the recording but not in the replay, or the other way round
+	 */
+	public long getDivergentCount()
+	{
+		return divergent;
+	}
+
+	public long getElapsedNanos()
+	{
+		return elapsedNanos;
+	}
+
+	public double getThroughput()
+	{
+		return elapsedNanos > 0 ? commands * 1e9 / elapsedNanos : 0.0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("commands [%d] errors [%d] divergent [%d] throughput [%.1f/s] latency p50 [%.1fus] p99 [%.1fus] p99.9 [%.1fus] max [%.1fus] service time p99 [%.1fus]",
+				Long.valueOf(commands), Long.valueOf(errors), Long.valueOf(divergent), Double.valueOf(getThroughput()),
+				micros(latency.getValueAtPercentile(50.0)),
+				micros(latency.getValueAtPercentile(99.0)),
+				micros(latency.getValueAtPercentile(99.9)),
+				micros(latency.getMaxNanos()),
+				micros(serviceTime.getValueAtPercentile(99.0)));
+	}
+
+	private static Double micros(long nanos)
+	{
+		return Double.valueOf(nanos / 1000.0);
+	}
+}
@@ -0,0 +1,78 @@
+package cern.ess.opclib.simulator;
+
+import java.util.Random;
+
+/**
+ * Distribution of the simulated server's response time for a call.
+ */
+public abstract class LatencyModel
+{
+	public abstract long nextLatencyNanos(Random random);
+
+	public static LatencyModel none()
+	{
+		return fixed(0);
+	}
+
+	public static LatencyModel fixed(final long nanos)
+	{
+		return new LatencyModel()
+		{
+			@Override
+			public long nextLatencyNanos(Random random)
+			{
+				return nanos;
+			}
+
+			@Override
+			public String toString()
+			{
+				return "fixed ["+nanos+"ns]";
+			}
+		};
+	}
+
+	/**
+	 * Normal distribution, truncated at 0.
+	 */
+	public static LatencyModel normal(final long meanNanos, final long standardDeviationNanos)
+	{
+		return new LatencyModel()
+		{
+			@Override
+			public long nextLatencyNanos(Random random)
+			{
+				return Math.max(0, (long)(meanNanos + random.nextGaussian() * standardDeviationNanos));
+			}
+
+			@Override
+			public String toString()
+			{
+				return "normal [mean "+meanNanos+"ns, sd "+standardDeviationNanos+"ns]";
+			}
+		};
+	}
+
+	/**
+	 * Log-normal distribution - most calls close to the median with a long
+	 * tail of slow ones, which is what real servers (and networks) look like.
+	 * sigma 0.5 gives p99 ~3x the median, sigma 1.0 gives p99 ~10x.
+	 */
+	public static LatencyModel longTail(final long medianNanos, final double sigma)
+	{
+		return new LatencyModel()
+		{
+			@Override
+			public long nextLatencyNanos(Random random)
+			{
+				return (long)(medianNanos * Math.exp(sigma * random.nextGaussian()));
+			}
+
+			@Override
+			public String toString()
+			{
+				return "long tail [median "+medianNanos+"ns, sigma "+sigma+"]";
+			}
+		};
+	}
+}
@@ -0,0 +1,12 @@
+package cern.ess.opclib.simulator;
+
+/**
+ * Groups of OpcApi calls that can be given their own latency model.
+ */
+public enum SimulatedCall
+{
+	INIT,
+	BROWSE,
+	READ,
+	WRITE
+}
@@ -0,0 +1,77 @@
+package cern.ess.opclib.simulator;
+
+import java.util.Random;
+
+import cern.ess.opclib.OPCDataType;
+
+/**
+ * A single item of the simulated server: generated from a ValueGenerator
+ * until it is written, after which it holds the written value.
+ */
+public class SimulatedItem
+{
+	private final String name;
+	private final OPCDataType dataType;
+	private final ValueGenerator generator;
+	private volatile Object writtenValue;
+
+	public SimulatedItem(String name, OPCDataType dataType, ValueGenerator generator)
+	{
+		this.name = name;
+		this.dataType = dataType;
+		this.generator = generator;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public OPCDataType getDataType()
+	{
+		return dataType;
+	}
+
+	public void write(Object value)
+	{
+		writtenValue = value;
+	}
+
+	public boolean readBoolean(long elapsedNanos, Random random)
+	{
+		Object written = writtenValue;
+		if(written != null)
+		{
+			return ((Boolean)written).booleanValue();
+		}
+		return generator.valueAt(elapsedNanos, random) >= 0.5;
+	}
+
+	public double readNumber(long elapsedNanos, Random random)
+	{
+		Object written = writtenValue;
+		if(written != null)
+		{
+			return ((Number)written).doubleValue();
+		}
+
+		double value = generator.valueAt(elapsedNanos, random);
+		switch(dataType)
+		{
+			case I2: return (short)Math.round(value);
+			case I4: return (int)Math.round(value);
+			case R4: return (float)value;
+			default: return value;
+		}
+	}
+
+	public String readString(long elapsedNanos, Random random)
+	{
+		Object written = writtenValue;
+		if(written != null)
+		{
+			return written.toString();
+		}
+		return name + "#" + (long)generator.valueAt(elapsedNanos, random);
+	}
+}
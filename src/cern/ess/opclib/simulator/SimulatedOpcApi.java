@@ -0,0 +1,364 @@
+package cern.ess.opclib.simulator;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import cern.ess.opclib.OPCDataType;
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OPCItemTypeSource;
+import cern.ess.opclib.OPCSessionException;
+import cern.ess.opclib.OpcApi;
+
+/**
+ * Stand-in OPC server for performance and scaling tests.
+ *
+ * Unlike MockOpcApiImpl (instant, single threaded) every call takes a time
+ * drawn from a configurable LatencyModel (per SimulatedCall group), calls can
+ * be made to fail (OPCException) or hang (longer than the client will wait)
+ * with given probabilities, the server can be switched off, and item values
+ * change on their own according to their ValueGenerator.
+ *
+ * Thread safe - the configuration may be changed while calls are in flight.
+ */
+public class SimulatedOpcApi implements OpcApi, OPCItemTypeSource
+{
+	public static final String SIMULATED_FAILURE_MESSAGE = "simulated failure";
+	public static final String SERVER_UNAVAILABLE_MESSAGE = "simulated server unavailable";
+
+	/** below this a latency is busy waited - parkNanos is far too coarse */
+	private static final long SPIN_THRESHOLD_NANOS = 50000;
+
+	private final Map<String, SimulatedItem> items;
+	private final Map<SimulatedCall, LatencyModel> latencies;
+	private final Random random;
+	private final long startNanos;
+
+	private volatile double errorProbability;
+	private volatile double hangProbability;
+	private volatile long hangNanos;
+	private volatile boolean serverAvailable;
+	private volatile String[] localServerList;
+
+	private final AtomicLong callCount;
+	private final AtomicLong injectedErrorCount;
+	private final AtomicLong injectedHangCount;
+	private final AtomicLong initCount;
+
+	public SimulatedOpcApi()
+	{
+		this(System.nanoTime());
+	}
+
+	/**
+	 * @param seed for reproducible latencies, errors and noise
+	 */
+	public SimulatedOpcApi(long seed)
+	{
+		this.items = new ConcurrentHashMap<String, SimulatedItem>();
+		this.latencies = new ConcurrentHashMap<SimulatedCall, LatencyModel>();
+		this.random = new Random(seed);
+		this.startNanos = System.nanoTime();
+		this.errorProbability = 0.0;
+		this.hangProbability = 0.0;
+		this.hangNanos = 0;
+		this.serverAvailable = true;
+		this.localServerList = new String[] {"Simulated.OPC.Server"};
+		this.callCount = new AtomicLong();
+		this.injectedErrorCount = new AtomicLong();
+		this.injectedHangCount = new AtomicLong();
+		this.initCount = new AtomicLong();
+
+		setLatency(LatencyModel.none());
+	}
+
+	/**
+	 * Sets the latency of every call group.
+	 */
+	public void setLatency(LatencyModel latencyModel)
+	{
+		for(SimulatedCall call : SimulatedCall.values())
+		{
+			latencies.put(call, latencyModel);
+		}
+	}
+
+	public void setLatency(SimulatedCall call, LatencyModel latencyModel)
+	{
+		latencies.put(call, latencyModel);
+	}
+
+	/**
+	 * @param probability that any call throws an OPCException
+	 */
+	public void setErrorProbability(double probability)
+	{
+		this.errorProbability = probability;
+	}
+
+	/**
+	 * @param probability that any call hangs
+	 * @param hangNanos how long a hanging call takes (set this beyond the client's timeout)
+	 */
+	public void setHangProbability(double probability, long hangNanos)
+	{
+		this.hangProbability = probability;
+		this.hangNanos = hangNanos;
+	}
+
+	/**
+	 * While unavailable every call (including init) fails with an OPCException.
+	 */
+	public void setServerAvailable(boolean available)
+	{
+		this.serverAvailable = available;
+	}
+
+	public void setLocalServerList(String[] serverList)
+	{
+		this.localServerList = serverList;
+	}
+
+	public void addItem(String name, OPCDataType dataType, ValueGenerator generator)
+	{
+		items.put(name, new SimulatedItem(name, dataType, generator));
+	}
+
+	/**
+	 * Generates groups * itemsPerGroup items named "simGroup[g].[type]_[i]"
+	 * cycling through all data types: booleans toggle, integers ramp, floats
+	 * follow noisy sines and strings count.
+	 *
+	 * @return the generated item names
+	 */
+	public String[] generateTagSpace(int groups, int itemsPerGroup)
+	{
+		OPCDataType[] dataTypes = OPCDataType.values();
+		String[] names = new String[groups * itemsPerGroup];
+		int index = 0;
+		for(int group=0; group<groups; group++)
+		{
+			for(int item=0; item<itemsPerGroup; item++)
+			{
+				OPCDataType dataType = dataTypes[item % dataTypes.length];
+				String name = "simGroup"+group+"."+dataType.name().toLowerCase()+"_"+item;
+				addItem(name, dataType, defaultGenerator(dataType, item));
+				names[index++] = name;
+			}
+		}
+		return names;
+	}
+
+	@Override
+	public OPCDataType getDataType(String item)
+	{
+		SimulatedItem simulatedItem = items.get(item);
+		return simulatedItem == null ? null : simulatedItem.getDataType();
+	}
+
+	public long getCallCount()
+	{
+		return callCount.get();
+	}
+
+	public long getInjectedErrorCount()
+	{
+		return injectedErrorCount.get();
+	}
+
+	public long getInjectedHangCount()
+	{
+		return injectedHangCount.get();
+	}
+
+	public long getInitCount()
+	{
+		return initCount.get();
+	}
+
+	@Override
+	public void init(String host, String server) throws OPCException
+	{
+		simulateCall(SimulatedCall.INIT, server);
+		initCount.incrementAndGet();
+	}
+
+	@Override
+	public String[] getItemNames() throws OPCException
+	{
+		simulateCall(SimulatedCall.BROWSE, "!not item specific!");
+		return items.keySet().toArray(new String[0]);
+	}
+
+	@Override
+	public String[] getLocalServerList() throws OPCException
+	{
+		simulateCall(SimulatedCall.BROWSE, "!not item specific!");
+		return localServerList;
+	}
+
+	@Override
+	public boolean readBoolean(String item) throws OPCException
+	{
+		simulateCall(SimulatedCall.READ, item);
+		return find(item, OPCDataType.BOOL).readBoolean(elapsedNanos(), random);
+	}
+
+	@Override
+	public String readString(String item) throws OPCException
+	{
+		simulateCall(SimulatedCall.READ, item);
+		return find(item, OPCDataType.STRING).readString(elapsedNanos(), random);
+	}
+
+	@Override
+	public int readInt(String item) throws OPCException
+	{
+		simulateCall(SimulatedCall.READ, item);
+		return (int)findNumeric(item).readNumber(elapsedNanos(), random);
+	}
+
+	@Override
+	public float readFloat(String item) throws OPCException
+	{
+		simulateCall(SimulatedCall.READ, item);
+		return (float)findNumeric(item).readNumber(elapsedNanos(), random);
+	}
+
+	@Override
+	public void writeBoolean(String item, boolean val) throws OPCException
+	{
+		simulateCall(SimulatedCall.WRITE, item);
+		find(item, OPCDataType.BOOL).write(Boolean.valueOf(val));
+	}
+
+	@Override
+	public void writeString(String item, String val) throws OPCException
+	{
+		simulateCall(SimulatedCall.WRITE, item);
+		find(item, OPCDataType.STRING).write(val);
+	}
+
+	@Override
+	public void writeInt(String item, String type, int val) throws OPCException
+	{
+		simulateCall(SimulatedCall.WRITE, item);
+		findNumeric(item).write(Integer.valueOf(val));
+	}
+
+	@Override
+	public void writeFloat(String item, String type, float val) throws OPCException
+	{
+		simulateCall(SimulatedCall.WRITE, item);
+		findNumeric(item).write(Float.valueOf(val));
+	}
+
+	@Override
+	public int stop() throws InterruptedException, ExecutionException, TimeoutException
+	{
+		throw new UnsupportedOperationException("not supported in this context - only thread based implementations support this (like OPCClient)");
+	}
+
+	private void simulateCall(SimulatedCall call, String item) throws OPCException
+	{
+		callCount.incrementAndGet();
+		pause(latencies.get(call).nextLatencyNanos(random));
+
+		if(!serverAvailable)
+		{
+			throw new OPCSessionException(SERVER_UNAVAILABLE_MESSAGE+" ["+item+"]");
+		}
+		if(hangProbability > 0 && random.nextDouble() < hangProbability)
+		{
+			injectedHangCount.incrementAndGet();
+			pause(hangNanos);
+		}
+		if(errorProbability > 0 && random.nextDouble() < errorProbability)
+		{
+			injectedErrorCount.incrementAndGet();
+			throw new OPCException(SIMULATED_FAILURE_MESSAGE+" ["+item+"]");
+		}
+	}
+
+	private SimulatedItem find(String item, OPCDataType expectedType) throws OPCException
+	{
+		SimulatedItem simulatedItem = find(item);
+		if(simulatedItem.getDataType() != expectedType)
+		{
+			throw new OPCException("type mismatch for opc item ["+item+"] - is ["+simulatedItem.getDataType()+"] not ["+expectedType+"]");
+		}
+		return simulatedItem;
+	}
+
+	private SimulatedItem findNumeric(String item) throws OPCException
+	{
+		SimulatedItem simulatedItem = find(item);
+		if(!simulatedItem.getDataType().isNumeric())
+		{
+			throw new OPCException("type mismatch for opc item ["+item+"] - is ["+simulatedItem.getDataType()+"] not numeric");
+		}
+		return simulatedItem;
+	}
+
+	private SimulatedItem find(String item) throws OPCException
+	{
+		SimulatedItem simulatedItem = items.get(item);
+		if(simulatedItem == null)
+		{
+			throw new OPCException("failed to find opc item ["+item+"]");
+		}
+		return simulatedItem;
+	}
+
+	private long elapsedNanos()
+	{
+		return System.nanoTime() - startNanos;
+	}
+
+	private static ValueGenerator defaultGenerator(OPCDataType dataType, int item)
+	{
+		long seconds = 1000000000L;
+		switch(dataType)
+		{
+			case BOOL: return ValueGenerator.toggle((1 + item % 10) * seconds);
+			case I2: return ValueGenerator.ramp(0, 1000, (10 + item % 50) * seconds);
+			case I4: return ValueGenerator.ramp(-100000, 100000, (60 + item % 100) * seconds);
+			case STRING: return ValueGenerator.ramp(0, 1000000, 1000 * seconds);
+			default: return ValueGenerator.noise(0, 0.01 * (1 + item % 5)).plus(ValueGenerator.sine(100.0 * item, 10.0, (30 + item % 30) * seconds));
+		}
+	}
+
+	/**
+	 * Unlike a real native call the pause ends early if the thread is
+	 * interrupted (interrupt status is kept) so tests can clean up.
+	 */
+	private static void pause(long nanos)
+	{
+		if(nanos <= 0)
+		{
+			return;
+		}
+
+		long deadline = System.nanoTime() + nanos;
+		if(nanos > SPIN_THRESHOLD_NANOS)
+		{
+			long remaining;
+			while((remaining = deadline - System.nanoTime() - SPIN_THRESHOLD_NANOS) > 0)
+			{
+				LockSupport.parkNanos(remaining);
+				if(Thread.currentThread().isInterrupted())
+				{
+					return;
+				}
+			}
+		}
+		while(System.nanoTime() < deadline)
+		{
+			Thread.yield();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package cern.ess.opclib.simulator;
+
+import java.util.Random;
+
+/**
+ * Produces the value of a simulated item as a function of time, so item
+ * values change on their own like a real process would.
+ */
+public abstract class ValueGenerator
+{
+	/**
+	 * @param elapsedNanos time since the simulator was created
+	 */
+	public abstract double valueAt(long elapsedNanos, Random random);
+
+	/**
+	 * @return generator producing the sum of this and the other generator
+	 */
+	public ValueGenerator plus(final ValueGenerator other)
+	{
+		final ValueGenerator self = this;
+		return new ValueGenerator()
+		{
+			@Override
+			public double valueAt(long elapsedNanos, Random random)
+			{
+				return self.valueAt(elapsedNanos, random) + other.valueAt(elapsedNanos, random);
+			}
+		};
+	}
+
+	public static ValueGenerator constant(final double value)
+	{
+		return new ValueGenerator()
+		{
+			@Override
+			public double valueAt(long elapsedNanos, Random random)
+			{
+				return value;
+			}
+		};
+	}
+
+	/**
+	 * Saw tooth from min to max repeating every periodNanos.
+	 */
+	public static ValueGenerator ramp(final double min, final double max, final long periodNanos)
+	{
+		return new ValueGenerator()
+		{
+			@Override
+			public double valueAt(long elapsedNanos, Random random)
+			{
+				double phase = (double)(elapsedNanos % periodNanos) / periodNanos;
+				return min + (max - min) * phase;
+			}
+		};
+	}
+
+	public static ValueGenerator sine(final double mean, final double amplitude, final long periodNanos)
+	{
+		return new ValueGenerator()
+		{
+			@Override
+			public double valueAt(long elapsedNanos, Random random)
+			{
+				return mean + amplitude * Math.sin(2 * Math.PI * (elapsedNanos % periodNanos) / periodNanos);
+			}
+		};
+	}
+
+	/**
+	 * Gaussian noise around a mean.
+	 */
+	public static ValueGenerator noise(final double mean, final double standardDeviation)
+	{
+		return new ValueGenerator()
+		{
+			@Override
+			public double valueAt(long elapsedNanos, Random random)
+			{
+				return mean + random.nextGaussian() * standardDeviation;
+			}
+		};
+	}
+
+	/**
+	 * Alternates between 0 and 1 every halfPeriodNanos - for boolean items.
+	 */
+	public static ValueGenerator toggle(final long halfPeriodNanos)
+	{
+		return new ValueGenerator()
+		{
+			@Override
+			public double valueAt(long elapsedNanos, Random random)
+			{
+				return (elapsedNanos / halfPeriodNanos) % 2;
+			}
+		};
+	}
+}
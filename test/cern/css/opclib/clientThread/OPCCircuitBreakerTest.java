@@ -0,0 +1,107 @@
+package cern.css.opclib.clientThread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.clientThread.OPCCircuitBreaker;
+import cern.ess.opclib.clientThread.OPCCircuitBreaker.State;
+
+
+public class OPCCircuitBreakerTest 
+{
+	private OPCCircuitBreaker testee;
+	private AtomicInteger reconnectAttempts;
+	private volatile int failingReconnects;
+	
+	@Before
+	public void setup()
+	{
+		reconnectAttempts = new AtomicInteger();
+		failingReconnects = 0;
+		testee = new OPCCircuitBreaker(3, 10, 40, new OPCCircuitBreaker.Reconnector()
+		{
+			@Override
+			public void reconnect() throws OPCException
+			{
+				if(reconnectAttempts.incrementAndGet() <= failingReconnects)
+				{
+					throw new OPCException("still down");
+				}
+			}
+		}, null);
+	}
+	
+	@After
+	public void teardown()
+	{
+		testee.shutdown();
+	}
+	
+	@Test
+	public void testOnlyConsecutiveFailuresTrip()
+	{
+		testee.recordFailure();
+		testee.recordFailure();
+		testee.recordSuccess();
+		testee.recordFailure();
+		testee.recordFailure();
+		assertEquals(State.CLOSED, testee.getState());
+		assertTrue(testee.allowRequest());
+		
+		testee.recordFailure();
+		assertEquals(State.OPEN, testee.getState());
+		assertFalse(testee.allowRequest());
+	}
+	
+	@Test
+	public void testReconnectsWithBackoffThenCloses() throws InterruptedException
+	{
+		failingReconnects = 2;
+		trip();
+		
+		waitForState(State.HALF_OPEN);
+		assertEquals(3, reconnectAttempts.get());
+		assertTrue(testee.allowRequest());
+		
+		testee.recordSuccess();
+		assertEquals(State.CLOSED, testee.getState());
+	}
+	
+	@Test
+	public void testFailureWhileHalfOpenReopens() throws InterruptedException
+	{
+		trip();
+		waitForState(State.HALF_OPEN);
+		
+		testee.recordFailure();
+		assertEquals(State.OPEN, testee.getState());
+		waitForState(State.HALF_OPEN);
+		assertEquals(2, reconnectAttempts.get());
+	}
+	
+	private void trip()
+	{
+		for(int i=0; i<3; i++)
+		{
+			testee.recordFailure();
+		}
+	}
+	
+	private void waitForState(State expected) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 2000;
+		while(testee.getState() != expected)
+		{
+			assertTrue("state ["+testee.getState()+"] not ["+expected+"]", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package cern.css.opclib.clientThread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import cern.ess.opclib.clientThread.OPCCommandRouter;
+import cern.ess.opclib.clientThread.OPCFairScheduler;
+
+public class OPCFairSchedulerTest
+{
+	private static final OPCCommandRouter.Lane LANE = OPCCommandRouter.Lane.FAST;
+	private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+	@Test
+	public void testTenantIsNotQueuedBehindAnotherTenantsBacklog() throws Exception
+	{
+		OPCFairScheduler scheduler = new OPCFairScheduler();
+		assertEquals(Arrays.asList("hog", "operator", "hog", "hog", "hog"), grantOrder(scheduler, "hog", "hog", "hog", "hog", "operator"));
+
+		assertTrue(scheduler.acquire(LANE, "hog", TIMEOUT_NANOS));
+		assertFalse(scheduler.acquire(LANE, "operator", TimeUnit.MILLISECONDS.toNanos(10)));
+		assertEquals(0, scheduler.getWaiting(LANE));
+		scheduler.release(LANE);
+		assertTrue(scheduler.acquire(LANE, "operator", 0));
+	}
+
+	@Test
+	public void testTurnsFollowTheWeights() throws Exception
+	{
+		OPCFairScheduler scheduler = new OPCFairScheduler();
+		scheduler.setWeight("heavy", 2);
+		assertEquals(Arrays.asList("light", "heavy", "heavy", "light", "heavy", "heavy", "light", "light"),
+				grantOrder(scheduler, "light", "light", "light", "light", "heavy", "heavy", "heavy", "heavy"));
+	}
+
+	/**
+	 * Queues one waiter per tenant given, in that order, behind a held slot,
+	 * then frees the slot - each waiter frees it again once let through.
+	 */
+	private static List<String> grantOrder(final OPCFairScheduler scheduler, String... tenants) throws Exception
+	{
+		assertTrue(scheduler.acquire(LANE, "test", TIMEOUT_NANOS));
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		List<Thread> waiters = new ArrayList<Thread>();
+		for(int i=0; i<tenants.length; i++)
+		{
+			final String tenant = tenants[i];
+			Thread waiter = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						if(scheduler.acquire(LANE, tenant, TIMEOUT_NANOS))
+						{
+							order.add(tenant);
+							scheduler.release(LANE);
+						}
+					}
+					catch(InterruptedException e)
+					{
+						// the order then comes up short
+					}
+				}
+			});
+			waiter.start();
+			waiters.add(waiter);
+			while(scheduler.getWaiting(LANE) < i + 1)
+			{
+				Thread.sleep(1);
+			}
+		}
+		scheduler.release(LANE);
+		for(Thread waiter : waiters)
+		{
+			waiter.join();
+		}
+		return order;
+	}
+}
@@ -0,0 +1,86 @@
+package cern.css.opclib.clientThread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.ess.opclib.clientThread.OPCSlowItemDetector;
+import cern.ess.opclib.metrics.OPCClientMetrics;
+
+
+public class OPCSlowItemDetectorTest 
+{
+	private static final long THRESHOLD_NANOS = 10000000L;
+	
+	private OPCSlowItemDetector testee;
+	private OPCClientMetrics metrics;
+	
+	@Before
+	public void setup()
+	{
+		metrics = new OPCClientMetrics();
+		testee = new OPCSlowItemDetector(THRESHOLD_NANOS, metrics);
+	}
+	
+	@Test
+	public void testUnknownItemIsFast()
+	{
+		assertFalse(testee.isSlow("dev.unknown"));
+	}
+	
+	@Test
+	public void testItemAboveThresholdBecomesSlow()
+	{
+		testee.record("dev.a", 1000000L);
+		testee.record("dev.b", 2 * THRESHOLD_NANOS);
+		
+		assertFalse(testee.isSlow("dev.a"));
+		assertTrue(testee.isSlow("dev.b"));
+		assertEquals(1, testee.getSlowItemCount());
+		assertEquals(1, metrics.getSlowItemCount());
+	}
+	
+	@Test
+	public void testSingleOutlierDoesNotMakeFastItemSlow()
+	{
+		for(int i=0; i<10; i++)
+		{
+			testee.record("dev.a", 1000000L);
+		}
+		testee.record("dev.a", 3 * THRESHOLD_NANOS);
+		
+		assertFalse(testee.isSlow("dev.a"));
+	}
+	
+	@Test
+	public void testSlowItemBecomesFastOnlyWellBelowThreshold()
+	{
+		testee.record("dev.a", 2 * THRESHOLD_NANOS);
+		
+		// average drifts down to just under the threshold - stays slow
+		for(int i=0; i<20; i++)
+		{
+			testee.record("dev.a", THRESHOLD_NANOS * 9 / 10);
+		}
+		assertTrue(testee.isSlow("dev.a"));
+		
+		for(int i=0; i<20; i++)
+		{
+			testee.record("dev.a", 1000000L);
+		}
+		assertFalse(testee.isSlow("dev.a"));
+		assertEquals(0, metrics.getSlowItemCount());
+	}
+	
+	@Test
+	public void testDisabledDetectorNeverClassifiesSlow()
+	{
+		testee = new OPCSlowItemDetector(0, metrics);
+		testee.record("dev.a", Long.MAX_VALUE / 2);
+		
+		assertFalse(testee.isSlow("dev.a"));
+	}
+}
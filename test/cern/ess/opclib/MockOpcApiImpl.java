@@ -14,18 +14,24 @@ import java.util.concurrent.TimeoutException;
 import cern.ess.opclib.OPCException;
 import cern.ess.opclib.OpcApi;
 
+/**
+ * Synchronized like the native OpcApiImpl, whose single session it stands
+ * in for.
+ */
 public class MockOpcApiImpl implements OpcApi
 {
 	private String[] localServerList;
 	private List<String> requestedItems;
 	private final Map<String, Object> opcItemValues;
 	private int initCalledCount;
+	private boolean recordRequestedItems;
 	
 	public MockOpcApiImpl()
 	{
 		requestedItems = new ArrayList<String>();
 		this.opcItemValues = new HashMap<String, Object>();
 		initCalledCount = 0;
+		recordRequestedItems = true;
 	}
 	
 	public void setLocalServerList(String[] serverList) 
@@ -33,6 +39,15 @@ public class MockOpcApiImpl implements OpcApi
 		this.localServerList = serverList;
 	}
 
+	/**
+	 * Long running users (benchmarks) switch this off so the requested
+	 * items list does not grow without bound
+	 */
+	public void setRecordRequestedItems(boolean recordRequestedItems)
+	{
+		this.recordRequestedItems = recordRequestedItems;
+	}
+
 	public List<String> getRequestedItems()
 	{
 		return requestedItems;
@@ -44,69 +59,72 @@ public class MockOpcApiImpl implements OpcApi
 	}
 
 	@Override
-	public String[] getItemNames() throws OPCException 
+	public synchronized String[] getItemNames() throws OPCException 
 	{
 		Set<String> itemNames = opcItemValues.keySet();
 		return itemNames.toArray(new String[0]);
 	}
 
 	@Override
-	public String[] getLocalServerList() throws OPCException 
+	public synchronized String[] getLocalServerList() throws OPCException 
 	{
 		return localServerList;
 	}
 
 	@Override
-	public boolean readBoolean(String item) throws OPCException 
+	public synchronized boolean readBoolean(String item) throws OPCException 
 	{
 		return ((Boolean)getRequestedItem(item)).booleanValue();				
 	}
 
 	@Override
-	public float readFloat(String item) throws OPCException 
+	public synchronized float readFloat(String item) throws OPCException 
 	{
 		return ((Float)getRequestedItem(item)).floatValue();
 	}
 
 	@Override
-	public int readInt(String item) throws OPCException 
+	public synchronized int readInt(String item) throws OPCException 
 	{
 		return ((Integer)getRequestedItem(item)).intValue();
 	}
 
 	@Override
-	public String readString(String item) throws OPCException 
+	public synchronized String readString(String item) throws OPCException 
 	{
 		return (String)getRequestedItem(item);
 	}
 
 	@Override
-	public void writeBoolean(String item, boolean val) throws OPCException 
+	public synchronized void writeBoolean(String item, boolean val) throws OPCException 
 	{
 		setRequestedItem(item, Boolean.valueOf(val));
 	}
 
 	@Override
-	public void writeFloat(String item, String type, float val) throws OPCException 
+	public synchronized void writeFloat(String item, String type, float val) throws OPCException 
 	{
 		setRequestedItem(item, Float.valueOf(val));
 	}
 
 	@Override
-	public void writeInt(String item, String type, int val) throws OPCException 
+	public synchronized void writeInt(String item, String type, int val) throws OPCException 
 	{
 		setRequestedItem(item, Integer.valueOf(val));
 	}
 
 	@Override
-	public void writeString(String item, String val) throws OPCException 
+	public synchronized void writeString(String item, String val) throws OPCException 
 	{
 		setRequestedItem(item, val);
 	}	
 	
 	private Object getRequestedItem(final String opcItemAddress) throws OPCException
 	{
-		requestedItems.add(opcItemAddress);
+		if(recordRequestedItems)
+		{
+			requestedItems.add(opcItemAddress);
+		}
 		Object value = opcItemValues.get(opcItemAddress);
 		
 		if(value == null)
@@ -128,7 +146,7 @@ public class MockOpcApiImpl implements OpcApi
 	}
 
 	@Override
-	public void init(String host, String server) throws OPCException 
+	public synchronized void init(String host, String server) throws OPCException 
 	{
 		initCalledCount++;
 	}
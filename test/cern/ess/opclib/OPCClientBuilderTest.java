@@ -0,0 +1,83 @@
+package cern.ess.opclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import cern.ess.opclib.simulator.LatencyModel;
+import cern.ess.opclib.simulator.SimulatedCall;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+import cern.ess.opclib.simulator.ValueGenerator;
+
+public class OPCClientBuilderTest 
+{
+	private OPCClient testee;
+	
+	@After
+	public void teardown() throws Exception
+	{
+		testee.stop();
+	}
+	
+	@Test
+	public void testStartReturnsBeforeSessionIsInitialisedAndItemsResolved() throws Exception
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(42);
+		simulator.setLatency(SimulatedCall.INIT, LatencyModel.fixed(TimeUnit.MILLISECONDS.toNanos(200)));
+		simulator.addItem("dev.int", OPCDataType.I4, ValueGenerator.constant(3));
+		simulator.addItem("dev.bool", OPCDataType.BOOL, ValueGenerator.constant(1));
+		OPCClientBuilder builder = new OPCClientBuilder(simulator)
+				.session("host", "server")
+				.preResolve("dev.int", OPCDataType.I4)
+				.preResolve("dev.bool", OPCDataType.BOOL)
+				.preResolve("dev.missing", OPCDataType.R4);
+		testee = builder.build();
+		
+		CompletableFuture<OPCTypedApi> ready = builder.start(testee);
+		assertFalse(ready.isDone());
+		
+		assertTrue(ready.get(5, TimeUnit.SECONDS) == testee);
+		assertEquals(1, simulator.getInitCount());
+		// init and the three reads
+		assertEquals(4, simulator.getCallCount());
+		assertEquals(3, testee.readInt("dev.int"));
+	}
+	
+	@Test
+	public void testFailedInitFailsReadiness() throws Exception
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(42);
+		simulator.setServerAvailable(false);
+		OPCClientBuilder builder = new OPCClientBuilder(simulator).session("host", "server");
+		testee = builder.build();
+		try
+		{
+			builder.start(testee).get(5, TimeUnit.SECONDS);
+			fail("expected init failure");
+		}
+		catch(ExecutionException e)
+		{
+			assertTrue(e.getCause() instanceof OPCException);
+		}
+	}
+	
+	@Test
+	public void testWithoutSessionReadyOnceStarted() throws Exception
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(42);
+		OPCClientBuilder builder = new OPCClientBuilder(simulator).slowItemThresholdMs(0);
+		testee = builder.build();
+		builder.start(testee).get(5, TimeUnit.SECONDS);
+		assertEquals(0, simulator.getCallCount());
+		testee.init("host", "server");
+		assertEquals(1, simulator.getInitCount());
+	}
+}
@@ -0,0 +1,177 @@
+package cern.ess.opclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+
+import cern.ess.opclib.clientThread.OPCCircuitBreaker;
+import cern.ess.opclib.simulator.LatencyModel;
+import cern.ess.opclib.simulator.SimulatedCall;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+import cern.ess.opclib.simulator.ValueGenerator;
+
+public class OPCClientBulkheadTest 
+{
+	private static final long SLOW_READ_NANOS = 100000000L;
+	
+	private OPCClient testee;
+	
+	/**
+	 * reads take SLOW_READ_NANOS, writes are instant
+	 */
+	private static SimulatedOpcApi createSimulator()
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(11);
+		simulator.addItem("dev1.slow", OPCDataType.I4, ValueGenerator.constant(1));
+		simulator.addItem("dev1.other", OPCDataType.I4, ValueGenerator.constant(2));
+		simulator.addItem("dev2.fast", OPCDataType.I4, ValueGenerator.constant(3));
+		simulator.setLatency(SimulatedCall.READ, LatencyModel.fixed(SLOW_READ_NANOS));
+		return simulator;
+	}
+	
+	/**
+	 * a single OpcApi shared by all sessions
+	 */
+	private void start(int maxInFlightPerGroup, long slowItemThresholdMs) throws OPCException
+	{
+		start(null, createSimulator(), maxInFlightPerGroup, slowItemThresholdMs);
+	}
+	
+	private void start(OpcApiFactory sessionFactory, OpcApi sharedSession, int maxInFlightPerGroup, long slowItemThresholdMs) throws OPCException
+	{
+		testee = new OPCClient(sessionFactory, sharedSession, OPCClient.DEFAULT_HUNG_CALL_THRESHOLD_MS, 
+				OPCCircuitBreaker.DEFAULT_FAILURE_THRESHOLD, OPCCircuitBreaker.DEFAULT_INITIAL_BACKOFF_MS, OPCCircuitBreaker.DEFAULT_MAX_BACKOFF_MS,
+				maxInFlightPerGroup, slowItemThresholdMs);
+		testee.start();
+		testee.init("host", "server");
+	}
+	
+	@After
+	public void teardown() throws Exception
+	{
+		testee.stop();
+	}
+	
+	@Test
+	public void testSlowItemMovesToSlowLaneAndStopsDelayingFastItems() throws Exception
+	{
+		start(new OpcApiFactory()
+		{
+			@Override
+			public OpcApi createOpcApi()
+			{
+				return createSimulator();
+			}
+			
+			@Override
+			public boolean createsIndependentSessions()
+			{
+				return true;
+			}
+		}, null, 0, 20);
+		assertFalse(testee.isSlowItem("dev1.slow"));
+		assertEquals(1, testee.readInt("dev1.slow"));
+		assertTrue(testee.isSlowItem("dev1.slow"));
+		assertFalse(testee.isSlowItem("dev2.fast"));
+		
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread slowCaller = startCaller(running, "dev1.slow", null);
+		try
+		{
+			long worstNanos = 0;
+			for(int i=0; i<20; i++)
+			{
+				long start = System.nanoTime();
+				testee.writeInt("dev2.fast", "VT_I4", i);
+				worstNanos = Math.max(worstNanos, System.nanoTime() - start);
+				Thread.sleep(5);
+			}
+			assertTrue("fast item waited ["+worstNanos+"ns] behind the slow one", worstNanos < SLOW_READ_NANOS / 2);
+		}
+		finally
+		{
+			running.set(false);
+			slowCaller.join();
+		}
+		assertTrue(testee.getMetrics().getSlowLaneCommandCount() > 0);
+		assertEquals(1, testee.getMetrics().getSlowItemCount());
+	}
+	
+	@Test
+	public void testSingleSessionHasNoSlowLane() throws Exception
+	{
+		start(0, 20);
+		assertEquals(1, testee.readInt("dev1.slow"));
+		assertFalse(testee.isSlowItem("dev1.slow"));
+		assertEquals(3, testee.readInt("dev2.fast"));
+		assertEquals(0, testee.getMetrics().getSlowLaneCommandCount());
+		assertEquals(0, testee.getMetrics().getSlowItemCount());
+	}
+	
+	@Test
+	public void testFullBulkheadRejectsOnlyItsOwnGroup() throws Exception
+	{
+		start(1, 0);
+		
+		final AtomicBoolean running = new AtomicBoolean(true);
+		CountDownLatch calling = new CountDownLatch(1);
+		Thread slowCaller = startCaller(running, "dev1.slow", calling);
+		try
+		{
+			calling.await();
+			Thread.sleep(SLOW_READ_NANOS / 4000000L);
+			try
+			{
+				testee.readInt("dev1.other");
+				fail("expected bulkhead rejection");
+			}
+			catch(OPCBulkheadFullException e)
+			{
+				assertTrue(e.getMessage().contains("[dev1]"));
+			}
+			testee.writeInt("dev2.fast", "VT_I4", 5);
+		}
+		finally
+		{
+			running.set(false);
+			slowCaller.join();
+		}
+		assertEquals(1, testee.getMetrics().getTotalBulkheadRejectionCount());
+		assertEquals(2, testee.readInt("dev1.other"));
+	}
+	
+	private Thread startCaller(final AtomicBoolean running, final String item, final CountDownLatch calling)
+	{
+		Thread caller = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				while(running.get())
+				{
+					if(calling != null)
+					{
+						calling.countDown();
+					}
+					try
+					{
+						testee.readInt(item);
+					}
+					catch(OPCException e)
+					{
+						// only the calls of the test thread are checked
+					}
+				}
+			}
+		});
+		caller.start();
+		return caller;
+	}
+}
@@ -0,0 +1,153 @@
+package cern.ess.opclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import cern.ess.opclib.clientThread.OPCCommandRouter;
+import cern.ess.opclib.clientThread.OPCFairScheduler;
+import cern.ess.opclib.simulator.LatencyModel;
+import cern.ess.opclib.simulator.SimulatedCall;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+import cern.ess.opclib.simulator.ValueGenerator;
+
+public class OPCClientFairSchedulingTest
+{
+	private static final long READ_NANOS = 5000000L;
+	private static final int HOG_THREADS = 4;
+
+	private OPCClient testee;
+	private OPCFairScheduler scheduler;
+
+	private void start() throws OPCException
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(5);
+		simulator.addItem("dev1.hog", OPCDataType.I4, ValueGenerator.constant(1));
+		simulator.addItem("dev2.operator", OPCDataType.I4, ValueGenerator.constant(2));
+		simulator.setLatency(SimulatedCall.READ, LatencyModel.fixed(READ_NANOS));
+
+		scheduler = new OPCFairScheduler();
+		testee = new OPCClientBuilder(simulator).maxInFlightPerGroup(0).slowItemThresholdMs(0).fairScheduling(scheduler).build();
+		testee.start();
+		testee.init("host", "server");
+	}
+
+	@After
+	public void teardown() throws Exception
+	{
+		testee.stop();
+	}
+
+	@Test
+	public void testMetricsAreKeptPerTenant() throws Exception
+	{
+		start();
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicInteger hogReads = new AtomicInteger();
+		List<Thread> hogs = new ArrayList<Thread>();
+		for(int i=0; i<HOG_THREADS; i++)
+		{
+			hogs.add(startCaller(running, "hog", "dev1.hog", hogReads));
+		}
+		OPCTenant.set("operator");
+		try
+		{
+			for(int i=0; i<10; i++)
+			{
+				assertEquals(2, testee.readInt("dev2.operator"));
+			}
+		}
+		finally
+		{
+			OPCTenant.clear();
+			running.set(false);
+			for(Thread hog : hogs)
+			{
+				hog.join();
+			}
+		}
+
+		assertEquals(10, testee.getMetrics().getTenantLatencyHistogram("operator").getCount());
+		assertEquals(10, testee.getMetrics().getTenantQueueWaitHistogram("operator").getCount());
+		assertTrue(testee.getMetrics().getTenantLatencyHistogram("hog").getCount() >= hogReads.get());
+		assertEquals(0, scheduler.getWaiting(OPCCommandRouter.Lane.FAST));
+		assertTrue(testee.getMetrics().getPrometheusText().contains("opc_tenant_latency_seconds_count{tenant=\"operator\"} 10"));
+	}
+
+	@Test
+	public void testTenantOverItsRateLimitIsRefused() throws Exception
+	{
+		start();
+		scheduler.setRateLimit("limited", 0.001, 2);
+
+		OPCTenant.set("limited");
+		try
+		{
+			assertEquals(2, testee.readInt("dev2.operator"));
+			assertEquals(2, testee.readInt("dev2.operator"));
+			try
+			{
+				testee.readInt("dev2.operator");
+				fail("expected rate limit refusal");
+			}
+			catch(OPCRateLimitExceededException e)
+			{
+				assertTrue(e.getMessage().contains("[limited]"));
+			}
+		}
+		finally
+		{
+			OPCTenant.clear();
+		}
+
+		OPCTenant.set("unlimited");
+		try
+		{
+			assertEquals(2, testee.readInt("dev2.operator"));
+		}
+		finally
+		{
+			OPCTenant.clear();
+		}
+
+		assertEquals(1, testee.getMetrics().getTenantRateLimitedCount("limited"));
+		assertEquals(0, testee.getMetrics().getTenantRateLimitedCount("unlimited"));
+		assertEquals(1, testee.getMetrics().getTotalRateLimitedCount());
+		assertTrue(testee.getMetrics().getPrometheusText().contains("opc_tenant_rate_limited_total{tenant=\"limited\"} 1"));
+	}
+
+	private Thread startCaller(final AtomicBoolean running, final String tenant, final String item, final AtomicInteger reads)
+	{
+		Thread caller = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				OPCTenant.set(tenant);
+				while(running.get())
+				{
+					try
+					{
+						testee.readInt(item);
+						reads.incrementAndGet();
+					}
+					catch(OPCException e)
+					{
+						// counted by the metrics
+					}
+				}
+			}
+		});
+		caller.start();
+		return caller;
+	}
+}
@@ -0,0 +1,120 @@
+package cern.ess.opclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.ess.opclib.jfr.OPCCommandCompletedEvent;
+import cern.ess.opclib.jfr.OPCCommandExecutedEvent;
+import cern.ess.opclib.jfr.OPCCommandQueuedEvent;
+import cern.ess.opclib.jfr.OPCCommandResponseEvent;
+
+
+public class OPCClientFlightRecorderTest 
+{
+	private OPCClient testee;
+	private MockOpcApiImpl mockOpcApi;
+	private Recording recording;
+	
+	@Before
+	public void setup() throws OPCException
+	{
+		mockOpcApi = new MockOpcApiImpl();
+		mockOpcApi.getOpcItemValues().put("opc.item.int.1", Integer.valueOf(1));
+		
+		testee = new OPCClient(mockOpcApi);
+		testee.start();
+		testee.init("host", "server");
+		
+		recording = new Recording();
+		recording.enable(OPCCommandQueuedEvent.class).withoutThreshold();
+		recording.enable(OPCCommandExecutedEvent.class).withoutThreshold();
+		recording.enable(OPCCommandResponseEvent.class).withoutThreshold();
+		recording.enable(OPCCommandCompletedEvent.class).withoutThreshold();
+	}
+	
+	@After
+	public void teardown() throws Exception
+	{
+		recording.close();
+		testee.stop();
+	}
+	
+	@Test
+	public void testLifecycleEventsRecordedForEachCommand() throws Exception
+	{
+		recording.start();
+		testee.readInt("opc.item.int.1");
+		try
+		{
+			testee.readInt("this.item.does.not.exist");
+		}
+		catch(OPCException e)
+		{
+			// expected
+		}
+		testee.stop(); // executor commits its last response event after the caller is released
+		recording.stop();
+		
+		List<RecordedEvent> events = readEvents();
+		assertEquals(2, count(events, "cern.ess.opclib.CommandQueued", null));
+		assertEquals(1, count(events, "cern.ess.opclib.CommandExecuted", "SUCCESS"));
+		assertEquals(1, count(events, "cern.ess.opclib.CommandExecuted", "ERROR"));
+		assertEquals(2, count(events, "cern.ess.opclib.CommandResponse", null));
+		assertEquals(1, count(events, "cern.ess.opclib.CommandCompleted", "SUCCESS"));
+		assertEquals(1, count(events, "cern.ess.opclib.CommandCompleted", "ERROR"));
+		
+		for(RecordedEvent event : events)
+		{
+			assertEquals("ReadIntCommand", event.getString("command"));
+			assertTrue(event.getString("itemAddress").startsWith("opc.item") || event.getString("itemAddress").startsWith("this.item"));
+		}
+	}
+	
+	private List<RecordedEvent> readEvents() throws IOException
+	{
+		File dump = File.createTempFile("opclib", ".jfr");
+		try
+		{
+			recording.dump(dump.toPath());
+			List<RecordedEvent> result = new ArrayList<RecordedEvent>();
+			for(RecordedEvent event : RecordingFile.readAllEvents(dump.toPath()))
+			{
+				if(event.getEventType().getName().startsWith("cern.ess.opclib."))
+				{
+					result.add(event);
+				}
+			}
+			return result;
+		}
+		finally
+		{
+			dump.delete();
+		}
+	}
+	
+	private static int count(List<RecordedEvent> events, String name, String outcome)
+	{
+		int result = 0;
+		for(RecordedEvent event : events)
+		{
+			if(event.getEventType().getName().equals(name) && (outcome == null || outcome.equals(event.getString("outcome"))))
+			{
+				result++;
+			}
+		}
+		return result;
+	}
+}
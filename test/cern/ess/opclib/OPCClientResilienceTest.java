@@ -0,0 +1,134 @@
+package cern.ess.opclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.ess.opclib.clientThread.OPCCircuitBreaker;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+import cern.ess.opclib.simulator.ValueGenerator;
+
+public class OPCClientResilienceTest 
+{
+	private OPCClient testee;
+	private SimulatedOpcApi simulator;
+	
+	@Before
+	public void setup() throws OPCException
+	{
+		simulator = new SimulatedOpcApi(3);
+		simulator.addItem("sim.a", OPCDataType.I4, ValueGenerator.constant(1));
+		simulator.addItem("sim.b", OPCDataType.I4, ValueGenerator.constant(2));
+		
+		testee = new OPCClient(simulator, 3, 20, 100);
+		testee.start();
+		testee.init("host", "server");
+	}
+	
+	@After
+	public void teardown() throws Exception
+	{
+		testee.stop();
+	}
+	
+	@Test
+	public void testFailsFastWhileServerUnavailableAndRecovers() throws Exception
+	{
+		simulator.setServerAvailable(false);
+		for(int i=0; i<3; i++)
+		{
+			try
+			{
+				testee.readInt("sim.a");
+				fail("expected exception");
+			}
+			catch(OPCServerUnavailableException e)
+			{
+				fail("breaker opened too early");
+			}
+			catch(OPCException e)
+			{
+				// expected - the native call failed
+			}
+		}
+		assertEquals(OPCCircuitBreaker.State.OPEN, testee.getCircuitState());
+		
+		long start = System.nanoTime();
+		try
+		{
+			testee.readInt("sim.a");
+			fail("expected exception");
+		}
+		catch(OPCServerUnavailableException e)
+		{
+			assertTrue(System.nanoTime() - start < 100000000L);
+		}
+		
+		simulator.setServerAvailable(true);
+		waitForCircuitNotOpen();
+		
+		assertEquals(1, testee.readInt("sim.a"));
+		assertEquals(OPCCircuitBreaker.State.CLOSED, testee.getCircuitState());
+		assertTrue(simulator.getInitCount() >= 2);
+		assertEquals(1, testee.getMetrics().getCircuitOpenedCount());
+		assertEquals(1, testee.getMetrics().getTotalFastFailCount());
+	}
+	
+	@Test
+	public void testItemErrorsDoNotOpenTheBreaker() throws Exception
+	{
+		for(int i=0; i<5; i++)
+		{
+			try
+			{
+				testee.readInt("sim.missing");
+				fail("expected exception");
+			}
+			catch(OPCServerUnavailableException e)
+			{
+				fail("breaker opened by item errors");
+			}
+			catch(OPCException e)
+			{
+				assertTrue(e.getMessage().contains("sim.missing"));
+			}
+		}
+		assertEquals(OPCCircuitBreaker.State.CLOSED, testee.getCircuitState());
+		assertEquals(1, simulator.getInitCount());
+	}
+	
+	@Test
+	public void testTimeoutIsReportedAsExceptionAndLateResponseIsDropped() throws Exception
+	{
+		simulator.setHangProbability(1.0, 1500000000L);
+		try
+		{
+			testee.readInt("sim.a");
+			fail("expected timeout");
+		}
+		catch(OPCTimeoutException e)
+		{
+			assertTrue(e.getMessage().contains("sim.a"));
+		}
+		simulator.setHangProbability(0.0, 0);
+		
+		// executor still busy with sim.a for a while, its response must not be taken for this one
+		assertEquals(2, testee.readInt("sim.b"));
+		assertEquals(1, testee.getMetrics().getTotalTimeoutCount());
+		assertEquals(OPCCircuitBreaker.State.CLOSED, testee.getCircuitState());
+	}
+	
+	private void waitForCircuitNotOpen() throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while(testee.getCircuitState() == OPCCircuitBreaker.State.OPEN)
+		{
+			assertTrue("circuit still open", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+}
@@ -23,6 +23,8 @@ import org.junit.Test;
 
 import cern.css.opclib.clientThread.CommandRequester;
 import cern.ess.opclib.OPCException;
+import cern.ess.opclib.clientThread.OPCCommandType;
+import cern.ess.opclib.metrics.OPCClientMetrics;
 
 
 public class OPCClientTest
@@ -277,4 +279,33 @@ public class OPCClientTest
 			assertEquals("failed to find opc item ["+invalidItemAddress+"]", e.getMessage());
 		}
 	}
+	
+	@Test
+	public void testMetricsRecordedPerCommandType() throws OPCException
+	{
+		mockOpcApi.getOpcItemValues().put("opc.item.int.1", 1);
+		
+		testee.readInt("opc.item.int.1");
+		testee.readInt("opc.item.int.1");
+		try
+		{
+			testee.readInt("this.item.does.not.exist");
+			fail("expected OPCException to be thrown");
+		}
+		catch(OPCException e)
+		{
+			// expected
+		}
+		
+		OPCClientMetrics metrics = testee.getMetrics();
+		assertEquals(2, metrics.getProcessedCount(OPCCommandType.READ_INT));
+		assertEquals(1, metrics.getErrorCount(OPCCommandType.READ_INT));
+		assertEquals(3, metrics.getNativeTimeHistogram(OPCCommandType.READ_INT).getCount());
+		assertEquals(3, metrics.getQueueWaitHistogram(OPCCommandType.READ_INT).getCount());
+		assertEquals(1, metrics.getProcessedCount(OPCCommandType.INIT));
+		assertEquals(0, metrics.getQueueDepth());
+		assertEquals("opc.item.int.1", metrics.getItemStatistics().getTopByCallCount(1).get(0).getItemAddress());
+		assertEquals(2, metrics.getItemStatistics().getTopByCallCount(1).get(0).getReads());
+		assertTrue(metrics.getPrometheusText().contains("opc_commands_processed_total{command=\"ReadIntCommand\"} 2"));
+	}
 }
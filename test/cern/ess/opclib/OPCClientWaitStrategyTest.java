@@ -0,0 +1,86 @@
+package cern.ess.opclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import cern.ess.opclib.clientThread.OPCWaitStrategy;
+
+public class OPCClientWaitStrategyTest 
+{
+	private static final OPCWaitStrategy[] STRATEGIES = {
+		OPCWaitStrategy.blocking(), OPCWaitStrategy.spinYieldPark(100, 10), OPCWaitStrategy.busySpin()
+	};
+	
+	@Test
+	public void testRoundTripsWithEveryStrategy() throws Exception
+	{
+		for(OPCWaitStrategy strategy : STRATEGIES)
+		{
+			MockOpcApiImpl mockOpcApi = new MockOpcApiImpl();
+			mockOpcApi.getOpcItemValues().put("bench.myInt", Integer.valueOf(42));
+			OPCClient testee = new OPCClient(mockOpcApi);
+			testee.setWaitStrategy(strategy);
+			testee.start();
+			try
+			{
+				testee.init("", "server");
+				for(int i=0; i<1000; i++)
+				{
+					assertEquals(strategy.toString(), 42, testee.readInt("bench.myInt"));
+				}
+			}
+			finally
+			{
+				testee.stop();
+			}
+		}
+	}
+	
+	@Test
+	public void testPollTimesOutAndTakeIsInterruptible() throws Exception
+	{
+		for(final OPCWaitStrategy strategy : STRATEGIES)
+		{
+			final SynchronousQueue<String> queue = new SynchronousQueue<String>();
+			long startNanos = System.nanoTime();
+			assertNull(strategy.poll(queue, TimeUnit.MILLISECONDS.toNanos(20)));
+			assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(20));
+			
+			final AtomicReference<Object> taken = new AtomicReference<Object>();
+			Thread waiter = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						taken.set(strategy.take(queue));
+						taken.set(strategy.take(queue));
+					}
+					catch(InterruptedException e)
+					{
+						taken.set(e);
+					}
+				}
+			};
+			waiter.start();
+			if(!queue.offer("handed over", 1, TimeUnit.SECONDS))
+			{
+				fail("not taken by "+strategy);
+			}
+			Thread.sleep(20);
+			assertEquals("handed over", taken.get());
+			waiter.interrupt();
+			waiter.join(1000);
+			assertTrue(strategy.toString(), taken.get() instanceof InterruptedException);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package cern.ess.opclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cern.ess.opclib.cache.OPCCachedValue;
+import cern.ess.opclib.cache.OPCWarmStart;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+import cern.ess.opclib.simulator.ValueGenerator;
+
+public class OPCClientWarmStartTest 
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private OPCClient testee;
+	
+	@After
+	public void teardown() throws Exception
+	{
+		testee.stop();
+	}
+	
+	@Test
+	public void testRestartedClientServesSnapshotAndRefreshesInBackground() throws Exception
+	{
+		File snapshot = new File(folder.getRoot(), "values.snapshot");
+		SimulatedOpcApi server = createServer(7);
+		testee = new OPCClient(server);
+		testee.enableWarmStart(snapshot, OPCWarmStart.DEFAULT_CHECKPOINT_INTERVAL_MS);
+		testee.start();
+		testee.init("host", "server");
+		assertEquals(2, testee.getItemNames().length);
+		assertEquals(7, testee.readInt("dev.int"));
+		assertEquals(1.5f, testee.readFloat("dev.float"), 0.0);
+		testee.stop();
+		assertTrue(snapshot.exists());
+		
+		SimulatedOpcApi restarted = createServer(8);
+		testee = new OPCClient(restarted);
+		testee.enableWarmStart(snapshot, OPCWarmStart.DEFAULT_CHECKPOINT_INTERVAL_MS);
+		OPCCachedValue value = testee.getLastKnownValue("dev.int");
+		assertEquals(Integer.valueOf(7), value.getValue());
+		assertTrue(value.isStale());
+		assertNull(testee.getLastKnownValue("dev.other"));
+		
+		testee.start();
+		testee.init("host", "server");
+		assertTrue(Arrays.asList(testee.getItemNames()).contains("dev.float"));
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		while(testee.getLastKnownValue("dev.int").isStale() && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(5);
+		}
+		value = testee.getLastKnownValue("dev.int");
+		assertFalse(value.isStale());
+		assertEquals(Integer.valueOf(8), value.getValue());
+		// init, names and the two values - the names came from the snapshot at first
+		while(restarted.getCallCount() < 4 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(5);
+		}
+		assertEquals(4, restarted.getCallCount());
+	}
+	
+	private static SimulatedOpcApi createServer(int intValue)
+	{
+		SimulatedOpcApi server = new SimulatedOpcApi(42);
+		server.addItem("dev.int", OPCDataType.I4, ValueGenerator.constant(intValue));
+		server.addItem("dev.float", OPCDataType.R4, ValueGenerator.constant(1.5));
+		return server;
+	}
+}
@@ -0,0 +1,260 @@
+package cern.ess.opclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import cern.ess.opclib.clientThread.OPCCircuitBreaker;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+import cern.ess.opclib.simulator.ValueGenerator;
+
+public class OPCClientWatchdogTest 
+{
+	private static final long HUNG_CALL_THRESHOLD_MS = 100;
+	private static final long HANG_NANOS = 3000000000L;
+	
+	private final List<SimulatedOpcApi> sessions = new ArrayList<SimulatedOpcApi>();
+	private OPCClient testee;
+	
+	@After
+	public void teardown() throws Exception
+	{
+		if(testee != null)
+		{
+			testee.stop();
+		}
+	}
+	
+	@Test
+	public void testHungCallFailsAndStandbySessionTakesOver() throws Exception
+	{
+		testee = new OPCClient(new OpcApiFactory()
+		{
+			@Override
+			public OpcApi createOpcApi()
+			{
+				SimulatedOpcApi simulator = createSimulator();
+				synchronized(sessions)
+				{
+					sessions.add(simulator);
+				}
+				return simulator;
+			}
+			
+			@Override
+			public boolean createsIndependentSessions()
+			{
+				return true;
+			}
+		}, null, HUNG_CALL_THRESHOLD_MS, OPCCircuitBreaker.DEFAULT_FAILURE_THRESHOLD, OPCCircuitBreaker.DEFAULT_INITIAL_BACKOFF_MS, OPCCircuitBreaker.DEFAULT_MAX_BACKOFF_MS, 0, 0);
+		testee.start();
+		testee.init("host", "server");
+		waitForInit(1);
+		
+		SimulatedOpcApi first;
+		SimulatedOpcApi standby;
+		synchronized(sessions)
+		{
+			first = sessions.get(0);
+			standby = sessions.get(1);
+		}
+		first.setHangProbability(1.0, HANG_NANOS);
+		
+		long start = System.nanoTime();
+		try
+		{
+			testee.readInt("sim.a");
+			fail("expected timeout");
+		}
+		catch(OPCTimeoutException e)
+		{
+			assertTrue(e.getMessage().contains("hung"));
+		}
+		assertEquals(7, testee.readInt("sim.a"));
+		assertTrue("not recovered by takeover", System.nanoTime() - start < 1000000000L);
+		
+		assertEquals(1, testee.getMetrics().getExecutorTakeoverCount());
+		assertEquals(1, standby.getInitCount());
+		assertEquals(1, standby.getCallCount() - standby.getInitCount());
+		
+		// a new standby is prepared for the next hang
+		waitForInit(2);
+	}
+	
+	@Test
+	public void testNativeSessionIsSharedNeverOnePerSession() throws Exception
+	{
+		OpcApiFactory nativeFactory = new OpcApiFactory();
+		assertSame(nativeFactory.createOpcApi(), nativeFactory.createOpcApi());
+		try
+		{
+			new OPCClient(nativeFactory);
+			fail("expected the factory of a shared session to be refused");
+		}
+		catch(IllegalArgumentException e)
+		{
+			assertTrue(e.getMessage().contains("share"));
+		}
+		// the builder's native client shares the one OpcApi instead
+		new OPCClientBuilder().build();
+	}
+	
+	@Test
+	public void testHungCallOnSingleSessionFailsFastWithoutNewThreads() throws Exception
+	{
+		HangingOpcApi session = new HangingOpcApi();
+		session.getOpcItemValues().put("sim.a", Integer.valueOf(7));
+		testee = new OPCClient(null, session, HUNG_CALL_THRESHOLD_MS, OPCCircuitBreaker.DEFAULT_FAILURE_THRESHOLD, 20, 100, 0, 0);
+		testee.start();
+		testee.init("host", "server");
+		Set<String> executors = executorThreads();
+		
+		session.hang();
+		long start = System.nanoTime();
+		try
+		{
+			testee.readInt("sim.a");
+			fail("expected timeout");
+		}
+		catch(OPCTimeoutException e)
+		{
+			assertTrue(e.getMessage().contains("hung"));
+		}
+		try
+		{
+			testee.readInt("sim.a");
+			fail("expected to fail fast");
+		}
+		catch(OPCServerUnavailableException e)
+		{
+			// the breaker is open
+		}
+		assertTrue("did not fail fast", System.nanoTime() - start < 1000000000L);
+		
+		// still hanging - no thread is started to queue up behind the call
+		Thread.sleep(5 * HUNG_CALL_THRESHOLD_MS);
+		assertEquals(OPCCircuitBreaker.State.OPEN, testee.getCircuitState());
+		assertEquals(executors, executorThreads());
+		assertEquals(0, testee.getMetrics().getExecutorTakeoverCount());
+		assertEquals(1, session.getNumberOfTimesInitWasCalled());
+		
+		// once the call returns the session is re-initialised
+		session.release();
+		long deadline = System.currentTimeMillis() + 5000;
+		while(testee.getCircuitState() == OPCCircuitBreaker.State.OPEN)
+		{
+			assertTrue("not reconnected", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		assertEquals(7, testee.readInt("sim.a"));
+		assertEquals(2, session.getNumberOfTimesInitWasCalled());
+		assertEquals(executors, executorThreads());
+	}
+	
+	@Test
+	public void testSlowCallBelowThresholdIsNotTakenOver() throws Exception
+	{
+		SimulatedOpcApi simulator = createSimulator();
+		testee = new OPCClient(null, simulator, HUNG_CALL_THRESHOLD_MS, OPCCircuitBreaker.DEFAULT_FAILURE_THRESHOLD, OPCCircuitBreaker.DEFAULT_INITIAL_BACKOFF_MS, OPCCircuitBreaker.DEFAULT_MAX_BACKOFF_MS, 0, 0);
+		testee.start();
+		testee.init("host", "server");
+		
+		simulator.setHangProbability(1.0, 20000000L);
+		assertEquals(7, testee.readInt("sim.a"));
+		Thread.sleep(2 * HUNG_CALL_THRESHOLD_MS);
+		assertEquals(0, testee.getMetrics().getExecutorTakeoverCount());
+	}
+	
+	private static SimulatedOpcApi createSimulator()
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(5);
+		simulator.addItem("sim.a", OPCDataType.I4, ValueGenerator.constant(7));
+		return simulator;
+	}
+	
+	private static Set<String> executorThreads()
+	{
+		Set<String> names = new TreeSet<String>();
+		for(Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			if(thread.isAlive() && thread.getName().startsWith("opclib-executor-"))
+			{
+				names.add(thread.getName());
+			}
+		}
+		return names;
+	}
+	
+	/**
+	 * Like the native OpcApiImpl: synchronized, and a hung call keeps the
+	 * monitor and does not return when interrupted.
+	 */
+	private static class HangingOpcApi extends MockOpcApiImpl
+	{
+		private final CountDownLatch released = new CountDownLatch(1);
+		private volatile boolean hanging;
+		
+		void hang()
+		{
+			hanging = true;
+		}
+		
+		void release()
+		{
+			hanging = false;
+			released.countDown();
+		}
+		
+		@Override
+		public synchronized int readInt(String item) throws OPCException
+		{
+			boolean interrupted = false;
+			while(hanging)
+			{
+				try
+				{
+					released.await();
+				}
+				catch(InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+			if(interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+			return super.readInt(item);
+		}
+	}
+	
+	/**
+	 * standby sessions initialise on their own thread
+	 */
+	private void waitForInit(int standbys) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while(true)
+		{
+			synchronized(sessions)
+			{
+				if(sessions.size() > standbys && sessions.get(standbys).getInitCount() == 1)
+				{
+					return;
+				}
+			}
+			assertTrue("standby not initialised", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package cern.ess.opclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cern.ess.opclib.cache.OPCWarmStart;
+import cern.ess.opclib.clientThread.OPCCommandType;
+import cern.ess.opclib.clientThread.ReadGroupCommand;
+import cern.ess.opclib.simulator.LatencyModel;
+import cern.ess.opclib.simulator.SimulatedCall;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+import cern.ess.opclib.simulator.ValueGenerator;
+
+public class OPCGroupReadTest 
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private OPCClient client;
+	
+	@After
+	public void teardown() throws Exception
+	{
+		client.stop();
+	}
+	
+	@Test
+	public void testGroupReadInBatchesIntoTypedColumns() throws Exception
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(42);
+		int items = OPCClient.GROUP_READ_BATCH_SIZE + 6;
+		for(int i=0; i<items; i++)
+		{
+			simulator.addItem("plant.pump.int"+i, OPCDataType.I4, ValueGenerator.constant(i));
+		}
+		simulator.addItem("plant.valve.open", OPCDataType.BOOL, ValueGenerator.constant(1));
+		simulator.addItem("plant.valve.position", OPCDataType.R4, ValueGenerator.constant(0.5));
+		simulator.addItem("plant.valve.name", OPCDataType.STRING, ValueGenerator.constant(3));
+		simulator.addItem("other.int", OPCDataType.I4, ValueGenerator.constant(9));
+		client = new OPCClient(simulator);
+		client.enableWarmStart(new File(folder.getRoot(), "values.snapshot"), OPCWarmStart.DEFAULT_CHECKPOINT_INTERVAL_MS);
+		client.start();
+		client.init("host", "server");
+		client.discoverItemTypes(simulator);
+		
+		OPCGroupValues pump = client.readGroup("plant.pump");
+		assertEquals(items, pump.size());
+		assertEquals(0, pump.getFailedCount());
+		assertEquals(2, client.getMetrics().getProcessedCount(OPCCommandType.READ_GROUP));
+		assertNull(pump.getBooleans());
+		for(int i=0; i<items; i++)
+		{
+			int value = Integer.parseInt(pump.getItem(i).substring("plant.pump.int".length()));
+			assertEquals(value, pump.getInt(i));
+		}
+		
+		OPCGroupValues valve = client.readMatching("plant.valve.*");
+		assertEquals(3, valve.size());
+		for(int i=0; i<valve.size(); i++)
+		{
+			assertEquals(valve.getValue(i), client.getLastKnownValue(valve.getItem(i)).getValue());
+		}
+		assertTrue(valve.getBoolean(valve.getItems().indexOf("plant.valve.open")));
+		assertEquals(0.5f, valve.getFloat(valve.getItems().indexOf("plant.valve.position")), 0.0);
+		assertEquals(OPCDataType.STRING, valve.getDataType(valve.getItems().indexOf("plant.valve.name")));
+	}
+	
+	@Test
+	public void testSingleReadsTeachTypesToGroupReadsWithoutATypeSource() throws Exception
+	{
+		MockOpcApiImpl mockOpcApi = new MockOpcApiImpl();
+		mockOpcApi.getOpcItemValues().put("plant.pump.speed", Integer.valueOf(3));
+		mockOpcApi.getOpcItemValues().put("plant.pump.flow", Float.valueOf(0.5f));
+		mockOpcApi.getOpcItemValues().put("plant.pump.name", "P1");
+		mockOpcApi.getOpcItemValues().put("plant.pump.on", Boolean.TRUE);
+		client = new OPCClient(mockOpcApi);
+		client.start();
+		client.init("host", "server");
+		
+		assertEquals(4, client.readGroup("plant.pump").getFailedCount());
+		
+		assertEquals(3, client.readInt("plant.pump.speed"));
+		assertEquals(0.5f, client.readFloat("plant.pump.flow"), 0.0);
+		assertEquals("P1", client.readString("plant.pump.name"));
+		assertTrue(client.readBoolean("plant.pump.on"));
+		
+		OPCGroupValues pump = client.readGroup("plant.pump");
+		assertEquals(0, pump.getFailedCount());
+		assertEquals(3, pump.getInt(pump.getItems().indexOf("plant.pump.speed")));
+		assertEquals(0.5f, pump.getFloat(pump.getItems().indexOf("plant.pump.flow")), 0.0);
+		assertEquals("P1", pump.getString(pump.getItems().indexOf("plant.pump.name")));
+		assertTrue(pump.getBoolean(pump.getItems().indexOf("plant.pump.on")));
+		
+		// a learnt type is a guess - it does not reject the other reads
+		mockOpcApi.getOpcItemValues().put("plant.pump.speed", "fast");
+		assertEquals("fast", client.readString("plant.pump.speed"));
+	}
+	
+	@Test
+	public void testFailedItemsDoNotFailTheGroup() throws Exception
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(42);
+		simulator.addItem("dev.known", OPCDataType.I4, ValueGenerator.constant(4));
+		simulator.addItem("dev.unknown", OPCDataType.I4, ValueGenerator.constant(5));
+		client = new OPCClient(simulator);
+		client.start();
+		client.init("host", "server");
+		client.getItemCatalog().register("dev.known", OPCDataType.I4);
+		
+		OPCGroupValues values = client.readGroup("dev");
+		assertEquals(2, values.size());
+		assertEquals(1, values.getFailedCount());
+		int known = values.getItems().indexOf("dev.known");
+		assertFalse(values.isFailed(known));
+		assertEquals(4, values.getInt(known));
+		assertTrue(values.getError(1 - known).getMessage().contains("not in the item catalog"));
+		assertNull(values.getValue(1 - known));
+		
+		client.getItemCatalog().register("other.missing", OPCDataType.BOOL);
+		assertEquals(0, client.readGroup("other").size());
+	}
+	
+	@Test
+	public void testSlowBatchIsSplitByTime() throws Exception
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(42);
+		for(int i=0; i<5; i++)
+		{
+			simulator.addItem("dev.slow"+i, OPCDataType.I4, ValueGenerator.constant(i));
+		}
+		client = new OPCClient(simulator);
+		client.start();
+		client.init("host", "server");
+		client.discoverItemTypes(simulator);
+		simulator.setLatency(SimulatedCall.READ, LatencyModel.fixed(ReadGroupCommand.MAX_BATCH_MS * 1000000L / 2));
+		
+		OPCGroupValues values = client.readGroup("dev");
+		assertEquals(0, values.getFailedCount());
+		for(int i=0; i<values.size(); i++)
+		{
+			assertEquals(Integer.parseInt(values.getItem(i).substring("dev.slow".length())), values.getInt(i));
+		}
+		// two items fit a batch's time, not three
+		assertEquals(3, client.getMetrics().getProcessedCount(OPCCommandType.READ_GROUP));
+	}
+}
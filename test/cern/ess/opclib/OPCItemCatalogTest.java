@@ -0,0 +1,110 @@
+package cern.ess.opclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+import cern.ess.opclib.clientThread.OPCCommandType;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+import cern.ess.opclib.simulator.ValueGenerator;
+
+public class OPCItemCatalogTest 
+{
+	private OPCClient client;
+	
+	@After
+	public void teardown() throws Exception
+	{
+		if(client != null)
+		{
+			client.stop();
+		}
+	}
+	
+	@Test
+	public void testRegisteredTypesAndIndexes()
+	{
+		OPCItemCatalog testee = new OPCItemCatalog();
+		for(int i=0; i<200; i++)
+		{
+			assertEquals(i, testee.register("dev.item"+i, i % 2 == 0 ? OPCDataType.I4 : OPCDataType.STRING));
+		}
+		assertEquals(200, testee.size());
+		assertEquals(OPCDataType.STRING, testee.getDataType("dev.item199"));
+		assertEquals("dev.item150", testee.getItem(testee.indexOf("dev.item150")));
+		assertNull(testee.getDataType("dev.other"));
+		assertEquals(-1, testee.indexOf("dev.other"));
+		
+		// a known type is kept
+		testee.register("dev.item0", OPCDataType.BOOL);
+		assertEquals(OPCDataType.I4, testee.getDataType("dev.item0"));
+		
+		testee.learn("dev.learnt", "R8");
+		assertEquals(OPCDataType.R8, testee.getDataType("dev.learnt"));
+		testee.learn("dev.unknown", "XX");
+		assertNull(testee.getDataType("dev.unknown"));
+		
+		// a learnt type gives way to a registered one, never the other way round
+		testee.learn("dev.item1", "R4");
+		assertEquals(OPCDataType.STRING, testee.getDataType("dev.item1"));
+		testee.register("dev.learnt", OPCDataType.R4);
+		assertEquals(OPCDataType.R4, testee.getDataType("dev.learnt"));
+		
+		assertTrue(testee.accepts("dev.item0", OPCCommandType.READ_FLOAT));
+		assertFalse(testee.accepts("dev.item1", OPCCommandType.READ_FLOAT));
+		assertTrue(testee.accepts("dev.unknown", OPCCommandType.READ_FLOAT));
+	}
+	
+	@Test
+	public void testClientRejectsMismatchBeforeQueuingAndPicksWireType() throws Exception
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(42);
+		simulator.addItem("dev.float", OPCDataType.R4, ValueGenerator.constant(1));
+		simulator.addItem("dev.string", OPCDataType.STRING, ValueGenerator.constant(2));
+		client = new OPCClient(simulator);
+		client.start();
+		client.init("host", "server");
+		assertEquals(2, client.discoverItemTypes(simulator));
+		
+		long calls = simulator.getCallCount();
+		try
+		{
+			client.readFloat("dev.string");
+			fail("expected type mismatch");
+		}
+		catch(OPCException e)
+		{
+			assertTrue(e.getMessage().startsWith("type mismatch"));
+		}
+		assertEquals(calls, simulator.getCallCount());
+		
+		client.writeFloat("dev.float", 2.5f);
+		assertEquals(2.5f, client.readFloat("dev.float"), 0.0);
+		
+		try
+		{
+			client.writeInt("dev.other", 1);
+			fail("expected unknown type");
+		}
+		catch(OPCException e)
+		{
+			assertTrue(e.getMessage().contains("not in the item catalog"));
+		}
+		
+		// only a write that succeeded teaches the catalog its wire type
+		try
+		{
+			client.writeInt("dev.other", "I4", 1);
+			fail("expected unknown item");
+		}
+		catch(OPCException e)
+		{
+			assertNull(client.getItemCatalog().getDataType("dev.other"));
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package cern.ess.opclib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OPCValueCodecTest 
+{
+	private static final String UNICODE = "café € 😀";
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testRecordsRoundTripInHeapAndDirectBuffers()
+	{
+		verifyRoundTrip(ByteBuffer.allocate(1024));
+		verifyRoundTrip(ByteBuffer.allocateDirect(1024).order(ByteOrder.LITTLE_ENDIAN));
+	}
+	
+	@Test
+	public void testRecordsInMappedFile() throws Exception
+	{
+		File file = new File(folder.getRoot(), "values");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 4096);
+			OPCValueCodec codec = new OPCValueCodec().wrap(buffer, 0);
+			for(int i=0; i<100; i++)
+			{
+				codec.putInt(i, 1000L + i, OPCValueCodec.QUALITY_GOOD, i * i);
+				codec.next();
+			}
+			buffer.force();
+		}
+		finally
+		{
+			raf.close();
+		}
+		
+		raf = new RandomAccessFile(file, "r");
+		try
+		{
+			OPCValueCodec codec = new OPCValueCodec().wrap(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, 4096), 0);
+			for(int i=0; i<100; i++)
+			{
+				assertEquals(i, codec.getHandle());
+				assertEquals(OPCValueType.INT, codec.getType());
+				assertEquals(1000L + i, codec.getTimestampMillis());
+				assertEquals(i * i, codec.getInt());
+				codec.next();
+			}
+			assertEquals(100 * OPCValueCodec.SCALAR_RECORD_BYTES, codec.getOffset());
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+	
+	private void verifyRoundTrip(ByteBuffer buffer)
+	{
+		OPCValueCodec codec = new OPCValueCodec().wrap(buffer, 8);
+		int offset = 8;
+		offset += codec.putBoolean(1, 10L, OPCValueCodec.QUALITY_GOOD, true);
+		offset += codec.wrap(buffer, offset).putFloat(2, 20L, OPCValueCodec.QUALITY_UNCERTAIN, 1.5f);
+		offset += codec.wrap(buffer, offset).putString(3, 30L, OPCValueCodec.QUALITY_BAD, UNICODE);
+		offset += codec.wrap(buffer, offset).putValue(4, 40L, OPCValueCodec.QUALITY_GOOD, "");
+		offset += codec.wrap(buffer, offset).putValue(5, 50L, OPCValueCodec.QUALITY_GOOD, Integer.valueOf(-7));
+		assertEquals(0, buffer.position());
+		
+		codec.wrap(buffer, 8);
+		assertEquals(1, codec.getHandle());
+		assertTrue(codec.getBoolean());
+		assertTrue(codec.isGood());
+		assertEquals(1.5f, codec.next().getFloat(), 0.0);
+		assertEquals(OPCValueCodec.QUALITY_UNCERTAIN, codec.getQuality());
+		assertFalse(codec.isGood());
+		
+		codec.next();
+		assertEquals(OPCValueType.STRING, codec.getType());
+		assertEquals(30L, codec.getTimestampMillis());
+		assertEquals(UNICODE, codec.getString());
+		assertEquals(UNICODE.getBytes(StandardCharsets.UTF_8).length, codec.getPayloadLength());
+		assertEquals(OPCValueCodec.stringRecordBytes(UNICODE), codec.getRecordBytes());
+		assertEquals(0, codec.getRecordBytes() % 8);
+		assertTrue(codec.stringEquals(UNICODE));
+		assertFalse(codec.stringEquals("café € 😁"));
+		assertFalse(codec.stringEquals("caf"));
+		
+		assertEquals("", codec.next().getString());
+		assertEquals(4, codec.getHandle());
+		assertEquals(-7, codec.next().getInt());
+		assertEquals(offset, codec.getNextOffset());
+	}
+}
@@ -0,0 +1,119 @@
+package cern.ess.opclib.aggregation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cern.ess.opclib.historian.Historian;
+
+public class WindowAggregatorTest 
+{
+	private static final long T0 = 1700000000000L;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private final List<String> closed = new ArrayList<String>();
+	
+	private final AggregateListener listener = new AggregateListener()
+	{
+		@Override
+		public void windowClosed(int item, long windowStartMillis, long windowEndMillis, long count, double min, double max, double mean)
+		{
+			closed.add(item+" "+(windowStartMillis-T0)+"-"+(windowEndMillis-T0)+" count "+count+" min "+min+" max "+max+" mean "+mean);
+		}
+	};
+	
+	@Test
+	public void testTumblingWindowsCloseOnLaterSample()
+	{
+		WindowAggregator testee = WindowAggregator.tumbling(1000, listener);
+		testee.add(1, T0 + 100, 1.0);
+		testee.add(1, T0 + 900, 3.0);
+		testee.add(1, T0 + 999, 2.0);
+		assertEquals(0, closed.size());
+		
+		testee.add(1, T0 + 1000, 10.0);
+		assertEquals(1, closed.size());
+		assertEquals("1 0-1000 count 3 min 1.0 max 3.0 mean 2.0", closed.get(0));
+		
+		// nothing emitted for the empty window in between
+		testee.add(1, T0 + 3500, 4.0);
+		assertEquals(2, closed.size());
+		assertEquals("1 1000-2000 count 1 min 10.0 max 10.0 mean 10.0", closed.get(1));
+	}
+	
+	@Test
+	public void testQuietItemClosedByOtherItemsSamples()
+	{
+		WindowAggregator testee = WindowAggregator.tumbling(1000, listener);
+		testee.add(1, T0 + 100, 5.0);
+		testee.add(2, T0 + 200, 6.0);
+		testee.add(2, T0 + 1200, 7.0);
+		assertEquals(2, closed.size());
+		assertEquals("1 0-1000 count 1 min 5.0 max 5.0 mean 5.0", closed.get(0));
+		assertEquals("2 0-1000 count 1 min 6.0 max 6.0 mean 6.0", closed.get(1));
+		
+		// window already emitted
+		testee.add(1, T0 + 999, 1.0);
+		assertEquals(1, testee.getLateCount());
+		
+		testee.advanceTo(T0 + 2000);
+		assertEquals(3, closed.size());
+		assertEquals("2 1000-2000 count 1 min 7.0 max 7.0 mean 7.0", closed.get(2));
+	}
+	
+	@Test
+	public void testSlidingWindowsCombinePanes()
+	{
+		WindowAggregator testee = WindowAggregator.sliding(3000, 1000, listener);
+		testee.add(0, T0 + 500, 1.0);
+		testee.add(0, T0 + 1500, 2.0);
+		testee.add(0, T0 + 2500, 3.0);
+		testee.add(0, T0 + 3500, 4.0);
+		assertEquals(3, closed.size());
+		assertEquals("0 -2000-1000 count 1 min 1.0 max 1.0 mean 1.0", closed.get(0));
+		assertEquals("0 -1000-2000 count 2 min 1.0 max 2.0 mean 1.5", closed.get(1));
+		assertEquals("0 0-3000 count 3 min 1.0 max 3.0 mean 2.0", closed.get(2));
+		
+		// the last sample keeps contributing until it has slid out
+		testee.advanceTo(T0 + 10000);
+		assertEquals(6, closed.size());
+		assertEquals("0 1000-4000 count 3 min 2.0 max 4.0 mean 3.0", closed.get(3));
+		assertEquals("0 3000-6000 count 1 min 4.0 max 4.0 mean 4.0", closed.get(5));
+	}
+	
+	@Test
+	public void testGrowsForHighHandles()
+	{
+		WindowAggregator testee = WindowAggregator.tumbling(1000, listener);
+		testee.add(5000, T0, 1.0);
+		testee.add(5000, T0 + 1000, 1.0);
+		assertEquals("5000 0-1000 count 1 min 1.0 max 1.0 mean 1.0", closed.get(0));
+	}
+	
+	@Test
+	public void testAggregatesWhatHistorianRecords() throws Exception
+	{
+		Historian historian = new Historian(folder.getRoot());
+		WindowAggregator testee = WindowAggregator.tumbling(1000, listener);
+		historian.addListener(testee);
+		historian.start();
+		for(int i=0; i<20; i++)
+		{
+			historian.record("dev.int", T0 + i*100, Integer.valueOf(i));
+			historian.record("dev.string", T0 + i*100, "ignored");
+		}
+		historian.record("dev.bool", T0 + 2000, Boolean.TRUE);
+		historian.close();
+		
+		assertEquals(2, closed.size());
+		assertEquals("1 0-1000 count 10 min 0.0 max 9.0 mean 4.5", closed.get(0));
+		assertEquals("1 1000-2000 count 10 min 10.0 max 19.0 mean 14.5", closed.get(1));
+	}
+}
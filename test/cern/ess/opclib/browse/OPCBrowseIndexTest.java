@@ -0,0 +1,109 @@
+package cern.ess.opclib.browse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import cern.ess.opclib.OPCClientBuilder;
+import cern.ess.opclib.OPCTypedApi;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+
+public class OPCBrowseIndexTest 
+{
+	private static final String[] NAMES = {
+		"testGroup.myBool", "plant.b.x", "plant.a", "testGroup.myInt", "plant.a.level", 
+		"plant.a-b", "plant.a.temp.max", "plant.a.temp", "testGroup.myBool", "top"
+	};
+	
+	@Test
+	public void testChildrenAndItemsUnderAreInSegmentOrder()
+	{
+		OPCBrowseIndex testee = OPCBrowseIndex.build(NAMES);
+		
+		// the duplicate is dropped, '.' sorts before '-'
+		assertEquals(Arrays.asList("plant.a", "plant.a.level", "plant.a.temp", "plant.a.temp.max", "plant.a-b", 
+				"plant.b.x", "testGroup.myBool", "testGroup.myInt", "top"), testee.getItemNames());
+		assertEquals(Arrays.asList("plant", "testGroup", "top"), testee.children(""));
+		assertEquals(Arrays.asList("a", "a-b", "b"), testee.children("plant"));
+		assertEquals(Arrays.asList("level", "temp"), testee.children("plant.a"));
+		assertTrue(testee.children("plant.b.x").isEmpty());
+		assertTrue(testee.children("nowhere.else").isEmpty());
+		
+		assertEquals(Arrays.asList("plant.a", "plant.a.level", "plant.a.temp", "plant.a.temp.max"), testee.itemsUnder("plant.a"));
+		assertEquals(Arrays.asList("testGroup.myBool", "testGroup.myInt"), testee.itemsUnder("testGroup"));
+		assertEquals(9, testee.itemsUnder("").size());
+		assertTrue(testee.itemsUnder("plant.c").isEmpty());
+	}
+	
+	@Test
+	public void testWildcardsMatchEachItemOnceInIndexOrder()
+	{
+		OPCBrowseIndex testee = OPCBrowseIndex.build(NAMES);
+		
+		assertEquals(Arrays.asList("testGroup.myBool", "testGroup.myInt"), testee.match("testGroup.my*"));
+		assertEquals(Arrays.asList("plant.a"), testee.match("plant.?"));
+		assertEquals(Arrays.asList("plant.a.level", "plant.a.temp", "plant.b.x"), testee.match("plant.?.*"));
+		assertEquals(Arrays.asList("plant.b.x"), testee.match("plant.?.x"));
+		assertEquals(Arrays.asList("plant.a.temp", "plant.a.temp.max"), testee.match("**.temp.**"));
+		assertEquals(Arrays.asList("plant.a.temp.max"), testee.match("plant.**.max"));
+		assertEquals(testee.getItemNames(), testee.match("**"));
+		assertEquals(Arrays.asList("top"), testee.match("top"));
+		assertTrue(testee.match("plant.z*").isEmpty());
+		
+		// pages of a query add up to the whole of it
+		List<String> pages = new ArrayList<String>();
+		for(int offset=0; ; offset+=2)
+		{
+			List<String> page = testee.match("**", offset, 2);
+			if(page.isEmpty())
+			{
+				break;
+			}
+			pages.addAll(page);
+		}
+		assertEquals(testee.getItemNames(), pages);
+		
+		// streaming stops when the visitor says so
+		final List<String> streamed = new ArrayList<String>();
+		testee.match("plant.**", new OPCItemVisitor()
+		{
+			@Override
+			public boolean visit(String item, int index)
+			{
+				streamed.add(item);
+				return streamed.size() < 3;
+			}
+		});
+		assertEquals(Arrays.asList("plant.a", "plant.a.level", "plant.a.temp"), streamed);
+	}
+	
+	@Test
+	public void testClientSharesIndexUntilRefreshed() throws Exception
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(42);
+		simulator.generateTagSpace(3, 4);
+		OPCTypedApi client = new OPCClientBuilder(simulator).start().get();
+		try
+		{
+			client.init("host", "server");
+			OPCBrowseIndex index = client.getBrowseIndex();
+			assertEquals(12, index.size());
+			assertEquals(Arrays.asList("simGroup0", "simGroup1", "simGroup2"), index.children(""));
+			assertSame(index, client.getBrowseIndex());
+			
+			OPCBrowseIndex refreshed = client.refreshBrowseIndex();
+			assertEquals(index.getItemNames(), refreshed.getItemNames());
+			assertSame(refreshed, client.getBrowseIndex());
+		}
+		finally
+		{
+			client.stop();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package cern.ess.opclib.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OPCSnapshotTest 
+{
+	private static final long T0 = 1700000000000L;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testValuesAndItemNamesSurviveAsStale() throws Exception
+	{
+		OPCValueCache cache = new OPCValueCache();
+		cache.setItemNames(new String[] {"dev.bool", "dev.int", "dev.float", "dev.string"}, false);
+		cache.update("dev.bool", Boolean.TRUE, T0);
+		cache.update("dev.int", Integer.valueOf(-7), T0+1);
+		cache.update("dev.float", Float.valueOf(2.5f), T0+2);
+		cache.update("dev.string", "héllo", T0+3);
+		File file = new File(folder.getRoot(), "values.snapshot");
+		assertEquals(4, OPCSnapshot.write(file, cache));
+		
+		OPCValueCache loaded = new OPCValueCache();
+		assertEquals(4, OPCSnapshot.load(file, loaded));
+		assertArrayEquals(cache.getItemNames(), loaded.getItemNames());
+		assertTrue(loaded.isItemNamesStale());
+		assertEquals(Integer.valueOf(-7), loaded.get("dev.int").getValue());
+		assertEquals(T0+1, loaded.get("dev.int").getTimestampMillis());
+		assertEquals(Float.valueOf(2.5f), loaded.get("dev.float").getValue());
+		assertEquals("héllo", loaded.get("dev.string").getValue());
+		assertEquals(Boolean.TRUE, loaded.get("dev.bool").getValue());
+		assertTrue(loaded.get("dev.bool").isStale());
+		assertEquals(4, loaded.getStaleValues().size());
+	}
+	
+	@Test
+	public void testLoadDoesNotReplaceValueReadMeanwhile() throws Exception
+	{
+		OPCValueCache cache = new OPCValueCache();
+		cache.update("dev.int", Integer.valueOf(1), T0);
+		File file = new File(folder.getRoot(), "values.snapshot");
+		OPCSnapshot.write(file, cache);
+		
+		OPCValueCache loaded = new OPCValueCache();
+		loaded.update("dev.int", Integer.valueOf(2), T0+1);
+		OPCSnapshot.load(file, loaded);
+		assertEquals(Integer.valueOf(2), loaded.get("dev.int").getValue());
+		assertFalse(loaded.get("dev.int").isStale());
+		assertTrue(loaded.getStaleValues().isEmpty());
+	}
+	
+	@Test
+	public void testCheckpointsReplaceALoadedSnapshot() throws Exception
+	{
+		OPCValueCache cache = new OPCValueCache();
+		cache.update("dev.int", Integer.valueOf(1), T0);
+		cache.update("dev.string", "a longer value than the next one", T0);
+		File file = new File(folder.getRoot(), "values.snapshot");
+		OPCSnapshot.write(file, cache);
+		OPCValueCache loaded = new OPCValueCache();
+		OPCSnapshot.load(file, loaded);
+		
+		// a leftover temporary file larger than the next snapshot
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temporary);
+		out.write(new byte[4096]);
+		out.close();
+		OPCValueCache next = new OPCValueCache();
+		next.update("dev.int", Integer.valueOf(2), T0+1);
+		assertEquals(1, OPCSnapshot.write(file, next));
+		assertFalse(temporary.exists());
+		
+		OPCValueCache reloaded = new OPCValueCache();
+		assertEquals(1, OPCSnapshot.load(file, reloaded));
+		assertEquals(Integer.valueOf(2), reloaded.get("dev.int").getValue());
+		assertTrue(file.length() < 4096);
+	}
+	
+	@Test
+	public void testRejectsOtherFiles() throws Exception
+	{
+		File file = new File(folder.getRoot(), "values.snapshot");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+		out.close();
+		try
+		{
+			OPCSnapshot.load(file, new OPCValueCache());
+			fail("expected not a snapshot");
+		}
+		catch(IOException e)
+		{
+			assertTrue(e.getMessage().startsWith("not a value snapshot"));
+		}
+	}
+}
@@ -0,0 +1,371 @@
+package cern.ess.opclib.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.ess.opclib.OPCClientBuilder;
+import cern.ess.opclib.OPCDataType;
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.OPCGroupValues;
+import cern.ess.opclib.OPCTypedApi;
+import cern.ess.opclib.clientThread.OPCFairScheduler;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+import cern.ess.opclib.simulator.ValueGenerator;
+
+public class OPCGatewayTest 
+{
+	private SimulatedOpcApi simulator;
+	private OPCTypedApi client;
+	private OPCGateway gateway;
+	private List<OPCGatewayClient> remotes = new ArrayList<OPCGatewayClient>();
+	
+	@Before
+	public void setup() throws Exception
+	{
+		simulator = new SimulatedOpcApi(42);
+		simulator.addItem("dev.bool", OPCDataType.BOOL, ValueGenerator.constant(1));
+		simulator.addItem("dev.int", OPCDataType.I4, ValueGenerator.constant(7));
+		simulator.addItem("dev.float", OPCDataType.R4, ValueGenerator.constant(1.5));
+		simulator.addItem("dev.string", OPCDataType.STRING, ValueGenerator.constant(3));
+		client = new OPCClientBuilder(simulator).session("host", "server").itemTypes(simulator).start().get();
+		gateway = new OPCGateway(client, 4, 64, 20);
+		gateway.start(0);
+	}
+	
+	@After
+	public void teardown() throws Exception
+	{
+		for(OPCGatewayClient remote : remotes)
+		{
+			remote.close();
+		}
+		gateway.stop();
+		client.stop();
+	}
+	
+	private OPCGatewayClient connect() throws Exception
+	{
+		OPCGatewayClient remote = new OPCGatewayClient(gateway.getPort());
+		remotes.add(remote);
+		return remote;
+	}
+	
+	@Test
+	public void testReadsWritesAndGroupsThroughGateway() throws Exception
+	{
+		OPCGatewayClient remote = connect();
+		remote.init("ignored", "ignored");
+		assertEquals(4, remote.getItemNames().length);
+		assertTrue(remote.readBoolean("dev.bool"));
+		assertEquals(7, remote.readInt("dev.int"));
+		assertEquals(1.5f, remote.readFloat("dev.float"), 0.0);
+		
+		remote.writeInt("dev.int", "I4", 12);
+		remote.writeString("dev.string", "written");
+		assertEquals(12, remote.readInt("dev.int"));
+		assertEquals("written", remote.readString("dev.string"));
+		
+		OPCGroupValues values = remote.readGroup("dev");
+		assertEquals(4, values.size());
+		assertEquals(0, values.getFailedCount());
+		assertEquals(12, values.getInt(values.getItems().indexOf("dev.int")));
+		assertEquals("written", values.getString(values.getItems().indexOf("dev.string")));
+		assertEquals(1, remote.readMatching("dev.fl*").size());
+		
+		try
+		{
+			remote.readInt("dev.missing");
+			fail("expected the error of the gateway's client");
+		}
+		catch(OPCException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().length() > 0);
+		}
+		// the connection is still usable
+		assertEquals(12, remote.readInt("dev.int"));
+	}
+	
+	@Test
+	public void testConnectionsShareCacheAndExecutor() throws Exception
+	{
+		final OPCGatewayClient first = connect();
+		OPCGatewayClient second = connect();
+		first.setMaxAgeMs(60000);
+		second.setMaxAgeMs(60000);
+		
+		assertEquals(7, first.readInt("dev.int"));
+		long calls = simulator.getCallCount();
+		assertEquals(7, second.readInt("dev.int"));
+		assertEquals(calls, simulator.getCallCount());
+		assertEquals(2, gateway.getConnectionCount());
+		
+		// many threads on one connection
+		ExecutorService callers = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Future<Float>> results = new ArrayList<Future<Float>>();
+			for(int i=0; i<200; i++)
+			{
+				results.add(callers.submit(new Callable<Float>()
+				{
+					@Override
+					public Float call() throws Exception
+					{
+						return Float.valueOf(first.readFloat("dev.float"));
+					}
+				}));
+			}
+			for(Future<Float> result : results)
+			{
+				assertEquals(1.5f, result.get().floatValue(), 0.0);
+			}
+		}
+		finally
+		{
+			callers.shutdown();
+		}
+	}
+	
+	@Test
+	public void testOneScanFeedsAllSubscribers() throws Exception
+	{
+		OPCGatewayClient first = connect();
+		OPCGatewayClient second = connect();
+		final BlockingQueue<OPCGroupValues> firstUpdates = new LinkedBlockingQueue<OPCGroupValues>();
+		final BlockingQueue<OPCGroupValues> secondUpdates = new LinkedBlockingQueue<OPCGroupValues>();
+		first.setSubscriptionListener(new OPCSubscriptionListener()
+		{
+			@Override
+			public void updated(OPCGroupValues values)
+			{
+				firstUpdates.add(values);
+			}
+		});
+		second.setSubscriptionListener(new OPCSubscriptionListener()
+		{
+			@Override
+			public void updated(OPCGroupValues values)
+			{
+				secondUpdates.add(values);
+			}
+		});
+		first.subscribe("dev.int", "dev.string");
+		second.subscribe("dev.int");
+		
+		// current values first, both items of a scan in one frame
+		OPCGroupValues initial = firstUpdates.poll(5, TimeUnit.SECONDS);
+		while(initial.size() < 2)
+		{
+			initial = firstUpdates.poll(5, TimeUnit.SECONDS);
+		}
+		assertEquals(7, initial.getInt(initial.getItems().indexOf("dev.int")));
+		assertEquals(7, secondUpdates.poll(5, TimeUnit.SECONDS).getInt(0));
+		assertEquals(2, gateway.getSubscribedItems().size());
+		
+		// unchanged values are not pushed, each scan reads the items once
+		long scans = gateway.getScanCount();
+		long calls = simulator.getCallCount();
+		while(gateway.getScanCount() < scans + 3)
+		{
+			Thread.sleep(5);
+		}
+		assertTrue(firstUpdates.isEmpty());
+		long scanned = gateway.getScanCount() - scans;
+		assertTrue(simulator.getCallCount() - calls <= 2 * (scanned + 1));
+		
+		client.writeInt("dev.int", 8);
+		OPCGroupValues changed = secondUpdates.poll(5, TimeUnit.SECONDS);
+		assertEquals("dev.int", changed.getItem(0));
+		assertEquals(8, changed.getInt(0));
+		changed = firstUpdates.poll(5, TimeUnit.SECONDS);
+		assertEquals(1, changed.size());
+		assertEquals(8, changed.getInt(0));
+		
+		second.close();
+		first.unsubscribe("dev.int");
+		long deadline = System.currentTimeMillis() + 5000;
+		while(gateway.getSubscribedItems().size() > 1 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(5);
+		}
+		assertEquals(Collections.singleton("dev.string"), gateway.getSubscribedItems());
+	}
+	
+	@Test
+	public void testSubscriberIsPushedTheFailureOfAnItemThatCannotBeRead() throws Exception
+	{
+		OPCGatewayClient remote = connect();
+		final BlockingQueue<OPCGroupValues> updates = new LinkedBlockingQueue<OPCGroupValues>();
+		remote.setSubscriptionListener(new OPCSubscriptionListener()
+		{
+			@Override
+			public void updated(OPCGroupValues values)
+			{
+				updates.add(values);
+			}
+		});
+		remote.subscribe("dev.missing");
+		
+		OPCGroupValues failed = updates.poll(5, TimeUnit.SECONDS);
+		assertEquals("dev.missing", failed.getItem(0));
+		assertTrue(failed.isFailed(0));
+		assertTrue(failed.getError(0).getMessage().length() > 0);
+		
+		// the same failure is not pushed again every scan
+		long scans = gateway.getScanCount();
+		while(gateway.getScanCount() < scans + 3)
+		{
+			Thread.sleep(5);
+		}
+		assertTrue(updates.isEmpty());
+	}
+	
+	@Test
+	public void testStopClosesConnections() throws Exception
+	{
+		OPCGatewayClient remote = connect();
+		assertEquals(7, remote.readInt("dev.int"));
+		assertEquals(1, gateway.getConnectionCount());
+		
+		gateway.stop();
+		long start = System.nanoTime();
+		try
+		{
+			remote.readInt("dev.int");
+			fail("expected the closed connection to fail the read");
+		}
+		catch(OPCException e)
+		{
+			// closed, lost or failed to send - whichever the client noticed first
+		}
+		assertTrue("did not fail fast", System.nanoTime() - start < 1000000000L);
+		assertEquals(0, gateway.getConnectionCount());
+	}
+	
+	@Test
+	public void testConnectionsAreScheduledForTheTenantTheyNamed() throws Exception
+	{
+		OPCFairScheduler scheduler = new OPCFairScheduler();
+		scheduler.setRateLimit(OPCGateway.DEFAULT_TENANT+"-archiver", 0.001, 1);
+		OPCTypedApi fairClient = new OPCClientBuilder(simulator).session("host", "server").itemTypes(simulator).fairScheduling(scheduler).start().get();
+		OPCGateway fair = new OPCGateway(fairClient, 4, 64, 20);
+		fair.start(0);
+		OPCGatewayClient archiver = new OPCGatewayClient(fair.getPort());
+		OPCGatewayClient unnamed = new OPCGatewayClient(fair.getPort());
+		try
+		{
+			archiver.setTenant("archiver");
+			assertEquals(7, archiver.readInt("dev.int"));
+			try
+			{
+				archiver.readInt("dev.int");
+				fail("expected rate limit refusal");
+			}
+			catch(OPCException e)
+			{
+				assertTrue(e.getMessage(), e.getMessage().contains("[gateway-archiver]"));
+			}
+			// a connection of its own does not make a tenant of its own
+			for(int i=0; i<3; i++)
+			{
+				assertEquals(7, unnamed.readInt("dev.int"));
+			}
+		}
+		finally
+		{
+			archiver.close();
+			unnamed.close();
+			fair.stop();
+			fairClient.stop();
+		}
+	}
+	
+	@Test
+	public void testConnectionNotTakingItsResponsesIsNotRead() throws Exception
+	{
+		// large responses - the item names
+		for(int i=0; i<2000; i++)
+		{
+			simulator.addItem("dev.padding.item.with.a.rather.long.name.to.fill.the.response."+i, OPCDataType.I4, ValueGenerator.constant(i));
+		}
+		final int requests = 300;
+		OPCGateway bounded = new OPCGateway(client, 4, requests, 20, 256 * 1024);
+		bounded.start(0);
+		final Socket socket = new Socket();
+		socket.setReceiveBufferSize(4096);
+		socket.connect(new InetSocketAddress("127.0.0.1", bounded.getPort()));
+		try
+		{
+			Thread sender = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						OutputStream out = socket.getOutputStream();
+						for(int i=1; i<=requests; i++)
+						{
+							ByteBuffer frame = ByteBuffer.allocate(9);
+							frame.putInt(5).putInt(i).put(GatewayProtocol.GET_ITEM_NAMES);
+							out.write(frame.array());
+							// one at a time - requests already read are dispatched, bounded by the worker queue
+							Thread.sleep(2);
+						}
+					}
+					catch(Exception e)
+					{
+						// the socket was closed
+					}
+				}
+			});
+			sender.setDaemon(true);
+			sender.start();
+			
+			long deadline = System.currentTimeMillis() + 10000;
+			while(bounded.getReadPauseCount() == 0 && System.currentTimeMillis() < deadline)
+			{
+				Thread.sleep(5);
+			}
+			assertEquals(1, bounded.getReadPauseCount());
+			Thread.sleep(100);
+			assertTrue(bounded.getRequestCount() < requests);
+			
+			// taking the responses lets the rest of the requests in
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			for(int i=0; i<requests; i++)
+			{
+				byte[] frame = new byte[in.readInt()];
+				in.readFully(frame);
+				assertEquals(GatewayProtocol.OK, frame[4]);
+			}
+			assertEquals(requests, bounded.getRequestCount());
+		}
+		finally
+		{
+			socket.close();
+			bounded.stop();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package cern.ess.opclib.historian;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cern.ess.opclib.OPCValueType;
+
+public class GorillaEncoderTest 
+{
+	private static final long T0 = 1700000000000L;
+	
+	@Test
+	public void testRoundTripsIrregularTimestampsAndRandomInts()
+	{
+		Random random = new Random(17);
+		int count = 5000;
+		long[] timestamps = new long[count];
+		int[] values = new int[count];
+		long timestamp = T0;
+		for(int i=0; i<count; i++)
+		{
+			// jitter, stalls, a clock step back now and then
+			timestamp += random.nextInt(10) == 0 ? random.nextInt(100000) - 1000 : 100 + random.nextInt(5);
+			timestamps[i] = timestamp;
+			values[i] = random.nextInt(4) == 0 ? values[Math.max(0, i-1)] : random.nextInt();
+		}
+		
+		GorillaEncoder encoder = new GorillaEncoder(OPCValueType.INT);
+		for(int i=0; i<count; i++)
+		{
+			encoder.append(timestamps[i], values[i]);
+		}
+		GorillaBlock block = decode(encoder);
+		
+		assertEquals(count, block.getCount());
+		assertEquals(OPCValueType.INT, block.getType());
+		assertEquals(timestamps[0], block.getFirstTimestampMillis());
+		assertEquals(timestamps[count-1], block.getLastTimestampMillis());
+		long[] decodedTimestamps = new long[count];
+		int[] decodedValues = new int[count];
+		block.decodeTimestamps(decodedTimestamps);
+		block.decodeValueBits(decodedValues);
+		assertArrayEquals(timestamps, decodedTimestamps);
+		assertArrayEquals(values, decodedValues);
+	}
+	
+	@Test
+	public void testRoundTripsFloatsIncludingSpecialValues()
+	{
+		float[] values = { 0.0f, -0.0f, 1.5f, Float.NaN, Float.POSITIVE_INFINITY, Float.MIN_VALUE, -123456.78f, 1.5f, 1.5f };
+		GorillaEncoder encoder = new GorillaEncoder(OPCValueType.FLOAT);
+		for(int i=0; i<values.length; i++)
+		{
+			encoder.append(T0 + i*1000, Float.floatToRawIntBits(values[i]));
+		}
+		GorillaBlock block = decode(encoder);
+		
+		int[] scratch = new int[values.length];
+		double[] decoded = new double[values.length];
+		block.decodeValues(scratch, decoded);
+		for(int i=0; i<values.length; i++)
+		{
+			assertEquals(Float.floatToRawIntBits(values[i]), scratch[i]);
+			assertEquals(values[i], (float)decoded[i], 0.0f);
+		}
+	}
+	
+	@Test
+	public void testRoundTripsStrings()
+	{
+		String[] values = { "OK", "OK", "FAULT", "", "OK" };
+		GorillaEncoder encoder = new GorillaEncoder(OPCValueType.STRING);
+		for(int i=0; i<values.length; i++)
+		{
+			encoder.appendString(T0 + i, values[i]);
+		}
+		String[] decoded = new String[values.length];
+		decode(encoder).decodeStrings(decoded);
+		
+		assertArrayEquals(values, decoded);
+	}
+	
+	@Test
+	public void testSlowlyChangingSignalTakesUnderOneAndAHalfBytesPerSample()
+	{
+		int count = 4096;
+		GorillaEncoder encoder = new GorillaEncoder(OPCValueType.FLOAT);
+		for(int i=0; i<count; i++)
+		{
+			// 1s polling of a temperature drifting by 0.25 degree steps
+			float value = 20.0f + Math.round(4 * Math.sin(i / 600.0)) / 4.0f;
+			encoder.append(T0 + i * 1000L, Float.floatToRawIntBits(value));
+		}
+		
+		double bytesPerSample = (double)encoder.getEncodedBytes() / count;
+		assertTrue("["+bytesPerSample+"] bytes per sample", bytesPerSample < 1.5);
+	}
+	
+	private static GorillaBlock decode(GorillaEncoder encoder)
+	{
+		// at an offset, as in a segment file
+		ByteBuffer buffer = ByteBuffer.allocate(7 + encoder.getEncodedBytes());
+		buffer.position(7);
+		encoder.writeTo(buffer);
+		GorillaBlock block = new GorillaBlock(buffer, 7);
+		assertEquals(encoder.getEncodedBytes(), block.getByteLength());
+		return block;
+	}
+}
@@ -0,0 +1,230 @@
+package cern.ess.opclib.historian;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cern.ess.opclib.OPCValueType;
+
+public class HistorianQueryTest 
+{
+	private static final long T0 = 1700000000000L;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private Historian historian;
+	
+	@After
+	public void teardown() throws Exception
+	{
+		historian.close();
+	}
+	
+	@Test
+	public void testSelectsRangeAcrossRawSegments() throws Exception
+	{
+		int recordBytes = HistorianSegment.recordBytes(OPCValueType.INT, null);
+		historian = new Historian(folder.getRoot(), HistorianSegment.HEADER_BYTES + 100 * recordBytes, Historian.DEFAULT_ROLL_INTERVAL_MS, Historian.DEFAULT_RETENTION_MS, 1024);
+		historian.start();
+		for(int i=0; i<250; i++)
+		{
+			historian.record("dev.a", T0 + i*1000, Integer.valueOf(i));
+			historian.record("dev.b", T0 + i*1000, Integer.valueOf(-i));
+		}
+		historian.flush();
+		
+		HistorianQuery testee = new HistorianQuery(historian);
+		SampleCursor cursor = testee.select("dev.b", T0 + 40000, T0 + 210000);
+		int expected = 40;
+		while(cursor.next())
+		{
+			assertEquals(T0 + expected*1000, cursor.getTimestampMillis());
+			assertEquals(Integer.valueOf(-expected), cursor.getValue());
+			expected++;
+		}
+		assertEquals(210, expected);
+		
+		assertFalse(testee.select("dev.unknown", T0, T0 + 250000).next());
+		assertFalse(testee.select("dev.a", T0 + 250000, Long.MAX_VALUE).next());
+	}
+	
+	@Test
+	public void testSeesRecordsAddedToActiveSegmentSinceLastQuery() throws Exception
+	{
+		historian = new Historian(folder.getRoot());
+		historian.start();
+		historian.record("dev.a", T0, Integer.valueOf(1));
+		historian.flush();
+		
+		HistorianQuery testee = new HistorianQuery(historian);
+		assertEquals(1, count(testee.select("dev.a", T0, T0 + 10)));
+		
+		historian.record("dev.a", T0 + 1, Integer.valueOf(2));
+		historian.flush();
+		assertEquals(2, count(testee.select("dev.a", T0, T0 + 10)));
+	}
+	
+	@Test
+	public void testSelectsFromCompactedSegmentsAndWritesIndexes() throws Exception
+	{
+		int pairBytes = HistorianSegment.recordBytes(OPCValueType.FLOAT, null) + HistorianSegment.recordBytes(OPCValueType.STRING, "OK");
+		historian = new Historian(folder.getRoot(), HistorianSegment.HEADER_BYTES + 50 * pairBytes, Historian.DEFAULT_ROLL_INTERVAL_MS, Historian.DEFAULT_RETENTION_MS, 1024);
+		historian.setCompactor(new HistorianCompactor(16));
+		historian.start();
+		for(int i=0; i<150; i++)
+		{
+			historian.record("dev.f", T0 + i*1000, Float.valueOf(i));
+			historian.record("dev.s", T0 + i*1000, i < 75 ? "OK" : "KO");
+		}
+		historian.close();
+		
+		List<File> segments = historian.getSegmentFiles();
+		assertTrue(SegmentIndex.fileFor(segments.get(0)).exists());
+		assertTrue(SegmentIndex.fileFor(segments.get(1)).exists());
+		SegmentIndex index = SegmentIndex.open(SegmentIndex.fileFor(segments.get(0)));
+		// 50 samples per item in blocks of 16
+		assertEquals(8, index.getEntryCount());
+		
+		HistorianQuery testee = new HistorianQuery(historian);
+		SampleCursor cursor = testee.select("dev.f", T0 + 30000, T0 + 130000);
+		int expected = 30;
+		while(cursor.next())
+		{
+			assertEquals(T0 + expected*1000, cursor.getTimestampMillis());
+			assertEquals(expected, cursor.getNumericValue(), 0.0);
+			expected++;
+		}
+		assertEquals(130, expected);
+		
+		cursor = testee.select("dev.s", T0 + 74000, T0 + 76000);
+		assertTrue(cursor.next());
+		assertEquals("OK", cursor.getValue());
+		assertTrue(cursor.next());
+		assertEquals("KO", cursor.getValue());
+		assertFalse(cursor.next());
+	}
+	
+	@Test
+	public void testPublisherDeliversOnDemand() throws Exception
+	{
+		historian = new Historian(folder.getRoot());
+		historian.start();
+		for(int i=0; i<5; i++)
+		{
+			historian.record("dev.a", T0 + i, Integer.valueOf(i));
+		}
+		historian.flush();
+		
+		final List<HistorianSample> received = new ArrayList<HistorianSample>();
+		final boolean[] completed = new boolean[1];
+		final Flow.Subscription[] subscription = new Flow.Subscription[1];
+		new HistorianQuery(historian).publish("dev.a", T0, T0 + 5).subscribe(new Flow.Subscriber<HistorianSample>()
+		{
+			@Override
+			public void onSubscribe(Flow.Subscription s)
+			{
+				subscription[0] = s;
+			}
+			
+			@Override
+			public void onNext(HistorianSample sample)
+			{
+				received.add(sample);
+			}
+			
+			@Override
+			public void onError(Throwable throwable)
+			{
+				throw new AssertionError(throwable);
+			}
+			
+			@Override
+			public void onComplete()
+			{
+				completed[0] = true;
+			}
+		});
+		
+		assertEquals(0, received.size());
+		subscription[0].request(2);
+		assertEquals(2, received.size());
+		assertFalse(completed[0]);
+		subscription[0].request(Long.MAX_VALUE);
+		assertEquals(5, received.size());
+		assertTrue(completed[0]);
+		assertEquals(T0 + 4, received.get(4).getTimestampMillis());
+		assertEquals(Integer.valueOf(4), received.get(4).getValue());
+	}
+	
+	@Test
+	public void testBadRequestIsSignalledAfterOnNextReturns() throws Exception
+	{
+		historian = new Historian(folder.getRoot());
+		historian.start();
+		for(int i=0; i<5; i++)
+		{
+			historian.record("dev.a", T0 + i, Integer.valueOf(i));
+		}
+		historian.flush();
+		
+		final List<String> signals = new ArrayList<String>();
+		new HistorianQuery(historian).publish("dev.a", T0, T0 + 5).subscribe(new Flow.Subscriber<HistorianSample>()
+		{
+			private Flow.Subscription subscription;
+			
+			@Override
+			public void onSubscribe(Flow.Subscription s)
+			{
+				subscription = s;
+				s.request(Long.MAX_VALUE);
+			}
+			
+			@Override
+			public void onNext(HistorianSample sample)
+			{
+				signals.add("next");
+				subscription.request(0);
+				signals.add("next returned");
+			}
+			
+			@Override
+			public void onError(Throwable throwable)
+			{
+				signals.add(throwable.getClass().getSimpleName());
+			}
+			
+			@Override
+			public void onComplete()
+			{
+				signals.add("complete");
+			}
+		});
+		
+		List<String> expected = new ArrayList<String>();
+		expected.add("next");
+		expected.add("next returned");
+		expected.add("IllegalArgumentException");
+		assertEquals(expected, signals);
+	}
+	
+	private static int count(SampleCursor cursor)
+	{
+		int result = 0;
+		while(cursor.next())
+		{
+			result++;
+		}
+		return result;
+	}
+}
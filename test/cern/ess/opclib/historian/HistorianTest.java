@@ -0,0 +1,231 @@
+package cern.ess.opclib.historian;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cern.ess.opclib.OPCValueType;
+
+public class HistorianTest 
+{
+	private static final long T0 = 1700000000000L;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private Historian testee;
+	
+	@After
+	public void teardown() throws Exception
+	{
+		testee.close();
+	}
+	
+	@Test
+	public void testRecordsAllValueTypes() throws Exception
+	{
+		testee = new Historian(folder.getRoot());
+		testee.start();
+		
+		assertTrue(testee.record("dev.bool", T0, Boolean.TRUE));
+		assertTrue(testee.record("dev.int", T0+1, Integer.valueOf(-42)));
+		assertTrue(testee.record("dev.float", T0+2, Float.valueOf(3.25f)));
+		assertTrue(testee.record("dev.string", T0+3, "héllo"));
+		assertTrue(testee.record("dev.int", T0+4, Integer.valueOf(7)));
+		assertFalse(testee.record("dev.other", T0+5, Double.valueOf(1.0)));
+		testee.flush();
+		
+		HistorianSegment.Cursor cursor = testee.getActiveSegment().cursor();
+		List<Object> values = new ArrayList<Object>();
+		List<String> items = new ArrayList<String>();
+		long previousTimestamp = 0;
+		while(cursor.next())
+		{
+			values.add(cursor.getValue());
+			items.add(testee.getCatalog().itemFor(cursor.getHandle()));
+			assertTrue(cursor.getTimestampMillis() > previousTimestamp);
+			previousTimestamp = cursor.getTimestampMillis();
+		}
+		
+		assertEquals(5, values.size());
+		assertEquals(Boolean.TRUE, values.get(0));
+		assertEquals(Integer.valueOf(-42), values.get(1));
+		assertEquals(Float.valueOf(3.25f), values.get(2));
+		assertEquals("héllo", values.get(3));
+		assertEquals(Integer.valueOf(7), values.get(4));
+		assertEquals("dev.int", items.get(4));
+		assertEquals(5, testee.getRecordedCount());
+		assertEquals(1, testee.getDroppedCount());
+	}
+	
+	@Test
+	public void testReopenedHistorianKeepsHandlesAndStartsNewSegment() throws Exception
+	{
+		testee = new Historian(folder.getRoot());
+		testee.start();
+		testee.record("dev.a", T0, Integer.valueOf(1));
+		testee.record("dev.b", T0, Integer.valueOf(2));
+		testee.close();
+		
+		testee = new Historian(folder.getRoot());
+		testee.start();
+		assertEquals(2, testee.getCatalog().lookup("dev.b"));
+		testee.record("dev.c", T0+1, Integer.valueOf(3));
+		testee.flush();
+		
+		List<File> segments = testee.getSegmentFiles();
+		assertEquals(2, segments.size());
+		HistorianSegment first = HistorianSegment.open(segments.get(0));
+		assertEquals(2, count(first));
+		assertEquals(1, count(testee.getActiveSegment()));
+		assertEquals(2, testee.getActiveSegment().getSequence());
+	}
+	
+	@Test
+	public void testRollsWhenSegmentFull() throws Exception
+	{
+		int recordBytes = HistorianSegment.recordBytes(OPCValueType.FLOAT, null);
+		testee = new Historian(folder.getRoot(), HistorianSegment.HEADER_BYTES + 10 * recordBytes, Historian.DEFAULT_ROLL_INTERVAL_MS, Historian.DEFAULT_RETENTION_MS, 1024);
+		testee.start();
+		for(int i=0; i<25; i++)
+		{
+			testee.record("dev.f", T0+i, Float.valueOf(i));
+		}
+		testee.flush();
+		
+		List<File> segments = testee.getSegmentFiles();
+		assertEquals(3, segments.size());
+		int total = 0;
+		for(File segment : segments)
+		{
+			total += count(HistorianSegment.open(segment));
+		}
+		assertEquals(25, total);
+	}
+	
+	@Test
+	public void testDeletesSegmentsPastRetention() throws Exception
+	{
+		testee = new Historian(folder.getRoot(), 4096, 1000, 5000, 1024);
+		testee.start();
+		for(int i=0; i<=10; i++)
+		{
+			testee.record("dev.i", T0 + i*1000, Integer.valueOf(i));
+		}
+		testee.flush();
+		
+		// every value starts a segment; cutoff T0+5000, values before it are gone
+		List<File> segments = testee.getSegmentFiles();
+		assertEquals(6, segments.size());
+		HistorianSegment.Cursor oldest = HistorianSegment.open(segments.get(0)).cursor();
+		assertTrue(oldest.next());
+		assertEquals(5, oldest.getInt());
+	}
+	
+	@Test
+	public void testFullBufferDropsInsteadOfBlocking() throws Exception
+	{
+		testee = new Historian(folder.getRoot(), Historian.DEFAULT_SEGMENT_BYTES, Historian.DEFAULT_ROLL_INTERVAL_MS, Historian.DEFAULT_RETENTION_MS, 4);
+		int handle = testee.getCatalog().handleFor("dev.i");
+		for(int i=0; i<4; i++)
+		{
+			assertTrue(testee.recordInt(handle, T0+i, i));
+		}
+		assertFalse(testee.recordInt(handle, T0+4, 4));
+		assertEquals(1, testee.getDroppedCount());
+		// recording does no file I/O - the writer thread adds the item to the catalog file
+		File catalogFile = new File(folder.getRoot(), ItemCatalog.FILE_NAME);
+		assertFalse(catalogFile.exists());
+		
+		testee.start();
+		testee.close();
+		assertEquals(4, testee.getRecordedCount());
+		assertEquals(handle, new ItemCatalog(folder.getRoot()).lookup("dev.i"));
+	}
+	
+	@Test
+	public void testCompactsSealedSegments() throws Exception
+	{
+		int pairBytes = HistorianSegment.recordBytes(OPCValueType.FLOAT, null) + HistorianSegment.recordBytes(OPCValueType.STRING, "OK");
+		testee = new Historian(folder.getRoot(), HistorianSegment.HEADER_BYTES + 50 * pairBytes, Historian.DEFAULT_ROLL_INTERVAL_MS, Historian.DEFAULT_RETENTION_MS, 1024);
+		testee.setCompactor(new HistorianCompactor());
+		testee.start();
+		for(int i=0; i<150; i++)
+		{
+			testee.record("dev.f", T0 + i*1000, Float.valueOf(i / 10));
+			testee.record("dev.s", T0 + i*1000, i < 75 ? "OK" : "KO");
+		}
+		testee.close();
+		
+		List<File> segments = testee.getSegmentFiles();
+		assertEquals(3, segments.size());
+		CompressedSegment first = CompressedSegment.open(segments.get(0));
+		assertEquals(1, first.getSequence());
+		assertEquals(T0, first.getCreatedMillis());
+		assertTrue(first.getSize() < HistorianSegment.HEADER_BYTES + 50 * pairBytes / 4);
+		
+		assertEquals(2, first.getBlockCount());
+		GorillaBlock floats = first.getBlock(0);
+		assertEquals("dev.f", testee.getCatalog().itemFor(first.getHandle(0)));
+		assertEquals(50, floats.getCount());
+		double[] values = new double[50];
+		floats.decodeValues(new int[50], values);
+		assertEquals(4.0, values[49], 0.0);
+		String[] strings = new String[50];
+		first.getBlock(1).decodeStrings(strings);
+		assertEquals("OK", strings[49]);
+		
+		// the active one is only sealed by the next roll
+		assertTrue(segments.get(2).getName().endsWith(HistorianSegment.FILE_SUFFIX));
+	}
+	
+	@Test
+	public void testFilesADeleteLeftBehindAreDeletedOnRoll() throws Exception
+	{
+		int recordBytes = HistorianSegment.recordBytes(OPCValueType.INT, null);
+		testee = new Historian(folder.getRoot(), HistorianSegment.HEADER_BYTES + 10 * recordBytes, Historian.DEFAULT_ROLL_INTERVAL_MS, Historian.DEFAULT_RETENTION_MS, 1024);
+		testee.setCompactor(new HistorianCompactor());
+		testee.start();
+		for(int i=0; i<15; i++)
+		{
+			testee.record("dev.i", T0 + i, Integer.valueOf(i));
+		}
+		testee.close();
+		
+		// as left by deletes that failed while the files were still mapped (Windows)
+		File rawLeftover = new File(folder.getRoot(), HistorianSegment.fileName(1));
+		File indexLeftover = new File(folder.getRoot(), HistorianSegment.fileName(77) + SegmentIndex.FILE_SUFFIX);
+		assertTrue(CompressedSegment.fileFor(rawLeftover).exists());
+		assertTrue(rawLeftover.createNewFile());
+		assertTrue(indexLeftover.createNewFile());
+		
+		testee = new Historian(folder.getRoot(), HistorianSegment.HEADER_BYTES + 10 * recordBytes, Historian.DEFAULT_ROLL_INTERVAL_MS, Historian.DEFAULT_RETENTION_MS, 1024);
+		testee.start();
+		testee.record("dev.i", T0 + 100, Integer.valueOf(100));
+		testee.close();
+		
+		assertFalse(rawLeftover.exists());
+		assertFalse(indexLeftover.exists());
+		assertTrue(CompressedSegment.fileFor(rawLeftover).exists());
+	}
+	
+	private static int count(HistorianSegment segment)
+	{
+		int result = 0;
+		HistorianSegment.Cursor cursor = segment.cursor();
+		while(cursor.next())
+		{
+			result++;
+		}
+		return result;
+	}
+}
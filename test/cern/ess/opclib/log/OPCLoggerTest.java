@@ -0,0 +1,115 @@
+package cern.ess.opclib.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class OPCLoggerTest 
+{
+	private OPCLogger testee;
+	private CapturingSink capturingSink;
+	private LogLevel originalLevel;
+	
+	@Before
+	public void setup()
+	{
+		originalLevel = OPCLogger.getLevel();
+		capturingSink = new CapturingSink();
+		OPCLogger.setSink(capturingSink);
+		testee = OPCLogger.getLogger(OPCLoggerTest.class);
+	}
+	
+	@After
+	public void teardown()
+	{
+		OPCLogger.setLevel(originalLevel);
+		OPCLogger.setSink(new AsyncLogSink(new ConsoleLogSink()));
+	}
+	
+	@Test
+	public void testMessagesBelowLevelAreNotFormatted()
+	{
+		OPCLogger.setLevel(LogLevel.INFO);
+		CountingToString argument = new CountingToString();
+		
+		testee.debug("not wanted {}", argument);
+		
+		assertFalse(testee.isDebugEnabled());
+		assertEquals(0, capturingSink.records.size());
+		assertEquals(0, argument.toStringCalls);
+	}
+	
+	@Test
+	public void testFormattingIsDeferredToSink()
+	{
+		OPCLogger.setLevel(LogLevel.DEBUG);
+		CountingToString argument = new CountingToString();
+		
+		testee.debug("value [{}] of [{}]", argument, "item");
+		
+		assertEquals(1, capturingSink.records.size());
+		assertEquals(0, argument.toStringCalls);
+		assertEquals("value [counted] of [item]", capturingSink.records.get(0).getFormattedMessage());
+		assertEquals(1, argument.toStringCalls);
+	}
+	
+	@Test
+	public void testAsyncSinkDeliversRecordsOnWriterThread()
+	{
+		AsyncLogSink asyncSink = new AsyncLogSink(capturingSink, 16);
+		OPCLogger.setSink(asyncSink);
+		
+		for(int i=0; i<10; i++)
+		{
+			testee.info("message {}", Integer.valueOf(i));
+		}
+		asyncSink.flush();
+		
+		assertEquals(10, capturingSink.records.size() + asyncSink.getDroppedCount());
+		assertTrue(capturingSink.threadNames.contains("opclib-async-log"));
+		assertFalse(capturingSink.threadNames.contains(Thread.currentThread().getName()));
+	}
+	
+	private static class CountingToString
+	{
+		int toStringCalls = 0;
+		
+		@Override
+		public String toString() 
+		{
+			toStringCalls++;
+			return "counted";
+		}
+	}
+	
+	private static class CapturingSink implements LogSink
+	{
+		final List<LogRecord> records = new ArrayList<LogRecord>();
+		final List<String> threadNames = new ArrayList<String>();
+		
+		@Override
+		public synchronized void write(LogRecord record) 
+		{
+			records.add(record);
+			threadNames.add(Thread.currentThread().getName());
+		}
+
+		@Override
+		public void flush() 
+		{
+		}
+
+		@Override
+		public void close() 
+		{
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package cern.ess.opclib.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+
+public class ItemAccessStatisticsTest 
+{
+	private ItemAccessStatistics testee;
+	
+	@Test
+	public void testCountsExactWhileWithinCapacity()
+	{
+		testee = new ItemAccessStatistics(8);
+		
+		testee.record("item.a", true, false, false, 100);
+		testee.record("item.a", false, true, false, 200);
+		testee.record("item.a", true, false, true, 300);
+		testee.record("item.b", true, false, false, 50);
+		
+		List<ItemAccessSnapshot> top = testee.getTopByCallCount(10);
+		assertEquals(2, top.size());
+		
+		ItemAccessSnapshot itemA = top.get(0);
+		assertEquals("item.a", itemA.getItemAddress());
+		assertEquals(2, itemA.getReads());
+		assertEquals(1, itemA.getWrites());
+		assertEquals(1, itemA.getErrors());
+		assertEquals(600, itemA.getNativeNanos());
+		assertEquals(0, itemA.getOverestimate());
+	}
+	
+	@Test
+	public void testHotItemsSurviveLargeTagSet()
+	{
+		testee = new ItemAccessStatistics(64);
+		
+		for(int i=0; i<100000; i++)
+		{
+			testee.record("cold.item."+i, true, false, false, 10);
+			if(i % 10 == 0)
+			{
+				testee.record("hot.item.1", true, false, false, 10);
+			}
+			if(i % 20 == 0)
+			{
+				testee.record("hot.item.2", false, true, false, 10);
+			}
+		}
+		
+		List<ItemAccessSnapshot> top = testee.getTopByCallCount(2);
+		assertEquals(2, top.size());
+		assertEquals("hot.item.1", top.get(0).getItemAddress());
+		assertEquals("hot.item.2", top.get(1).getItemAddress());
+		// counts are exact from the point the item was last admitted
+		assertTrue(top.get(1).getWrites() > 4900);
+		assertTrue(top.get(1).getWrites() <= 5000);
+	}
+	
+	@Test
+	public void testRarelyCalledSlowItemRankedByNativeTime()
+	{
+		testee = new ItemAccessStatistics(16);
+		
+		for(int i=0; i<10000; i++)
+		{
+			testee.record("fast.item."+(i % 100), true, false, false, 1000);
+		}
+		testee.record("slow.item", true, false, false, 500000000L);
+		
+		List<ItemAccessSnapshot> topByTime = testee.getTopByNativeTime(1);
+		assertEquals("slow.item", topByTime.get(0).getItemAddress());
+		assertEquals(1, topByTime.get(0).getCalls());
+	}
+	
+	@Test
+	public void testConcurrentWritersLoseNoCounts() throws Exception
+	{
+		testee = new ItemAccessStatistics(8);
+		
+		List<Thread> writers = new ArrayList<Thread>();
+		for(int t=0; t<4; t++)
+		{
+			final String ownItem = "lane.item."+t;
+			Thread writer = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for(int i=0; i<20000; i++)
+					{
+						testee.record("shared.item", true, false, false, 10);
+						testee.record(ownItem, false, true, false, 10);
+					}
+				}
+			});
+			writer.start();
+			writers.add(writer);
+		}
+		for(Thread writer : writers)
+		{
+			writer.join();
+		}
+		
+		List<ItemAccessSnapshot> top = testee.getTopByCallCount(10);
+		assertEquals(5, top.size());
+		assertEquals("shared.item", top.get(0).getItemAddress());
+		assertEquals(80000, top.get(0).getReads());
+		assertEquals(800000, top.get(0).getNativeNanos());
+		for(int i=1; i<top.size(); i++)
+		{
+			assertEquals(20000, top.get(i).getWrites());
+			assertEquals(0, top.get(i).getOverestimate());
+		}
+	}
+	
+	@Test
+	public void testMergesFullTablesOfSeveralWriters() throws Exception
+	{
+		testee = new ItemAccessStatistics(4);
+		
+		// this thread's table: hot.item and three others, full
+		for(int i=0; i<10; i++)
+		{
+			testee.record("hot.item", true, false, false, 10);
+		}
+		testee.record("item.a", true, false, false, 10);
+		testee.record("item.b", true, false, false, 10);
+		testee.record("item.c", true, false, false, 10);
+		
+		// another writer's table: hot.item and item.d, not full
+		Thread writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for(int i=0; i<5; i++)
+				{
+					testee.record("hot.item", false, true, false, 10);
+				}
+				testee.record("item.d", false, true, false, 10);
+			}
+		});
+		writer.start();
+		writer.join();
+		
+		List<ItemAccessSnapshot> top = testee.getTopByCallCount(10);
+		assertEquals(5, top.size());
+		assertEquals("hot.item", top.get(0).getItemAddress());
+		assertEquals(10, top.get(0).getReads());
+		assertEquals(5, top.get(0).getWrites());
+		assertEquals(15, top.get(0).getRankingWeight());
+		assertEquals(0, top.get(0).getOverestimate());
+		// item.d may have been evicted from the full table: charged its smallest weight
+		ItemAccessSnapshot itemD = top.get(1);
+		assertEquals("item.d", itemD.getItemAddress());
+		assertEquals(1, itemD.getWrites());
+		assertEquals(2, itemD.getRankingWeight());
+		assertEquals(1, itemD.getOverestimate());
+	}
+}
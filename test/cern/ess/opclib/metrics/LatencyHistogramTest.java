@@ -0,0 +1,77 @@
+package cern.ess.opclib.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class LatencyHistogramTest 
+{
+	private LatencyHistogram testee;
+	
+	@Before
+	public void setup()
+	{
+		testee = new LatencyHistogram();
+	}
+	
+	@Test
+	public void testEmptyHistogram()
+	{
+		assertEquals(0, testee.getCount());
+		assertEquals(0, testee.getValueAtPercentile(99.0));
+	}
+	
+	@Test
+	public void testSmallValuesAreExact()
+	{
+		for(int i=1; i<=10; i++)
+		{
+			testee.record(i);
+		}
+		
+		assertEquals(10, testee.getCount());
+		assertEquals(55, testee.getTotalNanos());
+		assertEquals(5, testee.getValueAtPercentile(50.0));
+		assertEquals(10, testee.getValueAtPercentile(100.0));
+	}
+	
+	@Test
+	public void testPercentilesWithinRelativeError()
+	{
+		for(long i=1; i<=100000; i++)
+		{
+			testee.record(i * 1000);
+		}
+		
+		assertWithinError(50000000L, testee.getValueAtPercentile(50.0));
+		assertWithinError(99000000L, testee.getValueAtPercentile(99.0));
+		assertEquals(100000000L, testee.getMaxNanos());
+	}
+	
+	@Test
+	public void testBucketsCoverWholeRange()
+	{
+		testee.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, testee.getValueAtPercentile(100.0));
+		assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.indexOf(Long.MAX_VALUE));
+	}
+	
+	@Test
+	public void testReset()
+	{
+		testee.record(1000);
+		testee.reset();
+		
+		assertEquals(0, testee.getCount());
+		assertEquals(0, testee.getMaxNanos());
+	}
+	
+	private static void assertWithinError(long expected, long actual)
+	{
+		double relativeError = Math.abs(actual - expected) / (double)expected;
+		assertTrue("expected ["+expected+"] actual ["+actual+"]", relativeError < 0.04);
+	}
+}
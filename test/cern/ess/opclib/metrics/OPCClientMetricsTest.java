@@ -0,0 +1,36 @@
+package cern.ess.opclib.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class OPCClientMetricsTest
+{
+	@Test
+	public void testTenantsAreBoundedKeepingTheActiveOnes()
+	{
+		OPCClientMetrics testee = new OPCClientMetrics();
+		for(int i=0; i<OPCClientMetrics.MAX_TENANTS * 2; i++)
+		{
+			testee.tenantCommandCompleted("operator", 1000);
+			testee.tenantCommandCompleted("thread-"+i, 1000);
+		}
+
+		assertEquals(OPCClientMetrics.MAX_TENANTS, testee.getTenants().size());
+		assertTrue(testee.getTenants().contains("operator"));
+		assertEquals(OPCClientMetrics.MAX_TENANTS * 2, testee.getTenantLatencyHistogram("operator").getCount());
+		assertTrue(testee.getTenants().contains("thread-"+(OPCClientMetrics.MAX_TENANTS * 2 - 1)));
+	}
+
+	@Test
+	public void testGettersDoNotAddTenants()
+	{
+		OPCClientMetrics testee = new OPCClientMetrics();
+
+		assertEquals(0, testee.getTenantLatencyHistogram("unknown").getCount());
+		assertEquals(0, testee.getTenantQueueWaitHistogram("unknown").getCount());
+		assertEquals(0, testee.getTenantRateLimitedCount("unknown"));
+		assertTrue(testee.getTenants().isEmpty());
+	}
+}
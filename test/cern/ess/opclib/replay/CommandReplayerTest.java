@@ -0,0 +1,91 @@
+package cern.ess.opclib.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cern.ess.opclib.OPCDataType;
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.clientThread.OPCCommandType;
+import cern.ess.opclib.simulator.SimulatedOpcApi;
+import cern.ess.opclib.simulator.ValueGenerator;
+
+public class CommandReplayerTest 
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testRecordedCommandsAreReplayedWithOriginalOutcome() throws Exception
+	{
+		File file = folder.newFile("commands.rec");
+		final CommandRecorder recorder = new CommandRecorder(simulator(), file);
+		recorder.init("host", "server");
+		Thread other = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					recorder.writeInt("dev.int", "I4", 5);
+					recorder.readFloat("dev.int");
+				}
+				catch(OPCException e)
+				{
+					throw new AssertionError(e);
+				}
+			}
+		});
+		other.start();
+		other.join();
+		recorder.writeString("dev.string", "tab\there");
+		try
+		{
+			recorder.readInt("dev.missing");
+			fail("expected unknown item");
+		}
+		catch(OPCException e)
+		{
+			// recorded as failed
+		}
+		recorder.close();
+		
+		CommandRecording recording = CommandRecording.read(file);
+		assertTrue(recording.getStartMillis() > 0);
+		List<RecordedCommand> commands = recording.getCommands();
+		assertEquals(5, commands.size());
+		assertEquals(OPCCommandType.INIT, commands.get(0).getType());
+		assertEquals("server", commands.get(0).getItem());
+		assertEquals("I4", commands.get(1).getWireType());
+		assertEquals("tab\there", commands.get(3).getValue());
+		assertTrue(commands.get(4).isFailed());
+		assertTrue(commands.get(2).getOffsetNanos() > commands.get(0).getOffsetNanos());
+		
+		ReplayResult result = new CommandReplayer(commands, new ReplayClock(recording.getStartMillis(), 100.0)).replay(simulator());
+		assertEquals(5, result.getCommands());
+		assertEquals(1, result.getErrors());
+		assertEquals(0, result.getDivergentCount());
+		
+		SimulatedOpcApi changed = simulator();
+		changed.addItem("dev.missing", OPCDataType.I4, ValueGenerator.constant(0));
+		result = new CommandReplayer(commands, new ReplayClock(recording.getStartMillis(), 100.0)).replay(changed);
+		assertEquals(0, result.getErrors());
+		assertEquals(1, result.getDivergentCount());
+	}
+	
+	private static SimulatedOpcApi simulator()
+	{
+		SimulatedOpcApi simulator = new SimulatedOpcApi(42);
+		simulator.addItem("dev.int", OPCDataType.I4, ValueGenerator.constant(1));
+		simulator.addItem("dev.string", OPCDataType.STRING, ValueGenerator.constant(0));
+		return simulator;
+	}
+}
@@ -0,0 +1,115 @@
+package cern.ess.opclib.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cern.ess.opclib.OPCException;
+import cern.ess.opclib.historian.Historian;
+
+public class ReplayOpcApiTest 
+{
+	private static final long T0 = 1700000000000L;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private Historian historian;
+	
+	@Before
+	public void setup() throws Exception
+	{
+		historian = new Historian(folder.getRoot());
+		historian.start();
+		for(int i=0; i<3; i++)
+		{
+			historian.record("dev.int", T0 + i*1000, Integer.valueOf(i));
+			historian.record("dev.bool", T0 + i*1000, Boolean.valueOf(i % 2 == 1));
+		}
+		historian.flush();
+	}
+	
+	@After
+	public void teardown() throws Exception
+	{
+		historian.close();
+	}
+	
+	@Test
+	public void testReadsValueCurrentAtReplayTime() throws OPCException
+	{
+		assertEquals(1, replayAt(T0 + 1500).readInt("dev.int"));
+		assertTrue(replayAt(T0 + 1000).readBoolean("dev.bool"));
+		assertEquals(2.0f, replayAt(T0 + 60000).readFloat("dev.int"), 0.0);
+		try
+		{
+			replayAt(T0 - 1).readInt("dev.int");
+			fail("expected no value before the first sample");
+		}
+		catch(OPCException e)
+		{
+			assertTrue(e.getMessage().startsWith("no recorded value"));
+		}
+	}
+	
+	@Test
+	public void testValuesFollowTheClock() throws Exception
+	{
+		ReplayClock clock = new ReplayClock(T0, 1000.0);
+		ReplayOpcApi testee = new ReplayOpcApi(historian, clock);
+		assertEquals(0, testee.readInt("dev.int"));
+		testee.init("host", ReplayOpcApi.SERVER_NAME);
+		assertTrue(clock.isStarted());
+		// 2s of recorded time pass in 2ms
+		Thread.sleep(10);
+		assertEquals(2, testee.readInt("dev.int"));
+	}
+	
+	@Test
+	public void testWrittenValueIsReadBack() throws OPCException
+	{
+		ReplayOpcApi testee = replayAt(T0 + 500);
+		testee.writeInt("dev.int", "I4", 42);
+		assertEquals(42, testee.readInt("dev.int"));
+	}
+	
+	@Test
+	public void testUnknownItemAndWrongTypeFail() throws OPCException
+	{
+		ReplayOpcApi testee = replayAt(T0);
+		assertEquals(Arrays.asList("dev.int", "dev.bool"), Arrays.asList(testee.getItemNames()));
+		try
+		{
+			testee.readInt("dev.other");
+			fail("expected unknown item");
+		}
+		catch(OPCException e)
+		{
+			assertTrue(e.getMessage().startsWith("failed to find opc item"));
+		}
+		try
+		{
+			testee.readString("dev.bool");
+			fail("expected type mismatch");
+		}
+		catch(OPCException e)
+		{
+			assertTrue(e.getMessage().startsWith("type mismatch"));
+		}
+		assertFalse(testee.readBoolean("dev.bool"));
+	}
+	
+	private ReplayOpcApi replayAt(long millis)
+	{
+		return new ReplayOpcApi(historian, new ReplayClock(millis, 1.0));
+	}
+}
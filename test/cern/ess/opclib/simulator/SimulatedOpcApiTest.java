@@ -0,0 +1,130 @@
+package cern.ess.opclib.simulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.ess.opclib.OPCDataType;
+import cern.ess.opclib.OPCException;
+
+
+public class SimulatedOpcApiTest 
+{
+	private SimulatedOpcApi testee;
+	
+	@Before
+	public void setup()
+	{
+		testee = new SimulatedOpcApi(42);
+	}
+	
+	@Test
+	public void testGeneratedTagSpaceIsTypedAndBrowsable() throws OPCException
+	{
+		String[] names = testee.generateTagSpace(10, 12);
+		assertEquals(120, names.length);
+		assertEquals(120, testee.getItemNames().length);
+		assertTrue(Arrays.asList(testee.getItemNames()).contains("simGroup3.r4_9"));
+		assertEquals(OPCDataType.R4, testee.getDataType("simGroup3.r4_9"));
+		assertEquals(OPCDataType.BOOL, testee.getDataType("simGroup0.bool_0"));
+	}
+	
+	@Test
+	public void testReadOfWrongTypeFails() throws OPCException
+	{
+		testee.addItem("sim.bool", OPCDataType.BOOL, ValueGenerator.constant(1));
+		testee.addItem("sim.int", OPCDataType.I4, ValueGenerator.constant(7));
+		
+		assertTrue(testee.readBoolean("sim.bool"));
+		assertEquals(7.0f, testee.readFloat("sim.int"), 0.0001);
+		try
+		{
+			testee.readFloat("sim.bool");
+			fail("expected type mismatch");
+		}
+		catch(OPCException e)
+		{
+			assertTrue(e.getMessage().startsWith("type mismatch"));
+		}
+	}
+	
+	@Test
+	public void testWrittenValueOverridesGenerator() throws OPCException
+	{
+		testee.addItem("sim.ramp", OPCDataType.R8, ValueGenerator.ramp(0, 100, 1000000000L));
+		
+		testee.writeFloat("sim.ramp", "R8", 12.5f);
+		assertEquals(12.5f, testee.readFloat("sim.ramp"), 0.0001);
+		assertEquals(12.5f, testee.readFloat("sim.ramp"), 0.0001);
+	}
+	
+	@Test
+	public void testFixedLatencyIsApplied() throws OPCException
+	{
+		testee.addItem("sim.int", OPCDataType.I2, ValueGenerator.constant(1));
+		testee.setLatency(SimulatedCall.READ, LatencyModel.fixed(2000000L));
+		
+		long start = System.nanoTime();
+		for(int i=0; i<10; i++)
+		{
+			testee.readInt("sim.int");
+		}
+		assertTrue(System.nanoTime() - start >= 20000000L);
+	}
+	
+	@Test
+	public void testErrorInjection() throws OPCException
+	{
+		testee.addItem("sim.int", OPCDataType.I4, ValueGenerator.constant(1));
+		testee.setErrorProbability(0.5);
+		
+		int failures = 0;
+		for(int i=0; i<1000; i++)
+		{
+			try
+			{
+				testee.readInt("sim.int");
+			}
+			catch(OPCException e)
+			{
+				failures++;
+			}
+		}
+		assertEquals(failures, testee.getInjectedErrorCount());
+		assertTrue(failures > 400 && failures < 600);
+	}
+	
+	@Test
+	public void testServerUnavailable() throws OPCException
+	{
+		testee.setServerAvailable(false);
+		try
+		{
+			testee.init("", "server");
+			fail("expected exception");
+		}
+		catch(OPCException e)
+		{
+			assertTrue(e.getMessage().startsWith(SimulatedOpcApi.SERVER_UNAVAILABLE_MESSAGE));
+		}
+		
+		testee.setServerAvailable(true);
+		testee.init("", "server");
+		assertEquals(1, testee.getInitCount());
+	}
+	
+	@Test
+	public void testValuesChangeOnTheirOwn() throws Exception
+	{
+		testee.addItem("sim.ramp", OPCDataType.R8, ValueGenerator.ramp(0, 1000000, 1000000000L));
+		float first = testee.readFloat("sim.ramp");
+		Thread.sleep(5);
+		assertFalse(first == testee.readFloat("sim.ramp"));
+	}
+}